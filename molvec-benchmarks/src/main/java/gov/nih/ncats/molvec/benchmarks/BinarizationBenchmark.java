@@ -0,0 +1,81 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.image.Raster;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.binarization.AdaptiveThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.LeastPopulatedThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.RangeFractionThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.SauvolaThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.SigmaThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.WindowThreshold;
+
+/**
+ * {@link Bitmap#createBitmap(Raster, Binarization)} for each {@link Binarization}.
+ * One operation binarizes every image of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinarizationBenchmark {
+
+    @Param({"test"})
+    public String corpus;
+
+    @Param({"20"})
+    public int limit;
+
+    @Param({"default", "leastPopulated", "sigma", "adaptive", "sauvola", "rangeFraction", "window"})
+    public String binarization;
+
+    private List<Raster> rasters;
+    private Supplier<Binarization> factory;
+
+    @Setup
+    public void setup(){
+        rasters = Corpus.rasters(Corpus.images(corpus, limit));
+        factory = binarization(binarization);
+    }
+
+    static Supplier<Binarization> binarization(String name){
+        switch(name){
+            case "default": return ()->StructureImageExtractor.DEF_BINARIZATION;
+            case "leastPopulated": return ()->new LeastPopulatedThreshold(10);
+            case "sigma": return ()->new SigmaThreshold(1.2);
+            //AdaptiveThreshold keeps state between calls, so make a new one each time
+            case "adaptive": return AdaptiveThreshold::new;
+            case "sauvola": return SauvolaThreshold::new;
+            case "rangeFraction": return RangeFractionThreshold::new;
+            case "window": return WindowThreshold::new;
+            default: throw new IllegalArgumentException("unknown binarization " + name);
+        }
+    }
+
+    @Benchmark
+    public void createBitmap(Blackhole bh){
+        for(Raster r : rasters){
+            bh.consume(Bitmap.createBitmap(r, factory.get()));
+        }
+    }
+}
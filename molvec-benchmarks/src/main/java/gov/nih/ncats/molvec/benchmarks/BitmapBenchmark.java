@@ -0,0 +1,86 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+/**
+ * The per image {@link Bitmap} stages: thinning, connected components and segments.
+ * The bitmaps are the cleaned, binarized images the extractor would start from;
+ * each operation works on a fresh copy since {@link Bitmap} caches its shapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitmapBenchmark {
+
+    @Param({"test"})
+    public String corpus;
+
+    @Param({"20"})
+    public int limit;
+
+    private List<Bitmap> bitmaps;
+    private List<Bitmap> thinned;
+
+    @Setup
+    public void setup(){
+        bitmaps = Corpus.rasters(Corpus.images(corpus, limit))
+                        .stream()
+                        .map(r-> Bitmap.createBitmap(r, StructureImageExtractor.DEF_BINARIZATION).clean())
+                        .collect(Collectors.toList());
+        thinned = bitmaps.stream()
+                        .map(Bitmap::thin)
+                        .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void thin(Blackhole bh){
+        for(Bitmap bm : bitmaps){
+            bh.consume(bm.thin());
+        }
+    }
+
+    @Benchmark
+    public void connectedComponentsDoublePolygon(Blackhole bh){
+        for(Bitmap bm : bitmaps){
+            bh.consume(new Bitmap(bm).connectedComponents(Bitmap.Bbox.DoublePolygon));
+        }
+    }
+
+    @Benchmark
+    public void segments(Blackhole bh){
+        for(Bitmap bm : thinned){
+            bh.consume(new Bitmap(bm).segments());
+        }
+    }
+
+    /**
+     * The cost of the copy made by the other benchmarks, to subtract from them.
+     */
+    @Benchmark
+    public void copyBaseline(Blackhole bh){
+        for(Bitmap bm : bitmaps){
+            bh.consume(new Bitmap(bm));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+
+/**
+ * Resolves the benchmark corpus. The images are the ones already checked into the
+ * molvec repository:
+ * <ul>
+ *     <li>{@code test} - the images in the top level {@code test/} folder</li>
+ *     <li>{@code regression} - every set under {@code src/test/resources/regressionTest}</li>
+ *     <li>any other name - that single regression set, for example {@code testSet1} or {@code usan}</li>
+ * </ul>
+ * The repository root is taken from the {@code molvec.home} system property and defaults to
+ * the parent directory, which is correct when running from this module.
+ */
+public final class Corpus {
+
+    private static final List<String> EXTENSIONS = Arrays.asList("png", "jpg", "jpeg", "tif", "tiff", "gif");
+
+    private Corpus(){
+        //can not instantiate
+    }
+
+    public static File home(){
+        String prop = System.getProperty("molvec.home");
+        if(prop !=null){
+            return new File(prop);
+        }
+        if(new File("test").isDirectory() && new File("src/test/resources/regressionTest").isDirectory()){
+            return new File(".");
+        }
+        return new File("..");
+    }
+
+    /**
+     * List the image files of the given corpus.
+     * @param name the corpus name.
+     * @param limit the maximum number of images to return; 0 or less means all of them.
+     * @return the image files, sorted by path so runs are repeatable.
+     */
+    public static List<File> images(String name, int limit){
+        File home = home();
+        List<File> dirs = new ArrayList<>();
+        File regression = new File(home, "src/test/resources/regressionTest");
+        if("test".equals(name)){
+            dirs.add(new File(home, "test"));
+        }else if("regression".equals(name)){
+            File[] sets = regression.listFiles(File::isDirectory);
+            if(sets !=null){
+                dirs.addAll(Arrays.asList(sets));
+            }
+        }else{
+            dirs.add(new File(regression, name));
+        }
+        List<File> files = new ArrayList<>();
+        for(File dir : dirs){
+            File[] found = dir.listFiles(Corpus::isImage);
+            if(found !=null){
+                files.addAll(Arrays.asList(found));
+            }
+        }
+        if(files.isEmpty()){
+            throw new IllegalStateException("no images found for corpus '" + name + "' under " + home.getAbsolutePath()
+                    + "; set -Dmolvec.home to the molvec repository root");
+        }
+        Collections.sort(files);
+        if(limit >0 && files.size() > limit){
+            return new ArrayList<>(files.subList(0, limit));
+        }
+        return files;
+    }
+
+    /**
+     * Decode the given images into the grayscale rasters used by the binarizations.
+     */
+    public static List<Raster> rasters(List<File> files){
+        return files.stream()
+                    .map(f->{
+                        try {
+                            return ImageUtil.grayscale(f).getData();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+    }
+
+    /**
+     * Run the full extraction on each of the given images, skipping
+     * the ones which fail. This is used to build the inputs for the later stages.
+     */
+    public static List<StructureImageExtractor> extract(List<File> files){
+        List<StructureImageExtractor> list = new ArrayList<>();
+        for(File f : files){
+            try {
+                list.add(new StructureImageExtractor(f));
+            } catch (Exception e) {
+                System.err.println("skipping " + f + " : " + e.getMessage());
+            }
+        }
+        return list;
+    }
+
+    private static boolean isImage(File f){
+        String name = f.getName().toLowerCase(Locale.ENGLISH);
+        int index = name.lastIndexOf('.');
+        return f.isFile() && index >0 && EXTENSIONS.contains(name.substring(index+1));
+    }
+}
@@ -0,0 +1,86 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+import gov.nih.ncats.molvec.internal.util.GeomUtil;
+
+/**
+ * {@link GeomUtil#groupThings} over the connected components of each image,
+ * and {@link ConnectionTable#getRings()} over each final connection table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeomBenchmark {
+
+    @Param({"test"})
+    public String corpus;
+
+    @Param({"20"})
+    public int limit;
+
+    /**
+     * Shapes whose closest points are within this many pixels are grouped.
+     */
+    @Param({"5"})
+    public double groupDistance;
+
+    private List<List<Shape>> polygons;
+    private List<ConnectionTable> ctabs;
+
+    @Setup
+    public void setup(){
+        polygons = new ArrayList<>();
+        ctabs = new ArrayList<>();
+        for(StructureImageExtractor sie : Corpus.extract(Corpus.images(corpus, limit))){
+            polygons.add(sie.getPolygons());
+            ctabs.add(sie.getCtab());
+        }
+    }
+
+    @Benchmark
+    public void groupThings(Blackhole bh){
+        for(List<Shape> shapes : polygons){
+            bh.consume(GeomUtil.groupShapesIfClosestPointsMatchCriteria(shapes,
+                    t-> t.v()[0].distance(t.v()[1]) < groupDistance));
+        }
+    }
+
+    /**
+     * Rings are cached on the table, so each operation works on a clone.
+     */
+    @Benchmark
+    public void getRings(Blackhole bh){
+        for(ConnectionTable ct : ctabs){
+            bh.consume(ct.cloneTab().getRings());
+        }
+    }
+
+    @Benchmark
+    public void cloneBaseline(Blackhole bh){
+        for(ConnectionTable ct : ctabs){
+            bh.consume(ct.cloneTab());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.Molvec;
+import gov.nih.ncats.molvec.MolvecOptions;
+
+/**
+ * End to end {@link Molvec#ocr(File, MolvecOptions)}, one image at a time.
+ * This is the number that should track the "Time:" line of the regression reports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MolvecBenchmark {
+
+    @Param({"test"})
+    public String corpus;
+
+    @Param({"20"})
+    public int limit;
+
+    private List<File> files;
+    private MolvecOptions options;
+
+    @Setup
+    public void setup(){
+        files = Corpus.images(corpus, limit);
+        options = new MolvecOptions();
+    }
+
+    @Benchmark
+    public void ocr(Blackhole bh){
+        for(File f : files){
+            //errors are part of the workload, they are returned not thrown
+            try {
+                bh.consume(Molvec.ocr(f, options));
+            } catch (Exception e) {
+                bh.consume(e);
+            }
+        }
+    }
+}
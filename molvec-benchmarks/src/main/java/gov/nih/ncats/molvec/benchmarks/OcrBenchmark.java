@@ -0,0 +1,78 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR;
+import gov.nih.ncats.molvec.ui.SCOCR;
+import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSansSerif;
+
+/**
+ * {@link RasterBasedCosineSCOCR#getRanking(Bitmap)} over every shape
+ * the extractor tried to OCR in the corpus images.
+ * The crops are made inside the benchmark since a {@link Bitmap} caches
+ * its scaled versions; {@link #cropBaseline(Blackhole)} measures that part alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcrBenchmark {
+
+    @Param({"test"})
+    public String corpus;
+
+    @Param({"20"})
+    public int limit;
+
+    private RasterBasedCosineSCOCR ocr;
+    private List<Bitmap> sources;
+    private List<Shape> shapes;
+
+    @Setup
+    public void setup(){
+        ocr = new StupidestPossibleSCOCRSansSerif();
+        ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+        sources = new ArrayList<>();
+        shapes = new ArrayList<>();
+        for(StructureImageExtractor sie : Corpus.extract(Corpus.images(corpus, limit))){
+            for(Shape s : sie.getOcrAttmept().keySet()){
+                sources.add(sie.getBitmap());
+                shapes.add(s);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getRanking(Blackhole bh){
+        for(int i=0; i< shapes.size(); i++){
+            bh.consume(ocr.getRanking(sources.get(i).getLazyCrop(shapes.get(i))));
+        }
+    }
+
+    @Benchmark
+    public void cropBaseline(Blackhole bh){
+        for(int i=0; i< shapes.size(); i++){
+            bh.consume(sources.get(i).getLazyCrop(shapes.get(i)));
+        }
+    }
+}
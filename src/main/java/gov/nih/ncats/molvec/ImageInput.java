@@ -0,0 +1,445 @@
+package gov.nih.ncats.molvec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
+
+import gov.nih.ncats.molvec.internal.util.IOUtil;
+
+/**
+ * An image to be processed by the command line batch modes, either a file
+ * or an entry read out of an archive.  Each input has a name, which is
+ * its path relative to the directory, manifest or archive it came from
+ * and is used to name its output.
+ * <p>
+ * The static factory methods return lazy Streams, so processing can start
+ * while a directory is still being walked or an archive is still being read.
+ * The returned Streams should be closed when done.
+ */
+abstract class ImageInput {
+
+    private final String name;
+
+    private ImageInput(String name){
+        this.name = Objects.requireNonNull(name);
+    }
+
+    /**
+     * The path of this image relative to where it was found, using '/' as the separator.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The name of this image without any parent directories or file extension.
+     */
+    public String getBaseName(){
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        int index = fileName.lastIndexOf('.');
+        if(index >0){
+            return fileName.substring(0, index);
+        }
+        return fileName;
+    }
+
+    /**
+     * The file to write the mol output of this image to.
+     * @param outputDir the output directory, or null to put it next to the image.
+     * @return the mol file.
+     * @throws IllegalStateException if outputDir is null and this image isn't a file.
+     * @throws IllegalArgumentException if the name of this image would put the file outside of outputDir.
+     */
+    public abstract File getMolFile(File outputDir);
+
+    private static File molFile(File outputDir, String name){
+        Path dir = outputDir.toPath().toAbsolutePath().normalize();
+        Path out = dir.resolve(name + ".mol").normalize();
+        if(!out.startsWith(dir)){
+            throw new IllegalArgumentException("output of " + name + " would be outside of " + outputDir);
+        }
+        return new File(outputDir, name + ".mol");
+    }
+
+    /**
+     * Is the given archive entry name a relative path which stays
+     * inside whatever directory it is resolved against.
+     */
+    static boolean isSafeName(String name){
+        if(name.isEmpty() || name.startsWith("/") || name.startsWith("\\")){
+            return false;
+        }
+        Path p;
+        try{
+            p = Paths.get(name);
+        }catch(InvalidPathException e){
+            return false;
+        }
+        return !p.isAbsolute() && !p.normalize().startsWith("..");
+    }
+
+    private static boolean isSafeEntry(String name){
+        if(isSafeName(name)){
+            return true;
+        }
+        System.err.println("skipping archive entry outside of the archive: " + name);
+        return false;
+    }
+
+    public abstract MolvecResult ocr(MolvecOptions options) throws IOException;
+
+    public abstract CompletableFuture<MolvecResult> ocrAsync(MolvecEngine engine, MolvecOptions options);
+
+    public static ImageInput of(File file){
+        return of(file, file.getName());
+    }
+
+    public static ImageInput of(File file, String name){
+        Objects.requireNonNull(file);
+        return new ImageInput(name) {
+            @Override
+            public File getMolFile(File outputDir) {
+                if(outputDir ==null){
+                    return new File(file.getPath() + ".mol");
+                }
+                return molFile(outputDir, name);
+            }
+
+            @Override
+            public MolvecResult ocr(MolvecOptions options) throws IOException {
+                return Molvec.ocr(file, options);
+            }
+
+            @Override
+            public CompletableFuture<MolvecResult> ocrAsync(MolvecEngine engine, MolvecOptions options) {
+                return engine.ocrAsync(file, options);
+            }
+        };
+    }
+
+    public static ImageInput of(String name, byte[] data){
+        Objects.requireNonNull(data);
+        return new ImageInput(name) {
+            @Override
+            public File getMolFile(File outputDir) {
+                if(outputDir ==null){
+                    throw new IllegalStateException("an output directory is required for " + name);
+                }
+                return molFile(outputDir, name);
+            }
+
+            @Override
+            public MolvecResult ocr(MolvecOptions options) throws IOException {
+                return Molvec.ocr(data, options);
+            }
+
+            @Override
+            public CompletableFuture<MolvecResult> ocrAsync(MolvecEngine engine, MolvecOptions options) {
+                return engine.ocrAsync(data, options);
+            }
+        };
+    }
+
+    /**
+     * Does the given file name have the extension of a supported image format.
+     */
+    public static boolean isImageFile(String name){
+        int extOffset = name.lastIndexOf('.');
+        if(extOffset <0){
+            return false;
+        }
+        String ext = name.substring(extOffset+1);
+        return ("png".equalsIgnoreCase(ext)
+                || "jpg".equalsIgnoreCase(ext)
+                || "jpeg".equalsIgnoreCase(ext)
+                || "tiff".equalsIgnoreCase(ext)
+                || "tif".equalsIgnoreCase(ext)
+                || "gif".equalsIgnoreCase(ext));
+    }
+
+    /**
+     * Find the image files in the given directory.
+     * @param dir the directory to look in.
+     * @param recursive if true, also look in all subdirectories.
+     * @return a lazy Stream of the image files found, in the order they are found.
+     * @throws IOException if the directory can not be read.
+     */
+    public static Stream<ImageInput> walk(Path dir, boolean recursive) throws IOException{
+        return Files.walk(dir, recursive? Integer.MAX_VALUE : 1)
+                    .filter(p -> isImageFile(p.getFileName().toString()) && Files.isRegularFile(p))
+                    .map(p -> of(p.toFile(), dir.relativize(p).toString().replace(File.separatorChar, '/')));
+    }
+
+    /**
+     * Is the given file an archive supported by {@link #manifest(Path)}.
+     */
+    public static boolean isArchive(Path path){
+        String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * Read the images listed in the given manifest.  The manifest can either be
+     * a zip or tar (optionally gzipped) archive, in which case the image entries
+     * are read in place without unpacking the archive, or a text file listing
+     * one image path per line. Relative paths in a text manifest are resolved
+     * against the directory of the manifest; blank lines and lines starting
+     * with '#' are ignored.
+     *
+     * @param manifest the manifest to read.
+     * @return a lazy Stream of the images.
+     * @throws IOException if the manifest can not be opened.
+     */
+    public static Stream<ImageInput> manifest(Path manifest) throws IOException{
+        String name = manifest.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        if(name.endsWith(".zip")){
+            return zip(manifest);
+        }
+        if(name.endsWith(".tar")){
+            return tar(Files.newInputStream(manifest));
+        }
+        if(name.endsWith(".tar.gz") || name.endsWith(".tgz")){
+            return tar(new GZIPInputStream(Files.newInputStream(manifest)));
+        }
+        Path base = manifest.toAbsolutePath().normalize().getParent();
+        return Files.lines(manifest)
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .map(line -> {
+                        Path p = base.resolve(line).normalize();
+                        //images outside of the manifest's directory are just named by their file name
+                        String relative = p.startsWith(base)? base.relativize(p).toString() : p.getFileName().toString();
+                        return of(p.toFile(), relative.replace(File.separatorChar, '/'));
+                    });
+    }
+
+    private static Stream<ImageInput> zip(Path path) throws IOException{
+        ZipFile zip = new ZipFile(path.toFile());
+        return zip.stream()
+                    .filter(e -> !e.isDirectory() && isImageFile(e.getName()) && isSafeEntry(e.getName()))
+                    .map(e -> {
+                        try(InputStream in = zip.getInputStream(e)){
+                            return of(e.getName(), IOUtil.readFully(in, e.getSize()));
+                        }catch(IOException ex){
+                            throw new UncheckedIOException(ex);
+                        }
+                    })
+                    .onClose(()->{
+                        try {
+                            zip.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+    }
+
+    private static Stream<ImageInput> tar(InputStream in){
+        TarIterator iter = new TarIterator(in);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(()->{
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+    }
+
+    /**
+     * Reads the image entries of a tar stream one at a time.
+     * Only the parts of the format needed to find regular files
+     * and their names are supported: ustar prefixes, GNU long names
+     * and pax path records.
+     */
+    private static final class TarIterator implements Iterator<ImageInput>{
+        private static final int BLOCK = 512;
+
+        private final DataInputStream in;
+        private final byte[] header = new byte[BLOCK];
+        private ImageInput next;
+        private boolean done;
+
+        TarIterator(InputStream in){
+            this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next ==null && !done){
+                try {
+                    next = readNext();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                done = next ==null;
+            }
+            return next !=null;
+        }
+
+        @Override
+        public ImageInput next() {
+            if(!hasNext()){
+                throw new NoSuchElementException();
+            }
+            ImageInput ret = next;
+            next = null;
+            return ret;
+        }
+
+        private ImageInput readNext() throws IOException{
+            String longName = null;
+            while(true){
+                try {
+                    in.readFully(header);
+                }catch(EOFException e){
+                    return null;
+                }
+                if(isEmpty(header)){
+                    //end of archive marker
+                    return null;
+                }
+                long size = parseSize(header);
+                char type = (char) header[156];
+                String name;
+                if(longName !=null){
+                    name = longName;
+                    longName = null;
+                }else {
+                    name = string(header, 0, 100);
+                    if ("ustar".equals(string(header, 257, 5))) {
+                        String prefix = string(header, 345, 155);
+                        if (!prefix.isEmpty()) {
+                            name = prefix + "/" + name;
+                        }
+                    }
+                }
+                if(type == 'L'){
+                    longName = string(read(size), 0, (int) size);
+                    continue;
+                }
+                if(type == 'x'){
+                    longName = paxPath(read(size));
+                    continue;
+                }
+                if((type == '0' || type == 0) && isImageFile(name) && isSafeEntry(name)){
+                    return of(name, read(size));
+                }
+                skip(padded(size));
+            }
+        }
+
+        private byte[] read(long size) throws IOException{
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("tar entry too large: " + size);
+            }
+            byte[] data = new byte[(int) size];
+            in.readFully(data);
+            skip(padded(size) - size);
+            return data;
+        }
+
+        private void skip(long n) throws IOException{
+            while(n >0){
+                long skipped = in.skip(n);
+                if(skipped <=0){
+                    if(in.read() <0){
+                        throw new EOFException("truncated tar");
+                    }
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        private static long padded(long size){
+            return (size + BLOCK - 1) / BLOCK * BLOCK;
+        }
+
+        private static boolean isEmpty(byte[] block){
+            for(byte b : block){
+                if(b !=0){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long parseSize(byte[] header){
+            if((header[124] & 0x80) !=0){
+                //base-256 encoding used for large entries
+                long size = header[124] & 0x7F;
+                for(int i=125; i< 136; i++){
+                    size = (size << 8) | (header[i] & 0xFF);
+                }
+                return size;
+            }
+            long size = 0;
+            for(int i=124; i< 136; i++){
+                byte b = header[i];
+                if(b >= '0' && b <= '7'){
+                    size = (size << 3) + (b - '0');
+                }else if(size >0 || (b !=' ' && b !=0)){
+                    break;
+                }
+            }
+            return size;
+        }
+
+        private static String string(byte[] data, int offset, int length){
+            int end = offset;
+            while(end < offset + length && data[end] !=0){
+                end++;
+            }
+            return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Find the path in pax extended header records, which look like "LEN key=value\n".
+         */
+        private static String paxPath(byte[] data){
+            String path = null;
+            int i = 0;
+            while(i < data.length){
+                int space = i;
+                while(space < data.length && data[space] !=' '){
+                    space++;
+                }
+                int len;
+                try {
+                    len = Integer.parseInt(new String(data, i, space - i, StandardCharsets.UTF_8));
+                }catch(NumberFormatException e){
+                    break;
+                }
+                if(len <=0 || i + len > data.length){
+                    break;
+                }
+                String record = new String(data, space + 1, i + len - space - 2, StandardCharsets.UTF_8);
+                if(record.startsWith("path=")){
+                    path = record.substring(5);
+                }
+                i += len;
+            }
+            return path;
+        }
+    }
+}
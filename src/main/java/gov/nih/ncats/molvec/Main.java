@@ -3,14 +3,13 @@ package gov.nih.ncats.molvec;
 import gov.nih.ncats.common.cli.Cli;
 import gov.nih.ncats.common.cli.CliSpecification;
 import gov.nih.ncats.common.cli.CliValidationException;
-import gov.nih.ncats.common.functions.ThrowableConsumer;
 import gov.nih.ncats.molvec.ui.Viewer;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.concurrent.*;
+import java.util.stream.Stream;
 
 import static gov.nih.ncats.common.cli.CliSpecification.*;
 /**
@@ -21,7 +20,7 @@ public class Main {
     private static class DirectoryProcessor{
         private int numThreads =1;
 
-        private File dir, outputDir, sdfOut;
+        private File dir, manifest, outputDir, sdfOut;
 
         public int getNumThreads() {
             return numThreads;
@@ -57,6 +56,39 @@ public class Main {
             this.dir = dir;
         }
 
+        public File getManifest() {
+            return manifest;
+        }
+
+        public void setManifest(File manifest) throws IOException{
+            if(!manifest.exists()){
+                throw new FileNotFoundException("manifest '" + manifest.getAbsolutePath() + "' does not exist");
+            }
+            this.manifest = manifest;
+        }
+
+        /**
+         * Where to write mol files if no output directory is given.
+         * @return the directory containing the archive if reading from an archive,
+         * otherwise null meaning next to each image.
+         */
+        public File getDefaultOutputDir(){
+            if(manifest !=null && ImageInput.isArchive(manifest.toPath())){
+                return manifest.getAbsoluteFile().getParentFile();
+            }
+            return null;
+        }
+
+        /**
+         * Lazily find the images to process from either the directory or the manifest.
+         */
+        public Stream<ImageInput> inputs(boolean recursive) throws IOException{
+            if(dir !=null){
+                return ImageInput.walk(dir.toPath(), recursive);
+            }
+            return ImageInput.manifest(manifest.toPath());
+        }
+
         public File getOutputDir() {
             return outputDir;
         }
@@ -88,14 +120,26 @@ public class Main {
 
                         ),
                         group(
+                        radio(
                         option("dir")
                                 .argName("path")
                                 .description("path to a directory of image files to process. Supported formats include png, jpeg, tiff and svg. " +
                                         "Each image file found will be attempted to be processed. If -out or -outDir is not specified then " +
                                         "each processed mol will be put in the same directory and named $filename.mol" +
-                                        "This option or -f is required if not using -gui")
-                                .setToFile(directoryProcessor::setDir)
-                                .setRequired(true),
+                                        "This option, -manifest or -f is required if not using -gui")
+                                .setToFile(directoryProcessor::setDir),
+                                option("manifest")
+                                        .argName("path")
+                                        .description("path to a manifest of image files to process instead of a directory. The manifest is either " +
+                                                "a text file with one image path per line, relative paths are relative to the manifest, " +
+                                                "or a .zip, .tar, .tar.gz or .tgz archive whose image entries are read without unpacking it. " +
+                                                "If -outDir or -outSdf is not specified, mol files for archive entries are put in the directory of the archive")
+                                        .setToFile(directoryProcessor::setManifest)
+                                ).setRequired(true),
+                                option("recursive")
+                                        .isFlag(true)
+                                        .description("Also process the image files in all the subdirectories of -dir. Files are processed as " +
+                                                "they are found, and mol files are put in matching subdirectories of -outDir"),
                             radio(option("outDir")
                                             .argName("path")
                                             .setToFile(directoryProcessor::setOutputDir)
@@ -108,7 +152,11 @@ public class Main {
                                 option("parallel")
                                         .argName("count")
                                         .setToInt(directoryProcessor::setNumThreads)
-                                        .description("Number of images to process simultaneously, if not specified defaults to 1")
+                                        .description("Number of images to process simultaneously, if not specified defaults to 1"),
+                                option("ordered")
+                                        .isFlag(true)
+                                        .description("When writing an sdf file in parallel, write the records in the same order as the input files " +
+                                                "instead of as they finish. Only valid with -outSdf")
 
 
 
@@ -123,8 +171,8 @@ public class Main {
                 )
         .programName("molvec")
         .description("Image to Chemical Structure Extractor Analyzes the given image and tries to find the chemical structure drawn and convert it into a Mol format.")
-        .addValidation(cli->cli.hasOption("gui") || cli.hasOption("f") || cli.hasOption("dir"),
-                "-f or -dir option is required if not using -gui mode")
+        .addValidation(cli->cli.hasOption("gui") || cli.hasOption("f") || cli.hasOption("dir") || cli.hasOption("manifest"),
+                "-f, -dir or -manifest option is required if not using -gui mode")
 
         .example("-f /path/to/image.file", "parse the given image file and print out the structure mol to STDOUT")
         .example("-dir /path/to/directory", "serially parse all the image files inside the given directory and write out " +
@@ -136,9 +184,21 @@ public class Main {
         .example("-dir /path/to/directory -outSdf /path/to/output.sdf -parallel 4", "parse in 4 concurrent parallel thread all the image files inside the given directory and write out " +
                 "a new sdf file to the given path that contains all the structures from the input image directory ")
 
+        .example("-dir /path/to/directory -outSdf /path/to/output.sdf -parallel 4 -ordered", "same as above but the records in the sdf file " +
+                "are written in the same order as the image files in the directory")
+
         .example("-dir /path/to/directory -parallel 4", "parse in 4 concurrent parallel threads all the image files inside the given directory and write out " +
                 "a new mol file for each image named $image.file.mol the new files will be put in the directory specified by outDir")
 
+        .example("-dir /path/to/directory -recursive -outSdf /path/to/output.sdf -parallel 4", "parse all the image files inside the given directory " +
+                "and all of its subdirectories, starting as soon as the first image is found, and write them to a single sdf file")
+
+        .example("-manifest /path/to/images.zip -outSdf /path/to/output.sdf -parallel 4", "parse all the image files inside the given zip archive " +
+                "without unpacking it and write them to a single sdf file")
+
+        .example("-manifest /path/to/images.txt -outDir /path/to/outputDir", "parse all the image files listed one per line in the given text file " +
+                "and write out a new mol file for each image in the directory specified by outDir")
+
         .example("-gui", "open the Molvec Graphical User interface without any image preloaded")
         .example("-gui -f /path/to/image.file", "open the Molvec Graphical User interface  with the given image file preloaded")
 
@@ -185,145 +245,91 @@ public class Main {
                 }else{
                     System.out.println(mol);
                 }
-            }else if(cli.hasOption("dir")){
-                File dir = directoryProcessor.getDir();
-
+            }else if(cli.hasOption("dir") || cli.hasOption("manifest")){
                 File outputDir = directoryProcessor.getOutputDir();
                 if(outputDir ==null){
-                    outputDir = dir;
+                    //default to next to each image file, or next to the archive
+                    outputDir = directoryProcessor.getDefaultOutputDir();
                 }
-                File files[] =dir.listFiles( f->{
-                    String name = f.getName();
-                    int extOffset = name.lastIndexOf('.');
-                    if(extOffset <0){
-                        return false;
+                try(Stream<ImageInput> inputs = directoryProcessor.inputs(cli.hasOption("recursive"))) {
+                    Iterator<ImageInput> iter = inputs.iterator();
+                    if (!iter.hasNext()) {
+                        System.out.println("No image files found");
+                        return;
                     }
-                    String ext = name.substring(extOffset+1);
-                    return ("png".equalsIgnoreCase(ext)
-                            || "jpg".equalsIgnoreCase(ext)
-                            || "jpeg".equalsIgnoreCase(ext)
-                            || "tiff".equalsIgnoreCase(ext)
-                            || "tif".equalsIgnoreCase(ext)
-                            || "gif".equalsIgnoreCase(ext));
-                });
-                if(files ==null || files.length ==0){
-                    System.out.println("No image files found");
-                    return;
-                }
 
-                int numThreads = directoryProcessor.getNumThreads();
-                if(numThreads ==1){
-                    //run in serial
-                    if(cli.hasOption("outSdf")){
-                        //write out as single sdf file
-                        try (PrintWriter writer = new PrintWriter(directoryProcessor.getSdfOut())) {
-                            for (File f : files) {
+                    int numThreads = directoryProcessor.getNumThreads();
+                    if (numThreads == 1) {
+                        //run in serial
+                        if (cli.hasOption("outSdf")) {
+                            //write out as single sdf file
+                            try (PrintWriter writer = new PrintWriter(directoryProcessor.getSdfOut())) {
+                                while (iter.hasNext()) {
+                                    ImageInput input = iter.next();
+                                    try {
+                                        MolvecResult mol = input.ocr(new MolvecOptions().setName(input.getBaseName()));
+                                        writer.println(checkResult(mol).getSDfile().get());
+                                    } catch (Throwable t) {
+                                        System.err.println("error processing file " + input.getName());
+                                        t.printStackTrace();
+                                    }
+                                }
+                            }
+                        } else {
+                            while (iter.hasNext()) {
+                                ImageInput input = iter.next();
                                 try {
-                                    String name = getBaseNameFor(f.getName());
-                                    MolvecResult mol = Molvec.ocr(f, new MolvecOptions().setName(name));
-                                    writer.println(mol.getSDfile().get());
+                                    MolvecResult mol = input.ocr(new MolvecOptions().setName(input.getBaseName()));
+                                    writeMol(input.getMolFile(outputDir), mol);
                                 } catch (Throwable t) {
-                                    System.err.println("error processing file " + f.getName());
+                                    System.err.println("error processing file " + input.getName());
                                     t.printStackTrace();
                                 }
                             }
                         }
-                    }else {
-                        for (File f : files) {
-                            try {
-                                String name = getBaseNameFor(f.getName());
-                                MolvecResult mol = Molvec.ocr(f, new MolvecOptions().setName(name));
-                                File out = new File(outputDir, f.getName() + ".mol");
-                                try (PrintWriter writer = new PrintWriter(out)) {
-
-                                    writer.println(mol.getMolfile().get());
+                    } else {
+                        try (MolvecEngine engine = MolvecEngine.builder()
+                                                            .workers(numThreads)
+                                                            .sharedModels()
+                                                            .build()) {
+                            if (cli.hasOption("outSdf")) {
+                                //write everything to one sdf file, streaming the records
+                                //as they finish so memory doesn't grow with the number of files.
+                                SdfPipeline pipeline = new SdfPipeline(engine, directoryProcessor.getSdfOut().toPath(), numThreads)
+                                                                .preserveOrder(cli.hasOption("ordered"))
+                                                                .progress(System.out, 10, TimeUnit.SECONDS);
+                                pipeline.run(iter);
+                            } else {
+                                //only keep a few images per thread in flight so
+                                //we don't have to hold the whole listing in memory
+                                int maxInFlight = numThreads * 4;
+                                Semaphore permits = new Semaphore(maxInFlight);
+                                //we have to do this to make the compiler happy to use this inside a lambda
+                                //since outputDir can be set a few different ways.
+                                final File effectivelyFinalOutputDir = outputDir;
+                                while (iter.hasNext()) {
+                                    permits.acquire();
+                                    ImageInput input = iter.next();
+                                    input.ocrAsync(engine, new MolvecOptions().setName(input.getBaseName()))
+                                            .whenComplete((mol, t) -> {
+                                                try {
+                                                    if (t != null) {
+                                                        throw t;
+                                                    }
+                                                    writeMol(input.getMolFile(effectivelyFinalOutputDir), mol);
+                                                } catch (Throwable e) {
+                                                    System.err.println("error processing file " + input.getName());
+                                                    e.printStackTrace();
+                                                } finally {
+                                                    permits.release();
+                                                }
+                                            });
                                 }
-                            } catch (Throwable t) {
-                                System.err.println("error processing file " + f.getName());
-                                t.printStackTrace();
+                                //wait for the last ones to finish
+                                permits.acquire(maxInFlight);
                             }
                         }
                     }
-                }else {
-                    ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
-
-                    CountDownLatch latch = new CountDownLatch(files.length);
-
-                    if(cli.hasOption("outSdf")){
-                        //write everything to one sdf file.
-                        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(16);
-                        String POISON_PILL = "END_OF_WRITING";
-
-                        executorService.submit(()-> {
-                            try (PrintWriter sdfWriter = new PrintWriter(directoryProcessor.getSdfOut())) {
-                                StringBuilder buffer = new StringBuilder(100_000);
-                                int currentCount=0;
-                                while (true) {
-                                    String nextRecord = blockingQueue.take();
-                                    if (nextRecord == POISON_PILL) {
-                                        break;
-                                    }
-                                    buffer.append(nextRecord);
-                                    currentCount++;
-                                    if(currentCount==100){
-                                        sdfWriter.print(buffer.toString());
-                                        currentCount=0;
-                                        buffer.setLength(0);
-                                    }
-                                }
-                                if(buffer.length() >0){
-                                    //write any remaining records
-                                    sdfWriter.print(buffer.toString());
-
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
-
-
-                            for (File f : files) {
-                                String lineSep = System.lineSeparator();
-                                executorService.submit(new MolVecRunnable(f, latch,
-                                        mol -> {
-                                    System.out.println(".." + f.getName());
-                                            try {
-                                                Map<String, String> props = new HashMap<>();
-                                                props.put("Molecule Name", getBaseNameFor(f.getName()));
-                                                props.put("File Name", f.getName());
-                                                blockingQueue.put(mol.getSDfile(props).get() + lineSep);
-                                            } catch (InterruptedException e) {
-                                                e.printStackTrace();
-                                            }
-                                        }
-
-
-                                ));
-                            }
-
-                            latch.await();
-                            //when we get here we've written out all of our records
-                        blockingQueue.put(POISON_PILL);
-                        executorService.shutdown();
-
-                    }else {
-                        //we have to do this to make the compiler happy to use this inside a lambda
-                        //since outputDir can be set a few different ways.
-                        final File effectivelyFinalOutputDir = outputDir;
-                        for (File f : files) {
-                            executorService.submit(new MolVecRunnable(f, latch,
-                                    mol -> {
-                                        File out = new File(effectivelyFinalOutputDir, f.getName() + ".mol");
-                                        try (PrintWriter writer = new PrintWriter(out)) {
-                                            writer.println(mol.getMolfile().get());
-                                        }
-                                    }
-                            ));
-                        }
-                        executorService.shutdown();
-                        latch.await();
-                    }
-
                 }
             }else{
                 //invalid
@@ -337,38 +343,26 @@ public class Main {
 
     }
 
-    private static class MolVecRunnable implements Callable<Void>{
-        File f;
-        CountDownLatch latch;
-        ThrowableConsumer<MolvecResult, IOException> molConsumer;
-        MolVecRunnable(File f, CountDownLatch latch, ThrowableConsumer<MolvecResult, IOException> molConsumer){
-            this.f =f;
-            this.latch = latch;
-            this.molConsumer = molConsumer;
+    /**
+     * Fail with the error of the given result, if it has one, instead of
+     * an empty mol.
+     */
+    private static MolvecResult checkResult(MolvecResult mol) throws IOException{
+        if(mol.hasError()){
+            Throwable t = mol.getError().orElse(null);
+            throw new IOException("could not process image: " + (t ==null? "unknown error" : t), t);
         }
+        return mol;
+    }
 
-        @Override
-        public Void call() throws Exception{
-            try {
-//                System.out.println(" .."+f.getName());
-                String name = getBaseNameFor(f.getName());
-                MolvecResult mol = Molvec.ocr(f, new MolvecOptions().setName(name));
-                molConsumer.accept(mol);
-
-                return null;
-            }finally{
-                //wait until the end to decrement latch
-                latch.countDown();
-            }
+    private static void writeMol(File out, MolvecResult mol) throws IOException{
+        checkResult(mol);
+        File parent = out.getParentFile();
+        if(parent !=null){
+            Files.createDirectories(parent.toPath());
         }
-
-
-    }
-    private static String getBaseNameFor(String fileName){
-        int index = fileName.lastIndexOf('.');
-        if(index >0){
-            return fileName.substring(0, index);
+        try (PrintWriter writer = new PrintWriter(out)) {
+            writer.println(mol.getMolfile().get());
         }
-        return fileName;
     }
 }
@@ -3,11 +3,15 @@ package gov.nih.ncats.molvec;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.util.IOUtil;
 
 /**
  *
@@ -15,6 +19,12 @@ import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
 public final class Molvec {
 
 	private static MolvecOptions DEFAULT_OPTIONS = new MolvecOptions();
+
+	/**
+	 * The image {@link #warmUp()} analyzes, and how many times.
+	 */
+	private static final String WARM_UP_IMAGE = "warmUp.png";
+	private static final int WARM_UP_ROUNDS = 5;
 	/**
 	 * Analyze the given image and try to recognize a molecular structure.
 	 * @param image the image to analyze, can not be null.
@@ -42,11 +52,9 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(File image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
-		if(options ==null) {
-			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
-		}
-		return options.computeResult(sie.getCtab());
+		MolvecOptions opts = options ==null? DEFAULT_OPTIONS : options;
+		StructureImageExtractor sie = new StructureImageExtractor(image, opts.createSettings());
+		return opts.computeResult(sie);
 
 	}
 
@@ -82,11 +90,9 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(byte[] image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
-		if(options ==null) {
-			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
-		}
-		return options.computeResult(sie.getCtab());
+		MolvecOptions opts = options ==null? DEFAULT_OPTIONS : options;
+		StructureImageExtractor sie = new StructureImageExtractor(image, opts.createSettings());
+		return opts.computeResult(sie);
 
 	}
 	/**
@@ -116,13 +122,45 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(BufferedImage image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = StructureImageExtractor.createFromImage(image);
-		if(options ==null) {
-			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
-		}
-		return options.computeResult(sie.getCtab());
+		MolvecOptions opts = options ==null? DEFAULT_OPTIONS : options;
+		StructureImageExtractor sie = StructureImageExtractor.createFromImage(image, opts.createSettings());
+		return opts.computeResult(sie);
 
 	}
+	/**
+	 * Analyze a batch of images, sharing the OCR models and worker threads
+	 * across the whole batch. Each element must be a {@link java.nio.file.Path},
+	 * {@link File}, {@code byte[]} or {@link BufferedImage}.
+	 * The images are processed by a temporary {@link MolvecEngine} which is
+	 * shut down once the returned stream is exhausted or closed.
+	 * To run several batches, or to control the number of threads,
+	 * use {@link MolvecEngine#ocrBatch(Iterable, MolvecOptions, boolean)} directly.
+	 *
+	 * @param images the images to analyze, can not be null.
+	 * @param options the {@link MolvecOptions} to use; if options is null, then the default options are used.
+	 * @param preserveOrder if {@code true}, results are returned in input order; otherwise as they complete.
+	 * @return a Stream of {@link MolvecResult}s; errors for individual images are reported in their result.
+	 * @throws NullPointerException if images is null.
+	 *
+	 * @since 0.9.9
+	 */
+	public static Stream<MolvecResult> ocrBatch(Iterable<?> images, MolvecOptions options, boolean preserveOrder){
+		Objects.requireNonNull(images, "images can not be null");
+		MolvecEngine engine = MolvecEngine.builder()
+									.options(options ==null? DEFAULT_OPTIONS : options)
+									.sharedModels()
+									.build();
+		return engine.ocrBatch(images, null, preserveOrder, engine::close)
+					.onClose(engine::close);
+	}
+	/**
+	 * Analyze a batch of images, returning the results in input order.
+	 * @see #ocrBatch(Iterable, MolvecOptions, boolean)
+	 * @since 0.9.9
+	 */
+	public static Stream<MolvecResult> ocrBatch(Iterable<?> images, MolvecOptions options){
+		return ocrBatch(images, options, true);
+	}
 	public static CompletableFuture<String> ocrAsync(byte[] image){
 		return CompletableFuture.supplyAsync(() -> {
 			try{
@@ -216,6 +254,35 @@ public final class Molvec {
 		},executor);
 	}
 
-	
+	/**
+	 * Load the default OCR models and analyze a small bundled image a few times,
+	 * so that loading the models and compiling the code which runs for every image
+	 * happen now, rather than while serving the first requests.
+	 * Services can call this before taking traffic. It only takes a few seconds,
+	 * and calling it again just repeats the analysis.
+	 *
+	 * @throws java.io.UncheckedIOException if the bundled image can't be read.
+	 *
+	 * @since 0.9.9
+	 */
+	public static void warmUp(){
+		StructureImageExtractor.getDefaultOCR();
+		byte[] image;
+		try(InputStream in = Molvec.class.getResourceAsStream(WARM_UP_IMAGE)){
+			if(in == null){
+				throw new IOException(WARM_UP_IMAGE + " not found");
+			}
+			image = IOUtil.readFully(in, 0);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		for(int i=0; i< WARM_UP_ROUNDS; i++){
+			try{
+				ocr(image, DEFAULT_OPTIONS);
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
 
 }
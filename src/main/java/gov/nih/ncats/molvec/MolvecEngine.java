@@ -0,0 +1,511 @@
+package gov.nih.ncats.molvec;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.ui.GlyphScoreCache;
+import gov.nih.ncats.molvec.ui.SCOCR;
+
+/**
+ * A reusable, thread-safe molvec instance. Unlike the static methods
+ * in {@link Molvec}, an engine owns its own resources:
+ * <ul>
+ *     <li>a bounded pool of worker threads used by the {@code ocrAsync} methods</li>
+ *     <li>a separate {@link ForkJoinPool} used for the parallel work inside a single
+ *     image, so that engines don't compete for the JVM wide common pool</li>
+ *     <li>OCR models which are loaded once when the engine is built</li>
+ *     <li>the default {@link MolvecOptions} for calls that don't provide their own</li>
+ * </ul>
+ *
+ * Engines are meant to be built once and shared; they should be closed when no longer
+ * needed, which shuts down the owned thread pools.
+ *
+ * <pre>
+ * try(MolvecEngine engine = MolvecEngine.builder().workers(4).build()){
+ *     MolvecResult result = engine.ocr(file);
+ * }
+ * </pre>
+ *
+ * @since 0.9.9
+ */
+public final class MolvecEngine implements AutoCloseable {
+
+	private static final AtomicInteger ENGINE_COUNT = new AtomicInteger();
+
+	private final ExecutorService workers;
+	private final ForkJoinPool innerPool;
+	private final SCOCR ocr;
+	private final MolvecOptions defaultOptions;
+	private final int maxInFlight;
+
+	private volatile boolean closed = false;
+
+	private MolvecEngine(Builder builder){
+		int id = ENGINE_COUNT.incrementAndGet();
+		this.maxInFlight = builder.workers * 2;
+		this.defaultOptions = builder.options ==null? new MolvecOptions() : builder.options;
+		//a cache is only ever given to the engine's own copy of the models
+		this.ocr = builder.sharedModels && builder.ocrCache ==null? StructureImageExtractor.getDefaultOCR() : StructureImageExtractor.createDefaultOCR();
+		if(builder.ocrCache !=null){
+			this.ocr.setCache(builder.ocrCache);
+		}
+		this.workers = Executors.newFixedThreadPool(builder.workers, daemonFactory("molvec-" + id + "-worker-"));
+		this.innerPool = new ForkJoinPool(builder.innerParallelism, innerFactory("molvec-" + id + "-inner-"), null, false);
+	}
+
+	public static Builder builder(){
+		return new Builder();
+	}
+
+	/**
+	 * Analyze the given image and compute a {@link MolvecResult} using the default options
+	 * of this engine.
+	 * @param image the image to analyze, can not be null.
+	 * @return a {@link MolvecResult}.
+	 * @throws IOException if there are any problems parsing the image.
+	 * @throws NullPointerException if image is null.
+	 * @throws IllegalStateException if this engine has been closed.
+	 */
+	public MolvecResult ocr(File image) throws IOException{
+		return ocr(image, null);
+	}
+	/**
+	 * Analyze the given image and compute a {@link MolvecResult} using the given {@link MolvecOptions}.
+	 * @param image the image to analyze, can not be null.
+	 * @param options the {@link MolvecOptions} to use; if null, the default options of this engine are used.
+	 * @return a {@link MolvecResult}.
+	 * @throws IOException if there are any problems parsing the image.
+	 * @throws NullPointerException if image is null.
+	 * @throws IllegalStateException if this engine has been closed.
+	 */
+	public MolvecResult ocr(File image, MolvecOptions options) throws IOException{
+		checkNotNull(image);
+		return run(settings-> new StructureImageExtractor(image, settings), options);
+	}
+
+	public MolvecResult ocr(byte[] image) throws IOException{
+		return ocr(image, null);
+	}
+
+	public MolvecResult ocr(byte[] image, MolvecOptions options) throws IOException{
+		checkNotNull(image);
+		return run(settings-> new StructureImageExtractor(image, settings), options);
+	}
+
+	public MolvecResult ocr(BufferedImage image) throws IOException{
+		return ocr(image, null);
+	}
+
+	public MolvecResult ocr(BufferedImage image, MolvecOptions options) throws IOException{
+		checkNotNull(image);
+		return run(settings-> StructureImageExtractor.createFromImage(image, settings), options);
+	}
+
+	public MolvecResult ocr(Path image) throws IOException{
+		return ocr(image, null);
+	}
+
+	public MolvecResult ocr(Path image, MolvecOptions options) throws IOException{
+		checkNotNull(image);
+		return ocr(image.toFile(), options);
+	}
+
+	/**
+	 * Analyze all the given images, sharing this engine's OCR models and threads
+	 * across the whole batch. Each element of {@code images} must be a
+	 * {@link Path}, {@link File}, {@code byte[]} or {@link BufferedImage};
+	 * elements are only read as the returned stream is consumed, and at most
+	 * twice the number of workers images are in flight at any time.
+	 * Errors, including unsupported element types, are reported
+	 * in the corresponding {@link MolvecResult}.
+	 *
+	 * @param images the images to analyze, can not be null.
+	 * @param options the {@link MolvecOptions} to use; if null, the default options of this engine are used.
+	 * @param preserveOrder if {@code true}, the results are returned in the same order as the input;
+	 *                      otherwise they are returned as they complete.
+	 * @return a sequential Stream of results.
+	 * @throws IllegalStateException if this engine has been closed.
+	 */
+	public Stream<MolvecResult> ocrBatch(Iterable<?> images, MolvecOptions options, boolean preserveOrder){
+		Objects.requireNonNull(images, "images can not be null");
+		checkOpen();
+		return ocrBatch(images, options, preserveOrder, null);
+	}
+
+	Stream<MolvecResult> ocrBatch(Iterable<?> images, MolvecOptions options, boolean preserveOrder, Runnable onExhausted){
+		BatchIterator iter = new BatchIterator(images.iterator(), options, preserveOrder, maxInFlight, onExhausted);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, 
+							preserveOrder? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL), false);
+	}
+	/**
+	 * Analyze all the given images in order.
+	 * This is the same as {@code ocrBatch(images, options, true)}.
+	 * @see #ocrBatch(Iterable, MolvecOptions, boolean)
+	 */
+	public Stream<MolvecResult> ocrBatch(Iterable<?> images, MolvecOptions options){
+		return ocrBatch(images, options, true);
+	}
+
+	/**
+	 * Submit the given image to this engine's worker pool.
+	 * Any errors are reported in the returned {@link MolvecResult}.
+	 * @param image the image to analyze, can not be null.
+	 * @param options the {@link MolvecOptions} to use; if null, the default options of this engine are used.
+	 * @return a {@link CompletableFuture} of the result.
+	 * @throws IllegalStateException if this engine has been closed.
+	 */
+	public CompletableFuture<MolvecResult> ocrAsync(File image, MolvecOptions options){
+		checkNotNull(image);
+		return submit(()-> ocr(image, options));
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(File image){
+		return ocrAsync(image, null);
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(byte[] image, MolvecOptions options){
+		checkNotNull(image);
+		return submit(()-> ocr(image, options));
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(byte[] image){
+		return ocrAsync(image, null);
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(BufferedImage image, MolvecOptions options){
+		checkNotNull(image);
+		return submit(()-> ocr(image, options));
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(BufferedImage image){
+		return ocrAsync(image, null);
+	}
+
+	public CompletableFuture<MolvecResult> ocrAsync(Path image, MolvecOptions options){
+		checkNotNull(image);
+		return submit(()-> ocr(image, options));
+	}
+	public CompletableFuture<MolvecResult> ocrAsync(Path image){
+		return ocrAsync(image, null);
+	}
+
+	/**
+	 * Is this engine closed.
+	 * @return {@code true} if {@link #close()} has been called.
+	 */
+	public boolean isClosed(){
+		return closed;
+	}
+
+	/**
+	 * Shut down the thread pools owned by this engine.
+	 * Jobs already submitted are allowed to finish;
+	 * new jobs are rejected.
+	 */
+	@Override
+	public void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		workers.shutdown();
+		innerPool.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			innerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private StructureImageExtractor.Settings settings(MolvecOptions options){
+		return options.createSettings()
+					.ocr(ocr);
+	}
+
+	private interface ExtractorFunction{
+		StructureImageExtractor apply(StructureImageExtractor.Settings settings) throws IOException;
+	}
+	private interface ResultSupplier{
+		MolvecResult get() throws IOException;
+	}
+
+	private MolvecResult run(ExtractorFunction extractor, MolvecOptions options) throws IOException{
+		checkOpen();
+		MolvecOptions opts = options==null? defaultOptions : options;
+		if(inInnerPool()){
+			//already running inside our inner pool (nested call)
+			return opts.computeResult(extractor.apply(settings(opts)));
+		}
+		try {
+			return innerPool.submit(()-> opts.computeResult(extractor.apply(settings(opts)))).get();
+		}catch(RejectedExecutionException e){
+			throw new IllegalStateException("engine is closed", e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException){
+				throw (IOException) cause;
+			}
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private boolean inInnerPool(){
+		Thread t = Thread.currentThread();
+		return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)t).getPool() == innerPool;
+	}
+
+	private CompletableFuture<MolvecResult> submit(ResultSupplier supplier){
+		checkOpen();
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return supplier.get();
+				} catch (Exception e) {
+					return MolvecResult.createFromError(e);
+				}
+			}, workers);
+		}catch(RejectedExecutionException e){
+			throw new IllegalStateException("engine is closed", e);
+		}
+	}
+
+	private CompletableFuture<MolvecResult> submitAny(Object image, MolvecOptions options){
+		if(image instanceof Path){
+			return ocrAsync((Path) image, options);
+		}
+		if(image instanceof File){
+			return ocrAsync((File) image, options);
+		}
+		if(image instanceof byte[]){
+			return ocrAsync((byte[]) image, options);
+		}
+		if(image instanceof BufferedImage){
+			return ocrAsync((BufferedImage) image, options);
+		}
+		return CompletableFuture.completedFuture(MolvecResult.createFromError(
+				new IllegalArgumentException("unsupported image type " + (image==null? null : image.getClass()))));
+	}
+
+	/**
+	 * The result of a finished future, with whatever it failed with as the error.
+	 */
+	private static MolvecResult orError(MolvecResult result, Throwable t){
+		if(t ==null){
+			return result;
+		}
+		return MolvecResult.createFromError(t instanceof CompletionException && t.getCause() !=null? t.getCause() : t);
+	}
+
+	/**
+	 * Pulls images from the source lazily, keeping a bounded number
+	 * of them submitted to the workers.
+	 */
+	private final class BatchIterator implements Iterator<MolvecResult>{
+		private final Iterator<?> source;
+		private final MolvecOptions options;
+		private final boolean preserveOrder;
+		private final int maxInFlight;
+
+		private final Deque<CompletableFuture<MolvecResult>> inOrder = new ArrayDeque<>();
+		private final BlockingQueue<MolvecResult> completed = new LinkedBlockingQueue<>();
+		private final Runnable onExhausted;
+		private int inFlight=0;
+		private boolean done=false;
+
+		BatchIterator(Iterator<?> source, MolvecOptions options, boolean preserveOrder, int maxInFlight, Runnable onExhausted){
+			this.onExhausted = onExhausted;
+			this.source = source;
+			this.options = options;
+			this.preserveOrder = preserveOrder;
+			this.maxInFlight = maxInFlight;
+		}
+
+		private void fill(){
+			while(inFlight < maxInFlight && source.hasNext()){
+				CompletableFuture<MolvecResult> future = submitAny(source.next(), options);
+				inFlight++;
+				if(preserveOrder){
+					inOrder.add(future);
+				}else{
+					//anything that escapes the worker still has to end up in the queue
+					future.whenComplete((r, t) -> completed.add(orError(r, t)));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(done){
+				return false;
+			}
+			fill();
+			if(inFlight >0){
+				return true;
+			}
+			done=true;
+			if(onExhausted !=null){
+				onExhausted.run();
+			}
+			return false;
+		}
+
+		@Override
+		public MolvecResult next() {
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			inFlight--;
+			if(preserveOrder){
+				return inOrder.poll().handle(MolvecEngine::orError).join();
+			}
+			try {
+				return completed.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return MolvecResult.createFromError(e);
+			}
+		}
+	}
+
+	private void checkOpen(){
+		if(closed){
+			throw new IllegalStateException("engine is closed");
+		}
+	}
+
+	private static void checkNotNull(Object obj){
+		Objects.requireNonNull(obj, "image can not be null");
+	}
+
+	private static ThreadFactory daemonFactory(String prefix){
+		AtomicInteger count = new AtomicInteger();
+		return r->{
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	private static ForkJoinPool.ForkJoinWorkerThreadFactory innerFactory(String prefix){
+		AtomicInteger count = new AtomicInteger();
+		return pool->{
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName(prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Builder for a {@link MolvecEngine}.
+	 */
+	public static final class Builder{
+		private int workers = Runtime.getRuntime().availableProcessors();
+		private int innerParallelism = Runtime.getRuntime().availableProcessors();
+		private MolvecOptions options;
+		private boolean sharedModels = false;
+		private GlyphScoreCache ocrCache;
+
+		private Builder(){}
+
+		/**
+		 * Use the JVM wide OCR models instead of loading a private copy.
+		 * Ignored if an {@link #ocrCache(GlyphScoreCache) OCR cache} is given, as the
+		 * JVM wide models are used without one.
+		 * @return this
+		 */
+		Builder sharedModels(){
+			this.sharedModels = true;
+			return this;
+		}
+
+		/**
+		 * The number of images which may be processed at the same time
+		 * by the {@code ocrAsync} methods.
+		 * @param workers the number of worker threads; must be &gt; 0.
+		 * @return this
+		 */
+		public Builder workers(int workers){
+			if(workers <1){
+				throw new IllegalArgumentException("workers must be > 0");
+			}
+			this.workers = workers;
+			return this;
+		}
+
+		/**
+		 * The parallelism of the pool used for the parallel steps within a single image.
+		 * @param innerParallelism the parallelism; must be &gt; 0.
+		 * @return this
+		 */
+		public Builder innerParallelism(int innerParallelism){
+			if(innerParallelism <1){
+				throw new IllegalArgumentException("inner parallelism must be > 0");
+			}
+			this.innerParallelism = innerParallelism;
+			return this;
+		}
+
+		/**
+		 * The {@link MolvecOptions} used when a call doesn't provide its own.
+		 * @param options the options; if null, new default options are used.
+		 * @return this
+		 */
+		public Builder options(MolvecOptions options){
+			this.options = options;
+			return this;
+		}
+
+		/**
+		 * Keep the OCR scores of the glyphs seen in the given cache, so that glyphs
+		 * which show up again, in the same image or in any other, aren't scored again.
+		 * The same cache can be given to several engines, which then share the scores
+		 * of the glyphs any of them has seen; its hit and miss counts tell how well
+		 * it works for the images at hand.
+		 * <p>
+		 * The engine then loads its own copy of the OCR models, as the cache can't be
+		 * given to the models every other engine uses.
+		 * @param ocrCache the cache; if null, which is the default, nothing is cached.
+		 * @return this
+		 * @since 0.9.9
+		 */
+		public Builder ocrCache(GlyphScoreCache ocrCache){
+			this.ocrCache = ocrCache;
+			return this;
+		}
+
+		public MolvecEngine build(){
+			return new MolvecEngine(this);
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package gov.nih.ncats.molvec;
 
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
 import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+import gov.nih.ncats.molvec.internal.util.Deadline;
 import gov.nih.ncats.molvec.internal.util.GeomUtil;
 
 import java.awt.geom.AffineTransform;
@@ -11,6 +13,7 @@ import java.text.NumberFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class MolvecOptions {
@@ -19,6 +22,55 @@ public class MolvecOptions {
     private boolean includeSgroups = true;
 
     private String name;
+    private PipelineListener listener = PipelineListener.NO_OP;
+    private long timeoutNanos = 0;
+    private TimeoutPolicy timeoutPolicy = TimeoutPolicy.ABORT;
+    private Quality quality = Quality.FULL;
+
+    /**
+     * How much work to put into a recognition, trading accuracy for speed.
+     * @since 0.9.9
+     */
+    public enum Quality{
+        /**
+         * Skip every optional pass: no OCR rescue before the full OCR passes, no hex grid alignment,
+         * no adaptive threshold second opinion, no splitting of wide or tall OCR shapes,
+         * and a single full OCR pass.
+         */
+        FAST,
+        /**
+         * Skip the slowest optional passes: no OCR rescue before the full OCR passes and no
+         * hex grid alignment, with at most 3 full OCR passes.
+         */
+        BALANCED,
+        /**
+         * Run every pass. This is the default.
+         */
+        FULL
+    }
+
+    /**
+     * What to do when a recognition runs out of the time
+     * set by {@link #timeout(long, TimeUnit)}.
+     * @since 0.9.9
+     */
+    public enum TimeoutPolicy{
+        /**
+         * Stop and report a {@link MolvecTimeoutException}.
+         */
+        ABORT,
+        /**
+         * Stop and return the structure built so far, if any, as it was after
+         * the last step of the cleanup that finished in time;
+         * {@link MolvecResult#isTimedOut()} will be true.
+         * If nothing has been built yet, this is the same as {@link #ABORT}.
+         * <p>
+         * This costs a copy of the structure after the first step of the cleanup,
+         * and, once half the time is used up, after every step. If the time runs out
+         * in a step that started before then, the structure is the one after the first step.
+         */
+        BEST_SO_FAR
+    }
 
     public MolvecOptions setName(String name){
         this.name = name;
@@ -42,6 +94,76 @@ public class MolvecOptions {
         return this;
     }
 
+    /**
+     * Set the {@link PipelineListener} to notify of the timing and counters of
+     * each recognition made with these options.
+     * @param listener the listener; if null, no listener is used.
+     * @return this
+     * @since 0.9.9
+     */
+    public MolvecOptions pipelineListener(PipelineListener listener){
+        this.listener = listener==null? PipelineListener.NO_OP : listener;
+        return this;
+    }
+
+    /**
+     * Set the time budget of each recognition made with these options.
+     * The budget is checked cooperatively between the steps of the recognition,
+     * so a recognition may run a little over it.
+     * @param time the time; 0 or less means no limit, which is the default.
+     * @param unit the unit of time.
+     * @return this
+     * @since 0.9.9
+     */
+    public MolvecOptions timeout(long time, TimeUnit unit){
+        this.timeoutNanos = time <=0? 0 : unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Set what to do when the time budget set by {@link #timeout(long, TimeUnit)} runs out.
+     * @param timeoutPolicy the policy; if null, {@link TimeoutPolicy#ABORT} is used.
+     * @return this
+     * @since 0.9.9
+     */
+    public MolvecOptions timeoutPolicy(TimeoutPolicy timeoutPolicy){
+        this.timeoutPolicy = timeoutPolicy==null? TimeoutPolicy.ABORT : timeoutPolicy;
+        return this;
+    }
+
+    /**
+     * Set the {@link Quality} level of each recognition made with these options.
+     * @param quality the quality; if null, {@link Quality#FULL} is used.
+     * @return this
+     * @since 0.9.9
+     */
+    public MolvecOptions quality(Quality quality){
+        this.quality = quality==null? Quality.FULL : quality;
+        return this;
+    }
+
+    /**
+     * Create the settings of a new {@link StructureImageExtractor} for these options.
+     * Any time budget starts counting now.
+     */
+    StructureImageExtractor.Settings createSettings(){
+        return new StructureImageExtractor.Settings()
+                        .listener(listener)
+                        .deadline(timeoutNanos >0? Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS) : Deadline.NONE)
+                        .bestSoFarOnTimeout(timeoutPolicy == TimeoutPolicy.BEST_SO_FAR)
+                        .preRescueOCR(quality == Quality.FULL)
+                        .hexGridMicroAlignment(quality == Quality.FULL)
+                        .adaptiveSecondOpinion(quality != Quality.FAST)
+                        .ocrSplitRetries(quality != Quality.FAST)
+                        .maxOCRFullRepeats(quality == Quality.FULL ? 6 : quality == Quality.BALANCED ? 3 : 1);
+    }
+
+    MolvecResult computeResult(StructureImageExtractor sie){
+        Result result = (Result) computeResult(sie.getCtab());
+        result.timedOut = sie.isTimedOut();
+        return result;
+    }
+
     public MolvecResult computeResult(ConnectionTable ct){
         String mol= toMol(ct);
 
@@ -298,6 +420,7 @@ public class MolvecOptions {
         private final String mol;
         private final CachedSupplier<Rectangle2D> boundsSupplier;
         private String name;
+        private boolean timedOut;
 
         private static final String lineSep = System.lineSeparator();
         public Result(String mol, String name, CachedSupplier<Rectangle2D> boundsSupplier) {
@@ -356,6 +479,11 @@ public class MolvecOptions {
             return false;
         }
 
+        @Override
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
         @Override
         public Optional<Throwable> getError() {
             return Optional.empty();
@@ -51,6 +51,19 @@ public interface MolvecResult {
      */
     Optional<Throwable> getError();
 
+    /**
+     * Did the recognition run out of its time budget.
+     * If this result has an error, the error is a {@link MolvecTimeoutException};
+     * otherwise the structure is the one built up to that point.
+     * @return {@code true} if the time budget ran out.
+     *
+     * @see MolvecOptions#timeout(long, java.util.concurrent.TimeUnit)
+     * @since 0.9.9
+     */
+    default boolean isTimedOut(){
+        return getError().map(t-> t instanceof MolvecTimeoutException).orElse(false);
+    }
+
     /**
      * Factory method to create a MolvecResult that has the given error.
      * @param t
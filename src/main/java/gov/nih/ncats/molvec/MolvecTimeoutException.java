@@ -0,0 +1,19 @@
+package gov.nih.ncats.molvec;
+
+import java.io.IOException;
+
+/**
+ * Thrown, or reported as the error of a {@link MolvecResult},
+ * when a recognition runs out of the time budget set by
+ * {@link MolvecOptions#timeout(long, java.util.concurrent.TimeUnit)}.
+ *
+ * @since 0.9.9
+ */
+public class MolvecTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MolvecTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
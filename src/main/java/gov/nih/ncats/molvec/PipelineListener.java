@@ -0,0 +1,79 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * Receives timing and counter information from a single recognition
+ * as it runs. All methods have empty default implementations so
+ * implementations only need to override what they care about.
+ * <p>
+ * A listener may be called from multiple threads if it is shared between
+ * recognitions, but calls for a single recognition are made from the thread
+ * running that recognition.
+ *
+ * @since 0.9.9
+ */
+public interface PipelineListener {
+
+    /**
+     * A listener that does nothing. When this listener is used no timing
+     * is collected at all.
+     */
+    PipelineListener NO_OP = new PipelineListener(){};
+
+    /**
+     * The binarization attempts made for an image, in the order they are tried.
+     */
+    enum BinarizationPath{
+        /**
+         * The default binarization of the image as given.
+         */
+        DEFAULT,
+        /**
+         * The default binarization looked spotty, try a lower threshold.
+         */
+        TOO_WASHED,
+        /**
+         * The image was too small, scale it up 3x and try again.
+         */
+        RESIZED
+    }
+
+    /**
+     * A binarization attempt is about to be made. If the attempt fails, another
+     * call will be made with the fallback that is tried next.
+     * @param path the binarization attempt.
+     */
+    default void onBinarization(BinarizationPath path){}
+
+    /**
+     * The connected components of the binarized image have been computed.
+     * @param count the number of polygons found.
+     */
+    default void onPolygons(int count){}
+
+    /**
+     * A numbered step of the connection table cleanup finished.
+     * Some steps can run more than once for a single image.
+     *
+     * @param step the step number.
+     * @param description what the step does.
+     * @param elapsedNanos the nanoseconds since the end of the previous step.
+     * @param allocatedBytes the number of bytes allocated by the recognition thread
+     *                       during the step, or -1 if the JVM doesn't support measuring it.
+     *                       Allocations made by helper threads are not included.
+     */
+    default void onStep(int step, String description, long elapsedNanos, long allocatedBytes){}
+
+    /**
+     * The full OCR pass finished.
+     * @param repeats the number of times the full OCR was repeated.
+     * @param maxRepeats the maximum number of repeats allowed.
+     */
+    default void onOCRRepeats(int repeats, int maxRepeats){}
+
+    /**
+     * The recognition finished, successfully or not.
+     * @param ocrInvocations the number of times the OCR was asked to rank a shape.
+     * @param elapsedNanos the total nanoseconds of the recognition.
+     */
+    default void onComplete(long ocrInvocations, long elapsedNanos){}
+}
@@ -0,0 +1,320 @@
+package gov.nih.ncats.molvec;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the results of processing many image files into a single sdf file.
+ * <p>
+ * Images are processed by a {@link MolvecEngine} while a dedicated writer thread,
+ * which is not part of the engine's worker pool, appends each finished record
+ * to a buffered {@link FileChannel}. At most {@code maxInFlight} images are
+ * submitted or waiting to be written at any time, so memory use does not grow
+ * with the number of input files. The buffer is written out when it fills up
+ * and at least every flush interval.
+ * <p>
+ * Records are written as they complete unless {@link #preserveOrder(boolean)}
+ * is set, in which case they are written in the order the files were given.
+ * This is what the command line {@code -outSdf -parallel} mode uses.
+ */
+class SdfPipeline {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final MolvecEngine engine;
+    private final Path out;
+
+    private boolean preserveOrder = false;
+    private int maxInFlight;
+    private int bufferSize = 1 << 20;
+    private long flushIntervalNanos = TimeUnit.SECONDS.toNanos(2);
+    private PrintStream progress;
+    private long progressIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+
+    private volatile IOException writeError;
+    private long written, errors;
+
+    /**
+     * Create a new pipeline.
+     * @param engine the engine to process the images with; it is not closed by this pipeline.
+     * @param out the sdf file to write, any existing file is overwritten.
+     * @param workers the number of images processed at the same time, used to pick the
+     *                default number of images in flight.
+     */
+    SdfPipeline(MolvecEngine engine, Path out, int workers){
+        this.engine = Objects.requireNonNull(engine);
+        this.out = Objects.requireNonNull(out);
+        this.maxInFlight = Math.max(1, workers) * 4;
+    }
+
+    public SdfPipeline preserveOrder(boolean preserveOrder){
+        this.preserveOrder = preserveOrder;
+        return this;
+    }
+
+    public SdfPipeline maxInFlight(int maxInFlight){
+        if(maxInFlight < 1){
+            throw new IllegalArgumentException("max in flight must be >=1");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public SdfPipeline bufferSize(int bufferSize){
+        if(bufferSize < 1){
+            throw new IllegalArgumentException("buffer size must be >=1");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public SdfPipeline flushInterval(long interval, TimeUnit unit){
+        this.flushIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Periodically report the number of images written and the throughput.
+     * @param progress where to report to, or null to not report.
+     * @param interval how often to report.
+     * @param unit the unit of the interval.
+     * @return this.
+     */
+    public SdfPipeline progress(PrintStream progress, long interval, TimeUnit unit){
+        this.progress = progress;
+        this.progressIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * The number of records written by the last call to {@link #run(Iterator)}.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * The number of images that could not be processed in the last call to {@link #run(Iterator)}.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Process all the given images and write them to the sdf file.
+     * The images are pulled from the iterator only as there is room for them.
+     * Images that fail to process are reported to STDERR and skipped.
+     *
+     * @param images the images to process.
+     * @throws IOException if there is a problem writing the sdf file.
+     * @throws InterruptedException if interrupted while waiting for images to finish.
+     */
+    public void run(Iterator<ImageInput> images) throws IOException, InterruptedException{
+        written = 0;
+        errors = 0;
+        writeError = null;
+
+        BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+        Semaphore permits = new Semaphore(maxInFlight);
+
+        Writer writer = new Writer(queue, permits);
+        Thread writerThread = new Thread(writer, "molvec-sdf-writer");
+        writerThread.start();
+
+        long seq = 0;
+        try {
+            while (images.hasNext() && writeError == null) {
+                permits.acquire();
+                ImageInput image = images.next();
+                long id = seq++;
+                try {
+                    image.ocrAsync(engine, new MolvecOptions().setName(image.getBaseName()))
+                            .whenComplete((result, t) -> queue.add(Record.of(id, image, result, t)));
+                }catch(RuntimeException e){
+                    //e.g. the engine was closed; the writer still waits for a record of every id
+                    queue.add(Record.of(id, image, null, e));
+                    throw e;
+                }
+            }
+        }finally {
+            //tells the writer how many records to wait for
+            queue.add(new Record(-1, null, null, seq));
+            writerThread.join();
+        }
+        if(writeError !=null){
+            throw writeError;
+        }
+    }
+
+    private static final class Record{
+        final long seq;
+        final ImageInput image;
+        /**
+         * The encoded sdf record, or null if the image could not be processed.
+         */
+        final byte[] sdf;
+        /**
+         * The error, or for the end marker the total number of records.
+         */
+        final Object error;
+
+        Record(long seq, ImageInput image, byte[] sdf, Object error){
+            this.seq = seq;
+            this.image = image;
+            this.sdf = sdf;
+            this.error = error;
+        }
+
+        static Record of(long seq, ImageInput image, MolvecResult result, Throwable t){
+            if(t ==null && result.hasError()){
+                t = result.getError().orElse(null);
+            }
+            if(t !=null){
+                return new Record(seq, image, null, t);
+            }
+            try {
+                Map<String, String> props = new HashMap<>();
+                props.put("Molecule Name", image.getBaseName());
+                props.put("File Name", image.getName());
+                //encode here so it's done by the workers, not the writer
+                return new Record(seq, image, result.getSDfile(props).get().getBytes(StandardCharsets.UTF_8), null);
+            }catch(Throwable e){
+                return new Record(seq, image, null, e);
+            }
+        }
+    }
+
+    private final class Writer implements Runnable{
+        private final BlockingQueue<Record> queue;
+        private final Semaphore permits;
+        private final Map<Long, Record> pending = new HashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+
+        private FileChannel channel;
+        private long nextSeq = 0;
+        private long total = -1;
+        private long start, lastFlush, lastProgress;
+
+        Writer(BlockingQueue<Record> queue, Semaphore permits){
+            this.queue = queue;
+            this.permits = permits;
+        }
+
+        @Override
+        public void run() {
+            start = lastFlush = lastProgress = System.nanoTime();
+            try(FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)){
+                channel = ch;
+                while(total <0 || nextSeq < total){
+                    long now = System.nanoTime();
+                    long wait = Math.max(0, Math.min(lastFlush + flushIntervalNanos, lastProgress + progressIntervalNanos) - now);
+                    Record r = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if(r !=null){
+                        accept(r);
+                    }
+                    now = System.nanoTime();
+                    if(now - lastFlush >= flushIntervalNanos){
+                        flush();
+                    }
+                    if(progress !=null && now - lastProgress >= progressIntervalNanos){
+                        report(now);
+                    }
+                }
+                flush();
+                if(progress !=null){
+                    report(System.nanoTime());
+                }
+            }catch(IOException e){
+                writeError = e;
+            }catch(InterruptedException e){
+                writeError = new IOException("interrupted", e);
+            }catch(Throwable t){
+                //anything else would end this thread without telling the submitting thread to stop
+                writeError = new IOException("error writing sdf file", t);
+            }finally {
+                //don't leave the submitting thread waiting for room
+                permits.release(maxInFlight);
+            }
+        }
+
+        private void accept(Record r) throws IOException{
+            if(r.seq <0){
+                total = (Long) r.error;
+                return;
+            }
+            if(!preserveOrder){
+                write(r);
+                return;
+            }
+            pending.put(r.seq, r);
+            Record next;
+            while((next = pending.remove(nextSeq)) !=null){
+                write(next);
+            }
+        }
+
+        private void write(Record r) throws IOException{
+            nextSeq++;
+            permits.release();
+            if(r.sdf ==null){
+                errors++;
+                System.err.println("error processing file " + r.image.getName());
+                if(r.error instanceof Throwable){
+                    ((Throwable) r.error).printStackTrace();
+                }
+                return;
+            }
+            put(r.sdf);
+            put(LINE_SEPARATOR);
+            written++;
+        }
+
+        private void put(byte[] bytes) throws IOException{
+            if(bytes.length > buffer.remaining()){
+                flush();
+                if(bytes.length > buffer.capacity()){
+                    writeFully(ByteBuffer.wrap(bytes));
+                    return;
+                }
+            }
+            buffer.put(bytes);
+        }
+
+        private void flush() throws IOException{
+            lastFlush = System.nanoTime();
+            if(buffer.position() ==0){
+                return;
+            }
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer bytes) throws IOException{
+            while(bytes.hasRemaining()){
+                channel.write(bytes);
+            }
+        }
+
+        private void report(long now){
+            lastProgress = now;
+            double seconds = (now - start) / 1E9;
+            progress.printf("processed %d images (%d errors) in %.1f s, %.1f images/s%n",
+                    written + errors, errors, seconds, seconds ==0? 0 : (written + errors) / seconds);
+        }
+    }
+}
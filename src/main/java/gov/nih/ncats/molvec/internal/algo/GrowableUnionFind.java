@@ -0,0 +1,65 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import java.util.Arrays;
+
+/**
+ * A {@link UnionFind} that doesn't need to know the number of elements
+ * up front. Elements are added one at a time with {@link #add()}, and
+ * the backing arrays grow as needed.
+ *
+ * @since 0.9.9
+ */
+public class GrowableUnionFind extends UnionFind {
+    private int size;
+
+    public GrowableUnionFind (int initialCapacity) {
+	super (Math.max (1, initialCapacity));
+	size = 0;
+    }
+
+    /**
+     * Add a new element in its own set.
+     * @return the index of the new element.
+     */
+    public int add () {
+	if (size == nodes.length) {
+	    int cap = Math.max (16, nodes.length * 2);
+	    nodes = Arrays.copyOf (nodes, cap);
+	    sizes = Arrays.copyOf (sizes, cap);
+	}
+	nodes[size] = size;
+	sizes[size] = 1;
+	return size++;
+    }
+
+    /**
+     * The number of elements added so far.
+     */
+    public int size () { return size; }
+
+    @Override
+    public void union (int p, int q) {
+	if (getRoot (p) != getRoot (q)) {
+	    super.union (p, q);
+	}
+    }
+
+    @Override
+    public int[][] getComponents () {
+	trim ();
+	return super.getComponents ();
+    }
+
+    @Override
+    public String toString () {
+	trim ();
+	return super.toString ();
+    }
+
+    private void trim () {
+	if (nodes.length != size) {
+	    nodes = Arrays.copyOf (nodes, size);
+	    sizes = Arrays.copyOf (sizes, size);
+	}
+    }
+}
@@ -1,6 +1,5 @@
 package gov.nih.ncats.molvec.internal.algo;
 
-import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
@@ -8,11 +7,13 @@ import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,16 +32,22 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.imageio.ImageIO;
 
+import gov.nih.ncats.molvec.MolvecTimeoutException;
+import gov.nih.ncats.molvec.PipelineListener;
+import gov.nih.ncats.molvec.PipelineListener.BinarizationPath;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.image.Bitmap.WedgeInfo;
+import gov.nih.ncats.molvec.internal.image.GrayImage;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
 import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
 import gov.nih.ncats.molvec.internal.image.binarization.LeastPopulatedThreshold;
@@ -50,6 +57,7 @@ import gov.nih.ncats.molvec.ui.SCOCR;
 import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSansSerif;
 import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSerif;
 import gov.nih.ncats.molvec.internal.util.CompareUtil;
+import gov.nih.ncats.molvec.internal.util.Deadline;
 import gov.nih.ncats.molvec.internal.util.ConnectionTable;
 import gov.nih.ncats.molvec.internal.util.ConnectionTable.Edge;
 import gov.nih.ncats.molvec.internal.util.ConnectionTable.Node;
@@ -59,6 +67,7 @@ import gov.nih.ncats.molvec.internal.util.GeomUtil.BoundingBox;
 import gov.nih.ncats.molvec.internal.util.GeomUtil.LineWrapper;
 import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
 import gov.nih.ncats.molvec.internal.util.RunningAverage;
+import gov.nih.ncats.molvec.internal.util.SpatialIndex;
 
 /**
  * StructureImageExtractor takes in an Image file, byte array, or {@link BufferedImage} and produces a chemical structure connection table,
@@ -79,11 +88,33 @@ public class StructureImageExtractor {
 		VerticalBondLikely,
 	}
 	
-	private static final SCOCR OCR_DEFAULT=new StupidestPossibleSCOCRSansSerif();
-	//static final SCOCR OCR_DEFAULT=new FontBasedRasterCosineSCOCR(FontBasedRasterCosineSCOCR.SANS_SERIF_FONTS());
-	//static final SCOCR OCR_BACKUP=new FontBasedRasterCosineSCOCR(FontBasedRasterCosineSCOCR.SERIF_FONTS())
-	private static final SCOCR OCR_BACKUP=new StupidestPossibleSCOCRSerif()
-			.adjustWeights(t->{
+	/*
+	 * The shared models are only built when first asked for, so loading this
+	 * class doesn't read any templates or start up the AWT fonts.
+	 */
+	private static final CachedSupplier<SCOCR> OCR_DEFAULT=CachedSupplier.of(()->{
+		SCOCR ocr=new StupidestPossibleSCOCRSansSerif();
+		//SCOCR ocr=new FontBasedRasterCosineSCOCR(FontBasedRasterCosineSCOCR.SANS_SERIF_FONTS());
+		ocr.setAlphabet(chemAlphabet());
+		return ocr;
+	});
+	private static final CachedSupplier<SCOCR> OCR_BACKUP=CachedSupplier.of(()->{
+		SCOCR ocr=backupWeights(new StupidestPossibleSCOCRSerif());
+		//SCOCR ocr=new FontBasedRasterCosineSCOCR(FontBasedRasterCosineSCOCR.SERIF_FONTS());
+		ocr.setAlphabet(chemAlphabet());
+		return ocr;
+	});
+
+	private static final CachedSupplier<SCOCR> OCR_ALL=CachedSupplier.of(()->{
+		SCOCR ocr=new FontBasedRasterCosineSCOCR();
+		Set<Character> alphaAll=SCOCR.SET_COMMON_PUCTUATION();
+		alphaAll.addAll(SCOCR.SET_ALPHANUMERIC());
+		ocr.setAlphabet(alphaAll);
+		return ocr;
+	});
+	
+	private static SCOCR backupWeights(SCOCR backup){
+		return backup.adjustWeights(t->{
 				double ov=t.v().doubleValue();
 				Tuple<Character,Number> ret=t;
 				if("N".equals(t.k()+"")){
@@ -91,24 +122,194 @@ public class StructureImageExtractor {
 				}
 				return ret;
 			});
-
-
-	private static final SCOCR OCR_ALL=new FontBasedRasterCosineSCOCR();
-
-	static{
+	}
+	
+	private static Set<Character> chemAlphabet(){
 		Set<Character> alpha=SCOCR.SET_COMMON_CHEM_ALL();
 		alpha.add(Character.valueOf('/'));
 		alpha.add(Character.valueOf('\\'));
-		OCR_DEFAULT.setAlphabet(alpha);
-		OCR_BACKUP.setAlphabet(alpha);
-
-		Set<Character> alphaAll=SCOCR.SET_COMMON_PUCTUATION();
-		alphaAll.addAll(SCOCR.SET_ALPHANUMERIC());
-		OCR_ALL.setAlphabet(alphaAll);
-
-		//((FontBasedRasterCosineSCOCR)OCR_BACKUP).debug();
+		return alpha;
+	}
+	
+	/**
+	 * Returns the OCR used by default, which is the shared sans-serif model
+	 * with a fallback to the serif model. The models are loaded by the first call.
+	 * @return
+	 */
+	public static SCOCR getDefaultOCR(){
+		return OCR_DEFAULT.get().orElse(OCR_BACKUP.get(), OCR_CUTOFF_COSINE);
+	}
+	
+	/**
+	 * Creates a new, independent instance of the default OCR models. The glyph
+	 * data is decoded as part of this call, so the returned object is ready to use
+	 * and shares no mutable state with {@link #getDefaultOCR()}.
+	 * @return
+	 */
+	public static SCOCR createDefaultOCR(){
+		SCOCR primary = new StupidestPossibleSCOCRSansSerif();
+		SCOCR backup = backupWeights(new StupidestPossibleSCOCRSerif());
+		primary.setAlphabet(chemAlphabet());
+		backup.setAlphabet(chemAlphabet());
+		return primary.orElse(backup, OCR_CUTOFF_COSINE);
+	}
+	
+	/**
+	 * Per-extraction settings. The defaults reproduce the behavior of the 
+	 * plain constructors.
+	 */
+	public static class Settings{
+		private SCOCR ocr;
+		private boolean debug=false;
+		private PipelineListener listener=PipelineListener.NO_OP;
+		private Deadline deadline=Deadline.NONE;
+		private boolean bestSoFarOnTimeout=false;
+		private boolean preRescueOCR=true;
+		private boolean hexGridMicroAlignment=true;
+		private boolean adaptiveSecondOpinion=true;
+		private boolean ocrSplitRetries=true;
+		private int maxOCRFullRepeats=MAX_OCR_FULL_REPEATS;
+		private Bitmap.ThinningStrategy thinningStrategy=Bitmap.ThinningStrategy.WORD_PARALLEL;
+		
+		/**
+		 * Set the {@link SCOCR} used to recognize characters. If null,
+		 * the result of {@link StructureImageExtractor#getDefaultOCR()} is used.
+		 * @param ocr
+		 * @return this
+		 */
+		public Settings ocr(SCOCR ocr){
+			this.ocr=ocr;
+			return this;
+		}
+		
+		/**
+		 * If debug is set, debug information will be printed to standard out, 
+		 * and the connection table steps will be preserved.
+		 * @param debug
+		 * @return this
+		 */
+		public Settings debug(boolean debug){
+			this.debug=debug;
+			return this;
+		}
+		
+		/**
+		 * Set the {@link PipelineListener} to notify of the progress
+		 * of the extraction.
+		 * @param listener the listener; if null, {@link PipelineListener#NO_OP} is used.
+		 * @return this
+		 */
+		public Settings listener(PipelineListener listener){
+			this.listener=listener==null? PipelineListener.NO_OP : listener;
+			return this;
+		}
+		
+		/**
+		 * Set the {@link Deadline} for the extraction. It is checked between each
+		 * step, and inside of the longer running searches.
+		 * @param deadline the deadline; if null, {@link Deadline#NONE} is used.
+		 * @return this
+		 */
+		public Settings deadline(Deadline deadline){
+			this.deadline=deadline==null? Deadline.NONE : deadline;
+			return this;
+		}
+		
+		/**
+		 * What to do when the {@link Deadline} expires. If true, the connection table
+		 * as it was after one of the last finished steps is kept and {@link StructureImageExtractor#isTimedOut()}
+		 * returns true; otherwise a {@link MolvecTimeoutException} is thrown.
+		 * @param bestSoFarOnTimeout
+		 * @return this
+		 */
+		public Settings bestSoFarOnTimeout(boolean bestSoFarOnTimeout){
+			this.bestSoFarOnTimeout=bestSoFarOnTimeout;
+			return this;
+		}
+		
+		/**
+		 * Try to rescue OCR shapes from line segments before the full OCR passes.
+		 * This helps with broken up characters, but is slow. Default is true.
+		 * @param preRescueOCR
+		 * @return this
+		 */
+		public Settings preRescueOCR(boolean preRescueOCR){
+			this.preRescueOCR=preRescueOCR;
+			return this;
+		}
+		
+		/**
+		 * Nudge nodes onto a hexagonal grid near the end of the cleanup.
+		 * These are minor aesthetic changes to the coordinates. Default is true.
+		 * @param hexGridMicroAlignment
+		 * @return this
+		 */
+		public Settings hexGridMicroAlignment(boolean hexGridMicroAlignment){
+			this.hexGridMicroAlignment=hexGridMicroAlignment;
+			return this;
+		}
+		
+		/**
+		 * When the global threshold is uncertain, also try an {@link gov.nih.ncats.molvec.internal.image.binarization.AdaptiveThreshold}
+		 * and keep it if it looks better. Default is true.
+		 * @param adaptiveSecondOpinion
+		 * @return this
+		 */
+		public Settings adaptiveSecondOpinion(boolean adaptiveSecondOpinion){
+			this.adaptiveSecondOpinion=adaptiveSecondOpinion;
+			return this;
+		}
+		
+		/**
+		 * Try to split shapes that are too wide or too tall into 2 characters. Default is true.
+		 * @param ocrSplitRetries
+		 * @return this
+		 */
+		public Settings ocrSplitRetries(boolean ocrSplitRetries){
+			this.ocrSplitRetries=ocrSplitRetries;
+			return this;
+		}
+		
+		/**
+		 * The maximum number of full passes made when new OCR shapes are found. Default is 6.
+		 * @param maxOCRFullRepeats must be &gt; 0.
+		 * @return this
+		 */
+		public Settings maxOCRFullRepeats(int maxOCRFullRepeats){
+			if(maxOCRFullRepeats<1){
+				throw new IllegalArgumentException("max OCR full repeats must be > 0");
+			}
+			this.maxOCRFullRepeats=maxOCRFullRepeats;
+			return this;
+		}
+		
+		/**
+		 * How the bitmap is thinned. All strategies give the same result,
+		 * default is {@link Bitmap.ThinningStrategy#WORD_PARALLEL}.
+		 * @param thinningStrategy can not be null.
+		 * @return this
+		 */
+		public Settings thinningStrategy(Bitmap.ThinningStrategy thinningStrategy){
+			this.thinningStrategy=Objects.requireNonNull(thinningStrategy);
+			return this;
+		}
+		
+		SCOCR getOCR(){
+			if(ocr==null){
+				return getDefaultOCR();
+			}
+			return ocr;
+		}
 	}
+	
 	private boolean DEBUG=false;
+	private final Settings settings;
+	private final PipelineListener listener;
+	private final AtomicLong ocrInvocations = new AtomicLong();
+	private final Deadline deadline;
+	private boolean timedOut=false;
+	private long lastStepNanos;
+	private long lastStepAllocated;
 
 	public static int SKIP_STEP_AT = -1;
 	private Bitmap bitmap; // original bitmap
@@ -129,10 +330,18 @@ public class StructureImageExtractor {
 	
 
 	private ConnectionTable ctab;
+	/**
+	 * A copy of the connection table as it was after a finished step,
+	 * kept only if the best so far is returned on timeout, as the deadline
+	 * can expire in the middle of a step. To not copy the table after every
+	 * step of images which are done in time, it's copied after the first step,
+	 * and then after every step only once half the time is used up.
+	 */
+	private ConnectionTable lastStepCtab;
 	private List<ConnectionTable> ctabRaw = new ArrayList<ConnectionTable>();
 
 	
-	private final int MAX_OCR_FULL_REPEATS=6;
+	private static final int MAX_OCR_FULL_REPEATS=6;
 	private final int MAX_REPS = 2;
 	
 	
@@ -150,7 +359,8 @@ public class StructureImageExtractor {
 	private final double MAX_TOLERANCE_FOR_DASH_BONDS = 2.0;
 	private final double MAX_TOLERANCE_FOR_SINGLE_BONDS = 0.4;
 
-	private final double OCRcutoffCosine=0.65;
+	private static final double OCR_CUTOFF_COSINE=0.65;
+	private final double OCRcutoffCosine=OCR_CUTOFF_COSINE;
 	private final double OCRcutoffCosineRescueInitial=0.55;
 	private final double OCRcutoffCosineRescue=0.50;
 	
@@ -278,16 +488,23 @@ public class StructureImageExtractor {
 	 * @throws IOException
 	 */
 	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage)throws IOException{
+		return createFromImage(bufferedImage, new Settings());
+	}
+	
+	/**
+	 * Create a new extractor from the given bufferedImage, using the given {@link Settings}.
+	 * @param bufferedImage
+	 * @param settings
+	 * @return
+	 * @throws IOException
+	 * @since 0.9.9
+	 */
+	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage, Settings settings)throws IOException{
 		BufferedImage img = bufferedImage;
 		if(BufferedImage.TYPE_BYTE_GRAY != bufferedImage.getType()){
 			img = toGrayScale(bufferedImage);
 		}
-		try {
-			return new StructureImageExtractor(img.getRaster());
-		}catch(InterruptedException e){
-			throw new IOException("interrupted", e);
-		}
-
+		return new StructureImageExtractor(img.getRaster(), settings);
 	}
 
 
@@ -329,39 +546,105 @@ public class StructureImageExtractor {
 	 * @throws Exception
 	 */
 	public StructureImageExtractor(Raster raster, boolean debug )throws IOException{
-		this.DEBUG = debug;
+		this(raster, new Settings().debug(debug));
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given {@link Raster}
+	 * and {@link Settings}.
+	 * @param raster the raster to be processed
+	 * @param settings the settings to use
+	 * @throws IOException
+	 * @since 0.9.9
+	 */
+	public StructureImageExtractor(Raster raster, Settings settings)throws IOException{
+		this(raster, null, settings);
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given, already decoded, grayscale {@link Raster}
+	 * and its {@link ImageStats}. The raster and stats are reused for every binarization attempt,
+	 * so neither is recomputed if the first binarization fails.
+	 * @param raster the grayscale raster to be processed
+	 * @param stats the stats of the raster, as computed by {@link Binarization#computeImageStats(Raster)},
+	 * or null to compute them here.
+	 * @param settings the settings to use
+	 * @throws IOException
+	 * @since 0.9.9
+	 */
+	public StructureImageExtractor(Raster raster, ImageStats stats, Settings settings)throws IOException{
+		this.settings = Objects.requireNonNull(settings);
+		this.DEBUG = settings.debug;
+		this.listener = settings.listener;
+		this.deadline = settings.deadline;
+		long start = System.nanoTime();
 		try {
-			try {
-				load(Bitmap.createBitmap(raster, DEF_BINARIZATION).clean(), true);
-			} catch (ImageTooSmallException e) {
-				File bi = stdResize(raster, 3);
-				load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-			} catch (ImageTooSpottyException e) {
-				try {
-					load(Bitmap.createBitmap(raster, TOO_WASHED_BINARIZATION).clean(), false);
-				} catch (ImageTooSmallException ex) {
-					File bi = stdResize(raster, 3);
-					load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-				}
-			}
+			load(raster, stats, null);
 		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
 			throw new IOException("interrupted", e);
+		}catch(Deadline.ExceededException e){
+			handleTimeout(e);
+		}finally{
+			listener.onComplete(ocrInvocations.get(), System.nanoTime()-start);
 		}
 	}
 	public StructureImageExtractor(byte[] file, boolean debug) throws IOException{
-		this.DEBUG=debug;
+		this(file, new Settings().debug(debug));
+	}
+	public StructureImageExtractor(File file, boolean debug) throws IOException{
+		this(file, new Settings().debug(debug));
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor} from the encoded image bytes,
+	 * using the given {@link Settings}.
+	 * @param file the bytes of the image file
+	 * @param settings the settings to use
+	 * @throws IOException
+	 * @since 0.9.9
+	 */
+	public StructureImageExtractor(byte[] file, Settings settings) throws IOException{
+		this.settings = Objects.requireNonNull(settings);
+		this.DEBUG=settings.debug;
+		this.listener = settings.listener;
+		this.deadline = settings.deadline;
+		long start = System.nanoTime();
 		try {
 			load(file);
 		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
 			throw new IOException("interrupted", e);
+		}catch(Deadline.ExceededException e){
+			handleTimeout(e);
+		}finally{
+			listener.onComplete(ocrInvocations.get(), System.nanoTime()-start);
 		}
 	}
-	public StructureImageExtractor(File file, boolean debug) throws IOException{
-		this.DEBUG=debug;
+	
+	/**
+	 * Create a new {@link StructureImageExtractor} from the given image file,
+	 * using the given {@link Settings}.
+	 * @param file the image file
+	 * @param settings the settings to use
+	 * @throws IOException
+	 * @since 0.9.9
+	 */
+	public StructureImageExtractor(File file, Settings settings) throws IOException{
+		this.settings = Objects.requireNonNull(settings);
+		this.DEBUG=settings.debug;
+		this.listener = settings.listener;
+		this.deadline = settings.deadline;
+		long start = System.nanoTime();
 		try{
 			load(file);
 		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
 			throw new IOException("interrupted", e);
+		}catch(Deadline.ExceededException e){
+			handleTimeout(e);
+		}finally{
+			listener.onComplete(ocrInvocations.get(), System.nanoTime()-start);
 		}
 	}
 	
@@ -449,7 +732,10 @@ public class StructureImageExtractor {
 
 	private void processOCR(SCOCR socr, List<ShapeWrapper> polygons,Bitmap bitmap, Bitmap thin, BiConsumer<ShapeWrapper,List<Tuple<Character,Number>>> onFind) throws InterruptedException{
 		
-		boolean[] interupt=new boolean[]{false};
+		//the worker threads of a parallel stream have their own interrupt status,
+		//so look at the calling thread, without clearing its status
+		Thread caller = Thread.currentThread();
+		AtomicBoolean interupt=new AtomicBoolean(false);
 		/*
 		 * Looks at each polygon, and gets the likely OCR chars.
 		 */   
@@ -466,11 +752,11 @@ public class StructureImageExtractor {
 		
 		stream
 		.forEach(s->{
-			if (Thread.interrupted())  // Clears interrupted status!
-				interupt[0]=true;
-			if(interupt[0]){
+			if(interupt.get() || caller.isInterrupted()){
+				interupt.set(true);
 				return;
 			}
+			deadline.check();
 			
 			Rectangle2D bounds2d = s.getBounds();
 			if(bounds2d.getWidth()>0 && bounds2d.getHeight()>0){
@@ -485,9 +771,12 @@ public class StructureImageExtractor {
 				double[] bestMatch = new double[]{bestMatch1,bestMatch1};
 				
 				
+				if(!settings.ocrSplitRetries){
+					onFind.accept(s, ll);
+				}
 				// if the width is too wide, it might be two chars pushed together
 				// but that's only really likely if the shape is pretty close to being a box
-				if(bounds2d.getWidth() >  bounds2d.getHeight()){
+				else if(bounds2d.getWidth() >  bounds2d.getHeight()){
 					double sarea=s.getArea();
 					double bbarea=GeomUtil.area(bounds2d);
 					
@@ -633,7 +922,7 @@ public class StructureImageExtractor {
 			}
 		});
 		
-		if(interupt[0]){
+		if(interupt.get()){
 			throw new InterruptedException();
 		}
 		
@@ -686,6 +975,7 @@ public class StructureImageExtractor {
 				
 			}
 			
+			ocrInvocations.incrementAndGet();
 			List<Tuple<Character,Number>> potential = socr.getNBestMatches(4,
 					cropped
 					,thin.getLazyCrop(sTest.getShape())
@@ -845,50 +1135,58 @@ public class StructureImageExtractor {
 
 	
 	private void load(byte[] file) throws IOException, InterruptedException{
-		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(), true);
-		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(), false);
-		}catch( ImageTooSpottyException e){
-			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
-			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
-			}
-		}
-
+		GrayImage gray = ImageUtil.grayImage(file);
+		load(gray.getRaster(), gray.getStats(), gray.getImage());
 	}
 	private void load(File file) throws IOException, InterruptedException{
+		GrayImage gray = ImageUtil.grayImage(file);
+		load(gray.getRaster(), gray.getStats(), gray.getImage());
+	}
+	
+	/**
+	 * Binarize and process the given grayscale raster, falling back to other binarizations
+	 * if the first attempt looks wrong. The raster is decoded once, and its stats computed
+	 * once, for all of the attempts.
+	 * @param raster the grayscale raster.
+	 * @param stats the stats of the raster, or null to compute them.
+	 * @param source the decoded image the raster belongs to, used if the image needs
+	 * to be resized, or null to build one from the raster.
+	 */
+	private void load(Raster raster, ImageStats stats, RenderedImage source) throws IOException, InterruptedException{
+		if(stats==null){
+			stats = Binarization.computeImageStats(raster);
+		}
 		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(),true);
+			listener.onBinarization(BinarizationPath.DEFAULT);
+			load(bitmap = Bitmap.createBitmap(raster, stats, DEF_BINARIZATION, settings.adaptiveSecondOpinion).clean(), true);
 		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+			loadResized(raster, source);
 		}catch( ImageTooSpottyException e){
 			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
+				listener.onBinarization(BinarizationPath.TOO_WASHED);
+				load(Bitmap.createBitmap(raster, stats, TOO_WASHED_BINARIZATION, settings.adaptiveSecondOpinion).clean(), false);
 			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+				loadResized(raster, source);
 			}
 		}
-
 	}
-	private static File stdResize(Raster r, double scale) throws IOException{
+	
+	private void loadResized(Raster raster, RenderedImage source) throws IOException, InterruptedException{
+		listener.onBinarization(BinarizationPath.RESIZED);
+		GrayImage bi = source==null? stdResize(raster, 3) : stdResize(source, 3);
+		load(bitmap = Bitmap.createBitmap(bi.getRaster(), bi.getStats(), RESIZE_BINARIZATION, settings.adaptiveSecondOpinion).clean(), false);
+	}
+	private static GrayImage stdResize(Raster r, double scale) throws IOException{
 		 BufferedImage image = new BufferedImage
 		            (r.getWidth(), r.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
 		 image.setData (r);
 		 return stdResize(image,scale);
 	}
-	private static File stdResize(File f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
-	}
-	private static File stdResize(byte[] f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
-	}
-	private static File stdResize(RenderedImage ri , double scale) throws IOException{
+	/**
+	 * Scale the given image up, and return it as an inverted grayscale image,
+	 * ready to be binarized. This is done entirely in memory.
+	 */
+	private static GrayImage stdResize(RenderedImage ri , double scale) throws IOException{
 		
 		
 		int nwidth=(int) (ri.getWidth() *scale);
@@ -909,22 +1207,14 @@ public class StructureImageExtractor {
         g2d.drawImage(convertRenderedImage(ri), 0, 0,null);
         g2d.dispose();
         
-        for (int x = 0; x < outputImage.getWidth(); x++) {
-            for (int y = 0; y < outputImage.getHeight(); y++) {
-                int rgba = outputImage.getRGB(x, y);
-                Color col = new Color(rgba, true);
-                col = new Color(255 - col.getRed(),
-                                255 - col.getGreen(),
-                                255 - col.getBlue());
-                outputImage.setRGB(x, y, col.getRGB());
-            }
+        //invert the colors in place, making every pixel opaque
+        int[] argb = ((DataBufferInt)outputImage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < argb.length; i++) {
+        	argb[i] = 0xFF000000 | (~argb[i] & 0x00FFFFFF);
         }
         
-
-		File tfile = File.createTempFile("tmp", ".png");
-		ImageIO.write(outputImage, "png", tfile);
-
-		return tfile;
+        //same decoding as reading the image from a file
+        return ImageUtil.decodeGray(outputImage);
 	}
 	
 	public static BufferedImage convertRenderedImage(RenderedImage img) {
@@ -952,6 +1242,7 @@ public class StructureImageExtractor {
 	
 	
 	private void rescueOCR(List<LineWrapper> lines, List<ShapeWrapper> polygons, Set<ShapeWrapper> likelyOCRAll, SCOCR scocr, BiConsumer<ShapeWrapper,List<Tuple<Character,Number>>> cons){
+		deadline.check();
 		
 			double averageWidthOCRFinal=likelyOCRAll.stream()
 					.map(ShapeWrapper::getBounds)
@@ -1057,6 +1348,7 @@ public class StructureImageExtractor {
 			        //density for OCR shapes, and resizing the expected dimensions to be those of the
 			        //average OCR shape
 			        .forEach(t->{
+			        	deadline.check();
 			        	List<BoundingBox> bblist=GeomUtil.getBoundingBoxesContaining(averageWidthOCRFinal*1.1, averageHeightOCRFinal*1.1, t, averageWidthOCRFinal);
 			        	bblist.stream()
 			        		.map(bb->bb.resize(averageWidthOCRFinal,averageHeightOCRFinal))
@@ -1073,6 +1365,7 @@ public class StructureImageExtractor {
 			//
 			rescueShapes1.forEach(bb->{
 //				cons.accept(bb.getCenteredConvexRect(), null);
+				deadline.check();
 				boolean[] got = new boolean[]{false};
 
 				if(!got[0]){
@@ -1128,8 +1421,9 @@ public class StructureImageExtractor {
 		ctabRaw.clear();
 		ocrAttempt.clear();
 		bitmap = aBitMap;
+		startStepTimer();
 
-		SCOCR[] socr=new SCOCR[]{OCR_DEFAULT.orElse(OCR_BACKUP, OCRcutoffCosine)};
+		SCOCR[] socr=new SCOCR[]{settings.getOCR()};
 
 		double[] maxBondLength=new double[]{INITIAL_MAX_BOND_LENGTH};    
 
@@ -1139,7 +1433,7 @@ public class StructureImageExtractor {
 		
 		
 
-		thin = bitmap.thin();
+		thin = bitmap.thin(settings.thinningStrategy);
 		boolean blurred=false;
 		
 
@@ -1147,7 +1441,7 @@ public class StructureImageExtractor {
 
 		if(hollow.size()> 0.002*thin.fractionPixelsOn()*thin.width()*thin.height()){
 			bitmap=new Bitmap.BitmapBuilder(bitmap).boxBlur(1).threshold(2).build();
-			thin=bitmap.thin();
+			thin=bitmap.thin(settings.thinningStrategy);
 			blurred=true;
 		}
 			
@@ -1169,7 +1463,7 @@ public class StructureImageExtractor {
 
 		if(noise> polygons.size()*0.8){
 			bitmap=new Bitmap.BitmapBuilder(bitmap).boxBlur(2).threshold(7).build();
-			thin=bitmap.thin();
+			thin=bitmap.thin(settings.thinningStrategy);
 			polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon)
 					.stream()
 					.map(s->ShapeWrapper.of(s))
@@ -1223,16 +1517,18 @@ public class StructureImageExtractor {
 						});
 				Set<ShapeWrapper> toAdd = new HashSet<>();
 				Set<ShapeWrapper> toRem = new HashSet<>();
+				SpatialIndex<ShapeWrapper> npolyIndex = SpatialIndex.of(npolys, ShapeWrapper::getBounds);
+				SpatialIndex<ShapeWrapper> polyIndex = SpatialIndex.of(polygons, ShapeWrapper::getBounds);
 				combined.stream()
 					.map(ss->GeomUtil.growShapeHex(ss.getBounds2D(), 10))
 					.map(ss->ShapeWrapper.of(ss))
 					.forEach(ss->{
-						npolys.stream()
-						      .filter(sn->GeomUtil.intersects(ss, sn))
-						      .forEach(sn->toAdd.add(sn));
-						polygons.stream()
-					      .filter(sn->GeomUtil.intersects(ss, sn))
-					      .forEach(sn->toRem.add(sn));
+						npolyIndex.forEachIntersecting(ss.getBounds(), sn->{
+							if(GeomUtil.intersects(ss, sn))toAdd.add(sn);
+						});
+						polyIndex.forEachIntersecting(ss.getBounds(), sn->{
+							if(GeomUtil.intersects(ss, sn))toRem.add(sn);
+						});
 					});
 				polygons.removeAll(toRem);
 				polygons.addAll(toAdd);
@@ -1242,6 +1538,7 @@ public class StructureImageExtractor {
 		
 		
 
+		listener.onPolygons(polygons.size());
 		boolean isLarge = false;
 		if (!polygons.isEmpty()) {
 			isLarge = polygons.size() > 4000;			
@@ -1390,7 +1687,7 @@ public class StructureImageExtractor {
 
 		
 		
-		if(PRE_RESCUE_OCR){
+		if(PRE_RESCUE_OCR && settings.preRescueOCR){
 			rescueOCR(lines,polygons,likelyOCR,socr[0],(s,potential)->{
 				realRescueOCRCandidates.add(s.getShape());
 				if(potential==null){
@@ -1464,7 +1761,7 @@ public class StructureImageExtractor {
 		
 		
 		
-		while(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS){
+		while(foundNewOCR[0] && repeats<settings.maxOCRFullRepeats){
 			
 			if (Thread.currentThread().isInterrupted()){
 			      throw new InterruptedException();
@@ -1584,7 +1881,7 @@ public class StructureImageExtractor {
 					.collect(Collectors.toList());
 
 
-			smallLines= bitmap.combineLines(smallLines, MAX_DISTANCE_FOR_STITCHING_SMALL_SEGMENTS, MAX_TOLERANCE_FOR_STITCHING_SMALL_SEGMENTS_FULL, MAX_POINT_DISTANCE_TO_BE_PART_OF_MULTI_NODE,MAX_ANGLE_FOR_JOINING_SEGMENTS,MIN_SIZE_FOR_ANGLE_COMPARE_JOINING_SEGMENTS);
+			smallLines= bitmap.combineLines(smallLines, MAX_DISTANCE_FOR_STITCHING_SMALL_SEGMENTS, MAX_TOLERANCE_FOR_STITCHING_SMALL_SEGMENTS_FULL, MAX_POINT_DISTANCE_TO_BE_PART_OF_MULTI_NODE,MAX_ANGLE_FOR_JOINING_SEGMENTS,MIN_SIZE_FOR_ANGLE_COMPARE_JOINING_SEGMENTS, deadline);
 
 			List<Line2D> removedTinyLines =smallLines.stream()
 					.map(l->l.getLine())
@@ -1728,9 +2025,10 @@ public class StructureImageExtractor {
 						minPerLineDistanceRatioForIntersection,
 						maxCandidateRatioForIntersectionWithNeighbor,
 						GeomUtil.longerThan(maxBondLength[0]).negate())
-						.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
+						.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES)
+						.setDeadline(deadline);
 
-				if(DEBUG)logState(1,"initial connection table, and merging of extremely close nodes");
+				logStep(1,"initial connection table, and merging of extremely close nodes");
 				
 				ctab.getEdgesWhichMightBeWiggleLines()
 					.forEach(t->{
@@ -1773,11 +2071,11 @@ public class StructureImageExtractor {
 				    		foundNewOCR[0]=true;
 				    	}
 					});
-				if(DEBUG)logState(2,"add edges where wiggle bonds appear to be");
+				logStep(2,"add edges where wiggle bonds appear to be");
 				
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				ctab.standardCleanEdges();			
-				if(DEBUG)logState(3,"second pass:merge nodes that are extremely close together");
+				logStep(3,"second pass:merge nodes that are extremely close together");
 
 				RunningAverage allDashLengths = new RunningAverage(2);
 				
@@ -1811,11 +2109,11 @@ public class StructureImageExtractor {
 				    	}
 				    	
 				    });
-				if(DEBUG)logState(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
+				logStep(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
 				ctab.standardCleanEdges();
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				
-				if(DEBUG)logState(5,"third pass:merge nodes that are extremely close together");
+				logStep(5,"third pass:merge nodes that are extremely close together");
 				
 				double avgDot=allDashLengths.computeAvg();
 				
@@ -1830,14 +2128,14 @@ public class StructureImageExtractor {
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}
 
-				if(DEBUG)logState(6,"merge nodes inside of OCR shapes");
+				logStep(6,"merge nodes inside of OCR shapes");
 				
 				
 				
 				
 				//ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_INITIAL_1);
 				
-				if(DEBUG)logState(59,"fourth pass:merge nodes that are extremely close together");
+				logStep(59,"fourth pass:merge nodes that are extremely close together");
 
 				List<List<Node>> newNodesForMerge = new ArrayList<>();
 
@@ -1962,7 +2260,7 @@ public class StructureImageExtractor {
 
 				});
 
-				if(DEBUG)logState(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
+				logStep(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
 				
 				
 				newNodesForMerge.forEach(ln->{
@@ -1976,7 +2274,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 				
-				if(DEBUG)logState(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				logStep(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 
@@ -2038,7 +2336,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 
-				if(DEBUG)logState(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				logStep(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 				Set<Edge> splitEdges = new HashSet<Edge>();
@@ -2066,13 +2364,13 @@ public class StructureImageExtractor {
 				    	
 				    });
 
-				if(DEBUG)logState(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
+				logStep(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
 
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
 				
 
-				if(DEBUG)logState(10,"merge very close nodes");
+				logStep(10,"merge very close nodes");
 
 				
 
@@ -2099,7 +2397,7 @@ public class StructureImageExtractor {
 				ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
 				ctab.removeOrphanNodes();
 				
-				if(DEBUG)logState(11,"merge nodes extending to OCR shapes");
+				logStep(11,"merge nodes extending to OCR shapes");
 				
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
@@ -2110,16 +2408,16 @@ public class StructureImageExtractor {
 					}
 					return true;
 				});
-				if(DEBUG)logState(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
+				logStep(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
 				
 				for(ShapeWrapper s: likelyOCR){
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}				
-				if(DEBUG)logState(13,"merge and center all existing nodes inside of OCR shapes");
+				logStep(13,"merge and center all existing nodes inside of OCR shapes");
 
 				ctab.makeMissingNodesForShapes(likelyOCR,MAX_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL,MIN_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL);
 				
-				if(DEBUG)logState(14,"add nodes for OCR shapes which were not captured as nodes yet");
+				logStep(14,"add nodes for OCR shapes which were not captured as nodes yet");
 				
 				
 				Set<Node> toRemove = new LinkedHashSet<Node>();
@@ -2207,7 +2505,7 @@ public class StructureImageExtractor {
 				toRemoveEdgesImmediately.forEach(e->ctab.removeEdge(e));
 				
 				
-				if(DEBUG)logState(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
+				logStep(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
 				
 				List<Tuple<Edge, Tuple<Node,Node>>> removeMe = new ArrayList<>();
 				
@@ -2355,7 +2653,7 @@ public class StructureImageExtractor {
 					
 				});
 				
-				if(DEBUG)logState(16,"remove edges which appear to have been noise / generated from proximity around a ring");
+				logStep(16,"remove edges which appear to have been noise / generated from proximity around a ring");
 
 				double avgBondLength=ctab.getAverageBondLength();
 				maxBondLength[0]=avgBondLength*MAX_BOND_TO_AVG_BOND_RATIO_TO_KEEP;
@@ -2391,13 +2689,13 @@ public class StructureImageExtractor {
 			}, (nn)->{
 				intersectionNodes.add(nn.getPoint());
 			});
-			if(DEBUG)logState(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
+			logStep(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
 
 			if(anyOtherIntersections.get()){
 				ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE);
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(18,"merge very close nodes if there were more intersections computed");
+			logStep(18,"merge very close nodes if there were more intersections computed");
 
 			//This is probably where we try to add some missed OCR based on the nodes
 
@@ -2645,7 +2943,7 @@ public class StructureImageExtractor {
 
 			
 			ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
-			if(DEBUG)logState(20,"merge nodes extending to likely OCR shapes");
+			logStep(20,"merge nodes extending to likely OCR shapes");
 
 			double cosThetaOCRShape =Math.cos(MAX_THETA_FOR_OCR_SEPERATION);
 			
@@ -3361,7 +3659,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 			
-			if(DEBUG)logState(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
+			logStep(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
 
 			
 
@@ -3543,7 +3841,7 @@ public class StructureImageExtractor {
 						});
 
 			ctab.standardCleanEdges();
-			if(DEBUG)logState(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
+			logStep(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
 			
 			
 			
@@ -3558,7 +3856,7 @@ public class StructureImageExtractor {
 					}
 					addedCloseEdges.add(t.v());
 				});
-				if(DEBUG)logState(23,"add missing bonds to close neighbors if there is pixel-support");
+				logStep(23,"add missing bonds to close neighbors if there is pixel-support");
 				addedCloseEdges.stream()
 				 .forEach(ne->{
 					 LineWrapper lwe = LineWrapper.of(ne.getLine());
@@ -3569,7 +3867,7 @@ public class StructureImageExtractor {
 						 ne.setOrder(2);
 					 }  				  	 
 				 });
-				if(DEBUG)logState(58,"adjusted bond order of found edges");
+				logStep(58,"adjusted bond order of found edges");
 			}
 			
 			
@@ -3679,7 +3977,7 @@ public class StructureImageExtractor {
 			}
 			ctab.removeOrphanNodes();
 
-			if(DEBUG)logState(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
+			logStep(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
 			
 		
 			double fbondlength=ctab.getAverageBondLength();
@@ -3748,7 +4046,7 @@ public class StructureImageExtractor {
 						}
 					});
 			
-			if(DEBUG)logState(26,"split long triple bonds into single-triple composites");
+			logStep(26,"split long triple bonds into single-triple composites");
 			
 			List<ShapeWrapper> appliedOCR = new ArrayList<>();
 			AtomicInteger groupNumber = new AtomicInteger(0);
@@ -3916,7 +4214,7 @@ public class StructureImageExtractor {
 					}
 				}
 			}			
-			if(DEBUG)logState(27,"add atom labels and computable groups");
+			logStep(27,"add atom labels and computable groups");
 			
 			
 			ctab.getNodes()
@@ -4009,7 +4307,7 @@ public class StructureImageExtractor {
 				
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
+			logStep(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
 			
 			
 
@@ -4085,10 +4383,10 @@ public class StructureImageExtractor {
 				}
 				//realRescueOCRCandidates.add(crop);
 			}
-			if(DEBUG)logState(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
+			logStep(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
 			
 			
-			if(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS){
+			if(foundNewOCR[0] && repeats<settings.maxOCRFullRepeats){
 				continue;
 			}
 			
@@ -4148,7 +4446,7 @@ public class StructureImageExtractor {
 			}while(!toRemove.isEmpty());
 
 
-			if(DEBUG)logState(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
+			logStep(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
 
 
 			//Cleanup "duplicate" lines that are probably problems. 
@@ -4195,7 +4493,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 
-			if(DEBUG)logState(31,"remove duplicate long edges which appear to be meant for neighbor");
+			logStep(31,"remove duplicate long edges which appear to be meant for neighbor");
 
 			
 			CachedSupplier<List<Tuple<LineWrapper,Shape>>> linesJoinedInfluence = CachedSupplier.of(()->linesJoined
@@ -4328,7 +4626,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 			
 			
-			if(DEBUG)logState(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
+			logStep(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
 			
 			boolean highValCarbon = ctab.getNodes()
 										.stream()
@@ -4342,7 +4640,7 @@ public class StructureImageExtractor {
 				ctab.standardCleanEdges();
 			}
 			
-			if(DEBUG)logState(33,"remove high valance carbons if present");
+			logStep(33,"remove high valance carbons if present");
 			
 			List<Node> toRemoveNodesCage = new ArrayList<>();
 			
@@ -4487,7 +4785,7 @@ public class StructureImageExtractor {
 			for(Node r:toRemoveNodesCage){
 				ctab.removeNodeAndEdges(r);
 			}
-			if(DEBUG)logState(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
+			logStep(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
 			
 			
 			toRemoveNodesCage.clear();
@@ -4530,7 +4828,7 @@ public class StructureImageExtractor {
 			
 			
 			ctab.removeOrphanNodes();
-			if(DEBUG)logState(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
+			logStep(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
 			
 			
 			List<Shape> singleBondInfluenceAreas = ctab.getEdges()
@@ -4584,7 +4882,7 @@ public class StructureImageExtractor {
 						}
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
+			logStep(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
 			
 			//clean bad triple bonds
 			ctab.getEdges().stream()
@@ -4646,7 +4944,7 @@ public class StructureImageExtractor {
 						
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
+			logStep(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
 			
 			
 			//look for pentavalent Carbons
@@ -4720,7 +5018,7 @@ public class StructureImageExtractor {
 				 		}
 			    	}
 			    });
-			if(DEBUG)logState(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
+			logStep(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
 			
 			
 			//Here, we should remove some bad cage bonds			
@@ -4745,7 +5043,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
+			logStep(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
 			
 			
 			//Find floating methyls
@@ -4904,7 +5202,7 @@ public class StructureImageExtractor {
 				}
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
+			logStep(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
 			
 			
 			//Not sure about this, sometimes want to do a final merge
@@ -4929,7 +5227,7 @@ public class StructureImageExtractor {
 			    	ctab.standardCleanEdges();
 			    });
 			
-			if(DEBUG)logState(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
+			logStep(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
 			
 			@SuppressWarnings("unchecked")
 			List<Tuple<Edge,WedgeInfo>> winfo=(List<Tuple<Edge, WedgeInfo>>) ctab.getEdges()
@@ -5031,7 +5329,7 @@ public class StructureImageExtractor {
 					.filter(t->t.isPresent())
 					.map(o->o.get())
 					.collect(Collectors.toList());
-			if(DEBUG)logState(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
+			logStep(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
 			
 			
 			Predicate<Node> couldBeStereoCenter = (n1)->n1.getEdgeCount()>=3 && n1.getSymbol().equals("C") && !n1.getEdges().stream().filter(e1->e1.getOrder()>1).findAny().isPresent();
@@ -5115,7 +5413,7 @@ public class StructureImageExtractor {
 					}
 				}
 			});
-			if(DEBUG)logState(42,"assign wedges based on relative thickness and/or wedgeness");
+			logStep(42,"assign wedges based on relative thickness and/or wedgeness");
 			
 			
 			if(thickEdges.size()>0 && wedgeEdges.size()>0){
@@ -5131,7 +5429,7 @@ public class StructureImageExtractor {
 						  })
 				          .forEach(w->w.setWedge(false));
 			}
-			if(DEBUG)logState(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
+			logStep(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
 			
 			
 
@@ -5173,7 +5471,7 @@ public class StructureImageExtractor {
 							centerOfExplicitDashes.add(e.getCenterPoint());
 						}
 					});
-			if(DEBUG)logState(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
+			logStep(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
 			
 			ctab.getEdges()
 			    .stream()
@@ -5196,7 +5494,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(45,"remove dashed edges which don't have strong support from line segments");
+			logStep(45,"remove dashed edges which don't have strong support from line segments");
 
 			ctab.getEdges()
 				.stream()
@@ -5207,7 +5505,7 @@ public class StructureImageExtractor {
 					}
 				});
 			
-			if(DEBUG)logState(46,"reorient the stereo bonds if they don't make sense where they're pointing");
+			logStep(46,"reorient the stereo bonds if they don't make sense where they're pointing");
 
 			//sometimes there's an atom in the middle of an existing bond, when this happens, it should be removed
 			
@@ -5233,7 +5531,7 @@ public class StructureImageExtractor {
 			}
 			
 			
-			if(DEBUG)logState(46,"look for an atom in the middle of an existing bond, when this happens, it should be removed");
+			logStep(46,"look for an atom in the middle of an existing bond, when this happens, it should be removed");
 			
 	
 //			
@@ -5285,7 +5583,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(47,"look for possible missing double bond on 6-membered rings");
+			logStep(47,"look for possible missing double bond on 6-membered rings");
 			
 			
 			ctab.getRings()
@@ -5346,7 +5644,7 @@ public class StructureImageExtractor {
 			    	
 			    });
 
-			if(DEBUG)logState(48,"resize/stretch aromatic rings to be planar");
+			logStep(48,"resize/stretch aromatic rings to be planar");
 
 			//fix dashes which might not have had support
 			//but only if they're over-specified
@@ -5364,9 +5662,10 @@ public class StructureImageExtractor {
 			    	e.setDashed(false);
 			    	
 			    });
-			if(DEBUG)logState(49,"remove dashed bonds that had little support and that are over-specified");
+			logStep(49,"remove dashed bonds that had little support and that are over-specified");
 
 		}
+		listener.onOCRRepeats(repeats, settings.maxOCRFullRepeats);
 		if(Thread.currentThread().isInterrupted()){
 			throw new InterruptedException();
 		}
@@ -5408,7 +5707,7 @@ public class StructureImageExtractor {
 		    		//probably a C
 		    		n.setSymbol("C");
 		    });
-		if(DEBUG)logState(50,"change symbols for H and F to C if there are more bonds than there should be");		
+		logStep(50,"change symbols for H and F to C if there are more bonds than there should be");		
 
 
 		
@@ -5430,7 +5729,7 @@ public class StructureImageExtractor {
 			    			 ctab.removeEdge(t.v());
 			    		 });
 			    });
-		if(DEBUG)logState(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
+		logStep(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
 		
 
 		//fix bad Sulfurs
@@ -5509,7 +5808,7 @@ public class StructureImageExtractor {
 		    		}
 		    });
 		
-		if(DEBUG)logState(52,"charge nitrogens and sulfurs with large number of bonds");
+		logStep(52,"charge nitrogens and sulfurs with large number of bonds");
 		
 		List<ShapeWrapper> mightBeNegative=polygons.stream()
 										    .filter(s->s.getHeight()<ctab.getAverageBondLength()/10)
@@ -5605,7 +5904,7 @@ public class StructureImageExtractor {
 			}
 		}
 		
-		if(DEBUG)logState(53,"negative charge detection");
+		logStep(53,"negative charge detection");
 		
 		ctab.getNodes()
 			.stream()
@@ -5640,7 +5939,7 @@ public class StructureImageExtractor {
 			});
 		
 		
-		if(DEBUG)logState(54,"change bond order for high valance N and S");
+		logStep(54,"change bond order for high valance N and S");
 		
 
 
@@ -5657,7 +5956,7 @@ public class StructureImageExtractor {
 		    	ctab.removeOrphanNodes();
 		    });
 		
-		if(DEBUG)logState(55,"removed bad dashed isolated bonds");
+		logStep(55,"removed bad dashed isolated bonds");
 		
 		
 		// clean up 5-membered rings
@@ -5706,7 +6005,7 @@ public class StructureImageExtractor {
 				
 			});
 			
-			if(DEBUG)logState(56,"Dash clean up");
+			logStep(56,"Dash clean up");
 			
 			ctab.getRings()
 			    .stream()
@@ -5770,7 +6069,7 @@ public class StructureImageExtractor {
 				ctab.simpleClean();
 				
 				
-				if(DEBUG)logState(57,"5 member clean up");
+				logStep(57,"5 member clean up");
 	
 	
 				
@@ -5827,7 +6126,7 @@ public class StructureImageExtractor {
 				
 				
 				//real hex grid alignment
-				if(DO_HEX_GRID_MICRO_ALIGNMENT){
+				if(DO_HEX_GRID_MICRO_ALIGNMENT && settings.hexGridMicroAlignment){
 					double DS = 1.0;
 					double DX= DS*Math.sqrt(3.0)/2.0;
 					double DY= DS*1.0;
@@ -5965,7 +6264,7 @@ public class StructureImageExtractor {
 					n.setInvented(false);
 				});
 			
-			if(DEBUG)logState(58,"minor adjustments to layout for rings and terminal groups");
+			logStep(58,"minor adjustments to layout for rings and terminal groups");
 			
 			
 		
@@ -6025,7 +6324,7 @@ public class StructureImageExtractor {
 		    	}
 		    });
 		
-		if(DEBUG)logState(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
+		logStep(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
 		
 		ctab.getNodes()
 			.stream()
@@ -6062,10 +6361,58 @@ public class StructureImageExtractor {
 				       .forEach(Edge::setToAromatic);
 		       });
 		
-		if(DEBUG)logState(60,"set aromatic bonds");		
+		logStep(60,"set aromatic bonds");		
+	}
+	
+	
+	
+	private void handleTimeout(Deadline.ExceededException e) throws MolvecTimeoutException{
+		if(settings.bestSoFarOnTimeout && lastStepCtab!=null){
+			//the time is up, so nothing done with the table from here on should check it
+			ctab=lastStepCtab.setDeadline(Deadline.NONE);
+			timedOut=true;
+			return;
+		}
+		throw new MolvecTimeoutException(e.getMessage(), e);
 	}
 	
+	private void startStepTimer(){
+		if(listener!=PipelineListener.NO_OP){
+			lastStepNanos=System.nanoTime();
+			lastStepAllocated=allocatedBytes();
+		}
+	}
 	
+	private void logStep(int stepNum, String msg){
+		if(listener!=PipelineListener.NO_OP){
+			long now=System.nanoTime();
+			long allocated=allocatedBytes();
+			listener.onStep(stepNum, msg, now-lastStepNanos, (allocated<0 || lastStepAllocated<0)? -1 : allocated-lastStepAllocated);
+			lastStepNanos=now;
+			lastStepAllocated=allocated;
+		}
+		if(DEBUG)logState(stepNum,msg);
+		if(settings.bestSoFarOnTimeout && deadline!=Deadline.NONE && ctab!=null
+				&& (lastStepCtab==null || deadline.remainingNanos() < deadline.getBudgetNanos()/2)){
+			lastStepCtab=ctab.cloneTab();
+		}
+		deadline.check();
+	}
+	
+	/**
+	 * The bytes allocated so far by the current thread, or -1 if
+	 * the JVM can't tell us.
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()){
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
 	
 	private void logState(int stepNum, String msg){
 		int stateNum = ctabRaw.size();		
@@ -6156,6 +6503,15 @@ public class StructureImageExtractor {
 
 	}
 
+	/**
+	 * Returns true if the {@link Deadline} given in the {@link Settings} expired,
+	 * and the connection table is the best one found before that.
+	 * @return
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
 	/**
 	 * Returns the final {@link ConnectionTable} generated for the loaded image.
 	 * @return
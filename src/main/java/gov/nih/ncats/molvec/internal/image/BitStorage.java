@@ -0,0 +1,41 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.io.Serializable;
+
+/**
+ * Where a {@link Bitmap} keeps its pixels. Pixels are seen as rows of
+ * {@code scanline} bytes, 1 bit per pixel, most significant bit first,
+ * whatever the actual layout is; the bits past the width of the bitmap
+ * in the last byte of each row are padding.
+ * <p>
+ * Bounds are not checked by any of the methods.
+ */
+interface BitStorage extends Serializable {
+
+    boolean get(int x, int y);
+
+    void set(int x, int y, boolean on);
+
+    /**
+     * Copy the packed bits of row y into {@code dst}, starting at {@code off}.
+     * @return false if the row is known to have no bits on.
+     */
+    boolean readRow(int y, byte[] dst, int off);
+
+    /**
+     * Replace the packed bits of row y with the ones in {@code src}, starting at {@code off}.
+     */
+    void writeRow(int y, byte[] src, int off);
+
+    /**
+     * Flip every bit, including the padding.
+     */
+    void invert();
+
+    /**
+     * The number of bits on, including the padding.
+     */
+    long cardinality();
+
+    BitStorage copy();
+}
@@ -33,13 +33,12 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -49,6 +48,7 @@ import javax.imageio.ImageIO;
 
 import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
+import gov.nih.ncats.molvec.internal.util.Deadline;
 import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
 import gov.nih.ncats.molvec.internal.image.binarization.AdaptiveThreshold;
@@ -215,45 +215,91 @@ public class Bitmap implements Serializable {
     	public int twidth;
     	public int theight;
     	public int[][] ccount;
-    	public List<int[]> xys;
     	public int tcount;
+    	/**
+    	 * The scaled cells as dense arrays: cell {@code (cx,cy)} has
+    	 * {@code onCells[cx*height+cy]} pixels on out of {@code cellSizes[cx*height+cy]},
+    	 * where {@code height} is the scaled height.
+    	 */
+    	private final int[] onCells;
+    	private final int[] cellSizes;
+    	private final int scaledHeight;
+
+    	private BitmapScaled(int[] onCells, int[] cellSizes, int scaledHeight){
+    		this.onCells=onCells;
+    		this.cellSizes=cellSizes;
+    		this.scaledHeight=scaledHeight;
+    	}
+
+    	/**
+    	 * The number of on pixels in each scaled cell, cell {@code (cx,cy)} at
+    	 * {@code cx*height+cy}. The returned array must not be modified.
+    	 */
+    	public int[] onCells(){
+    		return onCells;
+    	}
+
+    	/**
+    	 * The number of pixels in each scaled cell, in the same order as
+    	 * {@link #onCells()}. The returned array must not be modified.
+    	 */
+    	public int[] cellSizes(){
+    		return cellSizes;
+    	}
+
+    	/**
+    	 * The scaled cells with at least one on pixel, as {@code {cx, cy, count}}.
+    	 * @deprecated use {@link #onCells()}.
+    	 */
+    	@Deprecated
+    	public List<int[]> xys(){
+    		List<int[]> xys = new ArrayList<>();
+    		for(int i=0;i<onCells.length;i++){
+    			if(onCells[i]>0){
+    				xys.add(new int[]{i/scaledHeight, i%scaledHeight, onCells[i]});
+    			}
+    		}
+    		return xys;
+    	}
 
     	public static BitmapScaled of(Bitmap r, int DEF_WIDTH, int DEF_HEIGHT){
 	    	int twidth = r.width();
 			int theight = r.height();
 			
-			int[][] ccount = new int[DEF_WIDTH][DEF_HEIGHT];
-			
-			List<int[]> xys=r.getXYOnPoints()
-							    .map(xy->{
-							    	int cx = (xy[0] * DEF_WIDTH) / twidth;
-							    	int cy = (xy[1] * DEF_HEIGHT) / theight;
-							    	return new int[]{cx,cy,1};
-							    })
-							    .collect(Collectors.groupingBy(i->i[0]+","+i[1]))
-							    .values()
-							    .stream()
-							    .map(il->{
-							    	int[] r1=il.get(0);
-							    	r1[2]=il.size();
-							    	return r1;
-							    })
-							    .collect(Collectors.toList());
+			int[] cells = new int[DEF_WIDTH*DEF_HEIGHT];
+			r.getOnPixels().forEach((x,y)->{
+		    	int cx = (x * DEF_WIDTH) / twidth;
+		    	int cy = (y * DEF_HEIGHT) / theight;
+		    	cells[cx*DEF_HEIGHT+cy]++;
+			});
 			
-			int tcount= xys.stream().mapToInt(r1->r1[2]).sum();
+			int tcount=0;
+			for(int c : cells){
+				tcount+=c;
+			}
 			
+			//the number of pixels in each cell is the product
+			//of the number of columns and rows mapped to it
+			int[] cols = new int[DEF_WIDTH];
+			int[] rows = new int[DEF_HEIGHT];
 			for(int i=0;i<twidth;i++){
-				for(int j=0;j<theight;j++){
-				   	int cx = (i * DEF_WIDTH) / twidth;
-			    	int cy = (j * DEF_HEIGHT) / theight;
-			    	ccount[cx][cy]++;
+				cols[(i * DEF_WIDTH) / twidth]++;
+			}
+			for(int j=0;j<theight;j++){
+				rows[(j * DEF_HEIGHT) / theight]++;
+			}
+			int[][] ccount = new int[DEF_WIDTH][DEF_HEIGHT];
+			int[] cellSizes = new int[DEF_WIDTH*DEF_HEIGHT];
+			for(int cx=0;cx<DEF_WIDTH;cx++){
+				for(int cy=0;cy<DEF_HEIGHT;cy++){
+					ccount[cx][cy]=cols[cx]*rows[cy];
+					cellSizes[cx*DEF_HEIGHT+cy]=ccount[cx][cy];
 				}
 			}
-			BitmapScaled bms=new BitmapScaled();
+			BitmapScaled bms=new BitmapScaled(cells, cellSizes, DEF_HEIGHT);
 			bms.ccount=ccount;
 			bms.twidth=twidth;
 			bms.theight=theight;
-			bms.xys=xys;
 			bms.tcount=tcount;
 			return bms;
     	}
@@ -280,17 +326,19 @@ public class Bitmap implements Serializable {
     	private int w;
     	private int h;
 
-    	private CachedSupplier<List<int[]>> onXYs = CachedSupplier.of(()->{
+    	private CachedSupplier<OnPixels> onXYs = CachedSupplier.of(()->{
     		   		
     		if(w*h<400){
-    			return real.crop(cropShape).getXYOnPoints().collect(Collectors.toList());
+    			return real.crop(cropShape).getOnPixels();
     		}
     		
-    		return real.getXYOnPoints()
-    				   .filter(xy->(xy[0]>=x0 && xy[0]<=x1) && (xy[1]>=y0 && xy[1]<=y1))
-    				   .filter(xy->xy[0]==x1||xy[1]==y1||cropShape.contains(xy[0], xy[1]))
-    				   .map(xy->new int[]{(int)(xy[0]-x0),(int)(xy[1]-y0)})
-    				   .collect(Collectors.toList());
+    		OnPixels.Builder on = new OnPixels.Builder(h);
+    		real.getOnPixels().forEachIn(x0, y0, x1, y1, (x,y)->{
+    			if(x==x1||y==y1||cropShape.contains(x, y)){
+    				on.add(x-x0, y-y0);
+    			}
+    		});
+    		return on.build();
     	});
      	
     	
@@ -317,8 +365,8 @@ public class Bitmap implements Serializable {
 			return w;
 		}
 		
-		public Stream<int[]> getXYOnPoints() {
-			return onXYs.get().stream();
+		public OnPixels getOnPixels() {
+			return onXYs.get();
 		}
     	public double fractionPixelsOn(){
     		return onXYs.get().size()/((double)(width()*height()));
@@ -504,70 +552,38 @@ public class Bitmap implements Serializable {
     public enum Bbox {
         Rectangular{
             @Override
-            List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                Map<Short, Rectangle> ltab = new LinkedHashMap<Short, Rectangle> ();
-                List<Shape> comps = new ArrayList<Shape> ();
-//labels = new short[height][width + 1];
-                int height = labels.length;
-                int width = labels[0].length -1;
-                for (int y = 0; y < height; ++y) {
-                    //TODO is this an off by 1 error since label array goes +1 ?
-                    for (int x = 0; x < width; ++x) {
-                        short label = labels[y][x];
-                        if (label != 0) {
-                            short l = label;
-                            /* find equivalence class */
-                            while (eqvtab[l] > 0)
-                                l = eqvtab[l];
-
-                            labels[y][x] = l;
-                    /* create bounding box for each class and make
-                       sure that it does not go outside of the image
-                       boundary */
-                            Rectangle r = ltab.get(l);
-                            if (r == null) {
-                                ltab.put(l, r = new Rectangle(x, y, 1, 1));
-                                comps.add(r);
-                            }
-                            int x0 = Math.min(r.x, x);
-                            int y0 = Math.min(r.y, y);
-                            int x1 = Math.min(width, Math.max(r.x + r.width, x + 1));
-                            int y1 = Math.min(height, Math.max(r.y + r.height, y + 1));
-                            r.setBounds(x0, y0, x1 - x0, y1 - y0);
+            List<Shape> computeConnectedComponentShapes(ConnectedRuns runs) {
+                int[] minx = new int[runs.count];
+                int[] miny = new int[runs.count];
+                int[] maxx = new int[runs.count];
+                int[] maxy = new int[runs.count];
+                Arrays.fill(miny, -1);
+                for (int y = 0; y < runs.height(); ++y) {
+                    for (int i = runs.rowStart[y]; i < runs.rowStart[y + 1]; ++i) {
+                        int c = runs.runComponent[i];
+                        if (miny[c] < 0) {
+                            minx[c] = runs.runStart[i];
+                            miny[c] = y;
+                            maxx[c] = runs.runEnd[i];
+                        } else {
+                            minx[c] = Math.min(minx[c], runs.runStart[i]);
+                            maxx[c] = Math.max(maxx[c], runs.runEnd[i]);
                         }
+                        maxy[c] = y + 1;
                     }
                 }
+                List<Shape> comps = new ArrayList<Shape> (runs.count);
+                for (int c = 0; c < runs.count; ++c) {
+                    comps.add(new Rectangle(minx[c], miny[c], maxx[c] - minx[c], maxy[c] - miny[c]));
+                }
                 return comps;
             }
         },
             Polygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
-
-                    List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
+                List<Shape> computeConnectedComponentShapes(ConnectedRuns runs) {
+                    List<Shape> comps = new ArrayList<Shape> (runs.count);
+                    for (List<Point> pts : pointsOf(runs)) {
                         Polygon hull = GeomUtil.convexHullOldIntPrecision (pts.toArray (new Point[0]));
                         comps.add (hull);
                     }
@@ -580,32 +596,9 @@ public class Bitmap implements Serializable {
          */
             DoublePolygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
-
-                    List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
+                List<Shape> computeConnectedComponentShapes(ConnectedRuns runs) {
+                    List<Shape> comps = new ArrayList<Shape> (runs.count);
+                    for (List<Point> pts : pointsOf(runs)) {
                         Point2D[] ptsadjusted=pts.stream()
                                 .flatMap(pt->{
                                     return Stream.of(new Point2D.Double(pt.getX(),pt.getY()));
@@ -627,10 +620,28 @@ public class Bitmap implements Serializable {
             }
         ;
 
-        abstract List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels);
-
+        abstract List<Shape> computeConnectedComponentShapes(ConnectedRuns runs);
 
+        /**
+         * The pixels of each component, in the order they appear
+         * scanning the rows top to bottom, left to right.
+         */
+        static List<List<Point>> pointsOf(ConnectedRuns runs){
+            List<List<Point>> coords = new ArrayList<> (runs.count);
+            for (int c = 0; c < runs.count; ++c) {
+                coords.add(new ArrayList<Point> ());
+            }
+            for (int y = 0; y < runs.height(); ++y) {
+                for (int i = runs.rowStart[y]; i < runs.rowStart[y + 1]; ++i) {
+                    List<Point> pts = coords.get(runs.runComponent[i]);
+                    for (int x = runs.runStart[i]; x < runs.runEnd[i]; ++x) {
+                        pts.add (new Point (x, y));
+                    }
+                }
             }
+            return coords;
+        }
+    }
 
     static final int[] MASK = new int[]{
         0x80,
@@ -1025,7 +1036,7 @@ public class Bitmap implements Serializable {
         }
     }
 
-    private byte[] data; // pixel values
+    private BitStorage bits; // pixel values
 
     
     
@@ -1035,387 +1046,21 @@ public class Bitmap implements Serializable {
     private SampleModel sampleModel;
     
 
-    private CachedSupplier<List<int[]>> onInts = CachedSupplier.of(()->{
-    	List<int[]> on = new ArrayList<>(onGrid.count);
-        
-    	
-    	
-    	List<Rectangle> lookGrids = onGrid.getLeafBoundsInside(0,width,height);
-    	
-        for(int i=0;i<lookGrids.size();i++){
-               	Rectangle tgrid = lookGrids.get(i);
-   	            for (int y = tgrid.y; y < tgrid.height; ++y){
-   	                for (int x = tgrid.x; x < tgrid.width; ++x) {
-   	                		if(this.isOn(x, y)){
-   	                			on.add(new int[]{x,y});
-   	                		}
-   	                }
-   	            }
-        }
-        on.sort(Comparator.comparing(xy->xy[1]*width+xy[0]));
-    	return on;
+    private CachedSupplier<OnPixels> onInts = CachedSupplier.of(()->{
+    	return OnPixels.of(bits, width, height, scanline);
     });
     
-    private int getScanlineFor(int y){
-    	return scanline*y;
-    }
-    
-    private static byte[] sqrtCache = CachedSupplier.of(()->{
-    	int maxReal = 2*Byte.MAX_VALUE*Byte.MAX_VALUE; // this is like 127*127*2 = 15-bits ~ 32kB of 4x sqrts for each input
-    	byte[] cache= new byte[maxReal];
-    	
-    	for(int i=0;i<maxReal;i++){
-    		cache[i] = (byte)Math.min(Byte.MAX_VALUE, Math.round(Math.sqrt(i)*4));
-    	}
-
-    	return cache;
-    }).get();
-    
-    
-    
-    //Prime for optimization
-    //This is just a map of the l2 distances from each pixel location to the nearest
-    //feature pixel. This is sometimes called the "distance transform", and is useful
-    //for a few things like thickening, etc. Here, it's used mostly for giving some 
-    //tolerance when walking line segments through the bitmap.
-    
-    //This algorithm below is a fairly intensive one, and only works up to a fixed
-    //radius from feature pixels.
-    //A better implementation would likely be:
-    //http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.507.6791
-    //
-    private CachedSupplier<byte[]> distanceData = CachedSupplier.of(()->{
-    	//TODO may want to fiddle with this number/algorithm
-    	long start=System.currentTimeMillis();
-    	int growUntil = 5;
-
-//    	
-//    	byte[] distanceX=new byte[width*height];
-//    	byte[] distanceY=new byte[width*height];
-//    	
-//    	
-//    	
-//    	
-//    	int nscan=width;
-//
-//    	Arrays.fill(distanceX, Byte.MAX_VALUE);
-//    	Arrays.fill(distanceY, Byte.MAX_VALUE);
-//    	int[] dx = new int[]{-1, 0, 1,-1,1,-1,0,1};
-//    	int[] dy = new int[]{-1,-1,-1, 0,0, 1,1,1};
-//    	
-//    	HashSet<Integer> currentUpdates = new HashSet<>();
-//    	for(int[] xy:onInts.get()){
-//    		int loc = xy[1] * nscan + xy[0];
-//           	distanceX[loc] =0;
-//       		distanceY[loc] =0;
-//       		for(int i=0;i<dx.length;i++){
-//       			int nx = xy[0]+dx[i];
-//       			int ny = xy[1]+dy[i];
-//       			if(nx>=0 && nx<width && ny>=0 && ny<height){
-//	       			int locn = ny * nscan + nx;
-//	       			currentUpdates.add(locn);
-//       			}
-//       		}
-//    	}
-//    	
-//    	
-//    	HashSet<Integer> nextUpdates = new HashSet<>();
-//       
-//    	Stack<int[]> toChange = new Stack<>();
-//    	
-//    	
-//    	double MIN_SQ=Byte.MAX_VALUE*Byte.MAX_VALUE+Byte.MAX_VALUE*Byte.MAX_VALUE;
-//    	for (int r = 0; r<growUntil;r++){
-//    		int p=r%2;
-//    		
-//    		HashSet<Integer> cur;
-//    		HashSet<Integer> nex;
-//    		
-//    		
-//    		if(p==0){
-//    			cur=currentUpdates;
-//    			nex=nextUpdates;
-//    		}else{
-//    			nex=currentUpdates;
-//    			cur=nextUpdates;
-//    		}
-//    		
-//    		for(int loc:cur){
-//    			if(distanceX[loc]==Byte.MAX_VALUE && distanceY[loc] == Byte.MAX_VALUE){
-//   				 int x = loc %nscan;
-//   				 int y = loc /nscan;
-//   				//It's unset
-//         			 int mini=-1;
-//         			 byte ndx=0;
-//         			 byte ndy=0;
-//    				 double minsqdist=MIN_SQ;
-//         			 for(int i=0;i<dx.length;i++){
-//         				 int nx = dx[i]+x;
-//         				 int ny = dy[i]+y;
-//         				 if(nx<this.width && nx>=0 && ny<this.height && ny>=0){
-//         					int nloc=ny*nscan + nx;
-//         					double bdx=distanceX[nloc] + Math.abs(dx[i]);
-//         					double bdy=distanceY[nloc] + Math.abs(dy[i]);
-//         					
-//         					double d = bdx*bdx+bdy*bdy;
-//         					if(d<MIN_SQ){
-//	          					if(d<minsqdist){
-//	          						minsqdist=d;
-//	          						mini=i;
-//	          						ndx=(byte) Math.min(Byte.MAX_VALUE, bdx);
-//	          						ndy=(byte) Math.min(Byte.MAX_VALUE, bdy);
-//	          					}
-//         					}else{
-//         						nex.add(nloc);
-//         					}
-//         				 }	 
-//         			 }
-//         			 if(mini>=0){
-//     					toChange.add(new int[]{loc,ndx,ndy});
-//     					
-//         			 }
-//   			 }
-//    		}
-//    		
-//    		while(!toChange.empty()){
-//    			int[] v=toChange.pop();
-//    			distanceX[v[0]] =(byte)v[1];
-//				distanceY[v[0]] =(byte)v[2];
-//				nex.remove(v[0]);
-//				
-//    		}
-//    		cur.clear();
-//    	}
-//    	
-////    	System.out.println("Total Time:" + (System.currentTimeMillis() - start));
-//    	
-//    	for (int y = 0; y < this.height; ++y) {
-//    		int yoff=y*nscan;
-//    		
-//            for (int x = 0; x < this.width; ++x) {
-//          		 int loc = yoff + x;
-//          		 byte ddx=distanceX[loc];
-//         		 byte ddy=distanceY[loc];
-//          		 if(ddx>=Byte.MAX_VALUE || ddy>=Byte.MAX_VALUE){
-//          			distanceX[loc] = (byte)Byte.MAX_VALUE;
-//          			continue;
-//          		 }          		 
-//          		 int dd=ddx*ddx+ddy*ddy;
-//          		 distanceX[loc]=sqrtCache[dd];
-//            }
-//       }
-//	BufferedImage gg=getGrayscale(width, distanceX);
-//    	
-//    	try {
-//			ImageIO.write(gg, "PNG", new File("loWARBrute.png"));
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-//    	System.out.println("Total Time:" + (System.currentTimeMillis() - start));
-//    	return distanceX;
-    	
-    	
-    	//This method should be faster, but isn't yet ... probably because it
-    	//has to compute the real thing, not just the first few pixels
-    	
-    	return getNNPixelMapX(growUntil);
-    	
-    	
-    }); //distance to nearest pixel*4
-    
-
-    
-    //Based roughly on this publication:
-    //http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.507.6791
-    public byte[] getNNPixelMapX(int limit){
-    	int BAD= Integer.MAX_VALUE;
-    	int pow2widt=Integer.highestOneBit(width);
-		if(pow2widt<width){
-			pow2widt=pow2widt*2;
-		}
-		int pow2wid = pow2widt;
-		
-		int nshift = (int)Math.round(Math.log(pow2wid)/Math.log(2.0));
-		
-    	int[] bestIndex = new int[pow2wid*height];
-    	byte[] distanceY=new byte[width*height];
-    	
-    	IntStream.range(0, height)
-//    	   .parallel()
-    	   .forEach(y->{
-	       		int lOnx = -1;
-	       		//each column
-	       		for(int x=0;x<width;x++){	
-	       			boolean on=isOn(x,y);
-	       			int locn = y * pow2wid + x;
-	       			if(on){
-	       				
-	       				bestIndex[locn] = locn;
-	       				int upto=x;
-	       				int setx=lOnx;
-	       				if(lOnx>-1){
-	       					upto=((lOnx+x)/2);
-	       				}else{
-	       					setx=x;
-	       				}
-	       				if(x>lOnx+1){
-	   	    				//update nn for last point
-	   	    				for(int i=lOnx+1;i<=upto;i++){
-	   	    					int locn2 = (y) * pow2wid + i;
-	   	    					bestIndex[locn2] = y*pow2wid +setx;
-	   	    				}
-	   	    				for(int i=upto+1;i<x;i++){
-	   	    					int locn2 = (y) * pow2wid + i;
-	   	    					bestIndex[locn2] = locn;
-	   	    				}
-	       				}
-	       				lOnx=x;
-	       			}else{
-	       				bestIndex[locn] = BAD;
-	       			}
-	       		}
-	       		if(lOnx>-1){
-	       			for(int i=lOnx+1;i<width;i++){
-	   					int locn2 = (y) * pow2wid + i;
-	   					bestIndex[locn2] = y*pow2wid+lOnx;
-	   				}
-	       		}
-    	   });
-    	
-//
-////		//each column
-    	IntStream.range(0, width)
-//    	.parallel()
- 	   .forEach(x->{
- 		  List<Double> cutoffs = new ArrayList<>();
- 		  List<Integer> locationsX = new ArrayList<>();
- 		  List<Integer> locationsY = new ArrayList<>();
- 		  
- 		  
- 		  
- 		  
- 		  
- 		  int startY=0;
- 		  
- 		  //find first real candidate
- 		  for(int y=0;y<height;y++){
- 			int locn = y*pow2wid + x;
-				
-			
- 		  	if(bestIndex[locn] != BAD){
- 		  		int bx = bestIndex[locn]& (pow2wid - 1); 
-				int by = bestIndex[locn]>>nshift; // unnecessary probably
- 		  		locationsX.add(bx);
- 		  		locationsY.add(by);
- 		  		
- 		  		cutoffs.add(0.0);
- 		  		startY=y+1;
- 		  		break;	
- 		  		
- 		  	}
- 		  }
- 		  if(!locationsX.isEmpty()){
- 			 //construct voronoi
- 			  for(int y=startY;y<height;y++){
- 	 			int locn = y*pow2wid + x;
- 	 			
- 	 		  	if(bestIndex[locn] != BAD){
- 	 		  		
- 	 		  		//need to iterate here until it's okay
- 	 		  		int bx = bestIndex[locn]& (pow2wid - 1); 
- 	 		  		int by = bestIndex[locn]>>nshift; // unnecessary probably
- 			 		int dx2= (x-bx);
- 			 		
- 			 		
- 			 		
- 			 		double iy=Double.NEGATIVE_INFINITY;
- 			 		
- 			 		while(locationsX.size()>0){
-	 	 		  		int plocX = locationsX.get(locationsX.size()-1);
-	 	 		  		int plocY = locationsY.get(locationsY.size()-1);
-	 	 		  		double pcut = cutoffs.get(cutoffs.size()-1);
-	 	 		  		double dy = by -plocY;
-	 	 		  		int dx1= (x-plocX);
-	 	 		  		
-	 	 		  		//intersection point
-	 	 		  		iy = (dx2*dx2-dx1*dx1+dy*dy) / ((double)2*dy) + plocY;
-	 	 		  		
-	 	 		  		if(iy<pcut){
-	 	 		  			//need to remove and loop
-	 	 		  			locationsX.remove(locationsX.size()-1);
-	 	 		  			locationsY.remove(locationsY.size()-1);
-	 	 		  			cutoffs.remove(cutoffs.size()-1);
-	 	 		  		}else{
-		 	 		  		break;
-	 	 		  		}
- 			 		}
- 			 		locationsX.add(bx);
- 	 		  		locationsY.add(by);
- 	 		  		cutoffs.add(iy);
- 	 		  	}
- 	 		 }
- 			 cutoffs.add(Double.POSITIVE_INFINITY);
- 			 locationsX.add(Integer.MAX_VALUE);
-		  	 locationsY.add(Integer.MAX_VALUE);
- 			  			 
- 			 int py=0;
- 			 double pco=cutoffs.get(0);
- 			 for(int ci=1;ci<cutoffs.size();ci++){
- 				 double co=Math.min(cutoffs.get(ci),height);
- 				 int vx=locationsX.get(ci-1);
-	 		  	 int vy=locationsY.get(ci-1);
-	 		  	 
- 				 int from=(int)Math.round(Math.max(pco, py));
- 				 for(int y=from;y<co;y++){
- 					 int locn = y*pow2wid + x;
- 		 		  	 bestIndex[locn]=vy*pow2wid + vx;
- 					 py=y+1;
- 				 } 				 
- 				 pco=co;
- 			 }
- 			 
- 		  }
- 		 for(int y=0;y<height;y++){
- 			int locn = y*pow2wid + x;
- 			int bx = bestIndex[locn]& (pow2wid - 1); 
-		  	int by = bestIndex[locn]>>nshift; 
- 			int ddx=Math.abs(bx-x);
-   			int ddy=Math.abs(by-y);
-   			
-   		 	int bloc =width*y+x;
-   		 
-    		 if(ddx>=Byte.MAX_VALUE || ddy>=Byte.MAX_VALUE){
-    			distanceY[bloc] = (byte)Byte.MAX_VALUE;
-    			continue;
-    		 }          		 
-    		 int dd=ddx*ddx+ddy*ddy;
-    		 
-    		 if(dd < limit*limit*2){
-    			distanceY[bloc]=(byte) Math.min(sqrtCache[dd], Byte.MAX_VALUE);	 
-    		 }else{
-    			distanceY[bloc] = (byte)Byte.MAX_VALUE;
-    		 }
- 		 }
- 		   
- 	   });
-//
-//    	BufferedImage gg=getGrayscale(width, distanceY);
-//    	
-//    	try {
-//			ImageIO.write(gg, "PNG", new File("loWARvoronFull.png"));
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-
-    	
-    	return distanceY;
-    	
-    }
-    
     
+    private CachedSupplier<DistanceTransform> distanceData = CachedSupplier.of(()->{
+    	return DistanceTransform.compute(bits, width, height);
+    });
     
+    /**
+     * The distance from each pixel to the nearest on pixel.
+     */
+    public DistanceTransform getDistanceTransform(){
+    	return distanceData.get();
+    }
     
     /**
     *
@@ -1439,6 +1084,35 @@ public class Bitmap implements Serializable {
    }
     
     public static Bitmap createBitmap (Raster raster, Binarization bb) {
+        return createBitmap(raster, bb, true);
+    }
+    
+    /**
+     * Binarize the given raster.
+     * @param raster the grayscale raster.
+     * @param bb the binarization to use.
+     * @param adaptiveSecondOpinion if true, and the threshold looks uncertain, also try 
+     * an {@link AdaptiveThreshold} and use it instead if it keeps more shapes inside of other shapes.
+     * @return the new Bitmap.
+     */
+    public static Bitmap createBitmap (Raster raster, Binarization bb, boolean adaptiveSecondOpinion) {
+        return createBitmap(raster, null, bb, adaptiveSecondOpinion);
+    }
+    
+    /**
+     * Binarize the given raster, reusing already computed {@link ImageStats}
+     * for it. This avoids recomputing the histogram when the same raster is
+     * binarized more than once.
+     * @param raster the grayscale raster.
+     * @param stats the stats of the raster, as computed by {@link Binarization#computeImageStats(Raster)},
+     * or null to compute them. The given stats are not modified.
+     * @param bb the binarization to use.
+     * @param adaptiveSecondOpinion if true, and the threshold looks uncertain, also try 
+     * an {@link AdaptiveThreshold} and use it instead if it keeps more shapes inside of other shapes.
+     * @return the new Bitmap.
+     * @since 0.9.9
+     */
+    public static Bitmap createBitmap (Raster raster, ImageStats stats, Binarization bb, boolean adaptiveSecondOpinion) {
         SampleModel model = raster.getSampleModel();
         int band = model.getNumBands ();
         if (band > 1) {
@@ -1453,12 +1127,12 @@ public class Bitmap implements Serializable {
         
         
         
-    	Bitmap bm= bb.binarize(raster, null, stat->{
+    	Bitmap bm= bb.binarize(raster, stats==null?null:stats.copy(), stat->{
         	is[0]=stat;
         });
 
 
-    	if(is[0]!=null){
+    	if(adaptiveSecondOpinion && is[0]!=null){
 	        double tPct=100*(is[0].threshold-is[0].min)/(is[0].max-is[0].min);
 	        double tPctMinSig=100*((is[0].threshold-is[0].stdev)-is[0].min)/(is[0].max-is[0].min);
 	        double tPctMaxSig=100*((is[0].threshold+is[0].stdev)-is[0].min)/(is[0].max-is[0].min);
@@ -1479,20 +1153,34 @@ public class Bitmap implements Serializable {
 	        //the adaptive threshold, possibly
 	        if(count> countOn*0.1 || count> (is[0].count-countOn)*0.1){
 	
-	            List<Shape> polys2= bm.connectedComponents(Bitmap.Bbox.DoublePolygon);
+	        	//the adaptive threshold doesn't depend on the first bitmap, so
+	        	//binarize and find its shapes while the first bitmap's shapes are found.
+	        	//It's forked in the pool we're running in, if any, so it's done by the
+	        	//same threads as the rest of the image; join() rethrows its errors as they are
+	        	ImageStats adaptiveStats = is[0];
+	        	ForkJoinTask<Bitmap> adaptive = ForkJoinTask.adapt(()->{
+	        		Bitmap b= new AdaptiveThreshold().binarize(raster, adaptiveStats,(ist)->{});
+	        		b.connectedComponents(Bitmap.Bbox.DoublePolygon);
+	        		return b;
+	        	}).fork();
+	            List<Shape> polys2;
+	            try{
+	            	polys2= bm.connectedComponents(Bitmap.Bbox.DoublePolygon);
+	            }catch(RuntimeException | Error e){
+	            	adaptive.cancel(false);
+	            	throw e;
+	            }
 	
-	            if(polys2.size()<4000){
+	            if(polys2.size()>=4000){
+	            	adaptive.cancel(false);
+	            }else{
 	
-	    	        Bitmap bm1= new AdaptiveThreshold().binarize(raster, is[0],(ist)->{});
+	    	        Bitmap bm1= adaptive.join();
 	    	        List<Shape> polys1= bm1.connectedComponents(Bitmap.Bbox.DoublePolygon);
 	
 	    	        if(polys1.size()<4000){
-	    	            long sum1=polys1.stream()
-	    		              .mapToLong(s->polys1.stream().filter(s2->GeomUtil.contains(s, s2)).count())
-	    		              .sum();
-	    		        long sum2=polys2.stream()
-	    		                .mapToLong(s->polys2.stream().filter(s2->GeomUtil.contains(s, s2)).count())
-	    		                .sum();
+	    	            long sum1=GeomUtil.countContainedPairs(polys1);
+	    		        long sum2=GeomUtil.countContainedPairs(polys2);
 	//    		        //if there are at least 3 more shapes inside other shapes, it's
 	//    		        //probably a thresholding issue that should use the one with more shapes
 	//    		        //The logic here is that aromatic double bonds are quite common, and if
@@ -1547,12 +1235,7 @@ public class Bitmap implements Serializable {
        if(onGrid!=null){
     	   return onGrid.count / (double)(width*height);
        }else{
-    	   int on=0;
-	       
-	       for (int i = 0; i < data.length; ++i) {
-	  		 on+= Integer.bitCount((data[i] & 0xff));
-	       }
-	       return ((double)on) / (data.length*8);
+	       return ((double)bits.cardinality()) / (scanline*8.0*height);
        }
     }
     
@@ -1561,9 +1244,7 @@ public class Bitmap implements Serializable {
     
     public Bitmap invert(){
     	Bitmap clone = new Bitmap(this);
-    	for (int i = 0; i < clone.data.length; ++i) {
-    		 clone.data[i] = (byte) (~clone.data[i] & 0xff);
-        }
+    	clone.bits.invert();
     	clone.onGrid.invert();
     	
     	return clone;
@@ -1572,7 +1253,7 @@ public class Bitmap implements Serializable {
 
     public static Bitmap read (byte[] file, Binarization bin) throws IOException {
 
-               return createBitmap (ImageUtil.grayscale(file).getData(),bin);
+               return createBitmap (ImageUtil.grayImage(file), bin, true);
 
     }
     public static Bitmap read (byte[] file) throws IOException {
@@ -1583,12 +1264,22 @@ public class Bitmap implements Serializable {
     }
     public static Bitmap read (File file, Binarization bin) throws IOException {
     	
-            return createBitmap (ImageUtil.grayscale(file).getData(), bin);
+            return createBitmap (ImageUtil.grayImage(file), bin, true);
 
     }
+    public static Bitmap read (File file, Binarization bin, boolean adaptiveSecondOpinion) throws IOException {
+    	return createBitmap (ImageUtil.grayImage(file), bin, adaptiveSecondOpinion);
+    }
+    public static Bitmap read (byte[] file, Binarization bin, boolean adaptiveSecondOpinion) throws IOException {
+    	return createBitmap (ImageUtil.grayImage(file), bin, adaptiveSecondOpinion);
+    }
     
     public static Bitmap read (BufferedImage bi, Binarization bb) {
-    	 return createBitmap (ImageUtil.grayscale(bi).getData(),bb);
+    	 return createBitmap (ImageUtil.grayscale(bi).getRaster(),bb);
+    }
+
+    private static Bitmap createBitmap (GrayImage gray, Binarization bb, boolean adaptiveSecondOpinion) {
+        return createBitmap(gray.getRaster(), gray.getStats(), bb, adaptiveSecondOpinion);
     }
     
     
@@ -1598,21 +1289,45 @@ public class Bitmap implements Serializable {
 
     // create an empty image
     public Bitmap (Bitmap copy) {
-        this (copy.width, copy.height);
-        System.arraycopy (copy.data, 0, this.data, 0, this.data.length);
+        init (copy.width, copy.height);
+        this.bits = copy.bits.copy();
         this.onGrid=copy.onGrid.clone();
     	
     }
 
     public Bitmap (int width, int height) {
+        this (width, height, Storage.forSize(width, height));
+    }
+
+    /**
+     * Create an empty image that keeps its pixels the given way.
+     * @since 0.9.9
+     */
+    public Bitmap (int width, int height, Storage storage) {
+        init (width, height);
+        bits = storage == Storage.TILED ? new TiledBitStorage(scanline, height)
+                                        : new DenseBitStorage(scanline, height);
+    }
+
+    private void init (int width, int height) {
         this.width = width;
         this.height = height;
 
         scanline = (width + 7) >> 3;
-        data = new byte[scanline * height];
         sampleModel = new MultiPixelPackedSampleModel
             (DataBuffer.TYPE_BYTE, width, height, 1, scanline, 0);
     }
+
+    /**
+     * How the pixels are kept.
+     */
+    public Storage getStorage () {
+        return bits instanceof TiledBitStorage ? Storage.TILED : Storage.DENSE;
+    }
+
+    BitStorage getBits () {
+        return bits;
+    }
     
     public Bitmap(){
     	
@@ -1642,7 +1357,7 @@ public class Bitmap implements Serializable {
 
     // same as get() but without the bound checking
     public boolean isOn (int x, int y) {
-        return (data[getScanlineFor(y) + x / 8] & MASK[x % 8]) != 0;
+        return bits.get(x, y);
     }
 
     public void set (int x, int y, boolean on) {
@@ -1659,20 +1374,14 @@ public class Bitmap implements Serializable {
     	
     	
     	
-        int loc = getScanlineFor(y) + x / 8;
-        boolean wasOn = ((data[loc] & MASK[x % 8]) !=0);
+        boolean wasOn = bits.get(x, y);
         if(on!=wasOn){
 	        if(on){
 	    		onGrid.add(x, y,1);
 	    	}else{
 	    		onGrid.add(x, y,-1);
 	    	}
-        }
-        
-        if (on) {
-            data[loc] |= MASK[x % 8];
-        } else {
-            data[loc] &= ~MASK[x % 8];
+	        bits.set(x, y, on);
         }
     }
 
@@ -1871,11 +1580,10 @@ public class Bitmap implements Serializable {
         WritableRaster raster =
             Raster.createWritableRaster (sampleModel, null);
         for (int y = 0; y < height; ++y) {
-            int band = getScanlineFor(y);
             for (int x = 0; x < width; ++x) {
                 // the default IndexColorModel is 0 for black and 1 white
                 raster.setSample
-                    (x, y, 0, (data[band + x / 8] & MASK[x % 8]) == 0 ? 1 : 0);
+                    (x, y, 0, isOn(x, y) ? 0 : 1);
             }
         }
         return raster;
@@ -1906,9 +1614,15 @@ public class Bitmap implements Serializable {
     
     
     
+    /**
+     * The on pixels of this bitmap, in raster order.
+     */
+    public OnPixels getOnPixels(){
+    	return onInts.get();
+    }
+    
     public Stream<int[]> getXYOnPoints(){
-    	
-    	return onInts.get().stream();
+    	return getOnPixels().stream();
     }
 
     public Bitmap crop (Shape s) {
@@ -1927,14 +1641,11 @@ public class Bitmap implements Serializable {
         //if the area is large, it's usually easier to deal with the sparse array
         //instead of a bit-for-but copy
         if(area > 500){
-	        getXYOnPoints().filter(xy->(xy[0]>=x0 && xy[0]<=x1) && (xy[1]>=y0 && xy[1]<=y1))
-	        			   .filter(xy->xy[0]==x1 || xy[1] == y1 || s.contains(xy[0],xy[1]))
-	        			   
-	        			   .map(xy->new int[]{xy[0]-x0,xy[1]-y0})
-	        			   .forEach(xy->{
-	        				   
-	        				   dst.set(xy[0], xy[1], true);
-	        			   });
+	        getOnPixels().forEachIn(x0, y0, x1, y1, (x,y)->{
+	        	if(x==x1 || y == y1 || s.contains(x,y)){
+	        		dst.set(x-x0, y-y0, true);
+	        	}
+	        });
         }else{
 	        int i, j = 0;
 	        for (int y = y0; y <= y1; ++y, ++j) {
@@ -1990,16 +1701,85 @@ public class Bitmap implements Serializable {
         return total;
     }
 
+    /**
+     * How a bitmap keeps its pixels. Both give the same results.
+     * @since 0.9.9
+     */
+    public enum Storage{
+        /**
+         * One bit per pixel in a single array.
+         */
+        DENSE,
+        /**
+         * 64x64 tiles, only allocated once they have a pixel on.
+         * This takes much less memory for large, mostly empty images
+         * like full scanned pages, but single pixel access is slower.
+         */
+        TILED;
+
+        private static volatile long tiledMinPixels = Long.getLong("bitmap.tiled.minPixels", 16L << 20);
+
+        /**
+         * Images with at least this many pixels are {@link #TILED} when
+         * no storage is given; the default is 16 megapixels, and can be set
+         * with the {@code bitmap.tiled.minPixels} system property.
+         */
+        public static void setTiledMinPixels(long pixels){
+            tiledMinPixels = pixels;
+        }
+
+        public static long getTiledMinPixels(){
+            return tiledMinPixels;
+        }
+
+        static Storage forSize(int width, int height){
+            return (long) width * height >= tiledMinPixels ? TILED : DENSE;
+        }
+    }
+
+    /**
+     * How {@link #thin(ThinningStrategy)} evaluates the thinning rules.
+     * All strategies give the same output.
+     * @since 0.9.9
+     */
+    public enum ThinningStrategy{
+        /**
+         * Evaluate the rules one pixel at a time, only looking
+         * at the parts of the image that have pixels on.
+         */
+        PIXEL,
+        /**
+         * Evaluate the rules on 64 pixels at a time using rows
+         * packed into longs, only revisiting rows near changes.
+         */
+        WORD_PARALLEL
+    }
+
+    /**
+     * Thin this bitmap using {@link ThinningStrategy#WORD_PARALLEL}.
+     * @see #thin(ThinningStrategy)
+     */
+    public Bitmap thin () {
+        return thin(ThinningStrategy.WORD_PARALLEL);
+    }
+
     /**
      * This version is a slight improvement to the NWG algorithm. 
      * It's based on the following paper:
      * R. Carrsco, M. Forcada, A note on the Nagendraprasad-Wang-Gupta
      * thinning algorithm, Pattern Recognition Letters, 16, 539-541, 1995.
+     * @param strategy how to evaluate the thinning rules.
+     * @return a new thinned Bitmap.
+     * @since 0.9.9
      */
-    public Bitmap thin () {
+    public Bitmap thin (ThinningStrategy strategy) {
+        if(strategy == ThinningStrategy.WORD_PARALLEL){
+            Bitmap thin = new Bitmap (this);
+            WordParallelThinning.thin(thin.bits, width, height, scanline, thin.onGrid);
+            return thin;
+        }
         Bitmap thin = new Bitmap (this);
-        byte[] copy = new byte[this.data.length];
-        System.arraycopy (thin.data, 0, copy, 0, copy.length);
+        BitStorage copy = thin.bits.copy();
 
         int parity = 1;
         boolean changed;
@@ -2020,7 +1800,7 @@ public class Bitmap implements Serializable {
 	                    	
 	                    	boolean should = thin.shouldThin(ni, parity);
 	                        if(should){
-	                        	copy[getScanlineFor(y) + x / 8] &= ~MASK[x % 8];
+	                        	copy.set(x, y, false);
                                 gg.remove(x, y);
                                 changed = true;
 	                        }
@@ -2033,7 +1813,7 @@ public class Bitmap implements Serializable {
         	}
             // update the image
             if (changed) {
-                System.arraycopy (copy, 0, thin.data, 0, copy.length);
+                thin.bits = copy.copy();
             }
         }
         while (changed);
@@ -2043,36 +1823,6 @@ public class Bitmap implements Serializable {
     }
     
     
-    void union (short[] eqvtab, short cls1, short cls2) {
-        short i = cls1, j = cls2, k;
-        //logger.info("union "+cls1+" "+cls2);
-
-        while (eqvtab[i] > 0) i = eqvtab[i];
-        while (eqvtab[j] > 0) j = eqvtab[j];
-
-        while (eqvtab[cls1] > 0) {
-            k = cls1;
-            cls1 = eqvtab[cls1];
-            eqvtab[k] = i;
-        }
-
-        while (eqvtab[cls2] > 0) {
-            k = cls2;
-            cls2 = eqvtab[cls2];
-            eqvtab[k] = j;
-        }
-
-        if (i != j) {
-            if (eqvtab[j] < eqvtab[i]) {
-                eqvtab[j] += eqvtab[i] - 1;
-                eqvtab[i] = j;
-            } else {
-                eqvtab[i] += eqvtab[j] - 1;
-                eqvtab[j] = i;
-            }
-        }
-    }
-
     /*
      * return connected components as rectangular bounding boxes
      */
@@ -2095,122 +1845,19 @@ public class Bitmap implements Serializable {
 
 
 
+    /**
+     * Find the 8-connected components of the on pixels.
+     * @param shape the kind of shape used to describe each component.
+     * @return the components, in the order their first pixel is found
+     * scanning the rows top to bottom, left to right.
+     */
     public List<Shape> connectedComponents (Bbox shape) {
     	return _cacheShapes.computeIfAbsent(shape, (ss)->{
-    		short[] label = new short[]{0}; // current label
-            final short[][] labels = new short[height][width + 1];
-
-            // equivalence class
-            short[][] eqvtab = new short[1][]; 
-            short[] L = new short[4];
-            
-            eqvtab[0] = new short[500]; //some initial default
-
-            List<int[]> xys = onInts.get();
-            
-            for(int p=0;p<xys.size();p++){
-            	int[] xy = xys.get(p);
-            	int x = xy[0];
-            	int y = xy[1];
-            	if (y == 0 && x == 0) {
-                    labels[y][x] = ++label[0];
-                } else if (y == 0) {
-                    short label1 = labels[y][x - 1];
-                    if (label1 == 0) {
-                        label1 = ++label[0];
-                    }
-                    labels[y][x] = label1;
-                } else if (x == 0) {
-                    int label1 = labels[y - 1][x];
-                    int label2 = labels[y - 1][x + 1];
-                    if (label1 != 0 && label2 != 0)
-                        label1 = Math.min (label1, label2);
-                    else if (label1 == 0 && label2 == 0) {
-                        label1 = ++label[0];
-                    } else
-                        label1 = Math.max (label1, label2);
-                    labels[y][x] = (short) label1;
-                }
-                /* assign new label */
-                else if (labels[y][x - 1] == 0
-                         && labels[y - 1][x] == 0
-                         && labels[y - 1][x - 1] == 0
-                         && labels[y - 1][x + 1] == 0) {
-                    labels[y][x] = ++label[0];
-                } else {
-                    L[0] = labels[y - 1][x - 1];
-                    L[1] = labels[y - 1][x];
-                    L[2] = labels[y - 1][x + 1];
-                    L[3] = labels[y][x - 1];
-
-                    Arrays.sort (L);
-
-                    /* skip all non-labeled pixels */
-                    int n;
-                    for (n = 0; n < 4 && L[n] == 0; ++n)
-                        ;
-                    /* n should not be 4 */
-                    if (n == 4) {
-                        throw new IllegalStateException ("n == 4");
-                    }
-
-                    labels[y][x] = L[n];
-                    /* now enumerate from n to 4 - 1 */
-                    for (int i = n; i < 4; ++i)
-                        for (int j = i + 1; j < 4; ++j)
-                            /* update equivalence table */
-                            union (eqvtab[0], L[i], L[j]);
-                }
-
-                if (label[0] == Short.MAX_VALUE) {
-                    logger.log (Level.SEVERE, "Max number of labels reached: "
-                                + label + "; truncating search!");
-                    break;
-                }
-                // ensure there's enough space in the eqvtab
-                else if (label[0] >= eqvtab[0].length) {
-                    short[] newtab = new short[label[0] + 100];
-                    System.arraycopy (eqvtab[0], 0, newtab, 0, eqvtab[0].length);
-                    eqvtab[0] = newtab;
-                }
-            }
-            
-
-            if (DEBUG) {
-                System.err.print ("eqvtab:");
-                for (int i = 1; i <= label[0]; ++i) {
-                    System.err.print (" " + i + ":" + eqvtab[0][i]);
-                }
-                System.err.println ();
-                System.err.println ("label: " + label);
-
-                System.err.println ("eqv class labels...");
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
-                    }
-                    System.err.println ();
-                }
-            }
-
-
-            List<Shape> comps = ss.computeConnectedComponentShapes(eqvtab[0], labels);
-
-            if (DEBUG) {
-                System.err.println ("merged labels...");
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
-                    }
-                    System.err.println ();
-                }
-            }
-//            eqvtab = null;
-//            labels = null;
-
-            return comps;
+    		ConnectedRuns runs = ConnectedRuns.label(bits, width, height, scanline);
+    		if (DEBUG) {
+    			System.err.println ("components: " + runs.count + " runs: " + runs.runStart.length);
+    		}
+    		return ss.computeConnectedComponentShapes(runs);
     	});
 
     }
@@ -2566,7 +2213,7 @@ public class Bitmap implements Serializable {
     }
     
     public double getLineLikeScore(Line2D line){
-    	byte[] distMet=distanceData.get();
+    	DistanceTransform distMet=getDistanceTransform();
     	
     	double sx=line.getX1();
 		double sy=line.getY1();
@@ -2579,12 +2226,7 @@ public class Bitmap implements Serializable {
 		for(int d=0;d<len;d++){
 			double ddx = mult*d*dx+sx;
 			double ddy = mult*d*dy+sy;
-			int ix=(int)Math.round(ddx);
-    		int iy=(int)Math.round(ddy);
-    		int ni=width*iy+ix;
-    		if(ni>distMet.length || ni<0)return (double)Byte.MAX_VALUE*0.25;
-    		double dist= (distMet[ni]*0.25);    		
-			sumDist+=dist;
+			sumDist+=distMet.sample(ddx, ddy);
 		}
 		return sumDist/len;
     }
@@ -2594,13 +2236,21 @@ public class Bitmap implements Serializable {
     
     
     public List<LineWrapper> combineLines(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint, double maxAngle, double minLengthForAngleCompare){
+    	return combineLines(ilines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint, maxAngle, minLengthForAngleCompare, Deadline.NONE);
+    }
+    
+    /**
+     * Same as {@link #combineLines(List, double, double, double, double, double)}, but
+     * gives up with a {@link Deadline.ExceededException} once the given deadline expires.
+     */
+    public List<LineWrapper> combineLines(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint, double maxAngle, double minLengthForAngleCompare, Deadline deadline){
     	List<LineWrapper> lines = ilines;
     	int[] reps1=new int[]{0};
     	
     	boolean gotOne=true;
     	while(gotOne){
     		gotOne=false;
-    		List<LineWrapper> nlines=combineLines2(lines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint,maxAngle,minLengthForAngleCompare,reps1);
+    		List<LineWrapper> nlines=combineLines2(lines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint,maxAngle,minLengthForAngleCompare,reps1, deadline);
     		if(nlines.size()!=lines.size()){
     			gotOne=true;
     			lines=nlines;
@@ -2610,8 +2260,8 @@ public class Bitmap implements Serializable {
     	return lines;
     }
     
-    private List<LineWrapper> combineLines2(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint,double maxAngle, double minLengthForAngleCompare, int[] reps){
-    	byte[] distMet=distanceData.get();
+    private List<LineWrapper> combineLines2(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint,double maxAngle, double minLengthForAngleCompare, int[] reps, Deadline deadline){
+    	DistanceTransform distMet=getDistanceTransform();
     	
     	List<LineWrapper> lines=ilines.stream()
     	     .sorted()
@@ -2632,14 +2282,8 @@ public class Bitmap implements Serializable {
     	
     	
     	
-    	BiFunction<Double,Double,Double> sample = (x,y)->{
-    		//TODO: do interp eventually
-    		int ix=(int)Math.round(x);
-    		int iy=(int)Math.round(y);
-    		int ni=width*iy+ix;
-    		if(ni>distMet.length || ni<0)return (double)Byte.MAX_VALUE*0.25;
-    		return (double) (distMet[ni]*0.25);    		
-    	};
+    	//TODO: do interp eventually
+    	BiFunction<Double,Double,Double> sample = distMet::sample;
     	
     	double maxCosAng = Math.abs(Math.cos(maxAngle));
 
@@ -2650,6 +2294,7 @@ public class Bitmap implements Serializable {
 		for (int i = 0; i < lines.size(); i++) {
 			if (reps[0] >= MAX_REPS)
 				break;    
+			deadline.check();
 			LineWrapper line1 = lines.get(i);
 			ii[0]=i;			
 			
@@ -2770,9 +2415,8 @@ public class Bitmap implements Serializable {
 
         boolean done = false;
         for (int j = 0; j < bitmap.height; ++j) {
-            int band = j * bitmap.scanline;
             for (int i = 0; i < bitmap.width; ++i) {
-                if ((bitmap.data[band + i / 8] & MASK[i % 8]) != 0) {
+                if (bitmap.isOn(i, j)) {
                     x = i;
                     y = j;
                     done = true;
@@ -2888,9 +2532,8 @@ public class Bitmap implements Serializable {
 
         boolean done = false;
         for (int j = 0; j < bitmap.height; ++j) {
-            int band = j * bitmap.scanline;
             for (int i = 0; i < bitmap.width; ++i) {
-                if ((bitmap.data[band + i / 8] & MASK[i % 8]) != 0) {
+                if (bitmap.isOn(i, j)) {
                     x = i;
                     y = j;
                     done = true;
@@ -2987,9 +2630,8 @@ public class Bitmap implements Serializable {
 
         List<List> lines = new ArrayList<List> ();
         for (int y = 0; y < height; ++y) {
-            int band = y * scanline;
             for (int x = 0; x < width; ++x) {
-                if ((data[band + x / 8] & MASK[x % 8]) != 0) {
+                if (isOn(x, y)) {
                     //System.err.println("x="+x+" y="+y);
                     for (int n = 0; n < nsteps; ++n) {
                         int t = n * thetaDelta;
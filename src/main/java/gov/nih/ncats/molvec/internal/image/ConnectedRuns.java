@@ -0,0 +1,133 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Arrays;
+
+import gov.nih.ncats.molvec.internal.algo.GrowableUnionFind;
+
+/**
+ * The 8-connected components of a bitmap, stored as horizontal runs
+ * of on pixels. Labeling is done in two passes over the packed rows:
+ * the first pass finds the runs of each row and unions each one with
+ * the runs it touches in the row above; the second pass numbers the
+ * components in the order their first pixel is found scanning the rows
+ * top to bottom, left to right.
+ * <p>
+ * Memory use is proportional to the number of runs rather than the number
+ * of pixels, and there is no limit on the number of components.
+ */
+final class ConnectedRuns {
+
+    /**
+     * The number of components.
+     */
+    final int count;
+    /**
+     * The runs of row y are the indexes from {@code rowStart[y]} to {@code rowStart[y+1]}, exclusive.
+     */
+    final int[] rowStart;
+    /**
+     * The first x of each run.
+     */
+    final int[] runStart;
+    /**
+     * The x after the last pixel of each run.
+     */
+    final int[] runEnd;
+    /**
+     * The component index of each run.
+     */
+    final int[] runComponent;
+
+    private ConnectedRuns(int count, int[] rowStart, int[] runStart, int[] runEnd, int[] runComponent){
+        this.count = count;
+        this.rowStart = rowStart;
+        this.runStart = runStart;
+        this.runEnd = runEnd;
+        this.runComponent = runComponent;
+    }
+
+    int height(){
+        return rowStart.length - 1;
+    }
+
+    /**
+     * Label the on pixels of the given bitmap storage.
+     * @param bits the bitmap pixels, read one packed row at a time.
+     * @param width the width in pixels; bits past the width are ignored.
+     * @param height the height in pixels.
+     * @param scanline the number of bytes per row.
+     */
+    static ConnectedRuns label(BitStorage bits, int width, int height, int scanline){
+        int[] rowStart = new int[height + 1];
+        int[] starts = new int[256];
+        int[] ends = new int[256];
+        int n = 0;
+        GrowableUnionFind uf = new GrowableUnionFind(256);
+        byte[] data = new byte[scanline];
+        int line = 0;
+
+        for(int y=0; y< height; y++){
+            rowStart[y] = n;
+            if(!bits.readRow(y, data, 0)){
+                continue;
+            }
+            int prev = y ==0 ? 0 : rowStart[y - 1];
+            int prevEnd = n;
+
+            int x = 0;
+            while(x < width){
+                int b = data[line + (x >> 3)] & 0xFF;
+                if((x & 7) ==0 && b ==0){
+                    //skip whole empty bytes
+                    x += 8;
+                    continue;
+                }
+                if((b & Bitmap.MASK[x & 7]) ==0){
+                    x++;
+                    continue;
+                }
+                int start = x;
+                x++;
+                while(x < width){
+                    if((x & 7) ==0 && x + 8 <= width && data[line + (x >> 3)] == (byte) 0xFF){
+                        x += 8;
+                    }else if((data[line + (x >> 3)] & Bitmap.MASK[x & 7]) !=0){
+                        x++;
+                    }else{
+                        break;
+                    }
+                }
+                if(n == starts.length){
+                    starts = Arrays.copyOf(starts, n * 2);
+                    ends = Arrays.copyOf(ends, n * 2);
+                }
+                starts[n] = start;
+                ends[n] = x;
+                int run = uf.add();
+
+                //8-connected: runs above touch if they overlap including diagonals
+                while(prev < prevEnd && ends[prev] < start){
+                    prev++;
+                }
+                for(int k = prev; k < prevEnd && starts[k] <= x; k++){
+                    uf.union(run, k);
+                }
+                n++;
+            }
+        }
+        rowStart[height] = n;
+
+        int[] componentOfRoot = new int[n];
+        Arrays.fill(componentOfRoot, -1);
+        int[] runComponent = new int[n];
+        int count = 0;
+        for(int i=0; i< n; i++){
+            int root = uf.getComponent(i);
+            if(componentOfRoot[root] <0){
+                componentOfRoot[root] = count++;
+            }
+            runComponent[i] = componentOfRoot[root];
+        }
+        return new ConnectedRuns(count, rowStart, Arrays.copyOf(starts, n), Arrays.copyOf(ends, n), runComponent);
+    }
+}
@@ -0,0 +1,67 @@
+package gov.nih.ncats.molvec.internal.image;
+
+/**
+ * Every row of the bitmap, one after the other in a single byte array.
+ */
+final class DenseBitStorage implements BitStorage {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private final int scanline;
+
+    DenseBitStorage(int scanline, int height){
+        this(new byte[scanline * height], scanline);
+    }
+
+    DenseBitStorage(byte[] data, int scanline){
+        this.data = data;
+        this.scanline = scanline;
+    }
+
+    @Override
+    public boolean get(int x, int y){
+        return (data[y * scanline + (x >> 3)] & Bitmap.MASK[x & 7]) != 0;
+    }
+
+    @Override
+    public void set(int x, int y, boolean on){
+        int loc = y * scanline + (x >> 3);
+        if(on){
+            data[loc] |= Bitmap.MASK[x & 7];
+        }else{
+            data[loc] &= ~Bitmap.MASK[x & 7];
+        }
+    }
+
+    @Override
+    public boolean readRow(int y, byte[] dst, int off){
+        System.arraycopy(data, y * scanline, dst, off, scanline);
+        return true;
+    }
+
+    @Override
+    public void writeRow(int y, byte[] src, int off){
+        System.arraycopy(src, off, data, y * scanline, scanline);
+    }
+
+    @Override
+    public void invert(){
+        for(int i=0; i< data.length; i++){
+            data[i] = (byte) ~data[i];
+        }
+    }
+
+    @Override
+    public long cardinality(){
+        long on = 0;
+        for(int i=0; i< data.length; i++){
+            on += Integer.bitCount(data[i] & 0xff);
+        }
+        return on;
+    }
+
+    @Override
+    public BitStorage copy(){
+        return new DenseBitStorage(data.clone(), scanline);
+    }
+}
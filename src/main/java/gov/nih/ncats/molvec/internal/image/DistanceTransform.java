@@ -0,0 +1,174 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.stream.IntStream;
+
+/**
+ * The exact Euclidean distance transform of a bitmap: for every pixel, the distance
+ * to the nearest on pixel. This is useful for giving some tolerance when walking
+ * line segments through the bitmap.
+ * <p>
+ * This is computed in linear time with the separable algorithm of Meijster, Roerdink
+ * and Hesselink ("A general algorithm for computing distance transforms in linear time", 2000):
+ * a first pass finds the distance to the nearest on pixel in the same column, and a second
+ * pass finds, for each row, the lower envelope of the parabolas those column distances define.
+ * Both passes are split into bands of columns or rows which are run in parallel.
+ * <p>
+ * Distances are exact and not limited to a fixed radius. If there are no on pixels at all,
+ * every distance is {@link Double#POSITIVE_INFINITY}.
+ *
+ * @since 0.9.9
+ */
+public final class DistanceTransform {
+
+    /**
+     * The distance returned when sampling outside of the bitmap.
+     */
+    public static final double OUTSIDE_DISTANCE = Byte.MAX_VALUE * 0.25;
+
+    private static final int BAND_SIZE = 64;
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+    /**
+     * Squared distances, row by row, or {@link #NONE} if there are no on pixels.
+     */
+    private final int[] distanceSq;
+
+    private DistanceTransform(int width, int height, int[] distanceSq){
+        this.width = width;
+        this.height = height;
+        this.distanceSq = distanceSq;
+    }
+
+    public int width(){
+        return width;
+    }
+
+    public int height(){
+        return height;
+    }
+
+    /**
+     * The squared distance from the given pixel to the nearest on pixel, or
+     * {@link Integer#MAX_VALUE} if there are no on pixels.
+     */
+    public int distanceSquared(int x, int y){
+        return distanceSq[y * width + x];
+    }
+
+    /**
+     * The distance from the given pixel to the nearest on pixel.
+     */
+    public double distance(int x, int y){
+        int dd = distanceSq[y * width + x];
+        return dd == NONE ? Double.POSITIVE_INFINITY : Math.sqrt(dd);
+    }
+
+    /**
+     * The distance at the pixel nearest to the given point,
+     * or {@link #OUTSIDE_DISTANCE} if that pixel is outside of the bitmap.
+     */
+    public double sample(double x, double y){
+        int ix = (int) Math.round(x);
+        int iy = (int) Math.round(y);
+        if(ix <0 || iy <0 || ix >= width || iy >= height){
+            return OUTSIDE_DISTANCE;
+        }
+        return distance(ix, iy);
+    }
+
+    /**
+     * Compute the distance transform of the given bitmap storage.
+     * @param bits the bitmap pixels.
+     * @param width the width in pixels; bits past the width are ignored.
+     * @param height the height in pixels.
+     */
+    static DistanceTransform compute(BitStorage bits, int width, int height){
+        int[] dist = new int[width * height];
+        //larger than any real distance, so its square can't overflow a long
+        int inf = width + height;
+
+        //pass 1: vertical distance to the nearest on pixel in the same column
+        bands(width).forEach(band -> {
+            int x0 = band * BAND_SIZE;
+            int x1 = Math.min(width, x0 + BAND_SIZE);
+            for(int x=x0; x< x1; x++){
+                dist[x] = bits.get(x, 0) ? 0 : inf;
+            }
+            for(int y=1; y< height; y++){
+                int row = y * width;
+                for(int x=x0; x< x1; x++){
+                    dist[row + x] = bits.get(x, y) ? 0 : Math.min(inf, dist[row - width + x] + 1);
+                }
+            }
+            for(int y= height - 2; y>= 0; y--){
+                int row = y * width;
+                for(int x=x0; x< x1; x++){
+                    int below = dist[row + width + x] + 1;
+                    if(below < dist[row + x]){
+                        dist[row + x] = below;
+                    }
+                }
+            }
+        });
+
+        //pass 2: lower envelope of the parabolas (x-i)^2 + g(i)^2 along each row
+        bands(height).forEach(band -> {
+            int y0 = band * BAND_SIZE;
+            int y1 = Math.min(height, y0 + BAND_SIZE);
+            long[] f = new long[width];
+            int[] s = new int[width];
+            int[] t = new int[width];
+            for(int y=y0; y< y1; y++){
+                int row = y * width;
+                for(int x=0; x< width; x++){
+                    long g = dist[row + x];
+                    f[x] = g * g;
+                }
+                int q = 0;
+                s[0] = 0;
+                t[0] = 0;
+                for(int u=1; u< width; u++){
+                    while(q >= 0 && sq(t[q] - s[q]) + f[s[q]] > sq(t[q] - u) + f[u]){
+                        q--;
+                    }
+                    if(q <0){
+                        q = 0;
+                        s[0] = u;
+                    }else{
+                        long w = 1 + separation(s[q], u, f);
+                        if(w < width){
+                            q++;
+                            s[q] = u;
+                            t[q] = (int) w;
+                        }
+                    }
+                }
+                for(int u= width - 1; u>= 0; u--){
+                    long dd = sq(u - s[q]) + f[s[q]];
+                    dist[row + u] = dd >= (long) inf * inf ? NONE : (int) Math.min(dd, NONE - 1);
+                    if(u == t[q]){
+                        q--;
+                    }
+                }
+            }
+        });
+        return new DistanceTransform(width, height, dist);
+    }
+
+    private static IntStream bands(int n){
+        return IntStream.range(0, (n + BAND_SIZE - 1) / BAND_SIZE).parallel();
+    }
+
+    private static long sq(long v){
+        return v * v;
+    }
+
+    /**
+     * The first x at which the parabola of u is at or below the parabola of i, minus one.
+     */
+    private static long separation(int i, int u, long[] f){
+        return Math.floorDiv(sq(u) - sq(i) + f[u] - f[i], 2L * (u - i));
+    }
+}
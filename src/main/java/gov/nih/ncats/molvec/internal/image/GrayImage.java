@@ -0,0 +1,50 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+
+import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
+
+/**
+ * A decoded 8-bit gray image together with its {@link ImageStats}, so that
+ * binarizing it doesn't need another pass over the pixels just for the histogram.
+ *
+ * @since 0.9.9
+ */
+public final class GrayImage {
+
+    private final BufferedImage image;
+    private ImageStats stats;
+
+    /**
+     * @param image the gray image.
+     * @param stats the stats of the image, or null to compute them when first asked for.
+     */
+    public GrayImage(BufferedImage image, ImageStats stats){
+        this.image = image;
+        this.stats = stats;
+    }
+
+    public BufferedImage getImage(){
+        return image;
+    }
+
+    /**
+     * The raster of the image itself, not a copy.
+     */
+    public Raster getRaster(){
+        return image.getRaster();
+    }
+
+    /**
+     * The stats of the image. These are shared, binarizations that set a
+     * threshold should be given a {@link ImageStats#copy()}.
+     */
+    public ImageStats getStats(){
+        if(stats == null){
+            stats = Binarization.computeImageStats(image.getRaster());
+        }
+        return stats;
+    }
+}
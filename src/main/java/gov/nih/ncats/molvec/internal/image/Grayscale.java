@@ -291,7 +291,7 @@ public class Grayscale {
     	return (int)rgb[0];
     }
 
-    private enum Grayscaler{
+    enum Grayscaler{
     	//USES hard-coded ratios for going to grey
         RGBA_G(3){
             @Override
@@ -377,7 +377,10 @@ public class Grayscale {
         }
 
         public static Grayscaler getFor(Raster raster){
-            int nbands = raster.getNumBands();
+            return getFor(raster.getNumBands());
+        }
+
+        public static Grayscaler getFor(int nbands){
             switch(nbands){
                 case 1: return Grayscaler.GRAY;
                 case 2 :  return Grayscaler.GRAY_ALPHA;
@@ -411,7 +414,7 @@ public class Grayscale {
             }
         }
     }
-    private static class AlphaInfo{
+    static class AlphaInfo{
         private int maxAlpha=0;
         private int minAlpha=255;
         private int moreAlphaCount=0;
@@ -419,6 +422,16 @@ public class Grayscale {
         
         private int[] hist= new int[256];
 
+        /**
+         * The alpha range of an image whose smallest and largest alpha values are known.
+         */
+        static AlphaInfo of(int minAlpha, int maxAlpha){
+            AlphaInfo info = new AlphaInfo();
+            info.minAlpha = Math.min(info.minAlpha, minAlpha);
+            info.maxAlpha = Math.max(info.maxAlpha, maxAlpha);
+            return info;
+        }
+
         public void accept(int pixel){
             if (pixel > maxAlpha) {
                 maxAlpha = pixel;
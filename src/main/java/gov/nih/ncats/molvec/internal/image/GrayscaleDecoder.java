@@ -0,0 +1,191 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.Optional;
+
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
+
+/**
+ * The conversion {@link ImageUtil#decode(java.awt.image.BufferedImage)} does to turn a
+ * decoded image into an 8-bit gray image: stretch the sample values to the full
+ * 8-bit range, invert them, then combine the bands with {@link Grayscale}.
+ * <p>
+ * Doing that with two {@link java.awt.image.RescaleOp}s and a {@link Grayscale} allocates
+ * three more rasters the size of the decoded image. This gives the same values, computed per
+ * pixel straight into the output buffer, and can be fed the image in horizontal strips so the
+ * whole decoded image never has to be in memory: {@link #scan(Raster)} every strip first
+ * to find the value range, then {@link #decode(Raster, byte[], int)} every strip.
+ * The histogram of the gray values is counted as they are written, so the
+ * {@link ImageStats} of the result come without another pass over it.
+ */
+final class GrayscaleDecoder {
+
+    private final int nband;
+    private final int[] maxValue;
+    /**
+     * The one band the rescaling leaves alone, or -1.
+     */
+    private final int untouchedBand;
+    private final int alphaBand;
+    private final Grayscale.Grayscaler grayscaler;
+
+    private int min = Integer.MAX_VALUE;
+    private int max = 0;
+    private int minAlpha = Integer.MAX_VALUE;
+    private int maxAlpha = Integer.MIN_VALUE;
+
+    private int[][] lut;
+    private Optional<Grayscale.AlphaInfo> alphaInfo;
+    private final int[] histogram = new int[256];
+
+    GrayscaleDecoder(SampleModel sampleModel){
+        nband = sampleModel.getNumBands();
+        maxValue = new int[nband];
+        for(int b=0; b< nband; b++){
+            maxValue[b] = (1 << sampleModel.getSampleSize(b)) - 1;
+        }
+        //RescaleOp with a single factor doesn't scale the alpha of 4 band images
+        untouchedBand = nband == 4 ? 3 : -1;
+        grayscaler = Grayscale.Grayscaler.getFor(nband);
+        alphaBand = grayscaler.getAlphaBand();
+    }
+
+    /**
+     * Whether images with the given sample model are converted exactly the way the
+     * rescaling and grayscale classes would.
+     */
+    static boolean canDecode(SampleModel sampleModel){
+        int type = sampleModel.getDataType();
+        if(type != DataBuffer.TYPE_BYTE && type != DataBuffer.TYPE_USHORT && type != DataBuffer.TYPE_INT){
+            return false;
+        }
+        int nband = sampleModel.getNumBands();
+        if(nband <1 || nband > 4){
+            return false;
+        }
+        for(int b=0; b< nband; b++){
+            if(sampleModel.getSampleSize(b) > 16){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * First pass: look at the values of the given part of the image.
+     */
+    void scan(Raster raster){
+        int width = raster.getWidth();
+        int[] row = new int[width * nband];
+        for(int y=0; y< raster.getHeight(); y++){
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+            for(int i=0; i< row.length; i++){
+                int v = row[i];
+                if(v > max) max = v;
+                if(v < min) min = v;
+            }
+            if(alphaBand >=0){
+                for(int i= alphaBand; i< row.length; i+= nband){
+                    int v = row[i];
+                    if(v > maxAlpha) maxAlpha = v;
+                    if(v < minAlpha) minAlpha = v;
+                }
+            }
+        }
+    }
+
+    private void prepare(){
+        if(lut != null){
+            return;
+        }
+        // rescale to 8-bit, then invert
+        double scale = Math.max(256./(max-min+1),1);
+        float scaleFactor = (float) scale;
+        float offset = -(float)scale*min;
+
+        lut = new int[nband][];
+        for(int b=0; b< nband; b++){
+            if(b == untouchedBand){
+                continue;
+            }
+            int[] table = new int[maxValue[b] + 1];
+            for(int v=0; v< table.length; v++){
+                int scaled = clamp((int)(v*scaleFactor + offset), maxValue[b]);
+                table[v] = clamp((int)(scaled*-1f + 255f), maxValue[b]);
+            }
+            lut[b] = table;
+        }
+
+        if(alphaBand <0){
+            alphaInfo = Optional.empty();
+        }else if(alphaBand == untouchedBand){
+            alphaInfo = Optional.of(Grayscale.AlphaInfo.of(minAlpha, maxAlpha));
+        }else{
+            //the inverting makes the largest alpha the smallest
+            alphaInfo = Optional.of(Grayscale.AlphaInfo.of(lut[alphaBand][maxAlpha], lut[alphaBand][minAlpha]));
+        }
+    }
+
+    private static int clamp(int val, int maxValue){
+        if((val & ~maxValue) != 0){
+            return val < 0 ? 0 : maxValue;
+        }
+        return val;
+    }
+
+    /**
+     * Second pass: write the gray values of the given part of the image,
+     * row by row, into {@code out} starting at {@code offset}.
+     */
+    void decode(Raster raster, byte[] out, int offset){
+        prepare();
+        int width = raster.getWidth();
+        int[] row = new int[width * nband];
+        double[] pp = new double[nband];
+        for(int y=0; y< raster.getHeight(); y++){
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+            int o = offset + y * width;
+            switch(nband){
+                case 1:{
+                    int[] l0 = lut[0];
+                    for(int x=0; x< width; x++){
+                        int g = l0[row[x]];
+                        histogram[g]++;
+                        out[o + x] = (byte) g;
+                    }
+                    break;
+                }
+                case 3:{
+                    int[] l0 = lut[0], l1 = lut[1], l2 = lut[2];
+                    for(int x=0, i=0; x< width; x++, i+=3){
+                        int g = Math.max(Math.max(l0[row[i]], l1[row[i + 1]]), l2[row[i + 2]]);
+                        histogram[g]++;
+                        out[o + x] = (byte) g;
+                    }
+                    break;
+                }
+                default:{
+                    for(int x=0, i=0; x< width; x++, i+= nband){
+                        for(int b=0; b< nband; b++){
+                            pp[b] = b == untouchedBand ? row[i + b] : lut[b][row[i + b]];
+                        }
+                        grayscaler.adjustAlpha(pp, alphaInfo);
+                        int g = grayscaler.grayscaleValue(pp) & 0xff;
+                        histogram[g]++;
+                        out[o + x] = (byte) g;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The stats of everything written by {@link #decode(Raster, byte[], int)} so far,
+     * which should be the whole image of the given size.
+     */
+    ImageStats getStats(int width, int height){
+        return ImageStats.fromHistogram(histogram, width, height);
+    }
+}
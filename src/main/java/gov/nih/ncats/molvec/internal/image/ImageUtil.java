@@ -4,19 +4,25 @@ import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.RescaleOp;
 import java.io.*;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
@@ -60,13 +66,43 @@ public class ImageUtil {
 		return outputImage;
 	}
 
+    /**
+     * Images with more pixels than this are read and converted
+     * to gray a strip of rows at a time.
+     */
+    private static final int STRIP_PIXELS = 1 << 22;
+
     public static BufferedImage decode (BufferedImage bi) {
+    	return decodeGray(bi).getImage();
+    }
+
+    /**
+     * Same as {@link #decode(BufferedImage)}, also returning the stats
+     * of the gray image, which are computed while it is written.
+     * @since 0.9.9
+     */
+    public static GrayImage decodeGray (BufferedImage bi) {
     	
     	if(bi.getColorModel() instanceof IndexColorModel){
     		bi=toRGBColorModel(bi);
     	}
-        Raster raster = bi.getData();
+    	Raster raster = bi.getRaster();
+    	if(!GrayscaleDecoder.canDecode(raster.getSampleModel())){
+    		return new GrayImage(decodeWithRescaleOps(raster), null);
+    	}
+    	GrayscaleDecoder decoder = new GrayscaleDecoder(raster.getSampleModel());
+    	decoder.scan(raster);
+
+    	BufferedImage gray = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+    	decoder.decode(raster, grayBuffer(gray), 0);
+    	return new GrayImage(gray, decoder.getStats(gray.getWidth(), gray.getHeight()));
+    }
+
+    private static byte[] grayBuffer(BufferedImage gray){
+    	return ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+    }
 
+    static BufferedImage decodeWithRescaleOps (Raster raster) {
         int bands=raster.getNumBands();
     	int max = 0;
     	int min = Integer.MAX_VALUE;
@@ -74,7 +110,7 @@ public class ImageUtil {
     	for (int j = 0; j < raster.getHeight(); ++j) {
 //    		for (int i = 0; i < raster.getWidth(); ++i) {
     		for(int k=0;k<bands;k++){
-    			raster.getSamples(0, j, raster.getWidth(), 1, k, pix);
+    			raster.getSamples(raster.getMinX(), raster.getMinY() + j, raster.getWidth(), 1, k, pix);
     	    	for(int i=0;i<pix.length;i++){
 	                int pixel = pix[i];
 	                //System.out.print(pixel%10);
@@ -99,6 +135,65 @@ public class ImageUtil {
         Grayscale grayscale = new Grayscale (raster);
     	return grayscale.getImage();
     }
+
+    /**
+     * Read the first image of the given reader and convert it to gray the same way as
+     * {@link #decode(BufferedImage)}. Large images are read with source regions of a few
+     * rows at a time, twice: once to find the range of values and once to convert them,
+     * so only the gray image and one strip of the decoded image are in memory at once.
+     * That is only done for TIFF, which stores rows in strips or tiles so only the ones asked
+     * for are decoded; other formats are read whole.
+     */
+    private static GrayImage readGrayscale (ImageReader reader) throws IOException {
+    	return readGrayscale(reader, STRIP_PIXELS);
+    }
+
+    static GrayImage readGrayscale (ImageReader reader, int stripPixels) throws IOException {
+    	int width = reader.getWidth(0);
+    	int height = reader.getHeight(0);
+    	if((long) width * height <= stripPixels || !readsRegions(reader)){
+    		return decodeGray(reader.read(0));
+    	}
+    	int stripHeight = Math.max(1, stripPixels / width);
+
+    	BufferedImage first = readStrip(reader, width, height, 0, stripHeight);
+    	if(!GrayscaleDecoder.canDecode(first.getSampleModel())){
+    		return decodeGray(reader.read(0));
+    	}
+    	GrayscaleDecoder decoder = new GrayscaleDecoder(first.getSampleModel());
+    	decoder.scan(first.getRaster());
+    	for(int y=stripHeight; y< height; y+=stripHeight){
+    		decoder.scan(readStrip(reader, width, height, y, stripHeight).getRaster());
+    	}
+
+    	BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    	byte[] out = grayBuffer(gray);
+    	decoder.decode(first.getRaster(), out, 0);
+    	for(int y=stripHeight; y< height; y+=stripHeight){
+    		decoder.decode(readStrip(reader, width, height, y, stripHeight).getRaster(), out, y * width);
+    	}
+    	return new GrayImage(gray, decoder.getStats(width, height));
+    }
+
+    /**
+     * Whether the reader can decode part of an image without decoding everything before it.
+     * The PNG reader, for one, inflates the image from the top for every source region.
+     */
+    private static boolean readsRegions (ImageReader reader) throws IOException {
+    	String format = reader.getFormatName().toLowerCase(Locale.ENGLISH);
+    	return format.startsWith("tif");
+    }
+
+    private static BufferedImage readStrip (ImageReader reader, int width, int height, int y, int stripHeight) throws IOException {
+    	ImageReadParam param = reader.getDefaultReadParam();
+    	param.setSourceRegion(new Rectangle(0, y, width, Math.min(stripHeight, height - y)));
+    	BufferedImage strip = reader.read(0, param);
+    	if(strip.getColorModel() instanceof IndexColorModel){
+    		strip = toRGBColorModel(strip);
+    	}
+    	return strip;
+    }
+
     private static boolean isTiff(byte[] f) throws IOException{
 
         //0x4949 or 0x4d4d
@@ -116,6 +211,16 @@ public class ImageUtil {
 
 
     public static BufferedImage grayscale (byte[] file) throws IOException {
+        return grayImage(file).getImage();
+    }
+
+    /**
+     * Read and decode the given image file contents to gray, along with the stats
+     * of the gray image.
+     * @see #grayscale(byte[])
+     * @since 0.9.9
+     */
+    public static GrayImage grayImage (byte[] file) throws IOException {
         // Create input stream
 
         //this whole thing is to avoid using ImageIO.read(byte[])
@@ -145,7 +250,7 @@ public class ImageUtil {
                 reader.setInput(input);
 
                 // Finally read the image, using settings from param
-                return  decode(reader.read(0));
+                return readGrayscale(reader);
 
                 // ...
             }
@@ -157,8 +262,33 @@ public class ImageUtil {
 //        return decode(ImageIO.read(new ByteArrayImageInputStream(file)));
     }
     public static BufferedImage grayscale (File file) throws IOException {
+        return grayImage(file).getImage();
+    }
 
-        return decode(ImageIO.read(file));
+    /**
+     * Read and decode the given image file to gray, along with the stats
+     * of the gray image.
+     * @see #grayscale(File)
+     * @since 0.9.9
+     */
+    public static GrayImage grayImage (File file) throws IOException {
+        if (!file.canRead()) {
+            throw new IIOException("Can't read input file!");
+        }
+        try(ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? Collections.emptyIterator() : ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader found for " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                return readGrayscale(reader);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
     }
 
     public static BufferedImage decode (File file) throws IOException {
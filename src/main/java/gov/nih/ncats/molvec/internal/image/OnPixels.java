@@ -0,0 +1,176 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The on pixels of a bitmap, in raster order, stored as the x coordinate
+ * of each pixel grouped by row. This takes 4 bytes per on pixel plus 4 bytes
+ * per row, where a list of {@code int[]{x,y}} takes around 24 bytes and
+ * an object per pixel.
+ * <p>
+ * Use {@link #forEach(PixelConsumer)} or {@link #forEachIn(int, int, int, int, PixelConsumer)}
+ * to visit the pixels without allocating anything.
+ *
+ * @since 0.9.9
+ */
+public final class OnPixels {
+
+    /**
+     * Receives the coordinates of each visited pixel.
+     */
+    @FunctionalInterface
+    public interface PixelConsumer{
+        void accept(int x, int y);
+    }
+
+    /**
+     * The pixels of row y are the indexes from {@code rowStart[y]} to {@code rowStart[y+1]}, exclusive.
+     */
+    private final int[] rowStart;
+    private final int[] xs;
+
+    private OnPixels(int[] rowStart, int[] xs){
+        this.rowStart = rowStart;
+        this.xs = xs;
+    }
+
+    /**
+     * Find the on pixels of the given packed bitmap data.
+     * @param data the bitmap data, 1 bit per pixel, most significant bit first,
+     *             with each row taking {@code scanline} bytes.
+     * @param width the width in pixels; bits past the width are ignored.
+     * @param height the height in pixels.
+     * @param scanline the number of bytes per row.
+     */
+    public static OnPixels of(byte[] data, int width, int height, int scanline){
+        return of(new DenseBitStorage(data, scanline), width, height, scanline);
+    }
+
+    static OnPixels of(BitStorage bits, int width, int height, int scanline){
+        Builder builder = new Builder(height);
+        byte[] row = new byte[scanline];
+        for(int y=0; y< height; y++){
+            if(!bits.readRow(y, row, 0)){
+                continue;
+            }
+            for(int k=0; k< scanline; k++){
+                int b = row[k] & 0xFF;
+                while(b !=0){
+                    //highest bit is the leftmost pixel
+                    int bit = Integer.numberOfLeadingZeros(b) - 24;
+                    int x = (k << 3) + bit;
+                    if(x >= width){
+                        break;
+                    }
+                    builder.add(x, y);
+                    b &= ~(0x80 >>> bit);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * The number of on pixels.
+     */
+    public int size(){
+        return xs.length;
+    }
+
+    /**
+     * The number of rows.
+     */
+    public int height(){
+        return rowStart.length - 1;
+    }
+
+    /**
+     * Visit every on pixel in raster order.
+     */
+    public void forEach(PixelConsumer consumer){
+        int height = height();
+        for(int y=0; y< height; y++){
+            for(int i= rowStart[y], end = rowStart[y + 1]; i< end; i++){
+                consumer.accept(xs[i], y);
+            }
+        }
+    }
+
+    /**
+     * Visit, in raster order, the on pixels inside the given rectangle,
+     * all bounds inclusive. Rows outside of the rectangle are not looked at.
+     */
+    public void forEachIn(int x0, int y0, int x1, int y1, PixelConsumer consumer){
+        int yEnd = Math.min(y1, height() - 1);
+        for(int y= Math.max(0, y0); y<= yEnd; y++){
+            int end = rowStart[y + 1];
+            int i = firstAtLeast(rowStart[y], end, x0);
+            for(; i< end && xs[i] <= x1; i++){
+                consumer.accept(xs[i], y);
+            }
+        }
+    }
+
+    private int firstAtLeast(int from, int to, int x){
+        int lo = from, hi = to;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(xs[mid] < x){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The on pixels as {@code int[]{x,y}} arrays, in raster order.
+     * This allocates an array per pixel, prefer {@link #forEach(PixelConsumer)}.
+     */
+    public Stream<int[]> stream(){
+        int height = height();
+        return IntStream.range(0, height)
+                        .boxed()
+                        .flatMap(y -> IntStream.range(rowStart[y], rowStart[y + 1])
+                                               .mapToObj(i -> new int[]{xs[i], y}));
+    }
+
+    /**
+     * Collects on pixels, which must be added in raster order.
+     */
+    public static final class Builder{
+        private final int[] rowStart;
+        private int[] xs = new int[64];
+        private int n = 0;
+        private int y = 0;
+
+        public Builder(int height){
+            rowStart = new int[height + 1];
+        }
+
+        public Builder add(int x, int y){
+            if(y < this.y){
+                throw new IllegalArgumentException("pixels must be added in raster order");
+            }
+            while(this.y < y){
+                rowStart[++this.y] = n;
+            }
+            if(n == xs.length){
+                xs = Arrays.copyOf(xs, n * 2);
+            }
+            xs[n++] = x;
+            return this;
+        }
+
+        public OnPixels build(){
+            int height = rowStart.length - 1;
+            while(y < height){
+                rowStart[++y] = n;
+            }
+            return new OnPixels(rowStart, Arrays.copyOf(xs, n));
+        }
+    }
+}
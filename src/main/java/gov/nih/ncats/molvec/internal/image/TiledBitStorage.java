@@ -0,0 +1,194 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Arrays;
+
+/**
+ * The bitmap split into 64x64 tiles, where a tile is only allocated
+ * once it has a pixel on. Each tile is 64 {@code long}s, one per row,
+ * with the leftmost pixel in the highest bit.
+ * <p>
+ * Tiles with every pixel on, which is what inverting leaves in place of
+ * the empty ones, all share one array until they are written to.
+ */
+final class TiledBitStorage implements BitStorage {
+    private static final long serialVersionUID = 1L;
+
+    static final int TILE_SIZE = 64;
+    private static final int SHIFT = 6;
+    private static final int MOD = TILE_SIZE - 1;
+
+    private static final long[] FULL = filled();
+
+    private final int scanline;
+    private final int height;
+    private final int tilesX;
+    private final long[][] tiles;
+
+    TiledBitStorage(int scanline, int height){
+        this.scanline = scanline;
+        this.height = height;
+        this.tilesX = ((scanline << 3) + MOD) >> SHIFT;
+        int tilesY = (height + MOD) >> SHIFT;
+        this.tiles = new long[tilesX * tilesY][];
+    }
+
+    private TiledBitStorage(TiledBitStorage copy){
+        this.scanline = copy.scanline;
+        this.height = copy.height;
+        this.tilesX = copy.tilesX;
+        this.tiles = new long[copy.tiles.length][];
+        for(int i=0; i< tiles.length; i++){
+            long[] t = copy.tiles[i];
+            tiles[i] = t == null || t == FULL ? t : t.clone();
+        }
+    }
+
+    private static long[] filled(){
+        long[] full = new long[TILE_SIZE];
+        Arrays.fill(full, -1L);
+        return full;
+    }
+
+    /**
+     * The number of tiles allocated.
+     */
+    int allocatedTiles(){
+        int n = 0;
+        for(long[] t : tiles){
+            if(t != null && t != FULL){
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public boolean get(int x, int y){
+        long[] t = tiles[(y >> SHIFT) * tilesX + (x >> SHIFT)];
+        return t != null && (t[y & MOD] << (x & MOD)) < 0;
+    }
+
+    @Override
+    public void set(int x, int y, boolean on){
+        int idx = (y >> SHIFT) * tilesX + (x >> SHIFT);
+        long bit = Long.MIN_VALUE >>> (x & MOD);
+        long[] t = tiles[idx];
+        if(on){
+            if(t == FULL){
+                return;
+            }
+            if(t == null){
+                t = new long[TILE_SIZE];
+                tiles[idx] = t;
+            }
+            t[y & MOD] |= bit;
+        }else{
+            if(t == null){
+                return;
+            }
+            if(t == FULL){
+                t = FULL.clone();
+                tiles[idx] = t;
+            }
+            t[y & MOD] &= ~bit;
+        }
+    }
+
+    @Override
+    public boolean readRow(int y, byte[] dst, int off){
+        int row = (y >> SHIFT) * tilesX;
+        int r = y & MOD;
+        boolean any = false;
+        for(int tx=0; tx< tilesX; tx++){
+            long[] t = tiles[row + tx];
+            long bits = t == null ? 0 : t[r];
+            any |= bits != 0;
+            int k0 = tx << 3;
+            int k1 = Math.min(scanline, k0 + 8);
+            for(int k=k0; k< k1; k++){
+                dst[off + k] = (byte) (bits >>> (56 - ((k - k0) << 3)));
+            }
+        }
+        return any;
+    }
+
+    @Override
+    public void writeRow(int y, byte[] src, int off){
+        int row = (y >> SHIFT) * tilesX;
+        int r = y & MOD;
+        for(int tx=0; tx< tilesX; tx++){
+            int k0 = tx << 3;
+            int k1 = Math.min(scanline, k0 + 8);
+            long bits = 0;
+            for(int k=k0; k< k1; k++){
+                bits |= (src[off + k] & 0xFFL) << (56 - ((k - k0) << 3));
+            }
+            long[] t = tiles[row + tx];
+            if(t == null){
+                if(bits == 0){
+                    continue;
+                }
+                t = new long[TILE_SIZE];
+                tiles[row + tx] = t;
+            }else if(t == FULL){
+                if(bits == -1L){
+                    continue;
+                }
+                t = FULL.clone();
+                tiles[row + tx] = t;
+            }
+            t[r] = bits;
+        }
+    }
+
+    @Override
+    public void invert(){
+        for(int i=0; i< tiles.length; i++){
+            long[] t = tiles[i];
+            if(t == null){
+                tiles[i] = FULL;
+            }else if(t == FULL){
+                tiles[i] = null;
+            }else{
+                for(int r=0; r< TILE_SIZE; r++){
+                    t[r] = ~t[r];
+                }
+            }
+        }
+    }
+
+    @Override
+    public long cardinality(){
+        //bits past the last byte of a row or past the last row don't count
+        int lastBits = (scanline << 3) - ((tilesX - 1) << SHIFT);
+        long lastMask = lastBits == TILE_SIZE ? -1L : ~(-1L >>> lastBits);
+        long on = 0;
+        for(int i=0; i< tiles.length; i++){
+            long[] t = tiles[i];
+            if(t == null){
+                continue;
+            }
+            long mask = (i % tilesX) == tilesX - 1 ? lastMask : -1L;
+            int rows = Math.min(TILE_SIZE, height - (i / tilesX) * TILE_SIZE);
+            for(int r=0; r< rows; r++){
+                on += Long.bitCount(t[r] & mask);
+            }
+        }
+        return on;
+    }
+
+    @Override
+    public BitStorage copy(){
+        return new TiledBitStorage(this);
+    }
+
+    private Object readResolve(){
+        //full tiles must go back to sharing the one array that is never written to
+        for(int i=0; i< tiles.length; i++){
+            if(tiles[i] != null && Arrays.equals(tiles[i], FULL)){
+                tiles[i] = FULL;
+            }
+        }
+        return this;
+    }
+}
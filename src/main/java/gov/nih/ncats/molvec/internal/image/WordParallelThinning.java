@@ -0,0 +1,244 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Arrays;
+
+/**
+ * The thinning used by {@link Bitmap#thin()}, evaluated on 64 pixels
+ * at a time. Each row of the bitmap is packed into {@code long}s, with
+ * pixel x in bit {@code x % 64} of word {@code x / 64}, and the 8 neighbors
+ * of every pixel in a word are found with shifts of the rows above, at and
+ * below it. The thinning rules are then evaluated as bitwise expressions
+ * over those 8 neighbor words.
+ * <p>
+ * The output is identical to evaluating the rules one pixel at a time:
+ * each pass decides what to remove from the image as it was at the
+ * start of the pass, and passes alternate between the two rules until a pass
+ * removes nothing.
+ * <p>
+ * A pixel can only change its decision if one of its neighbors changed since
+ * the last pass with the same rule, so rows are skipped when none of the
+ * rows around them changed in the previous two passes.
+ */
+final class WordParallelThinning {
+
+    private WordParallelThinning(){
+        //can not instantiate
+    }
+
+    /**
+     * Thin the given bitmap storage in place.
+     * @param bits the bitmap pixels.
+     * @param width the width in pixels.
+     * @param height the height in pixels.
+     * @param scanline the number of bytes per row.
+     * @param grid the grid of on pixels, each removed pixel is removed from it;
+     *             may be null.
+     */
+    static void thin(BitStorage bits, int width, int height, int scanline, Bitmap.Grid grid){
+        if(width ==0 || height ==0){
+            return;
+        }
+        int words = (width + 63) >>> 6;
+        long[] rows = pack(bits, width, height, scanline, words);
+
+        //removals are applied one row late, since the row after still needs to see them
+        long[] removeNow = new long[words];
+        long[] removePrev = new long[words];
+
+        //rows changed in the last pass, and the pass before that
+        boolean[] changed1 = new boolean[height];
+        boolean[] changed2 = new boolean[height];
+        boolean[] changedNow = new boolean[height];
+        Arrays.fill(changed1, true);
+        Arrays.fill(changed2, true);
+
+        int parity = 1;
+        boolean changed;
+        do{
+            changed = false;
+            parity = 1 - parity;
+
+            boolean prevHasRemovals = false;
+            for(int y=0; y< height; y++){
+                boolean rowHasRemovals = false;
+                if(isDirty(changed1, changed2, y, height)){
+                    int row = y * words;
+                    for(int w=0; w< words; w++){
+                        long c = rows[row + w];
+                        long r = 0;
+                        if(c !=0){
+                            r = removable(rows, words, height, y, w, c, parity);
+                        }
+                        removeNow[w] = r;
+                        rowHasRemovals |= r !=0;
+                    }
+                }
+                if(prevHasRemovals){
+                    apply(rows, removePrev, y - 1, words, bits, grid);
+                }
+                changedNow[y] = rowHasRemovals;
+                changed |= rowHasRemovals;
+                prevHasRemovals = rowHasRemovals;
+
+                long[] tmp = removePrev;
+                removePrev = removeNow;
+                removeNow = tmp;
+            }
+            if(prevHasRemovals){
+                apply(rows, removePrev, height - 1, words, bits, grid);
+            }
+
+            boolean[] tmp = changed2;
+            changed2 = changed1;
+            changed1 = changedNow;
+            changedNow = tmp;
+        }while(changed);
+    }
+
+    private static boolean isDirty(boolean[] changed1, boolean[] changed2, int y, int height){
+        for(int yy = Math.max(0, y - 1); yy <= Math.min(height - 1, y + 1); yy++){
+            if(changed1[yy] || changed2[yy]){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long word(long[] rows, int words, int height, int y, int w){
+        if(y <0 || y >= height || w <0 || w >= words){
+            return 0;
+        }
+        return rows[y * words + w];
+    }
+
+    /**
+     * The pixels of the given word that the thinning rule for the given
+     * parity would remove.
+     */
+    private static long removable(long[] rows, int words, int height, int y, int w, long c, int parity){
+        long up = word(rows, words, height, y - 1, w);
+        long down = word(rows, words, height, y + 1, w);
+
+        //   n7  n0  n1
+        //   n6   c  n2
+        //   n5  n4  n3
+        long n0 = up;
+        long n1 = east(up, word(rows, words, height, y - 1, w + 1));
+        long n2 = east(c, word(rows, words, height, y, w + 1));
+        long n3 = east(down, word(rows, words, height, y + 1, w + 1));
+        long n4 = down;
+        long n5 = west(down, word(rows, words, height, y + 1, w - 1));
+        long n6 = west(c, word(rows, words, height, y, w - 1));
+        long n7 = west(up, word(rows, words, height, y - 1, w - 1));
+
+        //between 2 and 6 neighbors on, so at least 2 on and at least 2 off
+        long count = atLeastTwo(n0, n1, n2, n3, n4, n5, n6, n7)
+                   & atLeastTwo(~n0, ~n1, ~n2, ~n3, ~n4, ~n5, ~n6, ~n7);
+        if((c & count) ==0){
+            return 0;
+        }
+        //exactly one off to on transition going around the neighbors
+        long transition = exactlyOne(~n0 & n1, ~n1 & n2, ~n2 & n3, ~n3 & n4,
+                                     ~n4 & n5, ~n5 & n6, ~n6 & n7, ~n7 & n0);
+
+        long ex1, ex2, keep;
+        if(parity ==0){
+            ex1 = ~n0 & ~n1 & ~n2 & ~n5 & n4 & n6;
+            ex2 = ~n2 & ~n3 & ~n4 & ~n7 & n6 & n0;
+            keep = (~n2 | ~n0 | ~n6) & (~n4 | ~n0 | ~n6);
+        }else{
+            ex1 = ~n1 & ~n4 & ~n5 & ~n6 & n0 & n2;
+            ex2 = ~n0 & ~n3 & ~n6 & ~n7 & n2 & n4;
+            keep = (~n2 | ~n4 | ~n6) & (~n4 | ~n0 | ~n2);
+        }
+        return c & count & (transition | ex1 | ex2) & keep;
+    }
+
+    /**
+     * For each pixel, the value of the pixel to its right.
+     */
+    private static long east(long word, long next){
+        return (word >>> 1) | (next << 63);
+    }
+
+    /**
+     * For each pixel, the value of the pixel to its left.
+     */
+    private static long west(long word, long prev){
+        return (word << 1) | (prev >>> 63);
+    }
+
+    /**
+     * For each pixel, whether at least two of the given words have it on.
+     */
+    private static long atLeastTwo(long m0, long m1, long m2, long m3, long m4, long m5, long m6, long m7){
+        long one = m0, two = 0;
+        two |= one & m1; one |= m1;
+        two |= one & m2; one |= m2;
+        two |= one & m3; one |= m3;
+        two |= one & m4; one |= m4;
+        two |= one & m5; one |= m5;
+        two |= one & m6; one |= m6;
+        two |= one & m7;
+        return two;
+    }
+
+    /**
+     * For each pixel, whether exactly one of the given words has it on.
+     */
+    private static long exactlyOne(long m0, long m1, long m2, long m3, long m4, long m5, long m6, long m7){
+        long one = m0, two = 0;
+        two |= one & m1; one |= m1;
+        two |= one & m2; one |= m2;
+        two |= one & m3; one |= m3;
+        two |= one & m4; one |= m4;
+        two |= one & m5; one |= m5;
+        two |= one & m6; one |= m6;
+        two |= one & m7; one |= m7;
+        return one & ~two;
+    }
+
+    private static void apply(long[] rows, long[] remove, int y, int words, BitStorage bits, Bitmap.Grid grid){
+        int row = y * words;
+        for(int w=0; w< words; w++){
+            long r = remove[w];
+            if(r ==0){
+                continue;
+            }
+            rows[row + w] &= ~r;
+            while(r !=0){
+                int x = (w << 6) + Long.numberOfTrailingZeros(r);
+                r &= r - 1;
+                bits.set(x, y, false);
+                if(grid !=null){
+                    grid.remove(x, y);
+                }
+            }
+        }
+    }
+
+    private static long[] pack(BitStorage bits, int width, int height, int scanline, int words){
+        long[] rows = new long[height * words];
+        int rem = width & 63;
+        long lastMask = rem ==0 ? -1L : (1L << rem) - 1;
+        byte[] data = new byte[scanline];
+        for(int y=0; y< height; y++){
+            if(!bits.readRow(y, data, 0)){
+                continue;
+            }
+            int row = y * words;
+            for(int k=0; k< scanline; k++){
+                int b = data[k] & 0xFF;
+                if(b ==0){
+                    continue;
+                }
+                //the bitmap stores the leftmost pixel in the high bit
+                long reversed = Integer.reverse(b) >>> 24;
+                rows[row + (k >>> 3)] |= reversed << ((k & 7) << 3);
+            }
+            //bits past the width are never on
+            rows[row + words - 1] &= lastMask;
+        }
+        return rows;
+    }
+}
@@ -21,6 +21,8 @@ import gov.nih.ncats.molvec.internal.image.Bitmap;
  * 		d)set threshold for given pixel at mean+stDEV*SIGMA 
  * 		  (where sigma is a provided constant)
  * UPDATE: Integral images calculated only for rows needed, on the fly
+ * UPDATE: The window sums come from {@link WindowSums}, as exact integers,
+ * and bands of rows are thresholded in parallel
  */
 public class AdaptiveThreshold implements Binarization {
     public static final double DEFAULT_SIGMA_THRESHOLD = 3;
@@ -57,36 +59,6 @@ public class AdaptiveThreshold implements Binarization {
 
    
 
-    private static void addIntLines (Raster inRaster, int[] yMap,
-                                     double[][] intLines,
-                                     double[][] intSquareLines,
-                                     int width, int y) {
-        double sum = 0;
-        double sumSquare = 0;
-        double[] intLine = intLines[yMap[y]];
-        double[] intSquareLine = intSquareLines[yMap[y]];
-        
-        double[] intPrevLine = null;
-        double[] intSquarePrevLine = null;
-        if (y > 0) {
-            intPrevLine = intLines[yMap[y - 1]];
-            intSquarePrevLine = intSquareLines[yMap[y - 1]];
-        }
-
-        for (int x = 0; x < width; ++x) {
-            double sampleDouble = inRaster.getSampleDouble(x, y, 0);
-            sum += sampleDouble;
-            sumSquare += sampleDouble * sampleDouble;
-            if (y == 0) {
-                intLine[x] = sum;
-                intSquareLine[x] = sumSquare;
-            } else {
-                intLine[x] = sum + intPrevLine[x];
-                intSquareLine[x] = sumSquare + intSquarePrevLine[x];
-            }
-        }
-    }
-
 	@Override
 	public Bitmap binarize(Raster inRaster, ImageStats stats, Consumer<ImageStats> cons) {
 
@@ -95,80 +67,42 @@ public class AdaptiveThreshold implements Binarization {
         }
 		
 		
-        Bitmap bm = new Bitmap (inRaster.getWidth (), inRaster.getHeight ());
-        wsize = (Math.min(wsize * 2 + 2,bm.height())-2)/2;
-        wsize = (Math.min(wsize * 2 + 2,bm.width())-2)/2;
-        
-        int[] yMap = new int[bm.height()];
-        double[][] intLines = new double[wsize * 2 + 2][bm.width()];
-        double[][] intSquareLines = new double[wsize * 2 + 2][bm.width()];
-        
-
-        // make Integral-Image for quick averaging
-        for (int y = 0; y < wsize * 2 + 2; ++y) {
-            yMap[y] = y;
-            addIntLines (inRaster, yMap, intLines, 
-                         intSquareLines, bm.width(), y);
-        }
+        GrayBuffer gray = GrayBuffer.of(inRaster);
+        int width = gray.width;
+        int height = gray.height;
+        int radius = (Math.min(wsize * 2 + 2,height)-2)/2;
+        radius = (Math.min(radius * 2 + 2,width)-2)/2;
 
-        
         double range = stats.max-stats.min;
-        
-        
-        double[] dl = new double[bm.width()];
-        for (int y = 0; y < bm.height(); ++y) {
-            int y1 = Math.max (y - wsize, 0);
-            int y2 = Math.min (y + wsize, bm.height() - 1);
-            int boxHeight = (y2 - y1 + 1);
-            double[] topIntLine = null;
-            double[] topSquareIntLine = null;
-            double[] bottomIntLine;
-            double[] bottomSquareIntLine;
-
-            if (y1 >= 2) {
-                if (boxHeight >= wsize * 2 + 1) {
-                    yMap[y2] = yMap[y1 - 2];
-                    addIntLines (inRaster, yMap, intLines, intSquareLines,
-                                 bm.width(), y2);
-                }
-            }
-            if (y1 > 0) {
-                topIntLine = intLines[yMap[y1 - 1]];
-                topSquareIntLine = intSquareLines[yMap[y1 - 1]];
-            }
-            bottomIntLine = intLines[yMap[y2]];
-            bottomSquareIntLine = intSquareLines[yMap[y2]];
-            inRaster.getSamples(0, y, bm.width(), 1, 0, dl);
-            for (int x = 0; x < bm.width(); ++x) {
-                // box to average over:
-                int x1 = Math.max (x - wsize, 0);
-                int x2 = Math.min (x + wsize, bm.width() - 1);
-                int count = (x2 - x1 + 1) * boxHeight;
-                double sum = bottomIntLine[x2];
-                double sumSquare = bottomSquareIntLine[x2];
-                if (y1 > 0) {
-                    sum += -topIntLine[x2];
-                    sumSquare += -topSquareIntLine[x2];
-                }
-                if (x1 > 0) {
-                    sum += -bottomIntLine[x1 - 1];
-                    sumSquare += -bottomSquareIntLine[x1 - 1];
-                }
-                if (y1 > 0 && x1 > 0) {
-                    sum += topIntLine[x1 - 1];
-                    sumSquare += topSquareIntLine[x1 - 1];
-                }
+        double maxThreshold = stats.min + range*absMax;
+        double minThreshold = stats.min + range*absMin;
+
+        boolean[] on = new boolean[width * height];
+        WindowSums.forEachRow(gray, radius, (y, windowSum, windowSumSquare, windowCount) -> {
+            int row = gray.rowStart(y);
+            int o = y * width;
+            for (int x = 0; x < width; ++x) {
+                int count = windowCount[x];
+                double sum = windowSum[x];
+                double sumSquare = windowSumSquare[x];
 
                 double mean = sum / count;
                 double stdDEV = Math.sqrt 
                     (Math.abs (sumSquare / count- mean * mean));
-                double threshold = Math.min (mean + stdDEV * sigma, stats.min + range*absMax);
-                threshold = Math.max(threshold, stats.min+range*absMin);
-                double pel = dl[x];
-                bm.set (x, y, pel > threshold);
+                double threshold = Math.min (mean + stdDEV * sigma, maxThreshold);
+                threshold = Math.max(threshold, minThreshold);
+                int pel = gray.data[row + x] & 0xFF;
+                on[o + x] = pel > threshold;
             }
-        }
+        });
 
+        Bitmap bm = new Bitmap (width, height);
+        for (int y = 0; y < height; ++y) {
+            int o = y * width;
+            for (int x = 0; x < width; ++x) {
+                bm.set (x, y, on[o + x]);
+            }
+        }
         return bm;
 	}
 }
@@ -30,55 +30,13 @@ public interface Binarization {
     }
     
     
+    /**
+     * Compute the histogram, range, mean and standard deviation of the given
+     * 8-bit gray raster.
+     */
     static ImageStats computeImageStats(Raster inRaster){
-	    	int width = inRaster.getWidth();
-	    	int height = inRaster.getHeight();
-	    	ImageStats stats = new ImageStats();
-	    	
-	    	int[] fstats = new int[1000];
-	    	
-    	
-    	
-    	   double max = -1, min = Double.MAX_VALUE;
-           double sum = 0;
-           
-           double sumSquare = 0;
-           double[] nd = new double[width];
-           
-           for (int y = 0; y < height; ++y) {
-        	   inRaster.getSamples(0, y, width, 1, 0, nd);
-               for (int x = 0; x < width; ++x) {
-                   double pel = nd[x];
-                   sum += pel;
-                   sumSquare += pel * pel;
-                   if (pel < min)
-                       min = pel;
-                   if (pel > max)
-                       max = pel;
-                   fstats[(int)pel]++;
-               }
-           }
-           long tot = width * height;
-           double mean = sum / tot;
-           double stdDEV = Math.sqrt (sumSquare / tot - mean * mean);
-           
-           stats.histogram = new int[101];
-           stats.histogramRaw = new int[(int)max+1];
-           
-           
-           for(int i=(int)min;i<=(int)max;i++){
-        	   int ni = (int)((100*(i-min))/(max-min));
-        	   stats.histogram[ni] +=fstats[i];
-        	   stats.histogramRaw[i] = fstats[i];
-           }
-
-           stats.min=min;
-           stats.max=max;
-           stats.mean=mean;
-           stats.stdev=stdDEV;
-           stats.count=width*height;
-           stats.threshold=stats.mean;
-           return stats;
+    	GrayBuffer gray = GrayBuffer.of(inRaster);
+    	return ImageStats.fromHistogram(gray.histogram(), gray.width, gray.height);
     }
 
     /**
@@ -89,13 +47,10 @@ public interface Binarization {
      * @param threshold the threshold to use.
      */
     static void globalThreshold(Raster inRaster, Bitmap bm, double threshold){
-    	 double[] nd = new double[bm.width()];
-         
-         for (int y = 0; y < bm.height(); ++y) {
-      	   inRaster.getSamples(0, y, bm.width(), 1, 0, nd);
-             for (int x = 0; x < bm.width(); ++x) {
-                 bm.set (x, y, nd[x] >= threshold);
-             }
-         }
+    	boolean[] on = new boolean[256];
+    	for(int v=0;v<on.length;v++){
+    		on[v] = v >= threshold;
+    	}
+    	GrayBuffer.of(inRaster).threshold(bm, on);
     }
 }
@@ -0,0 +1,101 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+/**
+ * The pixels of an 8-bit gray raster as the bytes backing it, so binarizations
+ * can read them directly instead of going through {@link Raster#getSample(int, int, int)}.
+ * The rasters of {@link java.awt.image.BufferedImage#TYPE_BYTE_GRAY} images, which is what
+ * the images are decoded to, are wrapped without copying; anything else is copied once.
+ */
+final class GrayBuffer {
+    final int width;
+    final int height;
+    /**
+     * Pixel (x,y) is {@code data[offset + y*scanline + x] & 0xFF}.
+     */
+    final byte[] data;
+    final int offset;
+    final int scanline;
+
+    private GrayBuffer(int width, int height, byte[] data, int offset, int scanline){
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.offset = offset;
+        this.scanline = scanline;
+    }
+
+    static GrayBuffer of(Raster raster){
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if(db instanceof DataBufferByte && db.getNumBanks() == 1 && model instanceof ComponentSampleModel
+                && model.getNumBands() == 1 && model.getSampleSize(0) == 8
+                && ((ComponentSampleModel) model).getPixelStride() == 1){
+            ComponentSampleModel csm = (ComponentSampleModel) model;
+            int offset = db.getOffset()
+                    + csm.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                                    raster.getMinY() - raster.getSampleModelTranslateY());
+            return new GrayBuffer(width, height, ((DataBufferByte) db).getData(), offset, csm.getScanlineStride());
+        }
+        byte[] data = new byte[width * height];
+        int[] row = new int[width];
+        for(int y=0; y< height; y++){
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+            for(int x=0; x< width; x++){
+                int v = row[x];
+                if(v <0 || v > 255){
+                    throw new IllegalArgumentException("Can only binarize 8-bit gray values, found " + v);
+                }
+                data[y * width + x] = (byte) v;
+            }
+        }
+        return new GrayBuffer(width, height, data, 0, width);
+    }
+
+    int get(int x, int y){
+        return data[offset + y * scanline + x] & 0xFF;
+    }
+
+    /**
+     * The index in {@link #data} of the first pixel of row y.
+     */
+    int rowStart(int y){
+        return offset + y * scanline;
+    }
+
+    /**
+     * Set the pixels of the given bitmap whose gray value is marked in the given lookup table.
+     * @param bm the Bitmap to modify, the same size as this.
+     * @param on whether each gray value from 0 to 255 should be on.
+     */
+    void threshold(Bitmap bm, boolean[] on){
+        for(int y=0; y< height; y++){
+            int row = rowStart(y);
+            for(int x=0; x< width; x++){
+                bm.set(x, y, on[data[row + x] & 0xFF]);
+            }
+        }
+    }
+
+    /**
+     * The number of pixels with each gray value.
+     */
+    int[] histogram(){
+        int[] counts = new int[256];
+        for(int y=0; y< height; y++){
+            for(int i= rowStart(y), end = i + width; i< end; i++){
+                counts[data[i] & 0xFF]++;
+            }
+        }
+        return counts;
+    }
+}
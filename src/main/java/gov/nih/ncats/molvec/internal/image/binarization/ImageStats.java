@@ -13,4 +13,73 @@ public class ImageStats {
 	public double getPercentageThreshold(){
 		return 100*(threshold-min)/(max-min);
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Make a copy of these stats, so that a binarization can set its
+	 * own threshold without affecting other binarizations of the same image.
+	 * The histograms are never modified after they are computed, so they
+	 * are shared rather than copied.
+	 * @return a new ImageStats with the same values.
+	 * @since 0.9.9
+	 */
+	public ImageStats copy(){
+		ImageStats c = new ImageStats();
+		c.min=min;
+		c.max=max;
+		c.stdev=stdev;
+		c.mean=mean;
+		c.threshold=threshold;
+		c.histogram=histogram;
+		c.histogramRaw=histogramRaw;
+		c.count=count;
+		return c;
+	}
+
+	/**
+	 * Compute the stats of an 8-bit gray image from the number of pixels
+	 * with each gray value.
+	 * @param counts the number of pixels with each value from 0 to 255.
+	 * @param width the width of the image.
+	 * @param height the height of the image.
+	 * @return the stats, with the threshold set to the mean.
+	 * @since 0.9.9
+	 */
+	public static ImageStats fromHistogram(int[] counts, int width, int height){
+		ImageStats stats = new ImageStats();
+		int min = -1, max = -1;
+		long sum = 0;
+		long sumSquare = 0;
+		for(int i=0;i<counts.length;i++){
+			long c = counts[i];
+			if(c==0){
+				continue;
+			}
+			if(min<0){
+				min=i;
+			}
+			max=i;
+			sum += c*i;
+			sumSquare += c*i*i;
+		}
+		long tot = width * height;
+		double mean = sum / (double)tot;
+		double stdDEV = Math.sqrt (sumSquare / (double)tot - mean * mean);
+
+		stats.histogram = new int[101];
+		stats.histogramRaw = new int[max+1];
+		for(int i=Math.max(min, 0);i<=max;i++){
+			int ni = (int)((100*(i-(double)min))/(max-(double)min));
+			stats.histogram[ni] +=counts[i];
+			stats.histogramRaw[i] = counts[i];
+		}
+
+		//no pixels at all leaves the min and max where computeImageStats would
+		stats.min=min<0? Double.MAX_VALUE : min;
+		stats.max=max;
+		stats.mean=mean;
+		stats.stdev=stdDEV;
+		stats.count=width*height;
+		stats.threshold=stats.mean;
+		return stats;
+	}
+}
@@ -0,0 +1,102 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import java.awt.image.Raster;
+import java.util.function.Consumer;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+/**
+ * Base of thresholds computed from the mean and standard deviation of the gray
+ * values in a square window around each pixel, like {@link SauvolaThreshold}.
+ * The window statistics come from running sums, so each pixel costs the same whatever
+ * the window size, and bands of rows are thresholded in parallel.
+ * <p>
+ * Pixels above a fraction of the image range are always on, and pixels below
+ * another fraction always off; only the ones in between use the local threshold.
+ * A pixel is on if its value is above the local threshold.
+ *
+ * @since 0.9.9
+ */
+public abstract class LocalThreshold implements Binarization {
+
+    public static final double DEFAULT_MIN_THRESHOLD_RATIO = 0.1;
+    public static final double DEFAULT_MAX_THRESHOLD_RATIO = 0.9;
+
+    /**
+     * The local threshold of a pixel, given the stats of the window around it.
+     */
+    @FunctionalInterface
+    protected interface LocalRule{
+        double threshold(double mean, double stdev);
+    }
+
+    int rad;
+
+    protected LocalThreshold(int rad){
+        this.rad = rad;
+    }
+
+    /**
+     * The number of pixels in each direction the window extends from its center pixel.
+     */
+    public int getRadius(){
+        return rad;
+    }
+
+    /**
+     * Make the rule for the local threshold of the given image.
+     * @param inverted true if the image looks like dark marks on a light background,
+     *                 with the mean closer to the max than the min.
+     */
+    abstract LocalRule rule(GrayBuffer gray, ImageStats stats, boolean inverted);
+
+    @Override
+    public Bitmap binarize(Raster inRaster, ImageStats stats, Consumer<ImageStats> cons) {
+        GrayBuffer gray = GrayBuffer.of(inRaster);
+        if(stats==null){
+            stats = ImageStats.fromHistogram(gray.histogram(), gray.width, gray.height);
+        }
+        boolean inverted = stats.mean-stats.min > stats.max-stats.mean;
+
+        double t1=stats.min+(stats.max-stats.min)*DEFAULT_MIN_THRESHOLD_RATIO;
+        double t2=stats.min+(stats.max-stats.min)*DEFAULT_MAX_THRESHOLD_RATIO;
+        LocalRule rule = rule(gray, stats, inverted);
+
+        int width = gray.width;
+        boolean[] on = new boolean[width * gray.height];
+        WindowSums.forEachRow(gray, rad, (y, sum, sumSquare, count) -> {
+            int row = gray.rowStart(y);
+            int o = y * width;
+            for(int x=0; x< width; x++){
+                int pix = gray.data[row + x] & 0xFF;
+                if(pix>t2){
+                    on[o + x] = true;
+                }else if(pix>=t1){
+                    on[o + x] = pix > rule.threshold(mean(sum[x], count[x]), stdev(sum[x], sumSquare[x], count[x]));
+                }
+            }
+        });
+
+        Bitmap bm = new Bitmap (gray.width, gray.height);
+        for (int y = 0; y < gray.height; ++y) {
+            int o = y * width;
+            for (int x = 0; x < width; ++x) {
+                bm.set (x, y, on[o + x]);
+            }
+        }
+        cons.accept(stats);
+        return bm;
+    }
+
+    static double mean(long sum, int count){
+        return sum / (double) count;
+    }
+
+    /**
+     * The standard deviation of a window, from the exact integer form of its variance.
+     */
+    static double stdev(long sum, long sumSquare, int count){
+        long n = count;
+        return Math.sqrt((n * sumSquare - sum * sum) / ((double) n * n));
+    }
+}
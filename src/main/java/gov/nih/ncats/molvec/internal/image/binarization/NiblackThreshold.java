@@ -0,0 +1,28 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+/**
+ * Implementation of Niblack threshold: the local mean plus
+ * a multiple of the local standard deviation.
+ *
+ * @since 0.9.9
+ */
+public class NiblackThreshold extends LocalThreshold{
+
+	double k=0.2;
+
+	public NiblackThreshold(int rad, double k){
+		super(rad);
+		this.k=k;
+	}
+
+	public NiblackThreshold(){
+		super(10);
+	}
+
+	@Override
+	LocalRule rule(GrayBuffer gray, ImageStats stats, boolean inverted) {
+		double ek = inverted? -k : k;
+		return (mean, stdev) -> mean + ek * stdev;
+	}
+
+}
@@ -0,0 +1,95 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import java.util.stream.IntStream;
+
+/**
+ * The sum and sum of squares of the gray values in the square window around every pixel,
+ * each found in constant time. Like the rolling integral lines of {@link AdaptiveThreshold},
+ * only a few rows are kept at a time: the sum of each column over the rows of the current
+ * window, updated by adding the row entering the window and removing the one leaving it,
+ * and the running sum along the current row of those column sums.
+ * <p>
+ * The image is split into bands of rows which are run in parallel, each starting its
+ * column sums from the rows around the top of the band.
+ */
+final class WindowSums {
+
+    private static final int BAND_SIZE = 64;
+
+    /**
+     * Receives the window sums of every pixel of one row. The arrays are reused
+     * for the next row of the same band; rows of different bands are given to
+     * the consumer at the same time from different threads.
+     */
+    @FunctionalInterface
+    interface RowConsumer{
+        /**
+         * @param y the row.
+         * @param sum the sum of the gray values in the window around each pixel of the row.
+         * @param sumSquare the sum of the squares of those values.
+         * @param count the number of pixels in each window, which is smaller near the edges.
+         */
+        void accept(int y, long[] sum, long[] sumSquare, int[] count);
+    }
+
+    private WindowSums(){}
+
+    /**
+     * Compute the sums over the windows of the pixels at most {@code radius} away
+     * from each pixel, in both x and y, clipped to the image.
+     */
+    static void forEachRow(GrayBuffer gray, int radius, RowConsumer consumer){
+        int width = gray.width;
+        int height = gray.height;
+        int band = Math.max(BAND_SIZE, 2 * radius + 1);
+        IntStream.range(0, (height + band - 1) / band).parallel().forEach(b -> {
+            int y0 = b * band;
+            int y1 = Math.min(height, y0 + band);
+
+            int[] colSum = new int[width];
+            long[] colSquare = new long[width];
+            long[] prefix = new long[width + 1];
+            long[] prefixSquare = new long[width + 1];
+            long[] sum = new long[width];
+            long[] sumSquare = new long[width];
+            int[] count = new int[width];
+
+            //rows top to bottom, inclusive, are in the column sums
+            int top = Math.max(0, y0 - radius);
+            int bottom = top - 1;
+            for(int y=y0; y< y1; y++){
+                int newTop = Math.max(0, y - radius);
+                int newBottom = Math.min(height - 1, y + radius);
+                while(bottom < newBottom){
+                    addRow(gray, ++bottom, colSum, colSquare, 1);
+                }
+                while(top < newTop){
+                    addRow(gray, top++, colSum, colSquare, -1);
+                }
+                for(int x=0; x< width; x++){
+                    prefix[x + 1] = prefix[x] + colSum[x];
+                    prefixSquare[x + 1] = prefixSquare[x] + colSquare[x];
+                }
+                int rows = bottom - top + 1;
+                for(int x=0; x< width; x++){
+                    int x1 = Math.max(0, x - radius);
+                    int x2 = Math.min(width - 1, x + radius);
+                    sum[x] = prefix[x2 + 1] - prefix[x1];
+                    sumSquare[x] = prefixSquare[x2 + 1] - prefixSquare[x1];
+                    count[x] = (x2 - x1 + 1) * rows;
+                }
+                consumer.accept(y, sum, sumSquare, count);
+            }
+        });
+    }
+
+    private static void addRow(GrayBuffer gray, int y, int[] colSum, long[] colSquare, int sign){
+        byte[] data = gray.data;
+        int row = gray.rowStart(y);
+        for(int x=0; x< colSum.length; x++){
+            int v = data[row + x] & 0xFF;
+            colSum[x] += sign * v;
+            colSquare[x] += sign * v * v;
+        }
+    }
+}
@@ -29,12 +29,11 @@ public class WindowThreshold implements Binarization {
 	@Override
 	public Bitmap binarize(Raster inRaster, ImageStats stats, Consumer<ImageStats> cons) {
 		  Bitmap bm = new Bitmap (inRaster.getWidth (), inRaster.getHeight ());
-	        for (int y = 0; y < bm.height(); ++y) {
-	            for (int x = 0; x < bm.width(); ++x) {
-	                double pel = inRaster.getSampleDouble (x, y, 0);
-	                bm.set (x, y, pel >= low && pel <= high);
-	            }
-	        }
+		  boolean[] on = new boolean[256];
+		  for(int v=0;v<on.length;v++){
+			  on[v] = v >= low && v <= high;
+		  }
+		  GrayBuffer.of(inRaster).threshold(bm, on);
 
 	        return bm;
 	}
@@ -0,0 +1,48 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import java.util.stream.DoubleStream;
+
+/**
+ * Implementation of the Wolf and Jolion threshold, a variant of Sauvola's
+ * normalized by the contrast of the whole image instead of a fixed range:
+ * the largest local standard deviation, and the darkest (or, for light marks,
+ * brightest) value of the image.
+ *
+ * @since 0.9.9
+ */
+public class WolfThreshold extends LocalThreshold{
+
+	double k=0.5;
+
+	public WolfThreshold(int rad, double k){
+		super(rad);
+		this.k=k;
+	}
+
+	public WolfThreshold(){
+		super(10);
+	}
+
+	@Override
+	LocalRule rule(GrayBuffer gray, ImageStats stats, boolean inverted) {
+		double[] rowMax = new double[gray.height];
+		WindowSums.forEachRow(gray, rad, (y, sum, sumSquare, count) -> {
+			double max = 0;
+			for(int x=0; x< gray.width; x++){
+				max = Math.max(max, stdev(sum[x], sumSquare[x], count[x]));
+			}
+			rowMax[y] = max;
+		});
+		double maxStdev = DoubleStream.of(rowMax).max().orElse(0);
+		//a flat image has nothing to normalize by
+		double rmax = maxStdev == 0 ? 1 : maxStdev;
+
+		if(inverted){
+			//dark marks: the threshold moves from the mean towards the darkest value
+			return (mean, stdev) -> mean - k * (1 - stdev/rmax) * (mean - stats.min);
+		}
+		//light marks: the threshold moves from the mean towards the brightest value
+		return (mean, stdev) -> mean + k * (1 - stdev/rmax) * (stats.max - mean);
+	}
+
+}
@@ -29,7 +29,8 @@ public class CachedSupplier<T> implements Supplier<T>, Callable<T>{
 
 	private final Supplier<T> c;
 	private T cache;
-	private boolean run=false;
+	//written after the cache, so whoever sees it set also sees the value
+	private volatile boolean run=false;
 	private long generatedWithVersion;
 
 	public CachedSupplier(final Supplier<T> c){
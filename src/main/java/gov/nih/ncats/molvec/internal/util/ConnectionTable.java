@@ -34,6 +34,23 @@ public class ConnectionTable{
 	private CachedSupplier<Map<Node,Integer>> _nodeMap = CachedSupplier.of(()->_getNodeMap());
 	private CachedSupplier<List<Ring>> _ring = CachedSupplier.of(()->_getRingMap());
 	
+	private Deadline deadline = Deadline.NONE;
+	
+	/**
+	 * Set the {@link Deadline} checked by the long running searches of this table,
+	 * such as ring perception.
+	 * @param deadline the deadline, null means {@link Deadline#NONE}.
+	 * @return this
+	 */
+	public ConnectionTable setDeadline(Deadline deadline){
+		this.deadline = deadline==null? Deadline.NONE : deadline;
+		return this;
+	}
+	
+	public Deadline getDeadline(){
+		return deadline;
+	}
+	
 	
 	public static class Ring{
 		private List<Node> nodes;
@@ -113,6 +130,7 @@ public class ConnectionTable{
 			throw new InterruptedException();
 			
 		}
+		deadline.check();
 		
 		for(Tuple<Node,Edge> en : p.getNeighborNodes()){
 			if(used.contains(en.v()) || ignoreNodes.contains(en.k())){
@@ -1859,10 +1877,16 @@ public class ConnectionTable{
 
 	public ConnectionTable cloneTab() {
 		ConnectionTable ctab2 = new ConnectionTable();
+		ctab2.deadline = this.deadline;
 		this.nodes.forEach(n->{
 			ctab2.addNode(n.point);
 			Node nnode=ctab2.nodes.get(ctab2.nodes.size()-1);
 			nnode.symbol=n.symbol;
+			nnode.charge=n.charge;
+			nnode.group=n.group;
+			nnode.alias=n.alias;
+			nnode.tooClose=n.tooClose;
+			nnode.invented=n.invented;
 		});
 		this.edges.forEach(e->{
 			ctab2.addEdge(e.n1, e.n2,e.order);
@@ -0,0 +1,89 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a computation should be finished.
+ * Long running loops call {@link #check()} so that they can be abandoned
+ * cooperatively once the time is up. Unlike an interrupt, a deadline
+ * is visible to every thread that checks it, including
+ * the worker threads of a parallel stream.
+ */
+public final class Deadline {
+
+	/**
+	 * A deadline that never expires.
+	 */
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE, false);
+
+	private final long budgetNanos;
+	private final long expiresAt;
+	private final boolean enabled;
+
+	private Deadline(long budgetNanos, boolean enabled){
+		this.budgetNanos = budgetNanos;
+		this.enabled = enabled;
+		this.expiresAt = enabled? System.nanoTime() + budgetNanos : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Create a deadline which expires the given amount of time from now.
+	 * @param time the amount of time; must be &gt; 0.
+	 * @param unit the unit of time.
+	 * @return a new Deadline.
+	 */
+	public static Deadline after(long time, TimeUnit unit){
+		if(time <=0){
+			throw new IllegalArgumentException("time must be > 0");
+		}
+		return new Deadline(unit.toNanos(time), true);
+	}
+
+	public boolean isExpired(){
+		return enabled && System.nanoTime() - expiresAt >=0;
+	}
+
+	/**
+	 * The time left before this deadline expires, in nanoseconds;
+	 * negative once it has, and {@link Long#MAX_VALUE} if it never expires.
+	 */
+	public long remainingNanos(){
+		return enabled? expiresAt - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * The total time given to this deadline, in nanoseconds.
+	 */
+	public long getBudgetNanos(){
+		return budgetNanos;
+	}
+
+	/**
+	 * Throw an {@link ExceededException} if this deadline has expired.
+	 * @throws ExceededException if the deadline has expired.
+	 */
+	public void check(){
+		if(isExpired()){
+			throw new ExceededException(budgetNanos);
+		}
+	}
+
+	/**
+	 * Thrown from {@link #check()} once a deadline has expired.
+	 * This is unchecked so it can escape from lambdas and parallel streams.
+	 */
+	public static class ExceededException extends RuntimeException{
+		private static final long serialVersionUID = 1L;
+
+		private final long budgetNanos;
+
+		public ExceededException(long budgetNanos){
+			super("time budget of " + TimeUnit.NANOSECONDS.toMillis(budgetNanos) + " ms exceeded");
+			this.budgetNanos = budgetNanos;
+		}
+
+		public long getBudgetNanos(){
+			return budgetNanos;
+		}
+	}
+}
@@ -1612,6 +1612,45 @@ public class GeomUtil {
         return k == vertices.length;
     }
 
+    /**
+     * Count the ordered pairs of the given shapes, each shape paired with itself included,
+     * where the first {@link #contains(Shape, Shape)} the second. Only pairs where the
+     * bounds of the second shape's vertices lie inside the bounds of the first are tested.
+     * @since 0.9.9
+     */
+    public static long countContainedPairs (List<? extends Shape> shapes) {
+        List<Point2D[]> vertices = shapes.stream()
+                                         .map(s->vertices(s))
+                                         .collect(Collectors.toList());
+        //a shape without vertices is contained in everything
+        long empty = vertices.stream().filter(v->v.length==0).count();
+        SpatialIndex<Point2D[]> index = SpatialIndex.of(vertices.stream()
+                                                                .filter(v->v.length>0)
+                                                                .collect(Collectors.toList()),
+                                                        v->vertexBounds(v));
+        long count = empty * shapes.size();
+        for (Shape s1 : shapes) {
+            long[] k = new long[]{0};
+            index.forEachWithin(s1.getBounds2D(), v->{
+                for (Point2D p : v) {
+                    if (!s1.contains (p))
+                        return;
+                }
+                k[0]++;
+            });
+            count += k[0];
+        }
+        return count;
+    }
+
+    private static Rectangle2D vertexBounds (Point2D[] vertices) {
+        Rectangle2D.Double r = new Rectangle2D.Double(vertices[0].getX(), vertices[0].getY(), 0, 0);
+        for (Point2D p : vertices) {
+            r.add(p);
+        }
+        return r;
+    }
+
     /**
      * Return two closest vertices between two shapes
      */
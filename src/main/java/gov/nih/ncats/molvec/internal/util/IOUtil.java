@@ -0,0 +1,27 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class IOUtil {
+
+	private IOUtil(){}
+
+	/**
+	 * Read everything left in the given stream. The stream is not closed.
+	 * @param in the stream to read.
+	 * @param sizeHint the expected number of bytes, or &lt;= 0 if not known.
+	 * @return the bytes read.
+	 * @throws IOException if there is a problem reading the stream.
+	 */
+	public static byte[] readFully(InputStream in, long sizeHint) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint >0 && sizeHint < Integer.MAX_VALUE? (int) sizeHint : 8192);
+		byte[] buf = new byte[8192];
+		int read;
+		while((read = in.read(buf)) >0){
+			out.write(buf, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,162 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A uniform grid over the bounding boxes of a fixed set of items, for finding
+ * the items whose bounds overlap, or lie inside, a query rectangle without
+ * looking at every item. Use it to narrow down all-pairs shape tests to
+ * the pairs whose bounds could possibly match, before the exact test.
+ * <p>
+ * Each item is listed in every cell its bounds touch, but a query reports it
+ * only from the one cell holding the corner where the item and the query start
+ * to overlap, so every item is reported at most once without keeping track of
+ * what was seen. Queries don't modify the index and can run concurrently.
+ * <p>
+ * All comparisons treat the rectangles as closed: touching counts as overlapping.
+ *
+ * @since 0.9.9
+ */
+public final class SpatialIndex<T> {
+
+    private final List<T> items;
+    private final double[] minX, minY, maxX, maxY;
+
+    private final double originX, originY;
+    private final double cellWidth, cellHeight;
+    private final int cols, rows;
+    /**
+     * The items of cell (cx, cy) are {@code cellItems[cellStart[c]]} to
+     * {@code cellItems[cellStart[c+1]]}, exclusive, where {@code c = cy*cols + cx}.
+     */
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    private SpatialIndex(List<T> items, Function<? super T, ? extends Rectangle2D> bounds){
+        this.items = items;
+        int n = items.size();
+        minX = new double[n];
+        minY = new double[n];
+        maxX = new double[n];
+        maxY = new double[n];
+
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for(int i=0; i< n; i++){
+            Rectangle2D r = bounds.apply(items.get(i));
+            minX[i] = r.getMinX();
+            minY[i] = r.getMinY();
+            maxX[i] = r.getMaxX();
+            maxY[i] = r.getMaxY();
+            x0 = Math.min(x0, minX[i]);
+            y0 = Math.min(y0, minY[i]);
+            x1 = Math.max(x1, maxX[i]);
+            y1 = Math.max(y1, maxY[i]);
+        }
+        //about one item per cell
+        int side = Math.max(1, (int) Math.sqrt(n));
+        cols = side;
+        rows = side;
+        originX = n == 0 ? 0 : x0;
+        originY = n == 0 ? 0 : y0;
+        cellWidth = n == 0 || x1 <= x0 ? 1 : (x1 - x0) / cols;
+        cellHeight = n == 0 || y1 <= y0 ? 1 : (y1 - y0) / rows;
+
+        cellStart = new int[cols * rows + 1];
+        for(int i=0; i< n; i++){
+            for(int cy= cellY(minY[i]); cy<= cellY(maxY[i]); cy++){
+                for(int cx= cellX(minX[i]); cx<= cellX(maxX[i]); cx++){
+                    cellStart[cy * cols + cx + 1]++;
+                }
+            }
+        }
+        for(int c=0; c< cols * rows; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellItems = new int[cellStart[cols * rows]];
+        int[] fill = new int[cols * rows];
+        for(int i=0; i< n; i++){
+            for(int cy= cellY(minY[i]); cy<= cellY(maxY[i]); cy++){
+                for(int cx= cellX(minX[i]); cx<= cellX(maxX[i]); cx++){
+                    int c = cy * cols + cx;
+                    cellItems[cellStart[c] + fill[c]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the given items by the given bounds. The bounds of each item are read once.
+     */
+    public static <T> SpatialIndex<T> of(Collection<? extends T> items, Function<? super T, ? extends Rectangle2D> bounds){
+        return new SpatialIndex<>(new ArrayList<>(items), bounds);
+    }
+
+    public int size(){
+        return items.size();
+    }
+
+    private int cellX(double x){
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - originX) / cellWidth)));
+    }
+
+    private int cellY(double y){
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) / cellHeight)));
+    }
+
+    /**
+     * Visit every item whose bounds overlap the given rectangle.
+     */
+    public void forEachIntersecting(Rectangle2D r, Consumer<? super T> consumer){
+        query(r, false, consumer);
+    }
+
+    /**
+     * Visit every item whose bounds lie inside the given rectangle.
+     */
+    public void forEachWithin(Rectangle2D r, Consumer<? super T> consumer){
+        query(r, true, consumer);
+    }
+
+    /**
+     * The items whose bounds overlap the given rectangle.
+     */
+    public List<T> intersecting(Rectangle2D r){
+        List<T> found = new ArrayList<>();
+        forEachIntersecting(r, found::add);
+        return found;
+    }
+
+    private void query(Rectangle2D r, boolean within, Consumer<? super T> consumer){
+        if(items.isEmpty()){
+            return;
+        }
+        double qx0 = r.getMinX(), qy0 = r.getMinY(), qx1 = r.getMaxX(), qy1 = r.getMaxY();
+        int cx0 = cellX(qx0), cx1 = cellX(qx1);
+        int cy0 = cellY(qy0), cy1 = cellY(qy1);
+        for(int cy=cy0; cy<= cy1; cy++){
+            for(int cx=cx0; cx<= cx1; cx++){
+                int c = cy * cols + cx;
+                for(int k= cellStart[c]; k< cellStart[c + 1]; k++){
+                    int i = cellItems[k];
+                    if(minX[i] > qx1 || maxX[i] < qx0 || minY[i] > qy1 || maxY[i] < qy0){
+                        continue;
+                    }
+                    if(within && (minX[i] < qx0 || maxX[i] > qx1 || minY[i] < qy0 || maxY[i] > qy1)){
+                        continue;
+                    }
+                    //only report it from the cell where the overlap starts
+                    if(cellX(Math.max(qx0, minX[i])) != cx || cellY(Math.max(qy0, minY[i])) != cy){
+                        continue;
+                    }
+                    consumer.accept(items.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+
+/**
+ * A bounded cache of the scores a {@link RasterBasedCosineSCOCR} gives each glyph,
+ * so that a glyph seen before, in the same image or any other, isn't scored again.
+ * The same few labels make up most of the glyphs in a batch of structure images,
+ * and every glyph is asked about more than once while its image is read.
+ * <p>
+ * A glyph is identified by the number of pixels on in each of the
+ * {@code DEF_WIDTH x DEF_HEIGHT} cells it is scaled to, and by its width and height,
+ * which is all its scores depend on. The same cache can be given to several SCOCRs,
+ * as the scores are kept apart for each set of templates, and SCOCRs with the same
+ * templates, such as those of several {@code MolvecEngine}s, share their scores.
+ * It can be used by any number of threads: looking up a glyph takes no locks. When the cache is full, about a
+ * quarter of it, the glyphs least recently used, is dropped at once.
+ * <p>
+ * Every glyph takes about 2KB.
+ *
+ * @see SCOCR#setCache(GlyphScoreCache)
+ * @since 0.9.9
+ */
+public final class GlyphScoreCache {
+
+    private final int maxSize;
+    private final Map<Key, Scores> map = new ConcurrentHashMap<>();
+    /**
+     * One instance of each set of templates, so the glyphs are keyed on that instance
+     * and not compared template by template on every lookup.
+     */
+    private final Map<TemplateMatrix, TemplateMatrix> models = new ConcurrentHashMap<>();
+    /**
+     * Ticks for every glyph added. A glyph found in the cache gets the current time,
+     * so the glyphs used most recently have the largest stamps.
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Object evictLock = new Object();
+
+    /**
+     * @param maxSize the most glyphs to keep; must be &gt; 0.
+     */
+    public GlyphScoreCache(int maxSize){
+        if(maxSize < 1){
+            throw new IllegalArgumentException("max size must be > 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    /**
+     * The number of glyphs in the cache.
+     */
+    public int size(){
+        return map.size();
+    }
+
+    /**
+     * The number of times the scores of a glyph were found in the cache.
+     */
+    public long getHits(){
+        return hits.sum();
+    }
+
+    /**
+     * The number of times the scores of a glyph had to be computed.
+     */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * Drop every glyph. The counts of hits and misses are kept.
+     */
+    public void clear(){
+        map.clear();
+    }
+
+    @Override
+    public String toString(){
+        return "GlyphScoreCache{size=" + size() + "/" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() + "}";
+    }
+
+    /**
+     * The instance of the given templates to score glyphs with when using this cache.
+     * The SCOCRs given this cache all get the same instance for the same templates,
+     * even if each loaded its own, so they use each other's scores.
+     */
+    TemplateMatrix model(TemplateMatrix matrix){
+        TemplateMatrix existing = models.putIfAbsent(matrix, matrix);
+        return existing == null ? matrix : existing;
+    }
+
+    /**
+     * The scores of the glyph against the given templates, as
+     * {@link TemplateMatrix#score(BitmapScaled, double[])} gives them,
+     * from the cache or else computed and added to it.
+     * The returned array must not be modified.
+     */
+    double[] scores(TemplateMatrix matrix, BitmapScaled bms){
+        Key key = new Key(matrix, bms);
+        Scores cached = map.get(key);
+        if(cached != null){
+            hits.increment();
+            long now = clock.get();
+            if(cached.lastUsed != now){
+                cached.lastUsed = now;
+            }
+            return cached.scores;
+        }
+        misses.increment();
+        double[] scores = new double[matrix.size()];
+        matrix.score(bms, scores);
+        map.put(key.copy(), new Scores(scores, clock.incrementAndGet()));
+        if(map.size() > maxSize){
+            evict();
+        }
+        return scores;
+    }
+
+    private void evict(){
+        synchronized(evictLock){
+            if(map.size() <= maxSize){
+                return;
+            }
+            //hits don't move the clock, so many glyphs can have the same stamp;
+            //drop exactly the glyphs over the number to keep, oldest first
+            List<Used> used = new ArrayList<>(map.size());
+            for(Map.Entry<Key, Scores> e : map.entrySet()){
+                used.add(new Used(e.getKey(), e.getValue().lastUsed));
+            }
+            used.sort(Comparator.comparingLong(u -> u.lastUsed));
+            int keep = maxSize - maxSize / 4;
+            for(int i=0, drop = used.size() - keep; i< drop; i++){
+                map.remove(used.get(i).key);
+            }
+        }
+    }
+
+    private static final class Used {
+        final Key key;
+        final long lastUsed;
+
+        Used(Key key, long lastUsed){
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class Scores {
+        final double[] scores;
+        volatile long lastUsed;
+
+        Scores(double[] scores, long lastUsed){
+            this.scores = scores;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class Key {
+        final TemplateMatrix matrix;
+        final int width, height;
+        final int[] onCells;
+        final int hash;
+
+        Key(TemplateMatrix matrix, BitmapScaled bms){
+            this(matrix, bms.twidth, bms.theight, bms.onCells());
+        }
+
+        private Key(TemplateMatrix matrix, int width, int height, int[] onCells){
+            this.matrix = matrix;
+            this.width = width;
+            this.height = height;
+            this.onCells = onCells;
+            this.hash = (System.identityHashCode(matrix) * 31 + Arrays.hashCode(onCells)) * 31 + width * 7919 + height;
+        }
+
+        /**
+         * A key with its own copy of the cells, to keep in the cache.
+         */
+        Key copy(){
+            return new Key(matrix, width, height, onCells.clone());
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && matrix == k.matrix && width == k.width && height == k.height
+                    && Arrays.equals(onCells, k.onCells);
+        }
+    }
+}
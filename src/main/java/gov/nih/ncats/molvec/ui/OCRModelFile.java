@@ -0,0 +1,176 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.awt.geom.Rectangle2D;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+
+import gov.nih.ncats.molvec.internal.util.IOUtil;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * The binary file the templates of the {@link AbstractStupidestPossibleSCOCR}s are
+ * loaded from, instead of parsing text out of Base64 strings in the source.
+ * <p>
+ * All numbers are big endian. The file starts with the header
+ * <pre>
+ * int    magic, "MVOC"
+ * short  version, {@value #VERSION}
+ * int    number of templates
+ * </pre>
+ * followed by each template:
+ * <pre>
+ * char   the character
+ * byte   width
+ * byte   height
+ * double width of the glyph it was made from
+ * double height of the glyph it was made from
+ * byte[] width*height values, 0 to 255, column by column
+ * </pre>
+ * <p>
+ * The files are made with {@link #main(String[])} from the lines
+ * {@link RasterBasedCosineSCOCR#debug()} prints, which are the character,
+ * a tab, and the Base64 of {@link RasterChar#rawDataAsString()}.
+ *
+ * @since 0.9.9
+ */
+public final class OCRModelFile {
+
+    private static final int MAGIC = 0x4D564F43;
+    static final short VERSION = 1;
+
+    private OCRModelFile(){}
+
+    /**
+     * Read the model in the given resource of the given class, and
+     * give every template with its character to the consumer, in file order.
+     * @throws UncheckedIOException if the resource is missing or not a valid model file.
+     */
+    public static void read(Class<?> cls, String resource, BiConsumer<String, RasterChar> consumer){
+        try(InputStream in = cls.getResourceAsStream(resource)){
+            if(in == null){
+                throw new IOException("OCR model " + resource + " not found");
+            }
+            read(ByteBuffer.wrap(IOUtil.readFully(in, in.available())), consumer);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void read(ByteBuffer buf, BiConsumer<String, RasterChar> consumer) throws IOException{
+        try{
+            if(buf.getInt() != MAGIC){
+                throw new IOException("not an OCR model file");
+            }
+            short version = buf.getShort();
+            if(version != VERSION){
+                throw new IOException("unsupported OCR model version " + version);
+            }
+            int n = buf.getInt();
+            for(int t=0; t< n; t++){
+                char c = buf.getChar();
+                int width = buf.get() & 0xff;
+                int height = buf.get() & 0xff;
+                double rectWidth = buf.getDouble();
+                double rectHeight = buf.getDouble();
+                int[][] data = new int[width][height];
+                for(int x=0; x< width; x++){
+                    for(int y=0; y< height; y++){
+                        data[x][y] = buf.get() & 0xff;
+                    }
+                }
+                consumer.accept(String.valueOf(c), new RasterChar(data, new Rectangle2D.Double(0, 0, rectWidth, rectHeight)));
+            }
+        }catch(BufferUnderflowException e){
+            throw new IOException("truncated OCR model file", e);
+        }
+    }
+
+    /**
+     * Write the given templates, with their characters, as a model file.
+     * @throws IllegalArgumentException if a template doesn't fit the format: the character
+     * isn't a single char, the template has more than 255 columns or rows, or a value is
+     * outside 0 to 255.
+     */
+    public static void write(List<? extends Entry<String, RasterChar>> templates, OutputStream out) throws IOException{
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeShort(VERSION);
+        dout.writeInt(templates.size());
+        for(Entry<String, RasterChar> e : templates){
+            String c = e.getKey();
+            RasterChar rc = e.getValue();
+            int width = rc.data.length;
+            int height = width == 0 ? 0 : rc.data[0].length;
+            if(c.length() != 1){
+                throw new IllegalArgumentException("not a single character: \"" + c + "\"");
+            }
+            if(width > 255 || height > 255){
+                throw new IllegalArgumentException("template of " + c + " too large: " + width + "x" + height);
+            }
+            dout.writeChar(c.charAt(0));
+            dout.writeByte(width);
+            dout.writeByte(height);
+            dout.writeDouble(rc.rect.getWidth());
+            dout.writeDouble(rc.rect.getHeight());
+            for(int[] column : rc.data){
+                for(int v : column){
+                    if(v < 0 || v > 255){
+                        throw new IllegalArgumentException("template of " + c + " has value " + v);
+                    }
+                    dout.writeByte(v);
+                }
+            }
+        }
+        dout.flush();
+    }
+
+    /**
+     * Parse the text templates {@link RasterBasedCosineSCOCR#debug()} prints, one per line.
+     */
+    static List<Entry<String, RasterChar>> parseText(List<String> lines){
+        List<Entry<String, RasterChar>> templates = new ArrayList<>();
+        for(String line : lines){
+            if(line.trim().isEmpty()){
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if(tab < 0){
+                throw new IllegalArgumentException("no tab in line: " + line);
+            }
+            String raw = new String(Base64.getDecoder().decode(line.substring(tab + 1).trim()), StandardCharsets.UTF_8);
+            templates.add(new AbstractMap.SimpleImmutableEntry<>(line.substring(0, tab), RasterChar.parseFromString(raw)));
+        }
+        return templates;
+    }
+
+    /**
+     * Convert text templates to a model file:
+     * {@code OCRModelFile <text templates> <model file>}.
+     */
+    public static void main(String[] args) throws IOException{
+        if(args.length != 2){
+            System.err.println("usage: OCRModelFile <text templates> <model file>");
+            System.exit(1);
+        }
+        List<Entry<String, RasterChar>> templates = parseText(Files.readAllLines(new File(args[0]).toPath(), StandardCharsets.UTF_8));
+        try(OutputStream out = new FileOutputStream(args[1])){
+            write(templates, out);
+        }
+        System.out.println("wrote " + templates.size() + " templates to " + args[1]);
+    }
+}
@@ -14,11 +14,10 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -32,6 +31,12 @@ import gov.nih.ncats.molvec.internal.algo.Tuple;
 public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	Set<Character> _alphabet;
 	Map<Character, List<RasterChar>> charVal = new HashMap<Character, List<RasterChar>>();
+	/**
+	 * The templates of {@link #charVal} laid out for scoring,
+	 * rebuilt whenever the alphabet is set.
+	 */
+	private volatile TemplateMatrix matrix;
+	private volatile GlyphScoreCache cache;
 	//Map<Character, Rectangle2D> WH_RATIO = new HashMap<Character, Rectangle2D>();
 
 	static int DEF_WIDTH = 20;
@@ -172,15 +177,6 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 		private static final Pattern COORD_SEP_PATTERN = Pattern.compile("x");
 		private static final Pattern VALUE_SEP_PATTERN = Pattern.compile(",");
 
-		/**
-		 * Cache for Ints to their hex String representation this
-		 * is used to speed up performance of deserializing the rasters
-		 * in {@link #readDataFromString(String)}
-		 */
-		private static Map<String, Integer> INT_16_CACHE = new ConcurrentHashMap<>();
-		private static Map<String, Integer> INT_CACHE = new ConcurrentHashMap<>();
-		private static Map<String, Double> DOUBLE_CACHE = new ConcurrentHashMap<>();
-
 		public RasterChar(int[][] dat, Rectangle2D rect){
 			this.data=dat;
 			this.rect=rect;
@@ -204,20 +200,20 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 			String[] rawlines = LINE_SEP_PATTERN.split(raw);
 
 			String[] dimLine = COORD_SEP_PATTERN.split(rawlines[0]);
-			int x = INT_CACHE.computeIfAbsent(dimLine[0], v-> Integer.parseInt(v));
-			int y = INT_CACHE.computeIfAbsent(dimLine[1], v-> Integer.parseInt(v));
+			int x = Integer.parseInt(dimLine[0]);
+			int y = Integer.parseInt(dimLine[1]);
 
 
 			String[] rectLine = COORD_SEP_PATTERN.split(rawlines[1]);
-			double rectX = DOUBLE_CACHE.computeIfAbsent(rectLine[0], v->Double.parseDouble(v));
-			double rectY = DOUBLE_CACHE.computeIfAbsent(rectLine[1], v->Double.parseDouble(v));
+			double rectX = Double.parseDouble(rectLine[0]);
+			double rectY = Double.parseDouble(rectLine[1]);
 
 			this.data = new int[x][y];
 			for(int i=2; i< rawlines.length; i++){
 				int[] row = new int[y];
 				int j=0;
 				for(String v : VALUE_SEP_PATTERN.split(rawlines[i])){
-					row[j] = INT_16_CACHE.computeIfAbsent(v, value ->Integer.parseInt(value, 16));
+					row[j] = Integer.parseInt(v, 16);
 					j++;
 				}
 				data[i-2] = row;
@@ -235,11 +231,9 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 			double scalex = ((double)wid)/bm.width();
 			double scaley = ((double)hit)/bm.height();
 			
-			bm.getXYOnPoints()
-			  .map(xy->new int[]{(int)(xy[0]*scalex),(int)(xy[1]*scaley)})
-			  .forEach(xy->{
-				  bmap[xy[0]][xy[1]]=1;
-			  });  
+			bm.getOnPixels().forEach((x,y)->{
+				  bmap[(int)(x*scalex)][(int)(y*scaley)]=1;
+			  });
 			Rectangle2D rect = new Rectangle2D.Double(0, 0, bm.width(),bm.height());
 			return new RasterChar(bmap,rect);
 		}
@@ -330,7 +324,9 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 				       .add(rc);
 			});
 		}
-		
+		TemplateMatrix m = TemplateMatrix.of(_alphabet, charVal);
+		GlyphScoreCache c = cache;
+		matrix = c==null? m : c.model(m);
 	}
 
 	@Override
@@ -353,13 +349,70 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 		return _alphabet;
 	}
 
+	/**
+	 * Keep the scores of the glyphs seen in the given cache, which may be shared
+	 * with other SCOCRs. null stops caching.
+	 */
+	@Override
+	public void setCache(GlyphScoreCache cache) {
+		TemplateMatrix m = matrix;
+		if(cache!=null && m!=null){
+			//use the same templates as the other SCOCRs of the cache, so they find each other's glyphs
+			matrix = cache.model(m);
+		}
+		this.cache = cache;
+	}
+
+	public GlyphScoreCache getCache() {
+		return cache;
+	}
+
 	@Override
 	public Map<Character, Number> getRanking(Bitmap r) {
 		BitmapScaled bms=r.getScaled(DEF_WIDTH, DEF_HEIGHT);
-		
-		return _alphabet
-				.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), c2->correlation(bms, c2)));
+		TemplateMatrix m = matrix;
+		GlyphScoreCache c = cache;
+		double[] best;
+		if(c!=null){
+			best = c.scores(m, bms);
+		}else{
+			best = new double[m.size()];
+			m.score(bms, best);
+		}
+
+		Map<Character, Number> ranking = new HashMap<>(m.size()*2);
+		for(int i=0;i<best.length;i++){
+			ranking.put(m.charAt(i), best[i]);
+		}
+		return ranking;
+	}
+
+	@Override
+	public List<Entry<Character, Number>> getTopK(Bitmap r, int k, double minScore) {
+		return getNBestMatches(k, minScore, r);
+	}
+
+	@Override
+	public List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+		return getNBestMatches(n, Double.NEGATIVE_INFINITY, r);
+	}
+
+	private List<Entry<Character, Number>> getNBestMatches(int n, double minScore, Bitmap... r) {
+		TemplateMatrix m = matrix;
+		GlyphScoreCache c = cache;
+		if(c!=null){
+			//every glyph is asked about more than once, so score all of it once
+			double[][] scores = new double[r.length][];
+			for(int i=0;i<r.length;i++){
+				scores[i]=c.scores(m, r[i].getScaled(DEF_WIDTH, DEF_HEIGHT));
+			}
+			return m.topK(scores, n, minScore);
+		}
+		BitmapScaled[] glyphs = new BitmapScaled[r.length];
+		for(int i=0;i<r.length;i++){
+			glyphs[i]=r[i].getScaled(DEF_WIDTH, DEF_HEIGHT);
+		}
+		return m.topK(glyphs, n, minScore);
 	}
 
 	public static void debugPrintBmap(int[][] test) {
@@ -377,48 +430,7 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	
 	
 	
-	private double correlation(BitmapScaled bms, Character c){
 
-		List<RasterChar> rcl = charVal.get(c);
-		if(rcl==null){
-			return 0;
-		}
-		List<int[]> xys = bms.xys;
-		int[][] ccount = bms.ccount;
-		int total = bms.tcount;
-		int twidth = bms.twidth;
-		int theight = bms.theight;
-
-		double maxCor = Double.MIN_VALUE;
-		for (RasterChar rc: rcl) {
-			int[][] cM = rc.data;
-			double cor = 0;
-			int sum=0;
-			for(int[] xy : xys){
-				cor +=cM[xy[0]][xy[1]]*xy[2];
-			}
-
-			
-			for(int i=0;i<DEF_WIDTH;i++){
-				for(int j=0;j<DEF_HEIGHT;j++){
-					int val=cM[i][j];
-					sum+=val*val*ccount[i][j];
-				}
-			}
-			int totalC=sum;
-			
-			double whrat = (double) twidth / (double) theight;
-			whrat = (rc.rect.getWidth()/rc.rect.getHeight()) / whrat;
-			if (whrat > 1) {
-				whrat = 1 / whrat;
-			}
-			whrat = 1 - Math.pow(1 - whrat, 2);
-
-			double tcor = whrat * cor / (Math.sqrt(total) * Math.sqrt(totalC));
-			maxCor = Math.max(tcor, maxCor);
-		}
-		return maxCor;
-	}
 
 //	public double correlation(Bitmap test, Character c) {
 //		int twidth = test.width();
@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
@@ -160,6 +161,30 @@ public interface SCOCR {
 		}
 		return retRanks;
 	}
+	/**
+	 * The at most {@code k} characters scoring best for the given bitmap,
+	 * best first, leaving out the ones scoring below {@code minScore}.
+	 * This gives the first entries of {@link #sortMap(Map) sorting} the
+	 * {@link #getRanking(Bitmap) ranking}, so NaN scores come first,
+	 * but implementations may skip scoring the characters which
+	 * can't make it.
+	 * @since 0.9.9
+	 */
+	public default List<Entry<Character, Number>> getTopK(Bitmap r, int k, double minScore) {
+		return sortMap(getRanking(r)).stream()
+				.filter(e -> !(e.getValue().doubleValue() < minScore))
+				.limit(Math.max(0, k))
+				.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Keep the scores of the glyphs seen in the given cache, so a glyph seen
+	 * again isn't scored again. null stops caching. SCOCRs which can't
+	 * cache their scores ignore it.
+	 * @since 0.9.9
+	 */
+	public default void setCache(GlyphScoreCache cache) {
+	}
 	
 	public static class OrElseSCOCR implements SCOCR{
 		private double keepCutoff =0.6;
@@ -187,6 +212,13 @@ public interface SCOCR {
 			return null;
 		}
 
+		@Override
+		public void setCache(GlyphScoreCache cache) {
+			for(SCOCR s:scocrList){
+				s.setCache(cache);
+			}
+		}
+
 		@Override
 		public Map<Character, Number> getRanking(Bitmap r) {
 			Map<Character, Number> res=new HashMap<>();
@@ -201,6 +233,54 @@ public interface SCOCR {
 			}
 			return res;
 		}
+
+		/**
+		 * The first of the SCOCRs which has some character scoring
+		 * above the cutoff for the given bitmap, or else the last one.
+		 */
+		private SCOCR pick(Bitmap r){
+			for(int i=0;i<scocrList.size()-1;i++){
+				SCOCR s=scocrList.get(i);
+				if(clearsCutoff(s, r)){
+					return s;
+				}
+			}
+			return scocrList.get(scocrList.size()-1);
+		}
+
+		private boolean clearsCutoff(SCOCR s, Bitmap r){
+			//only the best score matters, but NaN scores come before it
+			for(int k=1;;k*=2){
+				List<Entry<Character, Number>> best=s.getTopK(r, k, this.keepCutoff);
+				for(Entry<Character, Number> e: best){
+					if(!Double.isNaN(e.getValue().doubleValue())){
+						return e.getValue().doubleValue()>this.keepCutoff;
+					}
+				}
+				if(best.size()<k){
+					return false;
+				}
+			}
+		}
+
+		@Override
+		public List<Entry<Character, Number>> getTopK(Bitmap r, int k, double minScore) {
+			return pick(r).getTopK(r, k, minScore);
+		}
+
+		@Override
+		public List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+			SCOCR s=null;
+			for(Bitmap b: r){
+				SCOCR sb=pick(b);
+				if(s!=null && s!=sb){
+					//each bitmap ranked by a different SCOCR
+					return SCOCR.super.getNBestMatches(n, r);
+				}
+				s=sb;
+			}
+			return s.getNBestMatches(n, r);
+		}
 	}
 	
 	public default OrElseSCOCR orElse(SCOCR backup, double cut){
@@ -225,6 +305,11 @@ public interface SCOCR {
 				return _this.getAlphabet();
 			}
 
+			@Override
+			public void setCache(GlyphScoreCache cache) {
+				_this.setCache(cache);
+			}
+
 			@Override
 			public Map<Character, Number> getRanking(Bitmap r) {
 				Map<Character, Number> map = _this.getRanking(r);
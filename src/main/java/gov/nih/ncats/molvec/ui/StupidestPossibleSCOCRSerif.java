@@ -1,145 +1,17 @@
 package gov.nih.ncats.molvec.ui;
 
-import java.nio.charset.Charset;
-import java.util.Base64;
 import java.util.function.BiConsumer;
-import java.util.regex.Pattern;
 
 public class StupidestPossibleSCOCRSerif extends AbstractStupidestPossibleSCOCR{
-	
-	private static String[] raw= new String[]{
-			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==",
-			"+	MjB4MjAKNS4wMTU2MjV4NS4wCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"-	MjB4MjAKMi4weDAuNjA5Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"-	MjB4MjAKMi40NTMxMjV4MS4wNDY4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"/	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNSw0LDMKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjMsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"/	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw3LDUsNCwzCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"0	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiw0LDMKNSw3LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDcsNyw2CjYsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjQsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNCwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNiw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5CjUsNyw3LDUsNCwzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw3LDcsNgozLDYsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
-			"0	MjB4MjAKNC44MTI1eDYuMDQ2ODc1CjAsMCwxLDMsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5CjYsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOQo1LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKNSw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjQsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo1LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNSw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDksOQo2LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDA=", 
-			"1	MjB4MjAKMi45Njg3NXg1LjkzNzUKMCwyLDUsNSwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMyw1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgoxLDQsNSw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMiw1LDUsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDUsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNSw2LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjYsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"1	MjB4MjAKMy43ODEyNXg1LjkzNzUKMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjEsNCw2LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQoyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNiw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo1LDcsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNyw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"2	MjB4MjAKMy43NjU2MjV4NS45Mzc1CjMsNSw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo1LDgsOCw3LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjUsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNiw3LDcsOSw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw2LDUsNSw2LDksOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNiw0LDQsNiw5LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw3LDUsMiwzLDYsOSw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDYsNiwzLDEsMyw2LDksOQozLDMsMCwwLDAsMCwwLDAsMCwxLDMsNiw2LDQsMSwwLDMsNiw5LDkKNCw0LDEsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAsMCwzLDYsOSw5CjUsNSwyLDAsMCwwLDAsMSwzLDYsNyw2LDMsMSwwLDAsMyw2LDksOQo2LDcsNSwyLDEsMSwyLDQsNiw4LDcsNCwxLDAsMCwwLDMsNiw5LDkKNSw3LDcsNSw0LDQsNSw3LDgsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjQsNyw5LDgsNyw3LDgsOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOQoyLDUsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMSwyLDUsNyw5LDkKMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDIsNCw3LDgsOSw5CjAsMSw0LDcsOSw5LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5LDksOQowLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDk=", 
-			"2	MjB4MjAKNC4zMTI1eDUuOTM3NQo0LDYsNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNyw0LDIsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo1LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDYsOCw4LDksOSw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw2LDcsNyw5LDksOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDYsNSw1LDYsOSw5LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw2LDQsNCw2LDksOSw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsNiwzLDMsNiw5LDksOQo0LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwzLDYsOSw5LDkKNSw2LDMsMSwwLDAsMCwxLDIsNCw2LDgsNyw0LDEsMyw2LDksOSw5CjYsOCw2LDQsMywzLDMsNCw1LDcsOCw4LDUsMiwwLDMsNiw5LDksOQo2LDksOCw3LDYsNiw2LDcsOCw5LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMyw2LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDMsNiw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwzLDYsOSw5LDkKMiw1LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwxLDIsNSw3LDksOSw5CjEsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDAsMiw0LDcsOCw5LDksOQowLDEsNCw3LDksOSw5LDcsNCwxLDAsMCwwLDMsNiw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDksOSw5", 
-			"3	MjB4MjAKMy44OTA2MjV4Ni4wNDY4NzUKMyw1LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDcsNSwzCjUsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw0LDcsOCw4LDcsNgo2LDgsNyw0LDIsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNiw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo0LDQsMSwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDEsNCw1LDQsMSwwLDAsMCwwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMCwwLDAsMyw2LDkKNSw1LDIsMCwwLDEsNCw1LDcsNSw0LDEsMCwwLDAsMCwxLDQsNyw5CjYsNyw1LDMsMyw0LDYsNSw2LDUsNiwzLDEsMCwwLDEsMyw2LDgsOQo1LDcsNyw2LDYsNyw4LDYsNiw2LDgsNiw0LDMsMyw0LDYsOCw5LDkKNCw3LDksOSw5LDksOCw1LDQsNSw4LDgsNyw2LDYsNyw4LDgsNyw2CjIsNSw4LDksOSw4LDYsMywyLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNSwzLDEsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDIsMSwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"3	MjB4MjAKNC41eDYuMDQ2ODc1CjQsNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw4LDcsNgo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjUsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDQsMSwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMSw0LDYsNSwyLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMSw0LDcsOQo1LDYsNCwyLDIsMiw1LDcsOSw3LDQsMSwwLDAsMCwxLDMsNiw4LDkKNiw4LDcsNSw1LDUsNyw4LDksOCw2LDQsMywzLDMsNCw2LDgsOSw5CjYsOSw5LDgsOCw4LDksOCw4LDgsOCw3LDYsNiw2LDcsOCw5LDksOQo2LDksOSw5LDksOSw5LDcsNyw3LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDgsNSw0LDUsOCw5LDksOSw5LDksOSw4LDcsNgoyLDUsOCw5LDksOSw3LDQsMiw0LDcsOSw5LDksOSw5LDksNyw1LDMKMSwzLDUsNiw2LDYsNCwyLDAsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjAsMSwyLDMsMywzLDIsMSwwLDEsNCw3LDksOSw5LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
-			"4	MjB4MjAKNC40Mzc1eDUuOTM3NQowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDUsMywwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNyw1LDMsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsNyw2LDYsNCwzLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw3LDYsMyw0LDMsMywwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMywzLDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsNyw2LDMsMSwwLDMsMywzLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw2LDUsMywxLDAsMCwzLDMsMywwLDAsMSwyLDMKMCwxLDIsNCw1LDUsNCwyLDEsMCwwLDAsMywzLDMsMCwwLDIsNCw2CjEsMyw1LDYsNSwzLDEsMCwwLDAsMCwwLDMsMywzLDAsMCwzLDYsOQozLDYsNyw2LDMsMSwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMyw2LDkKNiw4LDgsNiw0LDMsMywzLDMsMywzLDMsNSw1LDUsMywzLDUsNyw5CjgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDcsNyw3LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw3LDcsNiw2LDcsOCw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNSw1LDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDMsNiw5", 
-			"4	MjB4MjAKNC45MDYyNXg1LjkzNzUKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw1LDMsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDgsNSwzLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw2LDcsNiw2LDQsMywwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw1LDcsNyw2LDMsNCwzLDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsNyw3LDUsMywxLDMsMywzLDAsMCwwLDAsMAowLDAsMSwyLDQsNiw3LDYsNCwyLDEsMCwzLDMsMywwLDAsMSwyLDMKMCwxLDMsNSw3LDcsNiwzLDEsMCwwLDAsMywzLDMsMCwwLDIsNCw2CjEsMyw2LDcsNyw1LDMsMSwwLDAsMCwwLDMsMywzLDAsMCwzLDYsOQo0LDYsOCw4LDcsNSw0LDMsMywzLDMsMyw1LDUsNSwzLDMsNSw3LDkKNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw3LDcsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDcsNyw2LDYsNyw4LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw1LDUsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwzLDYsOQ==", 
-			"5	MjB4MjAKMy43ODEyNXg1LjkzNzUKMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwzLDYsOSw5LDcsNSwzCjYsNiw2LDYsNiw2LDYsNiw0LDIsMCwwLDAsMiw0LDcsOCw4LDcsNgo5LDgsNyw2LDYsNiw3LDgsNiwzLDAsMCwwLDEsMiw0LDYsOCw5LDkKOSw3LDUsMywzLDMsNSw2LDUsMiwwLDAsMCwwLDAsMSwzLDYsOCw5CjksNiwzLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOQo5LDYsMywwLDAsMSw0LDQsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDkKOSw2LDMsMCwwLDIsNSw1LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo5LDYsMywwLDAsMiw1LDUsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDkKOSw2LDMsMCwwLDEsNCw1LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw5CjksNiwzLDAsMCwwLDMsNSw2LDMsMSwwLDAsMCwwLDEsNCw3LDksOQo5LDYsMywwLDAsMCwyLDUsNyw2LDQsMywzLDMsMyw0LDYsNyw3LDYKOSw2LDMsMCwwLDAsMSw0LDcsOCw3LDYsNiw2LDYsNyw4LDcsNSwzCjYsNCwyLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOCw1LDIsMAozLDIsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==", 
-			"5	MjB4MjAKNC4zMTI1eDUuOTM3NQozLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwLDMsNiw5LDksOCw3LDYKNiw2LDYsNiw2LDYsNiw2LDQsMiwwLDAsMCwyLDQsNyw4LDksOSw5CjksOSw4LDcsNiw2LDcsNyw1LDIsMCwwLDAsMSwyLDQsNiw4LDksOQo5LDksNyw1LDMsMyw1LDUsNCwxLDAsMCwwLDAsMCwxLDMsNiw4LDkKOSw5LDYsMywwLDEsNCw0LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjksOSw2LDMsMCwyLDUsNSwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo5LDksNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDkKOSw5LDYsMywwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjksOSw2LDMsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo5LDksNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDkKOSw5LDYsMywwLDMsNiw3LDUsMiwxLDAsMCwwLDAsMSwzLDYsOCw5CjksOSw2LDMsMCwzLDYsOCw3LDUsNCwzLDMsMywzLDQsNiw4LDksOQo5LDksNiwzLDAsMyw2LDksOSw4LDcsNiw2LDYsNiw3LDgsOSw5LDkKOSw5LDYsMywwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksNiwzLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksNyw1LDMKNiw2LDQsMiwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw4LDUsMiwwCjMsMywyLDEsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksNiwzLDAsMCww", 
-			"6	MjB4MjAKNC4wNjI1eDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjEsNCw3LDgsNyw2LDYsNyw4LDksOCw3LDYsNiw3LDgsOCw2LDQsMwozLDYsNyw2LDQsMyw0LDYsNyw3LDUsNCwzLDMsNCw1LDcsNyw3LDYKNSw3LDYsMywxLDAsMiw1LDYsNSwyLDEsMCwwLDEsMiw1LDcsOSw5CjUsNiwzLDEsMCwwLDMsNSw1LDIsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDQsMSwwLDAsMCwzLDQsNCwxLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOQo0LDQsMSwwLDAsMCwzLDUsNiwzLDEsMCwwLDAsMCwxLDMsNiw4LDkKNSw2LDMsMSwwLDAsMyw2LDgsNiw0LDMsMywzLDMsNCw2LDcsNyw2CjYsOCw1LDIsMCwwLDIsNSw4LDgsNyw2LDYsNiw2LDcsOCw3LDUsMwo2LDksNiwzLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNSwyLDAKNCw2LDQsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwCjIsMywyLDEsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDA=", 
-			"6	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw4LDcsNiw3LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw5LDkKNiw4LDcsNSw0LDMsNSw3LDgsNyw1LDQsMywzLDQsNSw3LDgsOSw5CjYsNyw1LDIsMSwwLDMsNSw2LDQsMiwxLDAsMCwxLDIsNCw2LDgsOQo1LDUsMiwwLDAsMSw0LDUsNCwxLDAsMCwwLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDIsNSw1LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDMsMCwwLDAsMyw2LDcsNSwyLDEsMCwwLDAsMCwxLDMsNiw4LDkKMywzLDAsMCwwLDIsNSw3LDcsNSw0LDMsMywzLDMsNCw2LDgsOSw5CjQsNCwxLDAsMCwxLDQsNyw5LDgsNyw2LDYsNiw2LDcsOCw5LDksOQo1LDUsMiwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw3LDUsMiwxLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsOCw3LDQsMiwwLDEsNCw3LDksOSw5LDksOSw5LDksOCw2LDQsMwo0LDYsNiw0LDIsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMiwzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"7	MjB4MjAKMy44NDM3NXg1LjgyODEyNQo5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNgo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw3LDcsNyw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDQsMwo5LDYsMywwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDUsMywxLDAKOSw2LDMsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDUsNCwyLDEsMCwwCjksNiwzLDAsMCwwLDEsMiw0LDYsOCw4LDYsNCwyLDEsMCwwLDAsMAo5LDYsMywwLDAsMSwzLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAKOSw2LDMsMSwyLDQsNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwCjksNyw1LDQsNSw3LDcsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKNC4yNjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDcsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOCw3LDUsNCwzCjksOSw2LDMsMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDYsNCwyLDEsMAo5LDksNiwzLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSwzLDEsMCwwLDAKOSw5LDYsMywwLDEsMiw0LDYsOCw5LDgsNiw0LDIsMSwwLDAsMCwwCjksOSw2LDMsMSwzLDUsNyw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMAo5LDksNyw1LDQsNiw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw3LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"8	MjB4MjAKNC4wMTU2MjV4Ni4wNDY4NzUKMCwxLDIsMywzLDMsMiwxLDAsMSwzLDUsNiw2LDYsNiw1LDMsMSwwCjEsMyw1LDYsNiw2LDUsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAoyLDUsOCw5LDksOSw4LDUsMyw0LDcsOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOCw4LDgsOSw2LDUsNSw3LDcsNiw2LDYsNyw4LDgsNyw2CjUsNyw3LDUsNSw1LDcsNiw3LDYsNiw0LDMsMywzLDQsNiw4LDksOQo1LDYsNCwyLDIsMiw0LDUsNyw2LDQsMSwwLDAsMCwxLDMsNiw4LDkKNCw0LDEsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwxLDQsNyw5CjMsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKNCw0LDEsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwxLDQsNyw5CjUsNiw0LDIsMiwyLDQsNSw3LDYsNCwxLDAsMCwwLDAsMiw1LDgsOQo1LDcsNyw1LDUsNSw3LDYsNyw2LDYsNCwzLDMsMywzLDUsNyw5LDkKNCw3LDksOCw4LDgsOSw2LDUsNSw3LDcsNiw2LDYsNiw3LDcsNyw2CjIsNSw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw3LDcsNyw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsNSw1LDUsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"8	MjB4MjAKNC43MTg3NXg2LjA0Njg3NQowLDEsMyw1LDYsNSwzLDEsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMSwzLDYsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjMsNiw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw5LDcsNiw2LDgsOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNyw4LDksOQo2LDgsNyw2LDYsNiw2LDcsOCw4LDYsNCwzLDMsMywzLDQsNiw4LDkKNSw2LDQsMywzLDMsMyw1LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw5CjUsNCwxLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKNSw0LDEsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5CjUsNiw0LDMsMywzLDMsNSw3LDcsNCwxLDAsMCwwLDAsMSw0LDcsOQo2LDgsNyw2LDYsNiw2LDcsOCw4LDYsNCwzLDMsMywzLDQsNiw4LDkKNiw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw3LDgsOSw5CjYsOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDcsNiw2LDgsOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOCw1LDMsNCw3LDksOSw5LDksOSw5LDcsNSwzCjEsMyw2LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAowLDEsNCw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
-			"9	MjB4MjAKNC4wNDY4NzV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAsMCwwLDAsMSwyLDMsMywzCjEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDIsNCw2LDYsNgoyLDUsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwzLDYsOSw5LDkKNCw3LDgsNyw2LDYsNiw2LDcsOCw4LDUsMiwwLDAsMiw1LDgsOSw5CjUsNyw2LDQsMywzLDMsMyw0LDYsOCw2LDMsMCwwLDEsMyw2LDgsOQo1LDYsMywxLDAsMCwwLDAsMSwzLDYsNSwzLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMCwwLDAsMSw0LDQsMywwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwxLDQsNCwzLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMCwwLDAsMiw1LDUsMywwLDAsMSwzLDYsOCw5CjUsNiw0LDIsMSwwLDAsMSwyLDUsNiw1LDIsMCwxLDMsNiw3LDcsNgo1LDcsNyw1LDQsMywzLDQsNSw3LDYsNSwzLDMsNCw2LDcsNiw0LDMKMyw2LDgsOCw3LDYsNiw3LDgsOSw3LDYsNSw2LDcsOCw3LDQsMSwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw4LDgsOSw5LDgsNSwyLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"9	MjB4MjAKNC42MjV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNSwzLDEsMCwwLDEsMiwzLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwyLDQsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDcsNCwxLDAsMiw0LDcsOCw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDEsMiw1LDcsOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMiw1LDgsOQo2LDksOCw3LDYsNiw2LDYsNyw4LDksNyw0LDEsMCwwLDEsNCw3LDkKNiw4LDYsNCwzLDMsMywzLDQsNSw3LDcsNSwyLDAsMCwwLDMsNiw5CjUsNiwzLDEsMCwwLDAsMCwxLDIsNSw3LDYsMywwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwzLDUsNSwyLDAsMCwxLDQsNyw5CjQsNCwxLDAsMCwwLDAsMCwwLDEsNCw1LDQsMSwwLDAsMiw1LDgsOQo1LDYsNCwyLDEsMCwwLDEsMiw0LDYsNSwzLDAsMSwyLDUsNyw5LDkKNiw4LDcsNSw0LDMsMyw0LDUsNyw4LDcsNSwzLDQsNSw3LDgsOSw5CjYsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw3LDgsOSw4LDcsNgo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"A	MjB4MjAKNS45MDYyNXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDQsNSw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDUsNSw0LDQsNSw3LDkKMCwwLDAsMCwwLDAsMSwyLDQsNSw1LDYsNyw3LDUsMiwxLDIsNCw2CjAsMCwwLDEsMiwzLDQsNSw2LDYsNSw2LDcsNiwzLDAsMCwxLDIsMwowLDEsMiw0LDUsNSw1LDUsNSw0LDIsNCw2LDYsMywwLDAsMCwwLDAKMyw0LDQsNSw1LDUsNCwzLDIsMSwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNyw3LDcsNSwzLDEsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo5LDksOCw3LDUsNCwyLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw3LDgsOSw4LDcsNSw0LDMsMiwxLDMsNiw2LDMsMCwwLDAsMCwwCjMsNCw1LDYsNyw4LDgsNyw2LDUsNCw1LDcsNiwzLDAsMCwxLDIsMwowLDEsMiwzLDQsNSw3LDgsOSw4LDcsNyw4LDcsNCwxLDAsMiw0LDYKMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw4LDYsNCwzLDUsNyw5CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw4LDcsNiw3LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"A	MjB4MjAKNi4zNTkzNzV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw1LDUsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDYsNSw0LDUsNyw5CjAsMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsNyw1LDIsMSwyLDQsNgowLDAsMSwyLDMsNCw1LDUsNSw1LDUsNiw3LDYsMywwLDAsMSwyLDMKMSwyLDQsNSw1LDUsNSw1LDQsMywyLDQsNiw2LDMsMCwwLDAsMCwwCjQsNSw3LDgsOCw2LDQsMiwxLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo3LDgsOSw5LDgsNiw0LDMsMiwxLDAsMyw2LDYsMywwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw2LDUsNCwzLDUsNyw2LDMsMCwwLDAsMCwwCjcsOCw5LDksOSw5LDksOSw4LDcsNiw3LDgsNyw0LDEsMCwxLDIsMwo0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiw0LDIsMyw0LDYKMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDYsNyw5CjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5LDksOCw4LDgsOQowLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"B	MjB4MjAKNC45NTMxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDMsNiw5CjUsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMCwwLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMyw2LDkKNCw0LDEsMCwwLDAsMSw0LDYsNSwyLDAsMCwwLDAsMCwwLDMsNiw5CjUsNiwzLDEsMCwxLDMsNSw3LDUsMywwLDAsMCwwLDAsMSw0LDcsOQo2LDgsNiw0LDMsNCw2LDYsNyw1LDUsMiwxLDAsMCwxLDMsNiw4LDkKNSw4LDgsNyw2LDcsOCw2LDYsNSw3LDUsNCwzLDMsNCw2LDgsOSw5CjMsNiw4LDksOSw5LDgsNSw0LDUsOCw4LDcsNiw2LDcsOCw4LDcsNgoxLDMsNSw2LDYsNiw1LDMsMiwzLDYsOCw5LDksOSw5LDgsNiw0LDMKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNS45NTMxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw3LDcsNyw2LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsNSw1LDUsMywzLDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwzLDQsNCwxLDAsMCwwLDAsMCwwLDMsNiw5CjYsNCwxLDAsMCwwLDEsNCw2LDUsMiwwLDAsMCwwLDAsMCwzLDYsOQo2LDUsMiwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDEsNCw3LDkKNiw3LDUsMywzLDMsNSw3LDksNyw1LDIsMSwwLDAsMSwzLDYsOCw5CjYsOCw3LDYsNiw2LDcsNyw4LDcsNyw1LDQsMywzLDQsNiw4LDksOQo2LDksOSw5LDksOSw5LDcsNyw3LDksOCw3LDYsNiw3LDgsOSw5LDkKNSw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOSw5LDksOSw5CjMsNiw4LDksOSw5LDgsNSw0LDUsOCw5LDksOSw5LDksOSw4LDcsNgoxLDMsNSw2LDYsNiw1LDMsMiwzLDYsOCw5LDksOSw5LDgsNiw0LDMKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"C	MjB4MjAKNS4xODc1eDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOCw2LDMsMSwwCjIsNSw3LDcsNSw0LDMsMywzLDMsMywzLDMsNCw1LDcsNyw1LDIsMAo0LDYsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNiw1LDMKNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDYsNyw2CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2CjYsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw2LDUsMwo1LDcsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAKNCw3LDksOCw3LDQsMiwwLDAsMCwwLDAsMCwyLDUsNyw2LDMsMSwwCjMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDcsNCwxLDAsMAozLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDA=", 
-			"C	MjB4MjAKNS42MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOSw3LDUsMwo1LDgsOSw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDksOCw3LDYKNiw4LDcsNSw0LDMsMywyLDEsMCwxLDIsMywzLDQsNSw3LDgsOSw5CjYsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo1LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDcsNyw2CjUsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMiw0LDcsNyw2LDQsMwo0LDcsOSw4LDcsNCwyLDAsMCwwLDAsMCwwLDMsNiw4LDYsMywxLDAKMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsNyw0LDEsMCwwCjMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMA==", 
-			"D	MjB4MjAKNS41MTU2MjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjUsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNSw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"D	MjB4MjAKNi4yMzQzNzV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo1LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNCwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo1LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNiw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjUsOCw4LDcsNSw0LDMsMywzLDMsMywzLDMsNCw1LDcsOCw4LDcsNgo0LDcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
-			"E	MjB4MjAKNC43NjU2MjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMSwyLDMsNSw1LDUsMywyLDEsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDIsNCw2LDcsNyw3LDYsNCwyLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwyLDQsNiw2LDYsNiw2LDQsMiwwLDAsMCwwLDMsNiw5CjcsNSwzLDIsMiwyLDMsMywzLDMsMywyLDEsMCwxLDIsMyw1LDcsOQo4LDcsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNyw4LDkKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQ==", 
-			"E	MjB4MjAKNS4zMTI1eDUuODI4MTI1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDEsMiwzLDUsNyw3LDUsMiwxLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwyLDQsNiw3LDgsOCw3LDQsMiwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMiw0LDYsNiw2LDYsNiw0LDIsMCwwLDAsMCwzLDYsOQo3LDUsMywyLDIsMiwzLDMsMywzLDMsMiwxLDAsMSwyLDMsNSw3LDkKOCw3LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDcsOCw5CjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDk=", 
-			"F	MjB4MjAKNC43ODEyNXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNyw3LDcsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDUsNSw1LDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMiw0LDYKNiwzLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDEsMiwzCjYsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwxLDIsMyw1LDUsNSwzLDIsMSwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMiw0LDYsNyw3LDcsNiw0LDIsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDIsNCw2LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAKNyw1LDMsMiwyLDIsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwCjgsNyw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"F	MjB4MjAKNS4yMDMxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMiw0LDYKNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDEsMiwzCjYsMywwLDAsMSwyLDMsNSw3LDcsNSwyLDEsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDIsNCw2LDcsOCw4LDcsNCwyLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwyLDQsNiw2LDYsNiw2LDQsMiwwLDAsMCwwLDAsMCwwCjcsNSwzLDIsMiwyLDMsMywzLDMsMywyLDEsMCwwLDAsMCwwLDAsMAo4LDcsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"G	MjB4MjAKNS4zMTI1eDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOCw2LDMsMSwwCjIsNSw3LDcsNSw0LDMsMywzLDMsMywzLDMsNCw1LDcsNyw1LDIsMAo0LDYsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNiw1LDMKNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDYsNyw2CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwyLDUsOCw5CjYsNyw1LDIsMSwwLDAsMCwwLDMsNiw3LDUsMywzLDMsNSw3LDksOQo1LDcsNyw1LDQsMiwxLDAsMCwzLDYsOCw3LDYsNiw2LDcsNyw3LDYKNCw3LDksOCw3LDQsMiwwLDAsMyw2LDksOSw5LDksOSw5LDcsNSwzCjMsNiw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMAozLDYsOSw5LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDA=", 
-			"G	MjB4MjAKNS44NTkzNzV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOSw3LDUsMwo1LDgsOCw3LDYsNSw0LDMsMywzLDMsMyw0LDUsNiw3LDgsOCw3LDYKNiw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMSw0LDcsOQo1LDYsMywxLDAsMCwwLDAsMCwzLDYsNyw1LDMsMywzLDQsNiw4LDkKNiw4LDYsMywxLDAsMCwwLDAsMyw2LDgsNyw2LDYsNiw3LDgsOSw5CjUsOCw4LDYsNCwyLDEsMCwwLDMsNiw5LDksOSw5LDksOSw4LDcsNgo0LDcsOSw4LDcsNCwyLDAsMCwzLDYsOSw5LDksOSw5LDksNyw1LDMKMyw2LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDksOSw5LDYsMywwCjMsNiw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMA==", 
-			"H	MjB4MjAKNi4wOTM3NXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw3LDcsNyw2LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsNSw1LDUsMywzLDMsMywzLDMsMyw1LDcsOQo0LDIsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMiw0LDYKMiwxLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwxLDIsMwo0LDIsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMiw0LDYKNyw1LDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNyw3LDcsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"H	MjB4MjAKNi44MjgxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDUsNyw5CjQsMiwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwyLDQsNgoyLDEsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMSwyLDMKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwxLDIsMwo0LDIsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMiw0LDYKNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"I	MjB4MjAKMi4yODEyNXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"I	MjB4MjAKMy4weDUuODI4MTI1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"K	MjB4MjAKNS42NTYyNXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDQsNiw4LDksNyw1LDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMSwzLDUsNyw4LDcsNCwxLDAsMCwwLDAsMyw2LDkKNCwyLDAsMCwxLDMsNSw1LDUsNiw3LDYsMywxLDAsMCwwLDIsNCw2CjIsMSwwLDAsMiw1LDYsNCwyLDMsNiw3LDYsMywxLDAsMCwxLDIsMwowLDAsMCwxLDQsNiw1LDIsMCwxLDMsNiw3LDYsMywxLDAsMCwwLDAKMCwwLDEsMyw1LDUsMywxLDAsMCwxLDMsNiw3LDYsMywxLDAsMCwwCjIsMiwzLDUsNSwzLDEsMCwwLDAsMCwxLDMsNiw3LDYsMywxLDAsMAo1LDUsNSw1LDMsMSwwLDAsMCwwLDAsMCwxLDQsNyw4LDYsMywxLDAKOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw4LDYsNCwzCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"K	MjB4MjAKNi44MjgxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDUsNyw5CjQsMiwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwyLDQsNgoyLDEsMCwwLDEsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDAsMSwyLDMKMCwwLDAsMSwzLDUsNiw2LDcsOCw5LDksOCw2LDMsMSwwLDAsMCwwCjIsMSwxLDMsNSw1LDQsMyw0LDYsOCw5LDksOCw2LDQsMiwxLDAsMAo0LDMsMyw1LDUsMywxLDAsMSwzLDYsOCw5LDksOCw3LDUsMywxLDAKNyw2LDUsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOSw4LDYsNCwzCjgsNyw1LDMsMSwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw4LDcsNgo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOQo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDkKMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"L	MjB4MjAKNC42ODc1eDUuODI4MTI1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDcsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDk=", 
-			"L	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQ==", 
-			"M	MjB4MjAKNy4zNzV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNyw4LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjQsNSw3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwyLDQsNgoxLDIsNCw1LDYsNyw3LDcsNSw0LDMsMiwxLDAsMCwwLDAsMSwyLDMKMCwwLDEsMiwzLDQsNSw3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNSw0LDMsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDcsNyw2LDQsMiwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDgsNyw0LDIsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw0LDUsNSw1LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwyLDMsNCw0LDUsNCw0LDMsMiwxLDAsMCwwLDAKMCwwLDAsMSwyLDQsNCw0LDQsNCw0LDIsMSwwLDAsMCwwLDEsMiwzCjEsMiwzLDQsNCw1LDQsNCwzLDIsMSwwLDAsMCwwLDAsMCwyLDQsNgo0LDUsNiw3LDcsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"M	MjB4MjAKOC4xNDA2MjV4NS44MjgxMjUKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDQsNSw2CjgsOSw5LDksOCw3LDYsNSw0LDMsMywyLDEsMCwwLDAsMCwxLDIsMwo1LDYsNyw4LDksOSw5LDgsNyw2LDYsNSw0LDMsMiwxLDAsMCwwLDAKMiwzLDQsNSw2LDcsOCw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwCjAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw4LDcsNCwyLDAsMAowLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDYsMywwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDcsNyw3LDYsNiw0LDIsMCwwCjAsMCwwLDAsMCwxLDIsMyw0LDQsNCw0LDQsNCwzLDMsMiwxLDAsMAowLDAsMSwyLDMsNCw0LDQsNCw0LDQsMywyLDEsMCwwLDAsMSwyLDMKMiwzLDQsNCw0LDQsNCw0LDMsMiwxLDAsMCwwLDAsMCwwLDIsNCw2CjUsNiw3LDcsNyw2LDUsNCwzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"N	MjB4MjAKNi4yNjU2MjV4NS45Mzc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo2LDgsOSw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMyw1LDcsNyw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMSwzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDMsMSwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDQsMiwxLDAsMAo0LDIsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDUsMywxLDAKNyw1LDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw4LDYsNCwzCjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNgo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"N	MjB4MjAKNi42NDA2MjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDUsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOSw5LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo1LDcsOCw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMiw0LDYKMiw0LDYsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiwzCjAsMSwzLDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDUsNyw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw2LDMsMSwwLDAKMiwxLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw2LDQsMywzCjQsMiwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOCw3LDYsNgo2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw5LDksOSw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYsNiw2LDYsNgo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"O	MjB4MjAKNS42NTYyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAoyLDUsNyw3LDUsNCwzLDMsMywzLDMsMywzLDQsNSw3LDcsNSwyLDAKNCw2LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDYsNSwzCjQsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNgo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNCwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNCw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2CjQsNiw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw2LDUsMwoyLDUsNyw3LDUsNCwzLDMsMywzLDMsMywzLDQsNSw3LDcsNSwyLDAKMSwzLDYsOCw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"O	MjB4MjAKNi4yODEyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDcsNSwzCjUsNyw3LDUsNCwzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw3LDcsNgo2LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjUsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo0LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNSw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo2LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKNSw3LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDcsNyw2CjQsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw3LDUsMwoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"P	MjB4MjAKNC42NTYyNXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMiw0LDYKNSwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsMiwzCjQsMywwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAozLDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNCw0LDEsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDAsMCwwLDAsMCwwCjUsNiw0LDIsMSwxLDIsNCw2LDYsNCwxLDAsMCwwLDAsMCwwLDAsMAo1LDcsNyw1LDQsNCw1LDcsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDksOCw3LDcsOCw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjIsNSw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAoxLDQsNyw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"P	MjB4MjAKNS40Mzc1eDUuODI4MTI1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDYsNiw3LDcsNyw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMywzLDMsNSw1LDUsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMCwxLDQsNCwzLDAsMCwwLDAsMCwzLDYsOQo3LDQsMSwwLDAsMCwwLDAsMiw1LDUsMywwLDAsMCwwLDAsMiw0LDYKNyw1LDIsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDEsMiwzCjcsNyw1LDMsMywzLDMsNCw2LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDgsNyw2LDYsNiw2LDcsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMAo0LDcsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAKMiw1LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDMsNiw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"R	MjB4MjAKNS43ODEyNXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDIsNCw2CjYsMywwLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwxLDIsMwo1LDMsMCwwLDAsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDAsMCwwLDAKNSw0LDEsMCwwLDAsMCwxLDQsNiw2LDQsMiwxLDAsMCwwLDAsMCwwCjUsNiwzLDEsMCwwLDEsMyw1LDcsNyw3LDUsNCwyLDEsMCwwLDAsMAo2LDgsNiw0LDMsMyw0LDYsNiw2LDYsOCw4LDcsNSw0LDIsMSwwLDAKNSw4LDgsNyw2LDYsNyw3LDUsMywzLDUsNyw4LDgsNyw1LDQsMywzCjMsNSw3LDgsOSw5LDgsNiwzLDEsMSwyLDQsNSw3LDgsOCw3LDYsNgoxLDIsNCw1LDYsNiw1LDMsMSwwLDAsMCwxLDIsNCw1LDcsOCw5LDkKMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"R	MjB4MjAKNi4zMjgxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw3LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5CjcsNSwzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOQo2LDMsMCwwLDAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMiw0LDYKNiw0LDEsMCwwLDAsMCwxLDQsNyw4LDYsNCwyLDEsMCwwLDEsMiwzCjYsNiwzLDEsMCwwLDEsMyw2LDgsOSw4LDcsNSw0LDIsMSwwLDAsMAo2LDgsNiw0LDMsMyw0LDYsOCw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw5LDgsNyw2LDYsNyw4LDgsOCw4LDksOSw5LDksOCw3LDUsNCwzCjUsOCw5LDksOSw5LDksOSw3LDYsNSw3LDgsOSw5LDksOSw4LDcsNgo0LDcsOSw5LDksOSw5LDgsNSwzLDIsNCw1LDcsOCw5LDksOSw5LDkKMiw0LDcsOCw5LDksOCw2LDMsMSwwLDEsMiw0LDUsNyw4LDksOSw5CjEsMiw0LDUsNiw2LDUsMywxLDAsMCwwLDAsMSwyLDQsNSw3LDgsOQowLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"S	MjB4MjAKNC4yMTg3NXg2LjA0Njg3NQoxLDMsNSw2LDYsNiw2LDQsMiwwLDAsMCwwLDIsNCw2LDYsNSw0LDMKMiw1LDgsOSw5LDksOSw3LDQsMSwwLDAsMCwyLDQsNyw4LDgsNyw2CjQsNyw4LDcsNiw3LDgsOCw1LDIsMCwwLDAsMSwyLDQsNiw4LDksOQo1LDcsNiw0LDMsNSw3LDksNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKNSw2LDMsMSwwLDIsNSw4LDgsNSwyLDAsMCwwLDAsMCwyLDUsOCw5CjQsNCwxLDAsMCwxLDQsNyw5LDYsMywwLDAsMCwwLDAsMSw0LDcsOQozLDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOQo0LDQsMSwwLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDMsNiw4LDUsMiwwLDAsMCwyLDUsOCw5CjYsNyw0LDEsMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDEsNCw3LDksOQo2LDgsNiw0LDIsMSwwLDAsMiw1LDgsOCw2LDQsMyw0LDYsNyw3LDYKNiw5LDgsNyw0LDIsMCwwLDEsNCw3LDksOCw3LDYsNyw4LDcsNSwzCjQsNiw2LDYsNCwyLDAsMCwwLDIsNSw4LDksOSw5LDksOCw1LDIsMAoyLDMsMywzLDIsMSwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
-			"S	MjB4MjAKNC43NjU2MjV4Ni4wNDY4NzUKMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAsMCwyLDQsNiw2LDUsNCwzCjIsNSw4LDksOSw5LDksOSw4LDUsMiwwLDAsMiw1LDgsOSw4LDcsNgo0LDcsOSw5LDksOSw5LDksOSw3LDQsMSwwLDEsMyw2LDgsOSw5LDkKNSw4LDgsNyw3LDgsOSw5LDksOCw1LDIsMCwwLDEsMyw2LDgsOSw5CjYsOCw2LDQsNCw2LDgsOSw5LDksNiwzLDAsMCwwLDEsNCw3LDksOQo1LDYsMywxLDEsNCw3LDksOSw5LDYsMywwLDAsMCwwLDIsNSw4LDkKNCw0LDEsMCwwLDMsNiw5LDksOSw3LDQsMSwwLDAsMCwxLDQsNyw5CjMsMywwLDAsMCwyLDUsOCw5LDksOCw1LDIsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMSw0LDcsOSw5LDksNiwzLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwzLDYsOSw5LDksNyw0LDEsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMiw1LDgsOSw5LDgsNSwyLDAsMCwyLDUsOCw5CjUsNSwyLDAsMCwwLDEsNCw3LDksOSw5LDcsNSwzLDMsNSw3LDksOQo2LDcsNSwyLDEsMCwwLDMsNiw5LDksOSw4LDcsNiw2LDcsOCw5LDkKNiw4LDcsNSwzLDEsMCwyLDUsOCw5LDksOSw5LDksOSw5LDgsNyw2CjUsOCw5LDgsNSwyLDAsMSw0LDcsOSw5LDksOSw5LDksOSw3LDUsMwozLDUsNiw2LDQsMiwwLDAsMiw1LDgsOSw5LDksOSw5LDgsNSwyLDAKMSwyLDMsMywyLDEsMCwwLDEsNCw3LDksOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksNiwzLDAsMA==", 
-			"T	MjB4MjAKNS4xODc1eDUuODI4MTI1CjgsNyw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"T	MjB4MjAKNS43ODEyNXg1LjgyODEyNQo4LDcsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"U	MjB4MjAKNi4wMTU2MjV4NS45Mzc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwLDAKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMAo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDcsNiw0LDMKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDcsNyw2CjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDUsNCwzCjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDUsNCwzLDEsMAo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"U	MjB4MjAKNi41MTU2MjV4NS45Mzc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsNyw2CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDQsNSw2LDcsOCw5LDksOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDYsOCw5LDkKNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw2LDYsNSwzCjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDQsNSw2LDYsNiw0LDIsMAo3LDUsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw1LDQsMiwxLDAKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"V	MjB4MjAKNS45Njg3NXg1LjgyODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDYsNyw4LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjcsNSwzLDQsNSw3LDgsOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAo0LDIsMCwxLDIsNCw1LDYsNyw4LDksOCw3LDUsNCwzLDIsMSwwLDAKMiwxLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw4LDcsNiw1LDQsMywzCjAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOCw3LDYsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw3LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw1LDUsNCw0LDMsMwowLDAsMCwwLDAsMCwwLDEsMiw0LDUsNSw1LDUsNSw0LDIsMSwwLDAKMiwxLDAsMCwxLDIsMyw0LDQsNSw1LDUsNCwzLDIsMSwwLDAsMCwwCjQsMywyLDMsNCw1LDUsNSw0LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo3LDYsNSw1LDUsNSw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw2LDUsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"V	MjB4MjAKNi4zNzV4NS44MjgxMjUKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMAo4LDgsOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAKNyw2LDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwCjQsMywyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMwoyLDEsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSw0LDMKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNSw1LDUsNSw0LDIsMSwwCjIsMSwwLDAsMCwxLDIsNCw1LDUsNSw1LDUsNCwzLDIsMSwwLDAsMAo0LDIsMSwyLDMsNCw1LDYsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAKNyw1LDQsNSw1LDUsNSw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw1LDUsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"W	MjB4MjAKOC4xNTYyNXg1LjgyODEyNQo3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw2LDYsNiw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMAo3LDUsMyw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsNCwzLDMsMywzLDMKNCwyLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsMSwwLDAsMCwwLDAsMCwxLDIsMywzLDQsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNSw0LDMKMCwwLDEsMiwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAo2LDYsNiw2LDYsNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDYsNiw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwCjMsMyw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsNCwzLDMsMywyLDEsMAowLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNSw0LDMKMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw5LDgsNyw2CjIsMSwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNiw3LDYsNiw2LDYsNgo0LDIsMSwyLDMsMywzLDQsNCw0LDMsMyw0LDQsNCwzLDMsMywzLDMKNyw1LDQsNCw0LDMsMyw0LDQsNCwzLDMsMywyLDEsMCwwLDAsMCwwCjcsNSw0LDQsNCwzLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"W	MjB4MjAKOS4xNTYyNXg1LjgyODEyNQo3LDUsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNiw2LDUsNCwzLDMsMywyLDEsMCwwLDAsMAo4LDcsNyw4LDksOSw5LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDMKNyw1LDQsNSw2LDYsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw2CjQsMiwxLDIsMywzLDMsNCw1LDYsNiw2LDcsOCw5LDksOSw5LDksOQoyLDEsMCwwLDAsMCwwLDEsMyw1LDYsNiw3LDgsOCw3LDYsNiw2LDYKMCwwLDAsMSwyLDMsMywzLDQsNCw0LDMsNCw1LDUsNCwzLDMsMywzCjMsMywzLDQsNCw0LDMsMyw0LDQsNCwzLDMsMywyLDEsMCwwLDAsMAo2LDYsNiw3LDcsNyw2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwCjYsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw1LDQsMywzLDMsMwozLDMsNCw1LDYsNiw2LDcsOCw5LDksOSw5LDksOCw3LDYsNiw2LDYKMCwwLDEsMiwzLDMsMyw0LDUsNiw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2LDcsOCw4LDcsNiw2LDYsNgoyLDEsMCwxLDIsMywzLDMsNCw0LDQsMyw0LDUsNSw0LDMsMywzLDMKNSw0LDMsNCw0LDQsMywzLDQsNCw0LDMsMywzLDIsMSwwLDAsMCwwCjcsNSwzLDQsNCw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"X	MjB4MjAKNS42MDkzNzV4NS44MjgxMjUKNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDEsMyw1LDYsNSw2LDcsOQo4LDgsOCw5LDgsNiw0LDIsMSwwLDAsMSwzLDUsNiw1LDMsMyw0LDYKNyw2LDUsNyw4LDgsNyw1LDMsMiwyLDQsNSw1LDQsMiwxLDEsMiwzCjQsMywyLDQsNiw4LDksOCw2LDUsNCw1LDQsMywxLDAsMCwwLDAsMAoyLDEsMCwxLDMsNSw3LDgsOCw4LDcsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDUsNiw2LDcsOCw4LDYsNCwyLDEsMCwxLDIsMwoyLDEsMCwxLDMsNSw1LDQsMyw0LDYsOCw4LDcsNSwzLDEsMiw0LDYKNCwzLDIsNCw1LDUsMywxLDAsMSwzLDUsNyw4LDgsNiw0LDUsNyw5CjcsNiw0LDUsNCwzLDEsMCwwLDAsMSwyLDQsNiw4LDgsNyw3LDgsOQo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"X	MjB4MjAKNi4xNTYyNXg1LjgyODEyNQo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDkKOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMSwzLDUsNiw1LDYsNyw5CjksOSw5LDksOSw4LDcsNSwzLDEsMSwyLDQsNSw2LDUsMyw0LDYsOQo4LDgsOCw5LDksOSw5LDgsNiw0LDQsNSw2LDUsNCwyLDEsMiw0LDYKNyw2LDUsNyw4LDksOSw5LDgsNyw3LDcsNiwzLDEsMCwwLDEsMiwzCjQsMywyLDQsNiw4LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMAoyLDEsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAsMSwyLDMKMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw4LDYsNCwyLDMsNCw2CjIsMSwwLDEsMyw1LDYsNiw2LDcsOCw5LDksOSw4LDcsNSw2LDcsOQo0LDMsMiw0LDUsNiw1LDQsMyw0LDYsOCw5LDksOSw5LDgsOCw4LDkKNyw2LDUsNiw1LDQsMiwxLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjgsNyw2LDUsMywxLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOQo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOQoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"Y	MjB4MjAKNS40NTMxMjV4NS44MjgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo3LDYsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNCwzLDMsNSw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDMsNiw5CjIsMSwxLDIsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDEsMyw1LDcsOCw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMyw2LDcsNyw2LDYsNiw2LDYsNiw3LDgsOQowLDAsMCwwLDAsMSwzLDQsNSw0LDQsMywzLDMsMywzLDMsNSw3LDkKMiwxLDAsMSwyLDQsNSw1LDQsMiwxLDAsMCwwLDAsMCwwLDMsNiw5CjQsMiwxLDMsNCw1LDQsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo3LDUsNCw1LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKOCw2LDUsNCwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNS44NTkzNzV4NS44MjgxMjUKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjksOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo5LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDkKOCw4LDgsOSw5LDksOSw4LDcsNSw0LDMsMywzLDMsMywzLDUsNyw5CjcsNiw1LDcsOCw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw3LDgsOQo0LDMsMiw0LDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiwxLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwyLDUsOCw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKMCwwLDAsMCwxLDIsNCw1LDYsNSw0LDMsMywzLDMsMywzLDUsNyw5CjIsMSwxLDIsNCw1LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwzLDYsOQo0LDMsMyw1LDYsNiw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNyw2LDUsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Z	MjB4MjAKNC44OTA2MjV4NS44MjgxMjUKNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2CjgsNyw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDgsOCw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiw2LDcsOQo2LDMsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDMsNCw2LDkKNiwzLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDYsMywxLDMsNiw5CjYsMywwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwzLDYsOQo2LDMsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMyw2LDkKNiwzLDAsMCwwLDEsMyw2LDgsOCw2LDQsMiwxLDAsMCwwLDMsNiw5CjYsMywwLDEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwzLDYsOQo2LDMsMSwzLDUsNyw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMyw2LDkKNiw0LDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNiw2LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo4LDgsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNSw3LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDcsOCw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQ==", 
-			"Z	MjB4MjAKNS4yNXg1LjgyODEyNQo2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDkKOCw3LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw4LDgsOQo2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDYsNiw3LDkKNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDQsNiw5CjYsMywwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDMsMSwzLDYsOQo2LDMsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAsMyw2LDkKNiwzLDEsMyw2LDgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDMsNiw5CjYsNCwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwzLDYsOQo3LDYsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMyw2LDkKOCw4LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDMsNiw5CjksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOQo5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5CjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOQo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5", 
-			"\\	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"\\	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"a	MjB4MjAKNC4xNDA2MjV4NC4zNzUKMSwyLDMsMywyLDEsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjMsNSw2LDYsNCwyLDAsMSwzLDYsOCw5LDksOSw5LDksOCw2LDQsMwo1LDgsOCw3LDQsMiwwLDIsNSw4LDksOCw3LDYsNyw4LDksOCw3LDYKNiw4LDYsNCwyLDEsMSw0LDcsOCw3LDUsNCwzLDQsNiw4LDksOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDcsNSwyLDEsMCwxLDMsNiw4LDksOQo1LDUsMiwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDkKNCw0LDEsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwyLDUsOCw5CjMsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw5CjUsNSwyLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsNCw2LDcsNgo2LDcsNSwyLDEsMCwzLDYsNiwzLDAsMCwwLDAsMSwzLDUsNSw0LDMKNSw3LDcsNSw0LDMsNSw3LDcsNSwzLDMsMywzLDQsNiw3LDYsNCwzCjMsNiw4LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNgoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwxLDMsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"a	MjB4MjAKNC42NzE4NzV4NC4zNzUKMiwzLDMsMywyLDEsMCwwLDEsMyw1LDYsNyw3LDcsNiw1LDMsMSwwCjQsNiw2LDYsNCwyLDAsMSwzLDYsOCw5LDksOSw5LDksOCw2LDQsMwo2LDksOCw3LDQsMiwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw4LDYsNCwyLDEsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDksOSw4LDcsNyw4LDksOSw5LDksOQo2LDYsMywwLDAsMCwzLDYsOSw4LDcsNSw0LDQsNSw3LDgsOSw5LDkKNiw2LDMsMCwwLDAsMyw2LDgsNiw0LDIsMSwxLDIsNCw2LDgsOSw5CjYsNiwzLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwxLDQsNiw3LDYKNiw3LDQsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDEsMyw1LDUsNCwzCjYsOCw2LDQsMywzLDUsNyw3LDUsMywzLDMsMyw0LDYsNyw2LDQsMwo2LDksOCw3LDYsNiw3LDgsOCw3LDYsNiw2LDYsNyw4LDgsNyw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"b	MjB4MjAKNC40ODQzNzV4Ni4xODc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2CjMsMywzLDMsMyw0LDYsNyw2LDQsMywzLDMsMywzLDQsNiw3LDcsNgowLDAsMCwwLDAsMiw0LDUsMywxLDAsMCwwLDAsMCwxLDMsNSw2LDYKMCwwLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMSw0LDQsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDIsNSw1LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwxLDQsNiw2LDQsMiwxLDAsMCwwLDEsMiw1LDcsOSw5CjAsMCwwLDAsMCwyLDUsNyw3LDUsNCwzLDMsMyw0LDUsNyw3LDcsNgowLDAsMCwwLDAsMSw0LDcsOSw4LDcsNiw2LDYsNyw4LDgsNiw0LDMKMCwwLDAsMCwwLDAsMiw0LDcsOCw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"b	MjB4MjAKNS4wOTM3NXg2LjE4NzUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDcsOCw5LDgsNyw2CjMsMywzLDMsMyw0LDYsNyw2LDQsMywzLDMsMyw0LDUsNyw3LDcsNgowLDAsMCwwLDAsMiw0LDUsMywxLDAsMCwwLDAsMSwyLDUsNiw3LDYKMCwwLDAsMCwxLDQsNSw0LDEsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMiw1LDUsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsOCw2LDQsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDAsMiw1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOQowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw3LDUsMwowLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw4LDcsNCwyLDAKMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksOSw5LDksNyw1LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"c	MjB4MjAKMy43MDMxMjV4NC4zNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjQsNyw4LDcsNSw0LDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwo1LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDcsNSwzCjUsOCw4LDcsNiw0LDIsMCwwLDAsMCwwLDIsNCw3LDgsOCw1LDIsMAo0LDcsOSw5LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw4LDYsMywxLDAKMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMyw2LDksNyw0LDEsMCwwCjMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMA==", 
-			"c	MjB4MjAKNC4xODc1eDQuMzc1CjAsMCwxLDIsNCw1LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQo2LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDEsMiwzLDQsNiw3LDcsNgo1LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwyLDQsNiw3LDcsNiw0LDMKNCw3LDksOSw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOCw2LDMsMSwwCjMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDcsNCwxLDAsMAozLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDA=", 
-			"d	MjB4MjAKNC40ODQzNzV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDEsNCw3LDksOCw3LDYsNiw2LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwyLDUsNyw3LDUsNCwzLDMsMyw0LDUsNyw3LDcsNgowLDAsMCwwLDEsNCw2LDYsNCwyLDEsMCwwLDAsMSwyLDUsNyw5LDkKMCwwLDAsMCwyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwyLDUsNSwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjIsMSwwLDAsMSw0LDQsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo0LDIsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKNiwzLDAsMCwwLDIsNCw1LDMsMSwwLDAsMCwwLDAsMSwzLDUsNiw2CjcsNSwzLDMsMyw0LDYsNyw2LDQsMywzLDMsMywzLDQsNiw3LDcsNgo4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"d	MjB4MjAKNS4wNzgxMjV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsNCwyLDEsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDcsNCwyLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwyLDUsOCw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjAsMCwwLDAsMyw2LDgsNiw0LDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMiwxLDAsMCwyLDUsNSwzLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjQsMiwwLDAsMSw0LDUsNCwxLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo2LDMsMCwwLDAsMiw0LDUsMywxLDAsMCwwLDAsMSwyLDUsNiw3LDYKNyw1LDMsMywzLDQsNiw3LDYsNCwzLDMsMywzLDQsNSw3LDcsNyw2CjgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw3LDgsOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"e	MjB4MjAKMy45Mzc1eDQuMzc1CjAsMCwxLDIsNCw1LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDYsNyw4LDgsNyw2LDYsNyw4LDksOCw1LDIsMAo0LDcsOCw3LDUsNCwzLDUsNyw3LDUsMywzLDQsNSw3LDgsNyw1LDMKNSw3LDYsNCwyLDEsMCwzLDYsNiwzLDAsMCwxLDIsNCw2LDcsNyw2CjYsNyw0LDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDUsMiwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDIsNSw4LDkKNSw0LDEsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwxLDQsNyw5CjQsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOQo1LDQsMSwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDkKNSw1LDIsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwxLDQsNyw5CjYsNyw0LDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMiw1LDgsOQo2LDgsNiwzLDEsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDMsMyw1LDcsNiwzLDAsMCwwLDEsMyw2LDcsNyw2CjMsNiw4LDgsNyw2LDYsNyw4LDYsMywwLDEsMiw0LDYsNyw2LDQsMwoxLDMsNiw4LDksOSw5LDksOSw2LDMsMCwyLDQsNyw3LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksNiwzLDAsMyw2LDgsNiwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDYsMywwLDMsNiw3LDQsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwzLDYsNiwzLDAsMCwwLDA=", 
-			"e	MjB4MjAKNC40MDYyNXg0LjM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOCw3LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw3LDgsOSw5LDkKNiw4LDYsNCwzLDMsMyw1LDcsNyw1LDMsMywzLDMsNCw2LDgsOSw5CjUsNiwzLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDUsMiwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNSw1LDIsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw1LDMsMywyLDEsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDgsNyw2LDYsNSw0LDUsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNSw4LDksOSw5LDgsNyw3LDgsNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjQsNyw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwxLDMsNiw3LDcsNgoyLDUsOCw5LDksOSw5LDksOSw2LDMsMCwxLDIsNCw2LDgsNyw1LDMKMSwzLDYsOCw5LDksOSw5LDksNiwzLDAsMiw0LDcsOCw4LDUsMiwwCjAsMSwzLDUsNyw4LDksOSw5LDYsMywwLDMsNiw4LDcsNSwzLDEsMAowLDAsMSwyLDUsNyw5LDksOSw2LDMsMCwzLDYsNyw1LDIsMSwwLDAKMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMyw2LDYsMywwLDAsMCww", 
-			"f	MjB4MjAKMy4xNDA2MjV4Ni4wNzgxMjUKMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwxLDIsMywzLDUsNSw1LDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjEsMyw1LDYsNiw3LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw4LDcsNiw3LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo1LDcsNSw0LDMsNSw1LDUsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNCw1LDIsMSwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgozLDMsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNCw0LDEsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNiwzLDEsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"f	MjB4MjAKMy42MjV4Ni4wNzgxMjUKMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDEsMiwzLDMsNSw1LDUsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMSwzLDUsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOCw3LDYsNiw3LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo1LDYsNCwzLDMsNSw1LDUsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNCw0LDEsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNCw0LDEsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjUsNiwzLDEsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"g	MjB4MjAKNC40ODQzNzV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMSwyLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDIsNCw2LDYsNgozLDYsOCw4LDcsNiw2LDYsNyw4LDksOCw1LDIsMCwyLDUsOCw5LDkKNSw3LDcsNSw0LDMsMywzLDQsNSw3LDgsNyw0LDEsMSwzLDYsOCw5CjYsNyw1LDIsMSwwLDAsMCwxLDIsNCw2LDcsNSwyLDAsMSw0LDcsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMyw2LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNSw1LDIsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwzLDQsNCwxLDAsMSw0LDcsOQo0LDUsMywxLDAsMCwwLDAsMCwxLDIsNCwzLDIsMCwxLDMsNiw4LDkKNSw3LDYsNCwzLDMsMywzLDMsNCw1LDYsNSw0LDMsNCw2LDcsNyw2CjUsOCw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDcsOCw3LDUsMwo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNSw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwCjQsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMAozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"g	MjB4MjAKNS4wNzgxMjV4Ni4wNDY4NzUKMSwyLDQsNSw2LDYsNiw2LDYsNiw1LDMsMSwwLDEsMiwzLDMsMywzCjIsNCw3LDgsOSw5LDksOSw5LDksOCw2LDMsMSwyLDQsNiw2LDYsNgo0LDcsOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMiw0LDcsOCw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDIsMiw0LDYsOCw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAsMSw0LDcsOQo2LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDYsMywwLDAsMyw2LDkKNiw3LDUsMywzLDMsMywzLDMsMyw0LDYsOCw2LDMsMCwwLDMsNiw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwzLDYsOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMyw2LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwxLDQsNyw5CjUsNiw1LDIsMSwwLDAsMCwwLDEsMyw1LDUsMywxLDEsMyw2LDgsOQo1LDcsNyw1LDQsMywzLDMsMyw0LDYsNyw2LDQsMyw0LDYsOCw5LDkKNSw4LDksOCw3LDYsNiw2LDYsNyw4LDgsNyw2LDYsNyw4LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjUsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMAo0LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"h	MjB4MjAKNC42NDA2MjV4Ni4wNzgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDkKMywzLDMsMywzLDQsNiw3LDYsNCwzLDMsMywzLDMsMywzLDUsNyw5CjAsMCwwLDAsMCwyLDQsNSwzLDEsMCwwLDAsMCwwLDAsMCwyLDQsNgowLDAsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKMCwwLDAsMCwxLDQsNCwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMiw1LDUsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwxLDQsNiw2LDQsMiwxLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwzLDYsOCw3LDUsNCwzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMiw1LDgsOSw4LDcsNiw2LDYsNiw2LDYsNyw4LDkKMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw3LDgsOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"h	MjB4MjAKNS4zOTA2MjV4Ni4wNzgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5CjMsMywzLDMsMyw0LDYsNyw2LDQsMywzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMiw1LDYsNCwxLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgowLDAsMCwwLDIsNSw4LDcsNSwzLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwyLDUsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQowLDAsMCwwLDAsMCwwLDEsMiwzLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"i	MjB4MjAKMi4wNzgxMjV4NS44OTA2MjUKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMiwyLDEsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwyLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDYsMywwLDMsNiw3LDUsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKNiw2LDMsMCwzLDYsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjYsNyw0LDEsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDcsNCwxLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw3LDQsMSwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDUsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMywzLDIsMCwyLDQsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjEsMSwxLDAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"i	MjB4MjAKMi41NjI1eDYuMDc4MTI1CjAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMSwyLDIsMSwwLDMsMywzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjMsNSw1LDMsMSwzLDQsNSwzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo1LDgsOCw1LDIsMyw1LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNiw5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw4LDUsMiwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsNyw0LDEsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMyw1LDQsMiwwLDIsNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjEsMiwyLDEsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"k	MjB4MjAKNC42NzE4NzV4Ni4wNzgxMjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNyw4LDkKMywzLDMsMywzLDMsMywzLDMsMyw0LDYsNyw2LDQsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDYsNCwxLDAsMCwyLDQsNgowLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwwLDAsMSwyLDMKMCwwLDAsMCwwLDEsMSwxLDEsNCw3LDksOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwyLDIsMywzLDUsNiw3LDgsOCw2LDMsMSwxLDIsMwowLDAsMCwwLDAsMywzLDUsNCw1LDQsNCw2LDgsOCw2LDMsMyw0LDYKMCwwLDAsMCwwLDMsNCw3LDUsNCwxLDEsMyw2LDgsOCw2LDYsNyw5CjAsMCwwLDAsMCwzLDUsNyw0LDIsMCwwLDEsMyw1LDcsNyw4LDgsOQowLDAsMCwwLDAsMyw1LDYsMywxLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDMsNCw0LDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"k	MjB4MjAKNS40MDYyNXg2LjA3ODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNyw4LDkKMywzLDMsMywzLDMsMywzLDMsMyw0LDYsNyw2LDQsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMCwyLDQsNgowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSwzLDEsMSwyLDMKMCwwLDAsMCwwLDEsMSwxLDIsNCw3LDgsOSw5LDgsNiwzLDIsMiwzCjAsMCwwLDAsMCwyLDIsMyw0LDUsNiw2LDgsOSw5LDgsNiw1LDUsNgowLDAsMCwwLDAsMyw0LDYsNSw0LDMsMyw2LDgsOSw5LDgsOCw4LDkKMCwwLDAsMCwwLDMsNSw3LDUsMywxLDEsMyw2LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwzLDUsNiwzLDEsMCwwLDEsMyw2LDgsOSw5LDksOQowLDAsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKMCwwLDAsMCwwLDMsMywzLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5CjAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOQowLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"l	MjB4MjAKMi4wOTM3NXg2LjA3ODEyNQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"l	MjB4MjAKMi41NjI1eDYuMDc4MTI1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"m	MjB4MjAKNy4wNzgxMjV4NC4yNjU2MjUKNiw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw2CjYsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo0LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMyw1LDYsNiw2LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjMsNCw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo1LDYsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjYsNyw1LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo1LDcsNyw2LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMyw1LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5CjIsNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQozLDQsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYKNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo2LDcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNSw3LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjMsNSw2LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQoxLDIsMyw0LDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMCwwLDAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"m	MjB4MjAKOC4weDQuMjY1NjI1CjYsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo2LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQozLDUsNiw2LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMyw1LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo2LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw2LDYKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMiw1LDYsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw2CjQsNyw2LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo2LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDYKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo0LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
-			"n	MjB4MjAKNC42NDA2MjV4NC4yNjU2MjUKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjYsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo2LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMyw2LDcsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjMsNSw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo1LDYsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNiw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjUsOCw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQozLDYsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"n	MjB4MjAKNS4zNTkzNzV4NC4yNjU2MjUKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo2LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsNiw3LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQozLDYsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDYKNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo2LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKNiw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQowLDEsMiwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"o	MjB4MjAKNC4wMTU2MjV4NC4zNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDUsMiwwCjQsNyw4LDYsNCwzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQo0LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw3LDcsNgo0LDcsOCw3LDUsNCwzLDMsMywzLDMsMywzLDQsNSw3LDgsNyw1LDMKMiw1LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"o	MjB4MjAKNC42ODc1eDQuMzc1CjAsMCwxLDIsNCw1LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKNSw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2CjYsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOQo2LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKNiw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5CjYsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOQo2LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
-			"p	MjB4MjAKNC40ODQzNzV4NS45Mzc1CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNCw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjUsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDgsNyw2LDYsNiw2LDYsNiw3LDcsNyw2LDYsNiw2LDcsOCw5CjUsNyw2LDQsMywzLDMsMywzLDMsNCw1LDUsNCwzLDMsMyw1LDcsOQo0LDUsMywxLDAsMCwwLDAsMCwwLDEsMyw0LDMsMSwwLDAsMyw2LDkKNCw0LDEsMCwwLDAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDIsNCw2CjMsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNCwzLDAsMCwxLDIsMwozLDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDMsMywwLDAsMCwwLDAKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw0LDMsMCwwLDAsMCwwCjQsNCwxLDAsMCwwLDAsMCwwLDAsMCwyLDUsNSwzLDAsMCwwLDAsMAo1LDYsMywxLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAKNiw4LDYsNCwyLDEsMCwwLDEsMiw0LDYsNyw1LDIsMCwwLDAsMCwwCjUsOCw4LDcsNSw0LDMsMyw0LDUsNyw4LDcsNCwxLDAsMCwwLDAsMAozLDYsOCw5LDgsNyw2LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"p	MjB4MjAKNS4wOTM3NXg1LjkzNzUKMywzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjQsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo1LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOCw3LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDcsOCw5CjUsNyw3LDUsNCwzLDMsMywzLDQsNSw2LDUsNCwzLDMsMyw1LDcsOQo1LDYsNSwyLDEsMCwwLDAsMCwxLDIsNCw0LDMsMSwwLDAsMyw2LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNSw1LDIsMCwwLDIsNCw2CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwxLDIsMwo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAKNiw3LDUsMywzLDMsMywzLDMsMyw0LDYsOCw2LDMsMCwwLDAsMCwwCjYsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksNiwzLDAsMCwwLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMAoyLDQsNyw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMSwyLDUsNyw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"r	MjB4MjAKMy41MzEyNXg0LjI2NTYyNQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo2LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDYsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMiw0LDYsNyw3LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDUsNyw5CjEsMyw1LDUsNCwzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQozLDYsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKNSw3LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNgo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDcsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"r	MjB4MjAKNC4wNjI1eDQuMjY1NjI1CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjYsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjIsNCw2LDgsOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsNSw3LDksOQoxLDMsNSw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMyw2LDYsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDgsNyw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"s	MjB4MjAKMy4yNXg0LjM3NQoxLDMsNSw2LDYsNiw2LDQsMiwwLDAsMCwzLDYsOSw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw3LDQsMSwwLDAsMiw0LDcsOCw5LDgsNyw2CjQsNyw5LDksOSw5LDksOCw1LDIsMCwwLDEsMiw0LDYsOCw5LDksOQo1LDcsNyw2LDYsNyw4LDksNyw0LDEsMCwwLDAsMSwzLDYsOCw5LDkKNiw3LDUsMywzLDQsNiw4LDgsNSwyLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwxLDQsNyw5LDYsMywwLDAsMCwwLDAsMiw1LDgsOQo1LDUsMiwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDkKNCw0LDEsMCwwLDAsMyw2LDksNyw0LDEsMCwwLDAsMCwwLDMsNiw5CjMsMywwLDAsMCwwLDIsNSw4LDgsNSwyLDAsMCwwLDAsMCwzLDYsOQozLDMsMCwwLDAsMCwxLDQsNyw5LDYsMywwLDAsMCwwLDAsMyw2LDkKMywzLDAsMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDMsNiw5CjQsNCwxLDAsMCwwLDAsMyw2LDksOCw1LDIsMCwwLDAsMSw0LDcsOQo1LDUsMiwwLDAsMCwwLDIsNSw4LDksNiwzLDAsMCwwLDIsNSw4LDkKNiw3LDQsMSwwLDAsMCwxLDQsNyw5LDcsNCwxLDAsMSw0LDcsOSw5CjYsOCw2LDQsMiwxLDAsMCwzLDYsOSw4LDYsNCwzLDQsNiw4LDksOQo1LDgsOCw3LDQsMiwwLDAsMiw1LDgsOSw4LDcsNiw3LDgsOCw3LDYKNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5LDksOSw4LDYsNCwzCjIsNCw2LDYsNCwyLDAsMCwwLDIsNSw4LDksOSw5LDksNyw0LDEsMAoxLDIsMywzLDIsMSwwLDAsMCwxLDQsNyw5LDksOSw5LDYsMywwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
-			"s	MjB4MjAKMy44MjgxMjV4NC4zNzUKMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAsMiw0LDYsNiw2LDYsNiw2CjIsNSw4LDksOSw5LDksOSw4LDUsMiwwLDIsNCw3LDgsOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw3LDQsMSwxLDIsNCw2LDgsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDEsMyw2LDgsOSw5CjYsOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDEsNCw3LDksOQo2LDksOCw3LDcsOCw5LDksOSw5LDcsNCwxLDAsMCwwLDMsNiw5LDkKNiw4LDYsNCw0LDYsOCw5LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMSw0LDcsOSw5LDksOSw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMyw2LDksOSw5LDksNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDIsNSw4LDksOSw5LDYsMywwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsOSw5LDksOCw2LDQsMywzLDUsNyw5LDkKNiw2LDMsMCwwLDAsMyw2LDksOSw5LDksOCw3LDYsNiw3LDgsOSw5CjYsNiwzLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDcsNSwyLDEsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw4LDcsNSwzLDEsMCwyLDUsOCw5LDksOSw5LDksOSw5LDgsNyw2CjYsOSw5LDgsNSwyLDAsMSw0LDcsOSw5LDksOSw5LDksOSw3LDUsMwo0LDYsNiw2LDQsMiwwLDAsMiw1LDgsOSw5LDksOSw5LDgsNSwyLDAKMiwzLDMsMywyLDEsMCwwLDEsNCw3LDksOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksNiwzLDAsMA==", 
-			"t	MjB4MjAKMi45MjE4NzV4NS41NDY4NzUKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDkKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsOCw3LDYKMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMCwwLDAsMyw2LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMA==", 
-			"t	MjB4MjAKMy40Njg3NXg1LjU0Njg3NQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMAo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5CjAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwzLDYsOSw4LDcsNgowLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwLDAsMyw2LDksNyw1LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMyww", 
-			"u	MjB4MjAKNC42NDA2MjV4NC4yNjU2MjUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMAo4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw2LDQsMwozLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw3LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw2LDcsNgo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNSw0LDMKNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw3LDYsNCwzCjgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"u	MjB4MjAKNS4zNTkzNzV4NC4yNjU2MjUKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMAo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDgsNyw2CjYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNiw2LDQsMwo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDcsNiw0LDMKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"v	MjB4MjAKNC41MzEyNXg0LjE1NjI1CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsOCw4LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw3LDYsNSw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjksNiw0LDIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMAo2LDQsMiwwLDEsMiwzLDQsNSw2LDcsOCw5LDgsNyw2LDUsNCwzLDMKMywyLDEsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNyw2LDYKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDcsNyw1LDQsMywzCjMsMiwxLDAsMCwxLDIsMyw0LDUsNiw2LDYsNiw1LDQsMiwxLDAsMAo2LDQsMiwxLDIsNCw1LDYsNiw2LDYsNSw0LDMsMiwxLDAsMCwwLDAKOSw3LDUsNCw1LDcsNyw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNiw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"v	MjB4MjAKNC45ODQzNzV4NC4xNTYyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDgsOCw4LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDMKOSw3LDYsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2CjYsNCwzLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDksOQozLDIsMSwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNgozLDIsMSwwLDAsMCwwLDEsMiwzLDQsNSw2LDYsNiw2LDUsNCwzLDMKNiw0LDIsMCwxLDIsMyw0LDUsNiw2LDYsNiw1LDQsMywyLDEsMCwwCjksNyw1LDMsNCw1LDYsNiw2LDYsNSw0LDMsMiwxLDAsMCwwLDAsMAo5LDgsNyw2LDYsNiw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"y	MjB4MjAKNC41MzEyNXg1LjkzNzUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzCjcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNgo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjgsOCw4LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDYsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDEsNCw3LDkKNiw0LDIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMSwzLDYsOCw5CjQsMiwwLDEsMiw0LDYsOCw5LDgsNyw1LDQsMywzLDQsNiw3LDcsNgoyLDEsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMKMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMSwyLDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAKMiwxLDAsMSwyLDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjQsMiwxLDMsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsNCw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDYsNiw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"y	MjB4MjAKNC45NTMxMjV4NS45Mzc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2CjksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDEsNCw3LDkKOSw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDMsNiw5CjgsOCw4LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMSw0LDcsOQo3LDYsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwyLDMsNiw4LDkKNCwzLDIsNCw1LDcsOCw5LDksOSw5LDksOCw3LDUsNSw2LDcsNyw2CjIsMSwwLDEsMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNiw1LDQsMwowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNyw1LDQsMiwxLDAKMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjIsMSwwLDAsMSwyLDQsNSw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMAo0LDIsMSwyLDQsNSw2LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNyw1LDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA="};
 
-
-	private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
+	/**
+	 * The templates, see {@link OCRModelFile}.
+	 */
+	static final String MODEL = "serif.ocr";
 
 	@Override
 	protected void loadRasters(BiConsumer<String, RasterChar> consumer) {
-		Charset  cs = Charset.defaultCharset();
-
-		for(String s : raw) {
-			String l[] = PREPROCESS_PATTERN.split(s);
-			consumer.accept(l[0],RasterChar.parseFromString(new String(Base64.getDecoder().decode(l[1]), cs)));
-		}
+		OCRModelFile.read(StupidestPossibleSCOCRSerif.class, MODEL, consumer);
 	}
 
-
-	
 }
@@ -0,0 +1,492 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * The templates of a {@link RasterBasedCosineSCOCR}, flattened into one
+ * matrix with a row of {@code DEF_WIDTH*DEF_HEIGHT} values per template, and the
+ * templates of each character in consecutive rows.
+ * <p>
+ * Scoring a glyph against every template is then a few dense dot products
+ * over plain int arrays, which the JIT can unroll and vectorize, instead of
+ * walking the {@code int[][]} of every template through a map of lists.
+ * The squared template values are kept next to the values, since the norm of
+ * a template depends on how many pixels each cell of the glyph covers and
+ * so can only be finished once the glyph is known.
+ * <p>
+ * The scores are exactly the ones the per-template loops gave.
+ * Instances are immutable and can be shared between threads.
+ */
+final class TemplateMatrix {
+
+	private static final int WIDTH = RasterBasedCosineSCOCR.DEF_WIDTH;
+	private static final int HEIGHT = RasterBasedCosineSCOCR.DEF_HEIGHT;
+	static final int CELLS = WIDTH * HEIGHT;
+
+	/**
+	 * Room for rounding when using the aspect ratio weight as a bound on
+	 * the score, as the cosine is only at most 1 before rounding.
+	 */
+	private static final double BOUND_SLACK = 1 + 1e-9;
+
+	private final char[] chars;
+	/**
+	 * The templates of {@code chars[i]} are the rows {@code charStart[i]}
+	 * to {@code charStart[i+1]}, exclusive.
+	 */
+	private final int[] charStart;
+	private final int[] values;
+	private final int[] squares;
+	/**
+	 * The width over height of the glyph each template was made from.
+	 */
+	private final double[] aspect;
+	private final int maxValue;
+
+	/**
+	 * Per template: the sums of squared values of each column and of each row, like
+	 * {@link RasterChar#getSqLengthHorizontal()} and {@link RasterChar#getSqLengthVertical()},
+	 * and the cell with the largest value.
+	 */
+	private final int[] columnSquares;
+	private final int[] rowSquares;
+	private final int[] peakCell;
+	private final int hash;
+
+	private TemplateMatrix(char[] chars, int[] charStart, int[] values, int[] squares, double[] aspect, int maxValue){
+		this.chars = chars;
+		this.charStart = charStart;
+		this.values = values;
+		this.squares = squares;
+		this.aspect = aspect;
+		this.maxValue = maxValue;
+		this.hash = (Arrays.hashCode(chars) * 31 + Arrays.hashCode(values)) * 31 + Arrays.hashCode(aspect);
+
+		int n = aspect.length;
+		columnSquares = new int[n * WIDTH];
+		rowSquares = new int[n * HEIGHT];
+		peakCell = new int[n];
+		for(int t=0;t<n;t++){
+			for(int x=0;x<WIDTH;x++){
+				for(int y=0;y<HEIGHT;y++){
+					int k = t * CELLS + x * HEIGHT + y;
+					columnSquares[t * WIDTH + x] += squares[k];
+					rowSquares[t * HEIGHT + y] += squares[k];
+					if(values[k] > values[t * CELLS + peakCell[t]]){
+						peakCell[t] = k - t * CELLS;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flatten the templates of every character of the alphabet. Characters
+	 * without templates are kept, and always score 0.
+	 */
+	static TemplateMatrix of(Set<Character> alphabet, Map<Character, List<RasterChar>> templates){
+		char[] chars = new char[alphabet.size()];
+		int[] charStart = new int[chars.length + 1];
+		int i=0;
+		int n=0;
+		for(Character c : alphabet){
+			chars[i++] = c;
+			n += templates.getOrDefault(c, Collections.emptyList()).size();
+			charStart[i] = n;
+		}
+		int[] values = new int[n * CELLS];
+		int[] squares = new int[n * CELLS];
+		double[] aspect = new double[n];
+		int maxValue = 0;
+		int t=0;
+		for(char c : chars){
+			for(RasterChar rc : templates.getOrDefault(c, Collections.emptyList())){
+				int base = t * CELLS;
+				for(int x=0;x<WIDTH;x++){
+					for(int y=0;y<HEIGHT;y++){
+						int val = rc.data[x][y];
+						int k = base + x * HEIGHT + y;
+						values[k] = val;
+						squares[k] = val * val;
+						maxValue = Math.max(maxValue, Math.abs(val));
+					}
+				}
+				aspect[t] = rc.rect.getWidth() / rc.rect.getHeight();
+				t++;
+			}
+		}
+		return new TemplateMatrix(chars, charStart, values, squares, aspect, maxValue);
+	}
+
+	/**
+	 * Two matrices are equal if they have the same templates for the same characters,
+	 * in the same order, and so give every glyph the same scores.
+	 */
+	@Override
+	public boolean equals(Object o){
+		if(this == o){
+			return true;
+		}
+		if(!(o instanceof TemplateMatrix)){
+			return false;
+		}
+		TemplateMatrix m = (TemplateMatrix) o;
+		return hash == m.hash && Arrays.equals(chars, m.chars) && Arrays.equals(charStart, m.charStart)
+				&& Arrays.equals(values, m.values) && Arrays.equals(aspect, m.aspect);
+	}
+
+	@Override
+	public int hashCode(){
+		return hash;
+	}
+
+	int size(){
+		return chars.length;
+	}
+
+	char charAt(int i){
+		return chars[i];
+	}
+
+	int templateCount(){
+		return aspect.length;
+	}
+
+	/**
+	 * Put the best cosine score of the given glyph against the templates of
+	 * {@link #charAt(int) character i} in {@code best[i]}.
+	 * @param bms the glyph, scaled to {@code DEF_WIDTH x DEF_HEIGHT}.
+	 */
+	void score(BitmapScaled bms, double[] best){
+		double glyphAspect = aspect(bms);
+		boolean intSums = intSums(bms);
+
+		for(int i=0;i<chars.length;i++){
+			int t0 = charStart[i];
+			int t1 = charStart[i + 1];
+			if(t0 == t1){
+				best[i] = 0;
+				continue;
+			}
+			double maxCor = Double.MIN_VALUE;
+			for(int t=t0;t<t1;t++){
+				double tcor = score(t, bms, intSums, aspectWeight(t, glyphAspect));
+				maxCor = Math.max(tcor, maxCor);
+			}
+			best[i] = maxCor;
+		}
+	}
+
+	/**
+	 * The at most {@code k} characters scoring best against any of the given glyphs,
+	 * best first, leaving out those scoring below {@code minScore}. The scores are
+	 * the ones {@link #score(BitmapScaled, double[])} gives, taking the best over the glyphs.
+	 * <p>
+	 * Only the templates which could beat the k-th best score found so far, and the
+	 * best score of their own character, are compared in full. The cosine part of a
+	 * score is at most 1, so the aspect ratio weight alone bounds the score of a template,
+	 * and the characters are visited from the highest such bound down. Then, after
+	 * the dot product, the squared sums of the template columns and rows
+	 * {@link #normBound(int, Glyph) bound its norm}, so the norm itself is only
+	 * needed for the few templates which pass that too.
+	 * Of characters with the same score, the one visited first is kept.
+	 * <p>
+	 * A template with nothing on in the cells the glyph covers scores NaN, which
+	 * makes the score of its character NaN. Like when sorting with {@link Double#compare(double, double)},
+	 * those characters come first.
+	 * @param glyphs the glyphs, scaled to {@code DEF_WIDTH x DEF_HEIGHT}.
+	 */
+	List<Entry<Character, Number>> topK(BitmapScaled[] glyphs, int k, double minScore){
+		List<Entry<Character, Number>> top = new ArrayList<>();
+		if(k <= 0 || chars.length == 0){
+			return top;
+		}
+		int n = aspect.length;
+		Glyph[] gs = new Glyph[glyphs.length];
+		double[] weights = new double[glyphs.length * n];
+		double[] bound = new double[chars.length];
+		boolean[] nan = new boolean[chars.length];
+		for(int g=0;g<glyphs.length;g++){
+			BitmapScaled bms = glyphs[g];
+			if((long) maxValue * maxValue * Math.max(bms.twidth, WIDTH) * Math.max(bms.theight, HEIGHT) > Integer.MAX_VALUE){
+				//the norms could overflow, so the scores aren't bounded
+				return sortedTopK(glyphs, k, minScore);
+			}
+			Glyph glyph = new Glyph(bms);
+			gs[g] = glyph;
+			//only a glyph smaller than the grid leaves cells without pixels
+			boolean gaps = bms.twidth < WIDTH || bms.theight < HEIGHT;
+			double glyphAspect = aspect(bms);
+			for(int i=0;i<chars.length;i++){
+				for(int t=charStart[i];t<charStart[i + 1];t++){
+					double w = aspectWeight(t, glyphAspect);
+					weights[g * n + t] = w;
+					bound[i] = Math.max(bound[i], Math.max(w * BOUND_SLACK, Double.MIN_VALUE));
+					//no pixels on, or nothing of the template where the glyph has pixels, is 0/0
+					boolean peakCovered = values[t * CELLS + peakCell[t]] > 0 && (!gaps || glyph.covers(peakCell[t]));
+					if(!nan[i] && (bms.tcount == 0 || !peakCovered && dot(squares, t * CELLS, bms.cellSizes()) == 0)){
+						nan[i] = true;
+					}
+				}
+			}
+		}
+		for(int i=0;i<chars.length && top.size() < k;i++){
+			if(nan[i]){
+				top.add(new AbstractMap.SimpleImmutableEntry<>(chars[i], Double.NaN));
+			}
+		}
+
+		Integer[] order = new Integer[chars.length];
+		for(int i=0;i<order.length;i++){
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(bound[b], bound[a]));
+
+		//the best found so far, best first
+		double[] topScore = new double[Math.min(k - top.size(), chars.length)];
+		int[] topChar = new int[topScore.length];
+		int found = 0;
+		for(int i : order){
+			if(topScore.length == 0){
+				break;
+			}
+			double floor = found == topScore.length ? topScore[found - 1] : Double.NEGATIVE_INFINITY;
+			if(cannotBeat(bound[i], floor, minScore)){
+				//and so is every character after it
+				break;
+			}
+			if(nan[i]){
+				continue;
+			}
+			double best = 0;
+			if(charStart[i] < charStart[i + 1]){
+				best = Double.MIN_VALUE;
+				for(int g=0;g<gs.length;g++){
+					for(int t=charStart[i];t<charStart[i + 1];t++){
+						best = Math.max(best, score(t, gs[g], weights[g * n + t], Math.max(best, floor), minScore));
+					}
+				}
+			}
+			if(cannotBeat(best, floor, minScore)){
+				continue;
+			}
+			int pos = found == topScore.length ? found - 1 : found++;
+			while(pos > 0 && topScore[pos - 1] < best){
+				topScore[pos] = topScore[pos - 1];
+				topChar[pos] = topChar[pos - 1];
+				pos--;
+			}
+			topScore[pos] = best;
+			topChar[pos] = i;
+		}
+
+		for(int j=0;j<found;j++){
+			top.add(new AbstractMap.SimpleImmutableEntry<>(chars[topChar[j]], topScore[j]));
+		}
+		return top;
+	}
+
+	private static boolean cannotBeat(double bound, double floor, double minScore){
+		return bound <= floor || bound < minScore;
+	}
+
+	/**
+	 * The same as {@link #topK(BitmapScaled[], int, double)}, scoring every template.
+	 */
+	private List<Entry<Character, Number>> sortedTopK(BitmapScaled[] glyphs, int k, double minScore){
+		double[][] scores = new double[glyphs.length][chars.length];
+		for(int g=0;g<glyphs.length;g++){
+			score(glyphs[g], scores[g]);
+		}
+		return topK(scores, k, minScore);
+	}
+
+	/**
+	 * The same as {@link #topK(BitmapScaled[], int, double)}, given
+	 * the {@link #score(BitmapScaled, double[]) scores} of each glyph.
+	 */
+	List<Entry<Character, Number>> topK(double[][] scores, int k, double minScore){
+		List<Entry<Character, Number>> top = new ArrayList<>();
+		if(k <= 0 || scores.length == 0){
+			return top;
+		}
+		double[] best = scores[0].clone();
+		for(int g=1;g<scores.length;g++){
+			for(int i=0;i<chars.length;i++){
+				best[i] = Math.max(best[i], scores[g][i]);
+			}
+		}
+		Integer[] order = new Integer[chars.length];
+		for(int i=0;i<order.length;i++){
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(best[b], best[a]));
+
+		for(int i : order){
+			if(top.size() == k){
+				break;
+			}
+			if(!(best[i] < minScore)){
+				top.add(new AbstractMap.SimpleImmutableEntry<>(chars[i], best[i]));
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * What the bounds need to know about a glyph.
+	 */
+	private static final class Glyph {
+		final BitmapScaled bms;
+		final double sqrtTotal;
+		/**
+		 * The number of pixels in each column and row of cells, which of them have
+		 * none, and the fewest and most of those that have some.
+		 */
+		final int[] columns = new int[WIDTH];
+		final int[] rows = new int[HEIGHT];
+		final int[] emptyColumns = new int[WIDTH];
+		final int[] emptyRows = new int[HEIGHT];
+		int minColumn = Integer.MAX_VALUE, maxColumn;
+		int minRow = Integer.MAX_VALUE, maxRow;
+
+		Glyph(BitmapScaled bms){
+			this.bms = bms;
+			sqrtTotal = Math.sqrt(bms.tcount);
+			for(int i=0;i<bms.twidth;i++){
+				columns[(i * WIDTH) / bms.twidth]++;
+			}
+			for(int j=0;j<bms.theight;j++){
+				rows[(j * HEIGHT) / bms.theight]++;
+			}
+			for(int x=0;x<WIDTH;x++){
+				if(columns[x] == 0){
+					emptyColumns[x] = 1;
+				}else{
+					minColumn = Math.min(minColumn, columns[x]);
+					maxColumn = Math.max(maxColumn, columns[x]);
+				}
+			}
+			for(int y=0;y<HEIGHT;y++){
+				if(rows[y] == 0){
+					emptyRows[y] = 1;
+				}else{
+					minRow = Math.min(minRow, rows[y]);
+					maxRow = Math.max(maxRow, rows[y]);
+				}
+			}
+		}
+
+		boolean covers(int cell){
+			return columns[cell / HEIGHT] > 0 && rows[cell % HEIGHT] > 0;
+		}
+	}
+
+	/**
+	 * A lower bound on the norm {@link #score(int, BitmapScaled, boolean, double)} finds
+	 * for template {@code t}, from the squared sums of its columns and rows.
+	 * <p>
+	 * Every cell with some pixels of the glyph covers as many pixels as its column times
+	 * at least the fewest of any row, so the norm is at least that fewest times the
+	 * column sums weighted by the pixels of each column, less whatever of those sums
+	 * falls in the rows without any pixels. The same goes the other way around.
+	 */
+	private long normBound(int t, Glyph g){
+		int byColumns = 0;
+		int emptyColumns = 0;
+		for(int x=0;x<WIDTH;x++){
+			int sq = columnSquares[t * WIDTH + x];
+			byColumns += g.columns[x] * sq;
+			emptyColumns += g.emptyColumns[x] * sq;
+		}
+		int byRows = 0;
+		int emptyRows = 0;
+		for(int y=0;y<HEIGHT;y++){
+			int sq = rowSquares[t * HEIGHT + y];
+			byRows += g.rows[y] * sq;
+			emptyRows += g.emptyRows[y] * sq;
+		}
+		return Math.max(0, Math.max(g.minRow * (byColumns - (long) g.maxColumn * emptyRows),
+		                            g.minColumn * (byRows - (long) g.maxRow * emptyColumns)));
+	}
+
+	/**
+	 * The score of the glyph against template {@code t} if it could be
+	 * above {@code floor} and at least {@code minScore}, otherwise -infinity.
+	 * The score must not be NaN.
+	 */
+	private double score(int t, Glyph g, double weight, double floor, double minScore){
+		if(cannotBeat(weight * BOUND_SLACK, floor, minScore)){
+			return Double.NEGATIVE_INFINITY;
+		}
+		int base = t * CELLS;
+		double cor = dot(values, base, g.bms.onCells());
+		//the same operations as the score, so rounding can't take it over the bound
+		if(cannotBeat(weight * cor / (g.sqrtTotal * Math.sqrt(normBound(t, g))), floor, minScore)){
+			return Double.NEGATIVE_INFINITY;
+		}
+		int totalC = dot(squares, base, g.bms.cellSizes());
+		return weight * cor / (g.sqrtTotal * Math.sqrt(totalC));
+	}
+
+	private static double aspect(BitmapScaled bms){
+		return (double) bms.twidth / (double) bms.theight;
+	}
+
+	/**
+	 * The sum of products can only overflow an int for huge glyphs.
+	 */
+	private boolean intSums(BitmapScaled bms){
+		return (long) maxValue * bms.tcount <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * The weight, between 0 and 1, for how close the aspect ratio of
+	 * template {@code t} is to the given one.
+	 */
+	private double aspectWeight(int t, double glyphAspect){
+		double whrat = aspect[t] / glyphAspect;
+		if (whrat > 1) {
+			whrat = 1 / whrat;
+		}
+		return 1 - Math.pow(1 - whrat, 2);
+	}
+
+	/**
+	 * The score of the glyph against template {@code t}: the given aspect ratio weight
+	 * times the cosine of the glyph and the template, where every pixel of the glyph
+	 * is weighted by the template value of the cell it falls in.
+	 */
+	private double score(int t, BitmapScaled bms, boolean intSums, double weight){
+		int base = t * CELLS;
+		double cor = intSums ? dot(values, base, bms.onCells()) : longDot(values, base, bms.onCells());
+		int totalC = dot(squares, base, bms.cellSizes());
+		return weight * cor / (Math.sqrt(bms.tcount) * Math.sqrt(totalC));
+	}
+
+	private static int dot(int[] matrix, int base, int[] vec){
+		int sum = 0;
+		for(int k=0;k<CELLS;k++){
+			sum += matrix[base + k] * vec[k];
+		}
+		return sum;
+	}
+
+	private static long longDot(int[] matrix, int base, int[] vec){
+		long sum = 0;
+		for(int k=0;k<CELLS;k++){
+			sum += (long) matrix[base + k] * vec[k];
+		}
+		return sum;
+	}
+}
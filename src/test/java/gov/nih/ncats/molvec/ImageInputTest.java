@@ -0,0 +1,138 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ImageInputTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<String> names(Stream<ImageInput> stream){
+        try(Stream<ImageInput> s = stream){
+            return s.map(ImageInput::getName).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void walkOnlyRecursesWhenAsked() throws Exception{
+        File root = tmp.getRoot();
+        new File(root, "a/b").mkdirs();
+        Files.write(new File(root, "top.png").toPath(), new byte[1]);
+        Files.write(new File(root, "notes.txt").toPath(), new byte[1]);
+        Files.write(new File(root, "a/b/deep.TIF").toPath(), new byte[1]);
+
+        assertEquals(Arrays.asList("top.png"), names(ImageInput.walk(root.toPath(), false)));
+        assertEquals(Arrays.asList("a/b/deep.TIF", "top.png"), names(ImageInput.walk(root.toPath(), true)));
+    }
+
+    @Test
+    public void textManifestResolvesAgainstManifestDir() throws Exception{
+        File root = tmp.getRoot();
+        new File(root, "a").mkdirs();
+        Path manifest = new File(root, "list.txt").toPath();
+        Files.write(manifest, Arrays.asList("# comment", "", "  a/one.png  ", "two.gif"));
+
+        List<ImageInput> inputs;
+        try(Stream<ImageInput> s = ImageInput.manifest(manifest)){
+            inputs = s.collect(Collectors.toList());
+        }
+        assertEquals(2, inputs.size());
+        assertEquals("a/one.png", inputs.get(0).getName());
+        assertEquals("one", inputs.get(0).getBaseName());
+        assertEquals(new File(root, "a/one.png.mol").getAbsoluteFile(), inputs.get(0).getMolFile(null));
+        assertEquals(new File("out", "two.gif.mol"), inputs.get(1).getMolFile(new File("out")));
+    }
+
+    @Test
+    public void zipEntriesReadInPlace() throws Exception{
+        Path zip = new File(tmp.getRoot(), "images.zip").toPath();
+        try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))){
+            for(String name : new String[]{"dir/", "dir/one.png", "readme.txt", "two.jpg"}){
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        assertEquals(Arrays.asList("dir/one.png", "two.jpg"), names(ImageInput.manifest(zip)));
+    }
+
+    @Test
+    public void archiveEntriesOutsideOfTheArchiveSkipped() throws Exception{
+        Path zip = new File(tmp.getRoot(), "evil.zip").toPath();
+        try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))){
+            for(String name : new String[]{"../../etc/x.png", "/abs/x.png", "a/../../x.png", "a/../ok.png"}){
+                out.putNextEntry(new ZipEntry(name));
+                out.write(new byte[1]);
+                out.closeEntry();
+            }
+        }
+        assertEquals(Arrays.asList("a/../ok.png"), names(ImageInput.manifest(zip)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTarEntry(bytes, "../x.png", '0', new byte[1]);
+        writeTarEntry(bytes, "ok.png", '0', new byte[1]);
+        bytes.write(new byte[1024]);
+        Path tar = new File(tmp.getRoot(), "evil.tar").toPath();
+        Files.write(tar, bytes.toByteArray());
+        assertEquals(Arrays.asList("ok.png"), names(ImageInput.manifest(tar)));
+    }
+
+    @Test
+    public void molFileMustBeInsideTheOutputDir(){
+        File out = new File(tmp.getRoot(), "out");
+        assertEquals(new File(out, "a/../ok.png.mol"), ImageInput.of("a/../ok.png", new byte[1]).getMolFile(out));
+        for(String name : new String[]{"../x.png", "a/../../x.png", "/abs/x.png"}){
+            try{
+                ImageInput.of(name, new byte[1]).getMolFile(out);
+                fail(name);
+            }catch(IllegalArgumentException expected){
+            }
+        }
+    }
+
+    @Test
+    public void tarEntriesReadInPlace() throws Exception{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTarEntry(bytes, "dir/one.png", '0', new byte[700]);
+        writeTarEntry(bytes, "readme.txt", '0', new byte[10]);
+        String longName = "a/very/" + String.join("", Collections.nCopies(30, "long/")) + "two.png";
+        writeTarEntry(bytes, "././@LongLink", 'L', longName.getBytes(StandardCharsets.UTF_8));
+        writeTarEntry(bytes, longName.substring(0, 99), '0', new byte[1]);
+        bytes.write(new byte[1024]);
+
+        Path tar = new File(tmp.getRoot(), "images.tar").toPath();
+        Files.write(tar, bytes.toByteArray());
+        assertEquals(Arrays.asList(longName, "dir/one.png").stream().sorted().collect(Collectors.toList()),
+                names(ImageInput.manifest(tar)));
+    }
+
+    private static void writeTarEntry(OutputStream out, String name, char type, byte[] data) throws Exception{
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        byte[] size = String.format("%011o", data.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        out.write(header);
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512]);
+    }
+}
@@ -0,0 +1,185 @@
+package gov.nih.ncats.molvec;
+
+import gov.nih.ncats.molvec.ui.GlyphScoreCache;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MolvecEngineTest {
+
+    private static File tylenol(){
+        return new File(MolvecEngineTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+    }
+
+    @Test
+    public void syncSameAsStatic() throws Exception{
+        File f = tylenol();
+        try(MolvecEngine engine = MolvecEngine.builder().workers(2).innerParallelism(2).build()) {
+            MolvecResult result = engine.ocr(f);
+            assertFalse(result.hasError());
+            String mol = result.getMolfile().get();
+            assertTrue(mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+        }
+    }
+
+    /**
+     * The mol block without the header, which has the time it was written.
+     */
+    private static String withoutHeader(String mol){
+        return mol.substring(mol.indexOf("V2000"));
+    }
+
+    @Test
+    public void cachedScoresGiveTheSameResult() throws Exception{
+        File f = tylenol();
+        GlyphScoreCache cache = new GlyphScoreCache(1000);
+        String expected = withoutHeader(Molvec.ocr(f));
+        try(MolvecEngine engine = MolvecEngine.builder().workers(1).innerParallelism(1).ocrCache(cache).build()) {
+            assertEquals(expected, withoutHeader(engine.ocr(f).getMolfile().get()));
+            long misses = cache.getMisses();
+            assertTrue(misses > 0);
+            assertEquals(expected, withoutHeader(engine.ocr(f).getMolfile().get()));
+            //every glyph of the second image was seen in the first one
+            assertEquals(misses, cache.getMisses());
+            assertTrue(cache.getHits() > 0);
+        }
+    }
+
+    @Test
+    public void cacheSharedBetweenEngines() throws Exception{
+        File f = tylenol();
+        GlyphScoreCache cache = new GlyphScoreCache(1000);
+        try(MolvecEngine first = MolvecEngine.builder().workers(1).innerParallelism(1).ocrCache(cache).build();
+            MolvecEngine second = MolvecEngine.builder().workers(1).innerParallelism(1).ocrCache(cache).build()) {
+            String expected = withoutHeader(first.ocr(f).getMolfile().get());
+            long misses = cache.getMisses();
+            long hits = cache.getHits();
+            assertEquals(expected, withoutHeader(second.ocr(f).getMolfile().get()));
+            //the second engine finds every glyph the first one scored
+            assertEquals(misses, cache.getMisses());
+            assertTrue(cache.getHits() > hits);
+        }
+    }
+
+    @Test
+    public void asyncReusesEngine() throws Exception{
+        File f = tylenol();
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        try(MolvecEngine engine = MolvecEngine.builder().workers(2).innerParallelism(2).build()) {
+            List<CompletableFuture<MolvecResult>> futures = new ArrayList<>();
+            for(int i=0; i< 3; i++){
+                futures.add(engine.ocrAsync(f));
+                futures.add(engine.ocrAsync(bytes, new MolvecOptions().center(false)));
+            }
+            for(CompletableFuture<MolvecResult> future : futures){
+                MolvecResult result = future.get();
+                assertFalse(result.hasError());
+                String mol = result.getMolfile().get();
+                assertTrue(mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+            }
+        }
+    }
+
+    @Test
+    public void closedEngineRejectsWork() throws Exception{
+        MolvecEngine engine = MolvecEngine.builder().workers(1).innerParallelism(1).build();
+        engine.close();
+        assertTrue(engine.isClosed());
+        try{
+            engine.ocr(tylenol());
+            fail("should throw");
+        }catch(IllegalStateException expected){
+        }
+        try{
+            engine.ocrAsync(tylenol());
+            fail("should throw");
+        }catch(IllegalStateException expected){
+        }
+    }
+
+    @Test
+    public void batchInOrderWithMixedInputs() throws Exception{
+        File f = tylenol();
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        List<Object> inputs = Arrays.asList(f.toPath(), bytes, "not an image", f);
+        List<MolvecResult> results;
+        try(Stream<MolvecResult> stream = Molvec.ocrBatch(inputs, new MolvecOptions())){
+            results = stream.collect(Collectors.toList());
+        }
+        assertEquals(4, results.size());
+        for(int i=0; i< results.size(); i++){
+            MolvecResult result = results.get(i);
+            if(i==2){
+                assertTrue(result.hasError());
+                assertTrue(result.getError().get() instanceof IllegalArgumentException);
+            }else{
+                assertFalse(result.hasError());
+                String mol = result.getMolfile().get();
+                assertTrue(mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+            }
+        }
+    }
+
+    @Test
+    public void batchUnorderedReturnsEveryResult() throws Exception{
+        File f = tylenol();
+        List<File> inputs = Arrays.asList(f, f, f, f, f);
+        try(MolvecEngine engine = MolvecEngine.builder().workers(2).innerParallelism(2).build()) {
+            long count = engine.ocrBatch(inputs, null, false)
+                                .filter(r -> !r.hasError())
+                                .count();
+            assertEquals(5, count);
+            //engine is still usable for another batch
+            assertEquals(2, engine.ocrBatch(inputs.subList(0, 2), null).count());
+        }
+    }
+
+    /**
+     * An image which fails with an Error, which the workers don't catch, as soon as it is looked at.
+     */
+    private static BufferedImage failingImage(){
+        return new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY){
+            @Override
+            public int getWidth(){
+                throw new AssertionError("broken image");
+            }
+
+            @Override
+            public int getHeight(){
+                throw new AssertionError("broken image");
+            }
+
+            @Override
+            public WritableRaster getRaster(){
+                throw new AssertionError("broken image");
+            }
+        };
+    }
+
+    @Test(timeout = 60000)
+    public void batchReportsErrorsThrownByTheWorkers() throws Exception{
+        File f = tylenol();
+        List<Object> inputs = Arrays.asList(failingImage(), f, failingImage());
+        try(MolvecEngine engine = MolvecEngine.builder().workers(2).innerParallelism(2).build()) {
+            for(boolean preserveOrder : new boolean[]{true, false}){
+                List<MolvecResult> results = engine.ocrBatch(inputs, null, preserveOrder).collect(Collectors.toList());
+                assertEquals(3, results.size());
+                assertEquals(2, results.stream().filter(MolvecResult::hasError).count());
+                assertTrue(results.stream()
+                                  .filter(MolvecResult::hasError)
+                                  .allMatch(r -> r.getError().get() instanceof AssertionError));
+            }
+        }
+    }
+}
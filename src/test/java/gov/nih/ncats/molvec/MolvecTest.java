@@ -5,9 +5,12 @@ import org.junit.Test;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 public class MolvecTest {
@@ -27,6 +30,14 @@ public class MolvecTest {
 
     }
 
+    @Test
+    public void warmUpLeavesMolvecReady() throws Exception{
+        Molvec.warmUp();
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        String mol = Molvec.ocr(f);
+        assertTrue(mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+    }
+
     @Test
     public void asSdNoProperties() throws Exception{
         File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
@@ -55,4 +66,111 @@ public class MolvecTest {
         assertTrue(mol, mol.contains("$$$$"));
 
     }
+
+    @Test
+    public void pipelineListenerReceivesStepsAndCounts() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        List<Integer> steps = new ArrayList<>();
+        List<PipelineListener.BinarizationPath> paths = new ArrayList<>();
+        long[] counts = new long[4];
+        PipelineListener listener = new PipelineListener() {
+            @Override
+            public void onBinarization(BinarizationPath path) {
+                paths.add(path);
+            }
+
+            @Override
+            public void onPolygons(int count) {
+                counts[0] = count;
+            }
+
+            @Override
+            public void onStep(int step, String description, long elapsedNanos, long allocatedBytes) {
+                assertTrue(elapsedNanos >= 0);
+                steps.add(step);
+            }
+
+            @Override
+            public void onOCRRepeats(int repeats, int maxRepeats) {
+                counts[1] = repeats;
+                counts[2] = maxRepeats;
+            }
+
+            @Override
+            public void onComplete(long ocrInvocations, long elapsedNanos) {
+                counts[3] = ocrInvocations;
+            }
+        };
+        MolvecResult result = Molvec.ocr(f, new MolvecOptions().pipelineListener(listener));
+        assertFalse(result.hasError());
+
+        assertEquals(PipelineListener.BinarizationPath.DEFAULT, paths.get(0));
+        assertTrue(counts[0] > 0);
+        assertTrue(steps.contains(1));
+        assertTrue(steps.contains(60));
+        assertTrue(counts[1] >= 1 && counts[1] <= counts[2]);
+        assertTrue(counts[3] > 0);
+    }
+
+    @Test
+    public void timeoutAborts() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        try{
+            Molvec.ocr(f, new MolvecOptions().timeout(1, TimeUnit.NANOSECONDS));
+            fail("should time out");
+        }catch(MolvecTimeoutException expected){
+        }
+        MolvecResult result = Molvec.ocrAsync(f, new MolvecOptions().timeout(1, TimeUnit.NANOSECONDS)).get();
+        assertTrue(result.hasError());
+        assertTrue(result.isTimedOut());
+    }
+
+    @Test
+    public void timeoutReturnsBestSoFar() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        long budgetMillis = 3000;
+        PipelineListener slowStep = new PipelineListener() {
+            @Override
+            public void onStep(int step, String description, long elapsedNanos, long allocatedBytes) {
+                if(step == 1){
+                    try {
+                        Thread.sleep(budgetMillis + 100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        MolvecResult result = Molvec.ocr(f, new MolvecOptions()
+                                                .pipelineListener(slowStep)
+                                                .timeout(budgetMillis, TimeUnit.MILLISECONDS)
+                                                .timeoutPolicy(MolvecOptions.TimeoutPolicy.BEST_SO_FAR));
+        assertFalse(result.hasError());
+        assertTrue(result.isTimedOut());
+        assertTrue(result.getMolfile().isPresent());
+    }
+
+    @Test
+    public void fastAndBalancedQualityStillRecognizeSimpleStructure() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        for(MolvecOptions.Quality quality : MolvecOptions.Quality.values()){
+            int[] repeats = new int[2];
+            MolvecResult result = Molvec.ocr(f, new MolvecOptions()
+                                                    .quality(quality)
+                                                    .pipelineListener(new PipelineListener() {
+                                                        @Override
+                                                        public void onOCRRepeats(int r, int maxRepeats) {
+                                                            repeats[0] = r;
+                                                            repeats[1] = maxRepeats;
+                                                        }
+                                                    }));
+            assertFalse(quality.name(), result.hasError());
+            String mol = result.getMolfile().get();
+            assertTrue(quality + " " + mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+            assertTrue(repeats[0] <= repeats[1]);
+            if(quality == MolvecOptions.Quality.FAST){
+                assertEquals(1, repeats[1]);
+            }
+        }
+    }
 }
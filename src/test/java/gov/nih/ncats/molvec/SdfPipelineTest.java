@@ -0,0 +1,137 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class SdfPipelineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private List<ImageInput> inputs() throws Exception{
+        File tylenol = new File(SdfPipelineTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        List<ImageInput> files = new ArrayList<>();
+        for(int i=0; i< 5; i++){
+            File copy = tmp.newFile("image" + i + ".png");
+            Files.copy(tylenol.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            files.add(ImageInput.of(copy));
+        }
+        File bad = tmp.newFile("bad.png");
+        Files.write(bad.toPath(), "not an image".getBytes(StandardCharsets.UTF_8));
+        files.add(2, ImageInput.of(bad));
+        return files;
+    }
+
+    private static List<String> fileNames(File sdf) throws Exception{
+        String text = new String(Files.readAllBytes(sdf.toPath()), StandardCharsets.UTF_8);
+        Matcher m = Pattern.compile(">\\s*<File Name>\\s*\\R(.+)\\R").matcher(text);
+        List<String> names = new ArrayList<>();
+        while(m.find()){
+            names.add(m.group(1).trim());
+        }
+        return names;
+    }
+
+    @Test
+    public void orderedWritesRecordsInInputOrder() throws Exception{
+        List<ImageInput> files = inputs();
+        File out = new File(tmp.getRoot(), "out.sdf");
+        try(MolvecEngine engine = MolvecEngine.builder().workers(3).innerParallelism(2).build()) {
+            //a tiny buffer and in flight count forces lots of flushes and waiting
+            SdfPipeline pipeline = new SdfPipeline(engine, out.toPath(), 3)
+                                        .preserveOrder(true)
+                                        .maxInFlight(2)
+                                        .bufferSize(64);
+            pipeline.run(files.iterator());
+
+            assertEquals(5, pipeline.getWritten());
+            assertEquals(1, pipeline.getErrors());
+        }
+        assertEquals(Arrays.asList("image0.png", "image1.png", "image2.png", "image3.png", "image4.png"), fileNames(out));
+    }
+
+    @Test
+    public void unorderedWritesEveryRecord() throws Exception{
+        List<ImageInput> files = inputs();
+        File out = new File(tmp.getRoot(), "out.sdf");
+        try(MolvecEngine engine = MolvecEngine.builder().workers(3).innerParallelism(2).build()) {
+            SdfPipeline pipeline = new SdfPipeline(engine, out.toPath(), 3)
+                                        .flushInterval(1, TimeUnit.MILLISECONDS);
+            pipeline.run(files.iterator());
+
+            assertEquals(5, pipeline.getWritten());
+            assertEquals(1, pipeline.getErrors());
+        }
+        List<String> names = fileNames(out);
+        names.sort(null);
+        assertEquals(Arrays.asList("image0.png", "image1.png", "image2.png", "image3.png", "image4.png"), names);
+    }
+
+    @Test(timeout = 60000)
+    public void errorInTheWriterStopsTheRun() throws Exception{
+        List<ImageInput> files = inputs();
+        File out = new File(tmp.getRoot(), "out.sdf");
+        PrintStream failing = new PrintStream(new ByteArrayOutputStream()){
+            @Override
+            public PrintStream printf(String format, Object... args){
+                throw new IllegalStateException("can't report");
+            }
+        };
+        try(MolvecEngine engine = MolvecEngine.builder().workers(2).build()) {
+            SdfPipeline pipeline = new SdfPipeline(engine, out.toPath(), 2)
+                                        .maxInFlight(1)
+                                        .progress(failing, 0, TimeUnit.MILLISECONDS);
+            pipeline.run(files.iterator());
+            fail("should have thrown");
+        }catch(IOException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void closingTheEngineStopsTheRun() throws Exception{
+        List<ImageInput> files = inputs();
+        File out = new File(tmp.getRoot(), "out.sdf");
+        MolvecEngine engine = MolvecEngine.builder().workers(2).build();
+        Iterator<ImageInput> it = files.iterator();
+        Iterator<ImageInput> closing = new Iterator<ImageInput>(){
+            int n = 0;
+            @Override
+            public boolean hasNext(){
+                return it.hasNext();
+            }
+            @Override
+            public ImageInput next(){
+                if(++n == 3){
+                    engine.close();
+                }
+                return it.next();
+            }
+        };
+        try{
+            new SdfPipeline(engine, out.toPath(), 2).run(closing);
+            fail("should have thrown");
+        }catch(IllegalStateException expected){
+        }finally {
+            engine.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BitmapConnectedComponentsTest {
+
+    private static Bitmap parse(String... rows){
+        Bitmap bm = new Bitmap(rows[0].length(), rows.length);
+        for(int y=0; y< rows.length; y++){
+            for(int x=0; x< rows[y].length(); x++){
+                bm.set(x, y, rows[y].charAt(x) == '#');
+            }
+        }
+        return bm;
+    }
+
+    @Test
+    public void eightConnectedInScanOrder(){
+        Bitmap bm = parse(
+                "..#.....#",
+                ".#..##..#",
+                "#...#...#",
+                "......#..",
+                ".......#.");
+        List<Shape> comps = bm.connectedComponents(Bitmap.Bbox.Rectangular);
+        assertEquals(Arrays.asList(
+                new Rectangle(0, 0, 3, 3),
+                new Rectangle(8, 0, 1, 3),
+                new Rectangle(4, 1, 2, 2),
+                new Rectangle(6, 3, 2, 2)), comps);
+    }
+
+    @Test
+    public void runsJoinedLaterAreMerged(){
+        //a U shape is two components until the bottom row joins them
+        Bitmap bm = parse(
+                "#...#",
+                "#...#",
+                "#####");
+        assertEquals(Arrays.asList(new Rectangle(0, 0, 5, 3)), bm.connectedComponents(Bitmap.Bbox.Rectangular));
+    }
+
+    @Test
+    public void moreComponentsThanShortMaxValue(){
+        int n = 200;
+        Bitmap bm = new Bitmap(n * 2, n * 2);
+        for(int y=0; y< n; y++){
+            for(int x=0; x< n; x++){
+                bm.set(x * 2, y * 2, true);
+            }
+        }
+        List<Shape> comps = bm.connectedComponents(Bitmap.Bbox.Rectangular);
+        assertEquals(n * n, comps.size());
+        assertEquals(new Rectangle((n - 1) * 2, (n - 1) * 2, 1, 1), comps.get(comps.size() - 1));
+    }
+}
@@ -0,0 +1,49 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.*;
+import static org.junit.Assert.*;
+
+public class BitmapThinTest {
+
+    private static void assertSameThinning(String message, Bitmap bm){
+        Bitmap expected = bm.thin(Bitmap.ThinningStrategy.PIXEL);
+        Bitmap actual = bm.thin(Bitmap.ThinningStrategy.WORD_PARALLEL);
+        //the on pixel grid should be updated the same way too
+        assertSamePixels(message, expected, actual);
+    }
+
+    @Test
+    public void randomBitmapsOfOddSizes(){
+        Random rand = new Random(1234);
+        int[] sizes = {1, 2, 7, 63, 64, 65, 130};
+        for(int w : sizes){
+            for(int h : sizes){
+                for(double fraction : new double[]{0.2, 0.5, 0.8}){
+                    assertSameThinning(w + "x" + h + " " + fraction, randomBitmap(rand, w, h, fraction));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void invertedBitmapWithPaddingBitsOn(){
+        //inverting turns on the unused bits at the end of each row
+        Bitmap bm = randomBitmap(new Random(99), 77, 41, 0.7).invert();
+        assertSameThinning("inverted", bm);
+    }
+
+    @Test
+    public void realImages() throws Exception{
+        File dir = new File(BitmapThinTest.class.getResource("/moleculeTest").getFile());
+        String[] names = {"tylenol.png", "CO2AsEster.png", "5memberRingWithNoisyDoubleBond.png", "CCl3NotCC13.png"};
+        for(String name : names){
+            Bitmap bm = Bitmap.read(new File(dir, name)).clean();
+            assertSameThinning(name, bm);
+        }
+    }
+}
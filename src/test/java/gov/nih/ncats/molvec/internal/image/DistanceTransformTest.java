@@ -0,0 +1,71 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.*;
+import static org.junit.Assert.*;
+
+public class DistanceTransformTest {
+
+    private static void assertExact(String message, Bitmap bm){
+        List<int[]> on = new ArrayList<>();
+        bm.getOnPixels().forEach((x, y) -> on.add(new int[]{x, y}));
+
+        DistanceTransform dt = bm.getDistanceTransform();
+        for(int y=0; y< bm.height(); y++){
+            for(int x=0; x< bm.width(); x++){
+                int best = Integer.MAX_VALUE;
+                for(int[] p : on){
+                    int dx = p[0] - x;
+                    int dy = p[1] - y;
+                    best = Math.min(best, dx * dx + dy * dy);
+                }
+                assertEquals(message + " at " + x + "," + y, best, dt.distanceSquared(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void matchesBruteForce(){
+        Random rand = new Random(3);
+        for(int i=0; i< 50; i++){
+            int w = 1 + rand.nextInt(150);
+            int h = 1 + rand.nextInt(150);
+            double fraction = rand.nextDouble() * 0.1;
+            Bitmap bm = randomBitmap(rand, w, h, fraction);
+            assertExact(w + "x" + h, bm);
+        }
+    }
+
+    @Test
+    public void notLimitedToAFixedRadius(){
+        Bitmap bm = new Bitmap(300, 200);
+        bm.set(0, 0, true);
+        DistanceTransform dt = bm.getDistanceTransform();
+        assertEquals(0, dt.distance(0, 0), 0);
+        assertEquals(Math.sqrt(299 * 299 + 199 * 199), dt.distance(299, 199), 1e-9);
+        assertEquals(DistanceTransform.OUTSIDE_DISTANCE, dt.sample(-1, 3), 0);
+    }
+
+    @Test
+    public void emptyBitmapIsInfinitelyFar(){
+        Bitmap bm = new Bitmap(10, 10);
+        assertEquals(Double.POSITIVE_INFINITY, bm.getDistanceTransform().distance(4, 4), 0);
+    }
+
+    @Test
+    public void lineLikeScoreOfDrawnLineIsZero(){
+        Bitmap bm = new Bitmap(40, 40);
+        for(int x=5; x< 35; x++){
+            bm.set(x, 20, true);
+        }
+        assertEquals(0, bm.getLineLikeScore(new Line2D.Double(5, 20, 34, 20)), 0);
+        //3 pixels off the whole way
+        assertEquals(3, bm.getLineLikeScore(new Line2D.Double(5, 23, 34, 23)), 1e-9);
+    }
+}
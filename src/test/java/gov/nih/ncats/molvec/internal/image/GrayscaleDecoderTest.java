@@ -0,0 +1,137 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GrayscaleDecoderTest {
+
+    private static BufferedImage random(Random rand, int type, int width, int height){
+        BufferedImage bi = new BufferedImage(width, height, type);
+        fill(rand, bi.getRaster());
+        return bi;
+    }
+
+    private static void fill(Random rand, WritableRaster raster){
+        for(int b=0; b< raster.getNumBands(); b++){
+            //keep the values in part of the range so they get stretched
+            int max = (1 << raster.getSampleModel().getSampleSize(b)) - 1;
+            int lo = rand.nextInt(max / 4 + 1);
+            int hi = max - rand.nextInt(max / 4 + 1);
+            for(int y=0; y< raster.getHeight(); y++){
+                for(int x=0; x< raster.getWidth(); x++){
+                    raster.setSample(x, y, b, lo + rand.nextInt(hi - lo + 1));
+                }
+            }
+        }
+    }
+
+    private static BufferedImage grayWithAlpha(Random rand, int width, int height){
+        ComponentColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        WritableRaster raster = cm.createCompatibleWritableRaster(width, height);
+        fill(rand, raster);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private static void assertSameGray(String message, BufferedImage expected, BufferedImage actual){
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        Raster e = expected.getRaster();
+        Raster a = actual.getRaster();
+        assertArrayEquals(message, e.getPixels(0, 0, e.getWidth(), e.getHeight(), (int[]) null),
+                                   a.getPixels(0, 0, a.getWidth(), a.getHeight(), (int[]) null));
+    }
+
+    private static BufferedImage rescaled(BufferedImage bi){
+        return ImageUtil.decodeWithRescaleOps(bi.getData());
+    }
+
+    @Test
+    public void sameAsRescalingForEachImageType(){
+        Random rand = new Random(7);
+        int[] types = {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY,
+                       BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                       BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+                       BufferedImage.TYPE_USHORT_565_RGB};
+        for(int type : types){
+            BufferedImage bi = random(rand, type, 37, 23);
+            assertTrue("type " + type, GrayscaleDecoder.canDecode(bi.getSampleModel()));
+            assertSameGray("type " + type, rescaled(bi), ImageUtil.decode(bi));
+        }
+        BufferedImage alpha = grayWithAlpha(rand, 41, 17);
+        assertSameGray("gray and alpha", rescaled(alpha), ImageUtil.decode(alpha));
+    }
+
+    @Test
+    public void indexedImagesStillGoThroughRgb(){
+        BufferedImage bi = random(new Random(3), BufferedImage.TYPE_BYTE_BINARY, 50, 20);
+        BufferedImage rgb = new BufferedImage(50, 20, BufferedImage.TYPE_INT_ARGB);
+        rgb.getGraphics().drawImage(bi, 0, 0, null);
+        //toRGBColorModel inverts the colors
+        WritableRaster raster = rgb.getRaster();
+        for(int y=0; y< 20; y++){
+            for(int x=0; x< 50; x++){
+                for(int b=0; b< 3; b++){
+                    raster.setSample(x, y, b, 255 - raster.getSample(x, y, b));
+                }
+            }
+        }
+        assertSameGray("indexed", rescaled(rgb), ImageUtil.decode(bi));
+    }
+
+    private static GrayImage readInStrips(File f, int stripPixels) throws IOException{
+        try(ImageInputStream in = ImageIO.createImageInputStream(f)){
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            try{
+                reader.setInput(in, true, true);
+                return ImageUtil.readGrayscale(reader, stripPixels);
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void tiffReadInStripsSameAsWhole() throws IOException{
+        BufferedImage bi = random(new Random(5), BufferedImage.TYPE_3BYTE_BGR, 300, 211);
+        File f = File.createTempFile("strips", ".tif");
+        try{
+            assertTrue(ImageIO.write(bi, "tiff", f));
+            GrayImage whole = ImageUtil.decodeGray(ImageIO.read(f));
+            //strips of 1 row, 3 rows, and a last strip that isn't full
+            for(int stripPixels : new int[]{300, 900, 300 * 50}){
+                GrayImage strips = readInStrips(f, stripPixels);
+                assertSameGray("strip " + stripPixels, whole.getImage(), strips.getImage());
+                assertEquals(whole.getStats().mean, strips.getStats().mean, 0);
+                assertEquals(whole.getStats().stdev, strips.getStats().stdev, 0);
+                assertArrayEquals(whole.getStats().histogramRaw, strips.getStats().histogramRaw);
+            }
+        }finally{
+            f.delete();
+        }
+    }
+
+    @Test
+    public void patentTiff() throws IOException{
+        File f = new File(GrayscaleDecoderTest.class.getResource("/regressionTest/uspto/US07314511-20080101-C00002.TIF").getFile());
+        BufferedImage whole = ImageUtil.decode(ImageIO.read(f));
+        assertSameGray("strips", whole, readInStrips(f, whole.getWidth() * 7).getImage());
+        assertSameGray("grayscale", whole, ImageUtil.grayscale(f));
+    }
+}
@@ -0,0 +1,67 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random bitmaps and images for the tests which compare the fast
+ * implementations with straightforward ones, and the checks they share.
+ */
+public final class ImageFixtures {
+
+    private ImageFixtures(){}
+
+    /**
+     * A bitmap of the default storage for its size, with each pixel on with the given probability.
+     */
+    public static Bitmap randomBitmap(Random rand, int width, int height, double fractionOn){
+        return fill(rand, new Bitmap(width, height), fractionOn);
+    }
+
+    public static Bitmap randomBitmap(Random rand, int width, int height, double fractionOn, Bitmap.Storage storage){
+        return fill(rand, new Bitmap(width, height, storage), fractionOn);
+    }
+
+    private static Bitmap fill(Random rand, Bitmap bm, double fractionOn){
+        for(int y=0; y< bm.height(); y++){
+            for(int x=0; x< bm.width(); x++){
+                bm.set(x, y, rand.nextDouble() < fractionOn);
+            }
+        }
+        return bm;
+    }
+
+    /**
+     * A gray image with every sample drawn uniformly from {@code lo} to {@code hi}, inclusive.
+     */
+    public static BufferedImage randomGray(Random rand, int width, int height, int lo, int hi){
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = bi.getRaster();
+        for(int y=0; y< height; y++){
+            for(int x=0; x< width; x++){
+                raster.setSample(x, y, 0, lo + rand.nextInt(hi - lo + 1));
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * Fail unless the two bitmaps have the same size and pixels, and the same
+     * count of on pixels.
+     */
+    public static void assertSamePixels(String message, Bitmap expected, Bitmap actual){
+        assertEquals(message, expected.width(), actual.width());
+        assertEquals(message, expected.height(), actual.height());
+        for(int y=0; y< expected.height(); y++){
+            for(int x=0; x< expected.width(); x++){
+                if(expected.get(x, y) != actual.get(x, y)){
+                    fail(message + " differs at " + x + "," + y);
+                }
+            }
+        }
+        assertEquals(message, expected.fractionPixelsOn(), actual.fractionPixelsOn(), 0);
+    }
+}
@@ -0,0 +1,74 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.*;
+import static org.junit.Assert.*;
+
+public class OnPixelsTest {
+
+    private static List<String> visit(OnPixels on){
+        List<String> list = new ArrayList<>();
+        on.forEach((x, y) -> list.add(x + "," + y));
+        return list;
+    }
+
+    @Test
+    public void pixelsAreInRasterOrder(){
+        Bitmap bm = new Bitmap(20, 4);
+        bm.set(17, 0, true);
+        bm.set(3, 0, true);
+        bm.set(0, 3, true);
+        bm.set(9, 3, true);
+
+        OnPixels on = bm.getOnPixels();
+        assertEquals(4, on.size());
+        assertEquals(4, on.height());
+        List<String> expected = new ArrayList<>();
+        expected.add("3,0");
+        expected.add("17,0");
+        expected.add("0,3");
+        expected.add("9,3");
+        assertEquals(expected, visit(on));
+        assertEquals(expected, bm.getXYOnPoints().map(xy -> xy[0] + "," + xy[1]).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void paddingBitsOfInvertedBitmapAreIgnored(){
+        Bitmap bm = new Bitmap(13, 3);
+        bm.set(5, 1, true);
+        assertEquals(13 * 3 - 1, bm.invert().getOnPixels().size());
+    }
+
+    @Test
+    public void forEachInOnlyVisitsTheRectangle(){
+        Random rand = new Random(42);
+        Bitmap bm = randomBitmap(rand, 70, 50, 0.3);
+        int x0 = 11, y0 = 7, x1 = 40, y1 = 49;
+        List<String> expected = new ArrayList<>();
+        for(int y=y0; y<= y1; y++){
+            for(int x=x0; x<= x1; x++){
+                if(bm.get(x, y)){
+                    expected.add(x + "," + y);
+                }
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        bm.getOnPixels().forEachIn(x0, y0, x1, y1, (x, y) -> actual.add(x + "," + y));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void lazyCropMatchesCrop(){
+        Random rand = new Random(7);
+        Bitmap bm = randomBitmap(rand, 60, 60, 0.4);
+        Rectangle r = new Rectangle(5, 9, 40, 30);
+        assertEquals(visit(bm.crop(r).getOnPixels()), visit(bm.getLazyCrop(r).getOnPixels()));
+    }
+}
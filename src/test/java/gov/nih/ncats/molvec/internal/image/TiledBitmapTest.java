@@ -0,0 +1,126 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.*;
+import static org.junit.Assert.*;
+
+public class TiledBitmapTest {
+
+    private static Bitmap tiledCopy(Bitmap dense){
+        Bitmap tiled = new Bitmap(dense.width(), dense.height(), Bitmap.Storage.TILED);
+        dense.getOnPixels().forEach((x, y) -> tiled.set(x, y, true));
+        return tiled;
+    }
+
+    private static Bitmap random(Random rand, int width, int height, double fractionOn){
+        Bitmap bm = randomBitmap(rand, width, height, fractionOn, Bitmap.Storage.DENSE);
+        //so that there's always a grid to invert
+        bm.set(0, 0, true);
+        return bm;
+    }
+
+    private static String describe(List<Shape> shapes){
+        StringBuilder sb = new StringBuilder();
+        double[] coords = new double[6];
+        for(Shape s : shapes){
+            for(PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()){
+                sb.append(it.currentSegment(coords)).append(' ').append(coords[0]).append(',').append(coords[1]).append(' ');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameResults(String message, Bitmap dense){
+        Bitmap tiled = tiledCopy(dense);
+        assertEquals(Bitmap.Storage.TILED, tiled.getStorage());
+        assertSamePixels(message, dense, tiled);
+
+        for(Bitmap.ThinningStrategy strategy : Bitmap.ThinningStrategy.values()){
+            assertSamePixels(message + " thin " + strategy, dense.thin(strategy), tiled.thin(strategy));
+        }
+        Bitmap denseInverted = dense.invert();
+        Bitmap tiledInverted = tiled.invert();
+        assertSamePixels(message + " invert", denseInverted, tiledInverted);
+        assertEquals(message, denseInverted.getOnPixels().size(), tiledInverted.getOnPixels().size());
+        assertSamePixels(message + " invert twice", dense, tiledInverted.invert());
+
+        for(Bitmap.Bbox bbox : Bitmap.Bbox.values()){
+            assertEquals(message + " " + bbox, describe(dense.connectedComponents(bbox)), describe(tiled.connectedComponents(bbox)));
+        }
+
+        DistanceTransform dd = dense.getDistanceTransform();
+        DistanceTransform td = tiled.getDistanceTransform();
+        for(int y=0; y< dense.height(); y++){
+            for(int x=0; x< dense.width(); x++){
+                assertEquals(message, dd.distanceSquared(x, y), td.distanceSquared(x, y));
+            }
+        }
+
+        Rectangle r = new Rectangle(dense.width() / 4, dense.height() / 3, dense.width() / 2, dense.height() / 2);
+        if(r.width > 0 && r.height > 0){
+            assertSamePixels(message + " crop", dense.crop(r), tiled.crop(r));
+        }
+
+        Raster dr = dense.createRaster();
+        Raster tr = tiled.createRaster();
+        assertArrayEquals(message, dr.getPixels(0, 0, dense.width(), dense.height(), (int[]) null),
+                                   tr.getPixels(0, 0, dense.width(), dense.height(), (int[]) null));
+    }
+
+    @Test
+    public void randomBitmapsOfOddSizes(){
+        Random rand = new Random(11);
+        int[] sizes = {1, 9, 63, 64, 65, 150};
+        for(int w : sizes){
+            for(int h : sizes){
+                assertSameResults(w + "x" + h, random(rand, w, h, 0.3));
+            }
+        }
+    }
+
+    @Test
+    public void onlyTilesWithPixelsOnAreAllocated(){
+        Bitmap bm = new Bitmap(6400, 6400, Bitmap.Storage.TILED);
+        bm.set(10, 10, true);
+        bm.set(5000, 3000, true);
+        bm.set(5001, 3001, true);
+        TiledBitStorage bits = (TiledBitStorage) bm.getBits();
+        assertEquals(2, bits.allocatedTiles());
+
+        //inverting shares one full tile instead of allocating the empty ones
+        Bitmap inverted = bm.invert();
+        assertEquals(2, ((TiledBitStorage) inverted.getBits()).allocatedTiles());
+        assertEquals(6400L * 6400 - 3, inverted.getOnPixels().size());
+    }
+
+    @Test
+    public void largeImagesAreTiledByDefault(){
+        long old = Bitmap.Storage.getTiledMinPixels();
+        try{
+            Bitmap.Storage.setTiledMinPixels(100 * 100);
+            assertEquals(Bitmap.Storage.DENSE, new Bitmap(99, 100).getStorage());
+            assertEquals(Bitmap.Storage.TILED, new Bitmap(100, 100).getStorage());
+        }finally{
+            Bitmap.Storage.setTiledMinPixels(old);
+        }
+    }
+
+    @Test
+    public void realImages() throws Exception{
+        File dir = new File(TiledBitmapTest.class.getResource("/moleculeTest").getFile());
+        for(String name : Arrays.asList("tylenol.png", "CCl3NotCC13.png")){
+            assertSameResults(name, Bitmap.read(new File(dir, name)).clean());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveThresholdTest {
+
+    private static Raster random(Random rand, int width, int height){
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = bi.getRaster();
+        for(int y=0; y< height; y++){
+            for(int x=0; x< width; x++){
+                //mostly dark with some bright blobs, so the local stats vary
+                int v = ((x / 7 + y / 5) % 4 == 0) ? 150 + rand.nextInt(100) : rand.nextInt(90);
+                raster.setSample(x, y, 0, v);
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * The threshold computed directly from every pixel of each window.
+     */
+    private static boolean[] reference(Raster raster, ImageStats stats, int wsize, double sigma, double absMin, double absMax){
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        wsize = (Math.min(wsize * 2 + 2, height) - 2) / 2;
+        wsize = (Math.min(wsize * 2 + 2, width) - 2) / 2;
+        double range = stats.max - stats.min;
+        boolean[] on = new boolean[width * height];
+        for(int y=0; y< height; y++){
+            for(int x=0; x< width; x++){
+                double sum = 0, sumSquare = 0;
+                int count = 0;
+                for(int wy= Math.max(y - wsize, 0); wy<= Math.min(y + wsize, height - 1); wy++){
+                    for(int wx= Math.max(x - wsize, 0); wx<= Math.min(x + wsize, width - 1); wx++){
+                        double v = raster.getSampleDouble(wx, wy, 0);
+                        sum += v;
+                        sumSquare += v * v;
+                        count++;
+                    }
+                }
+                double mean = sum / count;
+                double stdDEV = Math.sqrt(Math.abs(sumSquare / count - mean * mean));
+                double threshold = Math.min(mean + stdDEV * sigma, stats.min + range * absMax);
+                threshold = Math.max(threshold, stats.min + range * absMin);
+                on[y * width + x] = raster.getSampleDouble(x, y, 0) > threshold;
+            }
+        }
+        return on;
+    }
+
+    @Test
+    public void sameAsComputingEachWindow(){
+        Random rand = new Random(31);
+        int[][] sizes = {{40, 150}, {150, 40}, {9, 9}, {70, 130}};
+        for(int[] size : sizes){
+            Raster raster = random(rand, size[0], size[1]);
+            ImageStats stats = Binarization.computeImageStats(raster);
+            for(int wsize : new int[]{1, 6, 30, AdaptiveThreshold.DEFAULT_ADAPTIVE_BOX_RADIUS}){
+                AdaptiveThreshold threshold = new AdaptiveThreshold(wsize, 0.5, 0.2, 0);
+                Bitmap bm = threshold.binarize(raster, stats, s -> {});
+                boolean[] expected = reference(raster, stats, wsize, 0.5, 0.2, AdaptiveThreshold.DEFAULT_ADAPTIVE_MAX_THRESHOLD_RATIO);
+                for(int y=0; y< size[1]; y++){
+                    for(int x=0; x< size[0]; x++){
+                        assertEquals(size[0] + "x" + size[1] + " window " + wsize + " at " + x + "," + y,
+                                expected[y * size[0] + x], bm.get(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusingTheThresholdKeepsItsWindow(){
+        AdaptiveThreshold threshold = new AdaptiveThreshold(30, 0.5, 0.2, 0);
+        Random rand = new Random(2);
+        //a small image used to shrink the window for every later image too
+        threshold.binarize(random(rand, 10, 10), null, s -> {});
+        Raster raster = random(rand, 100, 100);
+        ImageStats stats = Binarization.computeImageStats(raster);
+        Bitmap bm = threshold.binarize(raster, stats, s -> {});
+        boolean[] expected = reference(raster, stats, 30, 0.5, 0.2, AdaptiveThreshold.DEFAULT_ADAPTIVE_MAX_THRESHOLD_RATIO);
+        for(int y=0; y< 100; y++){
+            for(int x=0; x< 100; x++){
+                assertEquals(expected[y * 100 + x], bm.get(x, y));
+            }
+        }
+    }
+}
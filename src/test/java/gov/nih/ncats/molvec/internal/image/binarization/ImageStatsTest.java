@@ -0,0 +1,100 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.GrayImage;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.Random;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.randomGray;
+import static org.junit.Assert.*;
+
+public class ImageStatsTest {
+
+    /**
+     * The stats computed the straightforward way, with doubles, one sample at a time.
+     */
+    private static ImageStats reference(Raster raster){
+        int[] counts = new int[256];
+        double min = Double.MAX_VALUE, max = -1, sum = 0, sumSquare = 0;
+        for(int y=0; y< raster.getHeight(); y++){
+            for(int x=0; x< raster.getWidth(); x++){
+                double pel = raster.getSampleDouble(raster.getMinX() + x, raster.getMinY() + y, 0);
+                sum += pel;
+                sumSquare += pel * pel;
+                min = Math.min(min, pel);
+                max = Math.max(max, pel);
+                counts[(int) pel]++;
+            }
+        }
+        long tot = raster.getWidth() * raster.getHeight();
+        ImageStats stats = new ImageStats();
+        stats.mean = sum / tot;
+        stats.stdev = Math.sqrt(sumSquare / tot - stats.mean * stats.mean);
+        stats.histogram = new int[101];
+        stats.histogramRaw = new int[(int) max + 1];
+        for(int i=(int) min; i<= (int) max; i++){
+            stats.histogram[(int) ((100 * (i - min)) / (max - min))] += counts[i];
+            stats.histogramRaw[i] = counts[i];
+        }
+        stats.min = min;
+        stats.max = max;
+        stats.count = tot;
+        stats.threshold = stats.mean;
+        return stats;
+    }
+
+    private static void assertSameStats(String message, ImageStats expected, ImageStats actual){
+        assertEquals(message, expected.min, actual.min, 0);
+        assertEquals(message, expected.max, actual.max, 0);
+        assertEquals(message, expected.mean, actual.mean, 0);
+        assertEquals(message, expected.stdev, actual.stdev, 0);
+        assertEquals(message, expected.threshold, actual.threshold, 0);
+        assertEquals(message, expected.count, actual.count, 0);
+        assertArrayEquals(message, expected.histogram, actual.histogram);
+        assertArrayEquals(message, expected.histogramRaw, actual.histogramRaw);
+    }
+
+    @Test
+    public void sameAsComputingSampleBySample(){
+        Random rand = new Random(17);
+        int[][] ranges = {{0, 255}, {30, 200}, {100, 100}, {250, 255}};
+        for(int[] range : ranges){
+            Raster raster = randomGray(rand, 53, 31, range[0], range[1]).getRaster();
+            assertSameStats(range[0] + "-" + range[1], reference(raster), Binarization.computeImageStats(raster));
+        }
+    }
+
+    @Test
+    public void childRasterReadsOnlyItsPixels(){
+        BufferedImage bi = randomGray(new Random(4), 80, 60, 0, 255);
+        Raster child = bi.getRaster().createChild(13, 7, 40, 30, 0, 0, null);
+        assertSameStats("child", reference(child), Binarization.computeImageStats(child));
+
+        GrayBuffer gray = GrayBuffer.of(child);
+        for(int y=0; y< 30; y++){
+            for(int x=0; x< 40; x++){
+                assertEquals(bi.getRaster().getSample(13 + x, 7 + y, 0), gray.get(x, y));
+            }
+        }
+
+        Bitmap bm = new Bitmap(40, 30);
+        Binarization.globalThreshold(child, bm, 127.5);
+        for(int y=0; y< 30; y++){
+            for(int x=0; x< 40; x++){
+                assertEquals(gray.get(x, y) >= 127.5, bm.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void decodedImageComesWithItsStats() throws Exception{
+        File f = new File(ImageStatsTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        GrayImage gray = ImageUtil.grayImage(f);
+        assertSameStats("tylenol", reference(gray.getRaster()), gray.getStats());
+    }
+}
@@ -0,0 +1,97 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gov.nih.ncats.molvec.internal.image.ImageFixtures.randomGray;
+import static org.junit.Assert.*;
+
+public class LocalThresholdTest {
+
+    private static GrayBuffer random(Random rand, int width, int height){
+        return GrayBuffer.of(randomGray(rand, width, height, 0, 255).getRaster());
+    }
+
+    private static void assertSameAsBruteForce(GrayBuffer gray, int radius){
+        int[] rowsSeen = new int[gray.height];
+        WindowSums.forEachRow(gray, radius, (y, sum, sumSquare, count) -> {
+            rowsSeen[y]++;
+            for(int x=0; x< gray.width; x++){
+                long s = 0, sq = 0;
+                int n = 0;
+                for(int wy= Math.max(0, y - radius); wy<= Math.min(gray.height - 1, y + radius); wy++){
+                    for(int wx= Math.max(0, x - radius); wx<= Math.min(gray.width - 1, x + radius); wx++){
+                        int v = gray.get(wx, wy);
+                        s += v;
+                        sq += v * v;
+                        n++;
+                    }
+                }
+                String at = radius + " at " + x + "," + y;
+                assertEquals(at, n, count[x]);
+                assertEquals(at, s, sum[x]);
+                assertEquals(at, sq, sumSquare[x]);
+            }
+        });
+        for(int y=0; y< gray.height; y++){
+            assertEquals("row " + y, 1, rowsSeen[y]);
+        }
+    }
+
+    @Test
+    public void windowSumsAreExact(){
+        Random rand = new Random(23);
+        //taller than a band, so bands have to start from the rows above them
+        GrayBuffer gray = random(rand, 37, 150);
+        for(int radius : new int[]{0, 1, 5, 40, 200}){
+            assertSameAsBruteForce(gray, radius);
+        }
+        assertSameAsBruteForce(random(rand, 1, 1), 3);
+    }
+
+    /**
+     * Light strokes on a background getting brighter from left to right,
+     * like an unevenly lit scan after the gray conversion.
+     */
+    private static BufferedImage unevenlyLit(){
+        int width = 200, height = 100;
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = bi.getRaster();
+        for(int y=0; y< height; y++){
+            for(int x=0; x< width; x++){
+                int background = 20 + x * 100 / width;
+                boolean stroke = (x % 25) < 3 || (y % 30) < 3;
+                raster.setSample(x, y, 0, stroke ? background + 120 : background);
+            }
+        }
+        return bi;
+    }
+
+    @Test
+    public void strokesOnUnevenBackground(){
+        BufferedImage bi = unevenlyLit();
+        List<LocalThreshold> thresholds = Arrays.asList(new SauvolaThreshold(), new NiblackThreshold(), new WolfThreshold());
+        for(LocalThreshold t : thresholds){
+            ImageStats[] is = new ImageStats[1];
+            Bitmap bm = t.binarize(bi.getRaster(), null, s -> is[0] = s);
+            assertNotNull(is[0]);
+            String name = t.getClass().getSimpleName();
+            int wrong = 0;
+            for(int y=0; y< bm.height(); y++){
+                for(int x=0; x< bm.width(); x++){
+                    boolean stroke = (x % 25) < 3 || (y % 30) < 3;
+                    if(bm.get(x, y) != stroke){
+                        wrong++;
+                    }
+                }
+            }
+            assertTrue(name + " got " + wrong + " pixels wrong", wrong < bm.width() * bm.height() / 100);
+        }
+    }
+}
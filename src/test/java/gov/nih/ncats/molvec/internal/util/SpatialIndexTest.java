@@ -0,0 +1,110 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest {
+
+    private static List<Rectangle2D> randomRectangles(Random rand, int n){
+        List<Rectangle2D> rects = new ArrayList<>();
+        for(int i=0; i< n; i++){
+            double x = rand.nextInt(500), y = rand.nextInt(300);
+            //mostly small, a few spanning much of the area, some empty
+            double size = rand.nextInt(10) == 0 ? 200 : 15;
+            rects.add(new Rectangle2D.Double(x, y, rand.nextInt(3) == 0 ? 0 : rand.nextDouble() * size, rand.nextDouble() * size));
+        }
+        return rects;
+    }
+
+    private static boolean overlaps(Rectangle2D a, Rectangle2D b){
+        return a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX()
+            && a.getMinY() <= b.getMaxY() && b.getMinY() <= a.getMaxY();
+    }
+
+    private static boolean within(Rectangle2D inner, Rectangle2D outer){
+        return inner.getMinX() >= outer.getMinX() && inner.getMaxX() <= outer.getMaxX()
+            && inner.getMinY() >= outer.getMinY() && inner.getMaxY() <= outer.getMaxY();
+    }
+
+    @Test
+    public void sameAsCheckingEveryItem(){
+        Random rand = new Random(13);
+        List<Rectangle2D> rects = randomRectangles(rand, 700);
+        SpatialIndex<Rectangle2D> index = SpatialIndex.of(rects, r -> r);
+        assertEquals(700, index.size());
+
+        List<Rectangle2D> queries = randomRectangles(rand, 200);
+        //queries partly or entirely outside of everything indexed
+        queries.add(new Rectangle2D.Double(-100, -100, 50, 50));
+        queries.add(new Rectangle2D.Double(-100, -100, 1000, 1000));
+        queries.addAll(rects.subList(0, 50));
+        for(Rectangle2D q : queries){
+            List<Rectangle2D> intersecting = new ArrayList<>();
+            List<Rectangle2D> inside = new ArrayList<>();
+            index.forEachIntersecting(q, intersecting::add);
+            index.forEachWithin(q, inside::add);
+
+            List<Rectangle2D> expectedIntersecting = new ArrayList<>();
+            List<Rectangle2D> expectedInside = new ArrayList<>();
+            for(Rectangle2D r : rects){
+                if(overlaps(r, q)) expectedIntersecting.add(r);
+                if(within(r, q)) expectedInside.add(r);
+            }
+            assertSameItems(q.toString(), expectedIntersecting, intersecting);
+            assertSameItems(q.toString(), expectedInside, inside);
+        }
+    }
+
+    private static void assertSameItems(String message, List<Rectangle2D> expected, List<Rectangle2D> actual){
+        //every item reported exactly once, compared by identity
+        assertEquals(message, expected.size(), actual.size());
+        for(Rectangle2D e : expected){
+            assertEquals(message, 1, actual.stream().filter(a -> a == e).count());
+        }
+    }
+
+    @Test
+    public void emptyIndex(){
+        SpatialIndex<Rectangle2D> index = SpatialIndex.of(Collections.<Rectangle2D>emptyList(), r -> r);
+        assertTrue(index.intersecting(new Rectangle2D.Double(0, 0, 10, 10)).isEmpty());
+    }
+
+    private static long countContainedPairsOfEveryPair(List<Shape> shapes){
+        return shapes.stream()
+                     .mapToLong(s -> shapes.stream().filter(s2 -> GeomUtil.contains(s, s2)).count())
+                     .sum();
+    }
+
+    @Test
+    public void containedPairsOfRealComponents() throws Exception{
+        File dir = new File(SpatialIndexTest.class.getResource("/moleculeTest").getFile());
+        for(String name : Arrays.asList("tylenol.png", "CCl3NotCC13.png", "5memberRingWithNoisyDoubleBond.png")){
+            Bitmap bm = Bitmap.read(new File(dir, name)).clean();
+            for(Bitmap b : Arrays.asList(bm, bm.invert())){
+                List<Shape> shapes = b.connectedComponents(Bitmap.Bbox.DoublePolygon);
+                assertEquals(name, countContainedPairsOfEveryPair(shapes), GeomUtil.countContainedPairs(shapes));
+            }
+        }
+    }
+
+    @Test
+    public void containedPairsOfNestedRectangles(){
+        List<Shape> shapes = new ArrayList<>();
+        for(int i=0; i< 5; i++){
+            shapes.add(new Rectangle2D.Double(i * 10, i * 10, 100 - i * 20, 100 - i * 20));
+        }
+        shapes.add(new Rectangle2D.Double(200, 200, 5, 5));
+        assertEquals(countContainedPairsOfEveryPair(shapes), GeomUtil.countContainedPairs(shapes));
+    }
+}
@@ -0,0 +1,120 @@
+package gov.nih.ncats.molvec.ui;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GlyphScoreCacheTest {
+
+    private static RasterBasedCosineSCOCR sansSerif(){
+        RasterBasedCosineSCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+        ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+        return ocr;
+    }
+
+    @Test
+    public void sameScoresAsWithoutTheCache() throws Exception{
+        RasterBasedCosineSCOCR plain = sansSerif();
+        RasterBasedCosineSCOCR cached = sansSerif();
+        GlyphScoreCache cache = new GlyphScoreCache(1000);
+        cached.setCache(cache);
+
+        List<Bitmap> glyphs = TemplateMatrixTest.glyphs();
+        for(int round=0; round< 2; round++){
+            for(int g=0; g< glyphs.size(); g++){
+                Bitmap glyph = glyphs.get(g);
+                Bitmap other = glyphs.get((g + 1) % glyphs.size());
+                assertEquals(plain.getRanking(glyph), cached.getRanking(glyph));
+                assertEquals(plain.getTopK(glyph, 3, 0.3), cached.getTopK(glyph, 3, 0.3));
+                assertEquals(plain.getNBestMatches(4, glyph, other), cached.getNBestMatches(4, glyph, other));
+            }
+        }
+        assertTrue(cache.size() <= glyphs.size());
+        //each glyph is only scored the first time it's seen
+        assertEquals(cache.size(), cache.getMisses());
+        assertTrue(cache.getHits() > cache.getMisses());
+    }
+
+    @Test
+    public void sharedBetweenDifferentTemplates() throws Exception{
+        RasterBasedCosineSCOCR sansSerif = sansSerif();
+        RasterBasedCosineSCOCR serif = new StupidestPossibleSCOCRSerif();
+        serif.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+        Bitmap glyph = TemplateMatrixTest.glyphs().get(0);
+        Map<Character, Number> expected = serif.getRanking(glyph);
+
+        GlyphScoreCache cache = new GlyphScoreCache(10);
+        sansSerif.setCache(cache);
+        serif.setCache(cache);
+        sansSerif.getRanking(glyph);
+        assertEquals(expected, serif.getRanking(glyph));
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void sharedBetweenCopiesOfTheSameTemplates() throws Exception{
+        RasterBasedCosineSCOCR first = sansSerif();
+        RasterBasedCosineSCOCR second = sansSerif();
+        GlyphScoreCache cache = new GlyphScoreCache(10);
+        first.setCache(cache);
+        second.setCache(cache);
+        Bitmap glyph = TemplateMatrixTest.glyphs().get(0);
+        Map<Character, Number> expected = first.getRanking(glyph);
+        assertEquals(expected, second.getRanking(glyph));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        //also when the templates are loaded after the cache is set
+        RasterBasedCosineSCOCR third = new StupidestPossibleSCOCRSansSerif();
+        third.setCache(cache);
+        third.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+        assertEquals(expected, third.getRanking(glyph));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void neverHoldsMoreThanTheMaxSize() throws Exception{
+        RasterBasedCosineSCOCR ocr = sansSerif();
+        GlyphScoreCache cache = new GlyphScoreCache(4);
+        ocr.setCache(cache);
+        List<Bitmap> glyphs = TemplateMatrixTest.glyphs();
+        assertTrue(glyphs.size() > 8);
+        for(Bitmap glyph : glyphs){
+            ocr.getRanking(glyph);
+            assertTrue(cache.size() <= 4);
+        }
+        //the last glyph added is kept
+        long misses = cache.getMisses();
+        ocr.getRanking(glyphs.get(glyphs.size() - 1));
+        assertEquals(misses, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staysBoundedWhenGlyphsAreUsedAgain() throws Exception{
+        RasterBasedCosineSCOCR ocr = sansSerif();
+        GlyphScoreCache cache = new GlyphScoreCache(4);
+        ocr.setCache(cache);
+        List<Bitmap> glyphs = TemplateMatrixTest.glyphs();
+        for(int i=0; i< glyphs.size(); i++){
+            //the hits on the glyphs still cached all get the same stamp
+            for(int j=0; j<= i; j++){
+                ocr.getRanking(glyphs.get(j));
+                assertTrue(cache.size() <= 4);
+            }
+        }
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxSizeMustBePositive(){
+        new GlyphScoreCache(0);
+    }
+}
@@ -0,0 +1,106 @@
+package gov.nih.ncats.molvec.ui;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+import org.junit.Test;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.junit.Assert.*;
+
+public class OCRModelFileTest {
+
+    private static RasterChar template(int seed, double width, double height){
+        int[][] data = new int[RasterBasedCosineSCOCR.DEF_WIDTH][RasterBasedCosineSCOCR.DEF_HEIGHT];
+        for(int x=0; x< data.length; x++){
+            for(int y=0; y< data[x].length; y++){
+                data[x][y] = (seed * 31 + x * 7 + y * 13) % 10;
+            }
+        }
+        return new RasterChar(data, new Rectangle2D.Double(0, 0, width, height));
+    }
+
+    private static byte[] write(List<Entry<String, RasterChar>> templates) throws IOException{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OCRModelFile.write(templates, out);
+        return out.toByteArray();
+    }
+
+    private static List<Entry<String, RasterChar>> read(byte[] bytes) throws IOException{
+        List<Entry<String, RasterChar>> read = new ArrayList<>();
+        OCRModelFile.read(ByteBuffer.wrap(bytes), (c, rc) -> read.add(new AbstractMap.SimpleImmutableEntry<>(c, rc)));
+        return read;
+    }
+
+    private static void assertSameTemplates(List<Entry<String, RasterChar>> expected, List<Entry<String, RasterChar>> actual){
+        assertEquals(expected.size(), actual.size());
+        for(int i=0; i< expected.size(); i++){
+            assertEquals(expected.get(i).getKey(), actual.get(i).getKey());
+            RasterChar e = expected.get(i).getValue();
+            RasterChar a = actual.get(i).getValue();
+            assertTrue(Arrays.deepEquals(e.data, a.data));
+            assertEquals(e.rect, a.rect);
+        }
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException{
+        List<Entry<String, RasterChar>> templates = Arrays.asList(
+                new AbstractMap.SimpleImmutableEntry<>("C", template(1, 5.015625, 5.828125)),
+                new AbstractMap.SimpleImmutableEntry<>("C", template(2, 4.953125, 5.9375)),
+                new AbstractMap.SimpleImmutableEntry<>("(", template(3, 10.0, 36.0)));
+        assertSameTemplates(templates, read(write(templates)));
+    }
+
+    @Test
+    public void sameAsTheTextTemplates() throws IOException{
+        RasterChar rc = template(4, 2.078125, 5.890625);
+        String line = "N\t" + Base64.getEncoder().encodeToString(rc.rawDataAsString().getBytes(StandardCharsets.UTF_8));
+        List<Entry<String, RasterChar>> parsed = OCRModelFile.parseText(Arrays.asList(line, ""));
+        assertSameTemplates(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>("N", rc)), parsed);
+        assertSameTemplates(parsed, read(write(parsed)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException{
+        byte[] bytes = write(Collections.emptyList());
+        ByteBuffer.wrap(bytes).putShort(4, (short) (OCRModelFile.VERSION + 1));
+        read(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException{
+        byte[] bytes = write(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>("O", template(5, 5, 6))));
+        read(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valuesMustFitInAByte() throws IOException{
+        RasterChar rc = template(6, 5, 6);
+        rc.data[3][4] = 256;
+        write(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>("O", rc)));
+    }
+
+    @Test
+    public void bundledModelsLoad(){
+        for(AbstractStupidestPossibleSCOCR ocr : Arrays.asList(new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif())){
+            List<RasterChar> templates = new ArrayList<>();
+            ocr.getBitmapsForChar('C', templates::add);
+            assertFalse(templates.isEmpty());
+            for(RasterChar rc : templates){
+                assertEquals(RasterBasedCosineSCOCR.DEF_WIDTH, rc.data.length);
+                assertEquals(RasterBasedCosineSCOCR.DEF_HEIGHT, rc.data[0].length);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package gov.nih.ncats.molvec.ui;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OrElseSCOCRTest {
+
+    /**
+     * Gives the same scores for every bitmap, and counts how often it's asked for all of them.
+     */
+    private static class FixedSCOCR implements SCOCR {
+        private final Map<Character, Number> scores = new HashMap<>();
+        private final AtomicInteger rankings = new AtomicInteger();
+
+        FixedSCOCR(double a, double b){
+            scores.put('a', a);
+            scores.put('b', b);
+        }
+
+        @Override
+        public void setAlphabet(Set<Character> charSet){
+        }
+
+        @Override
+        public Set<Character> getAlphabet(){
+            return new LinkedHashSet<>(scores.keySet());
+        }
+
+        @Override
+        public Map<Character, Number> getRanking(Bitmap r){
+            rankings.incrementAndGet();
+            return new HashMap<>(scores);
+        }
+    }
+
+    private static final Bitmap GLYPH = new Bitmap(5, 5);
+
+    @Test
+    public void backupNotAskedWhenPrimaryClearsTheCutoff(){
+        FixedSCOCR primary = new FixedSCOCR(0.7, 0.2);
+        FixedSCOCR backup = new FixedSCOCR(0.9, 0.1);
+        SCOCR ocr = primary.orElse(backup, 0.6);
+
+        List<Map.Entry<Character, Number>> best = ocr.getNBestMatches(2, GLYPH, GLYPH);
+        assertEquals('a', (char) best.get(0).getKey());
+        assertEquals(0.7, best.get(0).getValue().doubleValue(), 0);
+        assertEquals(0.7, ocr.getTopK(GLYPH, 1, 0).get(0).getValue().doubleValue(), 0);
+        assertEquals(0, backup.rankings.get());
+    }
+
+    @Test
+    public void backupUsedWhenPrimaryDoesNotClearTheCutoff(){
+        FixedSCOCR primary = new FixedSCOCR(0.5, 0.2);
+        FixedSCOCR backup = new FixedSCOCR(0.9, 0.1);
+        SCOCR ocr = primary.orElse(backup, 0.6);
+
+        assertEquals(0.9, ocr.getNBestMatches(1, GLYPH, GLYPH).get(0).getValue().doubleValue(), 0);
+        assertEquals(Collections.singletonList('a'), Collections.singletonList(ocr.getTopK(GLYPH, 2, 0.5).get(0).getKey()));
+        assertEquals(1, ocr.getTopK(GLYPH, 2, 0.5).size());
+        //same as picking from the whole ranking
+        assertEquals(SCOCR.sortMap(ocr.getRanking(GLYPH)), ocr.getNBestMatches(2, GLYPH));
+    }
+}
@@ -0,0 +1,141 @@
+package gov.nih.ncats.molvec.ui;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TemplateMatrixTest {
+
+    /**
+     * The score of one character, computed template by template.
+     */
+    @SuppressWarnings("deprecation")
+    private static double correlation(RasterBasedCosineSCOCR ocr, BitmapScaled bms, Character c){
+        List<RasterChar> rcl = ocr.charVal.get(c);
+        if(rcl == null){
+            return 0;
+        }
+        double maxCor = Double.MIN_VALUE;
+        for(RasterChar rc : rcl){
+            double cor = 0;
+            int totalC = 0;
+            for(int[] xy : bms.xys()){
+                cor += rc.data[xy[0]][xy[1]] * xy[2];
+            }
+            for(int i=0; i< RasterBasedCosineSCOCR.DEF_WIDTH; i++){
+                for(int j=0; j< RasterBasedCosineSCOCR.DEF_HEIGHT; j++){
+                    totalC += rc.data[i][j] * rc.data[i][j] * bms.ccount[i][j];
+                }
+            }
+            double whrat = (rc.rect.getWidth() / rc.rect.getHeight()) / ((double) bms.twidth / (double) bms.theight);
+            if(whrat > 1){
+                whrat = 1 / whrat;
+            }
+            whrat = 1 - Math.pow(1 - whrat, 2);
+            maxCor = Math.max(maxCor, whrat * cor / (Math.sqrt(bms.tcount) * Math.sqrt(totalC)));
+        }
+        return maxCor;
+    }
+
+    static List<Bitmap> glyphs() throws Exception{
+        File dir = new File(TemplateMatrixTest.class.getResource("/moleculeTest").getFile());
+        List<Bitmap> glyphs = new ArrayList<>();
+        for(String name : Arrays.asList("tylenol.png", "CCl3NotCC13.png")){
+            Bitmap bm = Bitmap.read(new File(dir, name)).clean();
+            for(Shape s : bm.connectedComponents(Bitmap.Bbox.DoublePolygon)){
+                Bitmap glyph = bm.crop(s);
+                if(glyph != null && glyph.getOnPixels().size() > 0){
+                    glyphs.add(glyph);
+                }
+            }
+        }
+        return glyphs;
+    }
+
+    @Test
+    public void sameScoresAsEachTemplateInTurn() throws Exception{
+        RasterBasedCosineSCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+        ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+
+        List<Bitmap> glyphs = glyphs();
+        assertFalse(glyphs.isEmpty());
+        for(Bitmap glyph : glyphs){
+            BitmapScaled bms = glyph.getScaled(RasterBasedCosineSCOCR.DEF_WIDTH, RasterBasedCosineSCOCR.DEF_HEIGHT);
+            Map<Character, Number> ranking = ocr.getRanking(glyph);
+            assertEquals(ocr.getAlphabet().size(), ranking.size());
+            for(Character c : ocr.getAlphabet()){
+                assertEquals(c.toString(), correlation(ocr, bms, c), ranking.get(c).doubleValue(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void charactersWithoutTemplatesScoreZero() throws Exception{
+        RasterBasedCosineSCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+        ocr.setAlphabet(SCOCR.SET_ALPHANUMERIC());
+        //as if there were no templates for it
+        ocr.charVal.remove('C');
+        TemplateMatrix m = TemplateMatrix.of(ocr.getAlphabet(), ocr.charVal);
+
+        Bitmap glyph = glyphs().get(0);
+        double[] best = new double[m.size()];
+        m.score(glyph.getScaled(RasterBasedCosineSCOCR.DEF_WIDTH, RasterBasedCosineSCOCR.DEF_HEIGHT), best);
+        for(int i=0; i< m.size(); i++){
+            if(m.charAt(i) == 'C'){
+                assertEquals(0, best[i], 0);
+            }else if(ocr.charVal.containsKey(m.charAt(i))){
+                assertTrue(best[i] > 0);
+            }
+        }
+    }
+
+    private static void assertSameTop(String message, List<Map.Entry<Character, Number>> expected, List<Map.Entry<Character, Number>> actual){
+        assertEquals(message, expected.size(), actual.size());
+        for(int i=0; i< expected.size(); i++){
+            double score = expected.get(i).getValue().doubleValue();
+            assertEquals(message, score, actual.get(i).getValue().doubleValue(), 0);
+            //which of the characters with the same score comes first isn't defined
+            if(expected.stream().filter(e -> e.getValue().doubleValue() == score).count() == 1){
+                assertEquals(message, expected.get(i).getKey(), actual.get(i).getKey());
+            }
+        }
+    }
+
+    @Test
+    public void topKSameAsSortingTheRanking() throws Exception{
+        RasterBasedCosineSCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+        ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+
+        List<Bitmap> glyphs = glyphs();
+        for(int g=0; g< glyphs.size(); g++){
+            Bitmap glyph = glyphs.get(g);
+            List<Map.Entry<Character, Number>> sorted = SCOCR.sortMap(ocr.getRanking(glyph));
+            for(int k : new int[]{0, 1, 4, sorted.size() + 1}){
+                for(double minScore : new double[]{Double.NEGATIVE_INFINITY, 0.3, 0.6}){
+                    List<Map.Entry<Character, Number>> expected = sorted.stream()
+                            .filter(e -> !(e.getValue().doubleValue() < minScore))
+                            .limit(k)
+                            .collect(Collectors.toList());
+                    assertSameTop(g + " " + k + " " + minScore, expected, ocr.getTopK(glyph, k, minScore));
+                }
+            }
+
+            //the best over a glyph and another one
+            Bitmap other = glyphs.get((g + 1) % glyphs.size());
+            List<Map.Entry<Character, Number>> expected = SCOCR.sortMap(SCOCR.bestOf(ocr.getRanking(glyph), ocr.getRanking(other)))
+                    .subList(0, 4);
+            assertSameTop(g + " pair", expected, ocr.getNBestMatches(4, glyph, other));
+        }
+    }
+}